@@ -1,7 +1,17 @@
+import java.util.Properties
+import org.gradle.process.CommandLineArgumentProvider
+
 plugins {
     alias(libs.plugins.android.application)
 }
 
+// API key de Maps: propiedad de Gradle o, si no está, local.properties
+val localProperties = Properties().apply {
+    val file = rootProject.file("local.properties")
+    if (file.exists()) file.inputStream().use { load(it) }
+}
+val mapsApiKey = (project.findProperty("MAPS_API_KEY") ?: localProperties.getProperty("MAPS_API_KEY", "")).toString()
+
 android {
     namespace = "com.example.ourenbus2"
     compileSdk = 34
@@ -14,8 +24,8 @@ android {
         versionName = "1.0"
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
-        manifestPlaceholders["mapsApiKey"] = project.findProperty("MAPS_API_KEY") ?: ""
-        buildConfigField("String", "MAPS_API_KEY", "\"${project.findProperty("MAPS_API_KEY") ?: ""}\"")
+        manifestPlaceholders["mapsApiKey"] = mapsApiKey
+        buildConfigField("String", "MAPS_API_KEY", "\"$mapsApiKey\"")
     }
 
     buildTypes {
@@ -34,6 +44,7 @@ android {
     
     buildFeatures {
         viewBinding = true
+        buildConfig = true
     }
 }
 
@@ -43,6 +54,8 @@ dependencies {
     implementation(libs.material)
     implementation(libs.activity)
     implementation(libs.constraintlayout)
+    implementation("androidx.recyclerview:recyclerview:1.3.2")
+    implementation("androidx.cardview:cardview:1.0.0")
     
     // Google Maps, Places & Location
     implementation("com.google.android.gms:play-services-maps:18.2.0")
@@ -60,6 +73,10 @@ dependencies {
     // Room Database
     implementation("androidx.room:room-runtime:2.6.1")
     annotationProcessor("androidx.room:room-compiler:2.6.1")
+    implementation("androidx.room:room-paging:2.6.1")
+
+    // Paging
+    implementation("androidx.paging:paging-runtime:3.2.1")
     
     // Navigation Component
     implementation("androidx.navigation:navigation-fragment:2.7.7")
@@ -69,9 +86,143 @@ dependencies {
     implementation("com.squareup.retrofit2:retrofit:2.11.0")
     implementation("com.squareup.retrofit2:converter-gson:2.11.0")
     implementation("com.squareup.okhttp3:okhttp:4.12.0")
+    implementation("com.google.code.gson:gson:2.10.1")
     
     // Testing
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
-}
\ No newline at end of file
+}
+
+// Feed GTFS compilado al construir la app con las herramientas del módulo gtfs-compiler: el horario
+// listo para enrutar (ourense.timetable) y la BD precargada (databases/ourenbus_db.sqlite)
+val gtfsCompiler: Configuration by configurations.creating {
+    isCanBeConsumed = false
+    attributes {
+        attribute(Usage.USAGE_ATTRIBUTE, objects.named(Usage::class.java, Usage.JAVA_RUNTIME))
+    }
+}
+
+dependencies {
+    gtfsCompiler(project(":gtfs-compiler"))
+}
+
+abstract class GtfsCompilerTask : JavaExec() {
+    @get:InputFile
+    abstract val feed: RegularFileProperty
+
+    @get:Optional
+    @get:InputFile
+    abstract val schema: RegularFileProperty
+
+    @get:Input
+    abstract val outputName: Property<String>
+
+    @get:OutputDirectory
+    abstract val outputDir: DirectoryProperty
+
+    override fun exec() {
+        args(feed.get().asFile)
+        if (schema.isPresent) args(schema.get().asFile)
+        args(outputDir.file(outputName).get().asFile)
+        super.exec()
+    }
+}
+
+val gtfsFeed = layout.projectDirectory.file("src/main/gtfs/Ourense_gtfs.zip")
+
+val compileGtfsTimetable by tasks.registering(GtfsCompilerTask::class) {
+    description = "Valida el feed GTFS y lo compila en el horario binario que carga la app"
+    classpath = gtfsCompiler
+    mainClass.set("com.example.ourenbus2.tools.GtfsCompiler")
+    feed.set(gtfsFeed)
+    outputName.set("ourense.timetable")
+    outputDir.set(layout.buildDirectory.dir("generated/gtfsTimetable"))
+}
+
+// Red peatonal (ourense_walk.graph) generada con la misma herramienta a partir de un extracto de OSM en
+// XML y, si está, del MDT en ESRI ASCII grid (sin él la red se trata como llana). El extracto es
+// obligatorio: sin él la compilación falla en vez de generar una app que camina en línea recta
+abstract class PedestrianGraphTask : JavaExec() {
+    @get:Optional
+    @get:InputFile
+    abstract val osm: RegularFileProperty
+
+    @get:Optional
+    @get:InputFile
+    abstract val elevation: RegularFileProperty
+
+    @get:Input
+    abstract val outputName: Property<String>
+
+    @get:OutputDirectory
+    abstract val outputDir: DirectoryProperty
+
+    override fun exec() {
+        args(osm.get().asFile)
+        if (elevation.isPresent) args(elevation.get().asFile)
+        args(outputDir.file(outputName).get().asFile)
+        super.exec()
+    }
+}
+
+val walkExtract = layout.projectDirectory.file("src/main/pedestrian/ourense.osm")
+val walkElevation = layout.projectDirectory.file("src/main/pedestrian/ourense_dem.asc")
+
+val compilePedestrianGraph by tasks.registering(PedestrianGraphTask::class) {
+    description = "Genera la red peatonal de la app a partir del extracto de OSM y del MDT"
+    val extractPath = walkExtract.asFile.path
+    classpath = gtfsCompiler
+    mainClass.set("com.example.ourenbus2.tools.PedestrianGraphCompiler")
+    if (walkExtract.asFile.exists()) osm.set(walkExtract)
+    if (walkElevation.asFile.exists()) elevation.set(walkElevation)
+    // Nombre que abre PedestrianGraphProvider
+    outputName.set("ourense_walk.graph")
+    outputDir.set(layout.buildDirectory.dir("generated/pedestrianGraph"))
+    doFirst {
+        if (!osm.isPresent) {
+            throw GradleException("Falta el extracto de OSM de la red peatonal: $extractPath (ver README, Red peatonal)")
+        }
+    }
+}
+
+// Carpeta en la que el procesador de anotaciones de Room exporta el esquema al compilar; se declara como
+// salida de la compilación para que no quede un esquema de otra compilación
+class RoomSchemaArgumentProvider(
+    @get:OutputDirectory val schemaDir: Provider<Directory>
+) : CommandLineArgumentProvider {
+    override fun asArguments() = listOf("-Aroom.schemaLocation=${schemaDir.get().asFile.path}")
+}
+
+androidComponents {
+    onVariants { variant ->
+        val variantName = variant.name.replaceFirstChar { it.uppercase() }
+        val roomSchemas = layout.buildDirectory.dir("generated/roomSchemas/${variant.name}")
+        variant.javaCompilation.annotationProcessor.argumentProviders.add(RoomSchemaArgumentProvider(roomSchemas))
+
+        // Copia del esquema en app/schemas para versionarlo (historial de migraciones)
+        val exportRoomSchema = tasks.register<Copy>("export${variantName}RoomSchema") {
+            description = "Copia en app/schemas el esquema de Room generado al compilar ${variant.name}"
+            dependsOn("compile${variantName}JavaWithJavac")
+            from(roomSchemas)
+            into(layout.projectDirectory.dir("schemas"))
+        }
+
+        val buildGtfsDatabase = tasks.register<GtfsCompilerTask>("build${variantName}GtfsDatabase") {
+            description = "Genera la BD GTFS precargada de ${variant.name} a partir del feed y del esquema de Room"
+            // El esquema (y con él el identityHash que Room comprueba al abrir la BD) sale de la compilación
+            // de la variante, nunca de un fichero versionado
+            dependsOn("compile${variantName}JavaWithJavac", exportRoomSchema)
+            classpath = gtfsCompiler
+            mainClass.set("com.example.ourenbus2.tools.GtfsDatabaseBuilder")
+            feed.set(gtfsFeed)
+            // Versión actual de AppDatabase
+            schema.set(roomSchemas.map { it.file("com.example.ourenbus2.database.AppDatabase/11.json") })
+            outputName.set("databases/ourenbus_db.sqlite")
+            outputDir.set(layout.buildDirectory.dir("generated/gtfsDatabase/${variant.name}"))
+        }
+        variant.sources.assets?.addGeneratedSourceDirectory(compileGtfsTimetable, GtfsCompilerTask::outputDir)
+        variant.sources.assets?.addGeneratedSourceDirectory(buildGtfsDatabase, GtfsCompilerTask::outputDir)
+        variant.sources.assets?.addGeneratedSourceDirectory(compilePedestrianGraph, PedestrianGraphTask::outputDir)
+    }
+}
@@ -18,6 +18,8 @@ import androidx.fragment.app.FragmentTransaction;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.service.FavoriteTripsRefresher;
+import com.example.ourenbus2.service.GtfsRealtimeService;
 import com.example.ourenbus2.service.LocationService;
 import com.example.ourenbus2.ui.fragments.FavoritesFragment;
 import com.example.ourenbus2.ui.fragments.MapFragment;
@@ -104,6 +106,7 @@ public class MainActivity extends AppCompatActivity {
         com.example.ourenbus2.ui.viewmodel.UserViewModel userVM = new ViewModelProvider(this).get(com.example.ourenbus2.ui.viewmodel.UserViewModel.class);
         userVM.getCurrentUser().observe(this, user -> {
             favoritesViewModel.onUserChanged(user);
+            FavoriteTripsRefresher.getInstance(this).setUser(user != null ? user.getEmail() : null);
         });
     }
 
@@ -112,10 +115,15 @@ public class MainActivity extends AppCompatActivity {
             if (route != null) {
                 // Restaurar vista principal si venimos de favoritos
                 returnToMainView();
-                // Establecer origen/destino y buscar ruta automáticamente
+                // Establecer origen/destino; si hay salidas precalculadas se muestran sin buscar
                 viewModel.setOrigin(route.getOrigin());
                 viewModel.setDestination(route.getDestination());
-                viewModel.searchRoute(route.getOrigin(), route.getDestination());
+                Route warm = FavoriteTripsRefresher.getInstance(this).getWarmRoute(route.getId());
+                if (warm != null && viewModel.getArriveBy().getValue() == null) {
+                    viewModel.showRoute(warm);
+                } else {
+                    viewModel.searchRoute(route.getOrigin(), route.getDestination());
+                }
             }
         });
     }
@@ -154,11 +162,6 @@ public class MainActivity extends AppCompatActivity {
             btnStartNavigation.setEnabled(validRoute);
             fabSaveFavorite.setEnabled(validRoute);
         });
-
-        // Refrescar lista de favoritos al añadir/borrar sin relanzar
-        favoritesViewModel.getFavoriteRoutes().observe(this, routes -> {
-            // no-op: los fragmentos observan esta LiveData; esta suscripción asegura que se mantenga activa
-        });
     }
     
     private void showSaveFavoriteDialog() {
@@ -339,6 +342,22 @@ public class MainActivity extends AppCompatActivity {
         return super.onPrepareOptionsMenu(menu);
     }
     
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Mantener calientes las próximas salidas de las favoritas mientras la app está visible
+        FavoriteTripsRefresher.getInstance(this).start();
+        // Retrasos y cancelaciones en tiempo real, si hay un feed configurado
+        GtfsRealtimeService.getInstance(this).start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        FavoriteTripsRefresher.getInstance(this).stop();
+        GtfsRealtimeService.getInstance(this).stop();
+    }
+    
     @Override
     protected void onDestroy() {
         super.onDestroy();
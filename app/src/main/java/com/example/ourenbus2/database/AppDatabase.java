@@ -2,33 +2,51 @@ package com.example.ourenbus2.database;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.TypeConverters;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.example.ourenbus2.database.dao.FavoriteRouteDao;
 import com.example.ourenbus2.database.dao.GtfsDao;
 import com.example.ourenbus2.database.dao.UserDao;
 import com.example.ourenbus2.database.entity.FavoriteRouteEntity;
+import com.example.ourenbus2.database.entity.FavoriteRouteFtsEntity;
 import com.example.ourenbus2.database.entity.UserEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsRouteEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsStopTimeEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsFrequencyEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsShapeEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTimeProfileEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTransferPatternEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsTripEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarDateEntity;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Clase principal de la base de datos de la aplicación.
+ * <p>
+ * Las instalaciones nuevas parten de la BD precargada con el feed GTFS que genera la tarea de Gradle
+ * {@code build<Variante>GtfsDatabase} a partir del esquema que exporta Room al compilar la variante.
  */
-@Database(entities = {UserEntity.class, FavoriteRouteEntity.class,
-        GtfsStopEntity.class, GtfsRouteEntity.class, GtfsTripEntity.class, GtfsStopTimeEntity.class,
-        GtfsCalendarEntity.class, GtfsCalendarDateEntity.class}, version = 4, exportSchema = false)
+@Database(entities = {UserEntity.class, FavoriteRouteEntity.class, FavoriteRouteFtsEntity.class,
+        GtfsStopEntity.class, GtfsRouteEntity.class, GtfsTripEntity.class, GtfsPatternEntity.class,
+        GtfsPatternStopEntity.class, GtfsTimeProfileEntity.class, GtfsFrequencyEntity.class,
+        GtfsShapeEntity.class, GtfsCalendarEntity.class, GtfsCalendarDateEntity.class,
+        GtfsTransferPatternEntity.class}, version = 11, exportSchema = true)
 @TypeConverters({Converters.class})
 public abstract class AppDatabase extends RoomDatabase {
 
     private static final String DATABASE_NAME = "ourenbus_db";
+    /** BD con el feed ya importado e indexado, generada al compilar */
+    public static final String PREPACKAGED_DATABASE = "databases/ourenbus_db.sqlite";
     private static volatile AppDatabase instance;
 
     /**
@@ -55,13 +73,40 @@ public abstract class AppDatabase extends RoomDatabase {
      */
     public static synchronized AppDatabase getInstance(Context context) {
         if (instance == null) {
-            instance = Room.databaseBuilder(
+            RoomDatabase.Builder<AppDatabase> builder = Room.databaseBuilder(
                     context.getApplicationContext(),
                     AppDatabase.class,
-                    DATABASE_NAME)
-                    .fallbackToDestructiveMigration()
+                    DATABASE_NAME);
+            // Sin la BD precargada (p. ej. compilada sin la tarea) se importa el feed en el primer arranque
+            if (hasAsset(context, PREPACKAGED_DATABASE)) builder.createFromAsset(PREPACKAGED_DATABASE);
+            instance = builder
+                    .addMigrations(Migrations.MIGRATION_4_5, Migrations.MIGRATION_5_6, Migrations.MIGRATION_6_7,
+                            Migrations.MIGRATION_7_8, Migrations.MIGRATION_8_9, Migrations.MIGRATION_9_10,
+                            Migrations.MIGRATION_10_11)
+                    // Las instalaciones publicadas parten de la versión 4 y conservan usuarios y favoritas.
+                    // Solo las versiones de desarrollo anteriores se recrean
+                    .fallbackToDestructiveMigrationFrom(1, 2, 3)
+                    .addCallback(new Callback() {
+                        @Override
+                        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+                            Migrations.recreateWithoutRowidTables(db);
+                        }
+
+                        @Override
+                        public void onDestructiveMigration(@NonNull SupportSQLiteDatabase db) {
+                            Migrations.recreateWithoutRowidTables(db);
+                        }
+                    })
                     .build();
         }
         return instance;
     }
+
+    private static boolean hasAsset(Context context, String path) {
+        try (InputStream in = context.getAssets().open(path)) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 } 
\ No newline at end of file
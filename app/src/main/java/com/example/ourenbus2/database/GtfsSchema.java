@@ -0,0 +1,32 @@
+package com.example.ourenbus2.database;
+
+/**
+ * SQL de las tablas GTFS sin rowid, que Room no sabe crear. No depende de Android: lo usan tanto
+ * {@link Migrations} como la tarea de Gradle que genera la base de datos precargada.
+ */
+public final class GtfsSchema {
+
+    private GtfsSchema() { }
+
+    // Tablas sin rowid: la clave primaria compuesta es el árbol de la tabla
+    public static final String CREATE_CALENDAR_DATES =
+            "CREATE TABLE IF NOT EXISTS `gtfs_calendar_dates` (`serviceKey` INTEGER NOT NULL, `date` INTEGER NOT NULL, "
+            + "`exceptionType` INTEGER NOT NULL, PRIMARY KEY(`serviceKey`, `date`)) WITHOUT ROWID";
+    public static final String CREATE_PATTERN_STOPS =
+            "CREATE TABLE IF NOT EXISTS `gtfs_pattern_stops` (`patternKey` INTEGER NOT NULL, `stopIndex` INTEGER NOT NULL, "
+            + "`stopKey` INTEGER NOT NULL, PRIMARY KEY(`patternKey`, `stopIndex`)) WITHOUT ROWID";
+    public static final String INDEX_PATTERN_STOPS =
+            "CREATE INDEX IF NOT EXISTS `index_gtfs_pattern_stops_stopKey` ON `gtfs_pattern_stops` (`stopKey`)";
+
+    /**
+     * Sustituye las tablas de calendar_dates y pattern_stops que crea Room (con rowid, vacías) por su
+     * versión WITHOUT ROWID, con las mismas columnas e índices
+     */
+    public static final String[] RECREATE_WITHOUT_ROWID_TABLES = {
+            "DROP TABLE IF EXISTS `gtfs_calendar_dates`",
+            "DROP TABLE IF EXISTS `gtfs_pattern_stops`",
+            CREATE_CALENDAR_DATES,
+            CREATE_PATTERN_STOPS,
+            INDEX_PATTERN_STOPS
+    };
+}
@@ -0,0 +1,377 @@
+package com.example.ourenbus2.database;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.example.ourenbus2.database.entity.FavoriteRouteEntity;
+import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.util.RouteHashUtil;
+import com.example.ourenbus2.util.gtfs.TripPatterns;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Migraciones de la base de datos y SQL de las tablas GTFS que Room no sabe crear
+ * (tablas WITHOUT ROWID).
+ */
+public final class Migrations {
+
+    private Migrations() { }
+
+    // Tablas GTFS de la versión 4, con el feed importado en el dispositivo
+    private static final String[] FEED_TABLES_V4 = {"gtfs_stop_times", "gtfs_trips", "gtfs_calendar_dates",
+            "gtfs_calendar", "gtfs_routes", "gtfs_stops"};
+
+    // Tablas GTFS con claves enteras. Deben coincidir con lo que genera Room para las entidades.
+    private static final String CREATE_STOPS =
+            "CREATE TABLE IF NOT EXISTS `gtfs_stops` (`stopKey` INTEGER NOT NULL, `stopId` TEXT NOT NULL, "
+            + "`name` TEXT, `lat` REAL NOT NULL, `lon` REAL NOT NULL, PRIMARY KEY(`stopKey`))";
+    private static final String INDEX_STOPS =
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_gtfs_stops_stopId` ON `gtfs_stops` (`stopId`)";
+    private static final String CREATE_ROUTES =
+            "CREATE TABLE IF NOT EXISTS `gtfs_routes` (`routeKey` INTEGER NOT NULL, `routeId` TEXT NOT NULL, "
+            + "`shortName` TEXT, `longName` TEXT, `color` TEXT, PRIMARY KEY(`routeKey`))";
+    private static final String INDEX_ROUTES =
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_gtfs_routes_routeId` ON `gtfs_routes` (`routeId`)";
+    private static final String CREATE_TRIPS_V7 =
+            "CREATE TABLE IF NOT EXISTS `gtfs_trips` (`tripKey` INTEGER NOT NULL, `tripId` TEXT NOT NULL, "
+            + "`routeKey` INTEGER NOT NULL, `serviceKey` INTEGER NOT NULL, `tripHeadsign` TEXT, PRIMARY KEY(`tripKey`))";
+    private static final String CREATE_TRIPS =
+            "CREATE TABLE IF NOT EXISTS `gtfs_trips` (`tripKey` INTEGER NOT NULL, `tripId` TEXT NOT NULL, "
+            + "`routeKey` INTEGER NOT NULL, `serviceKey` INTEGER NOT NULL, `tripHeadsign` TEXT, "
+            + "`patternKey` INTEGER NOT NULL, `profileKey` INTEGER NOT NULL, `startSeconds` INTEGER NOT NULL, "
+            + "PRIMARY KEY(`tripKey`))";
+    private static final String INDEX_TRIPS =
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_gtfs_trips_tripId` ON `gtfs_trips` (`tripId`)";
+    private static final String INDEX_TRIPS_PATTERN =
+            "CREATE INDEX IF NOT EXISTS `index_gtfs_trips_patternKey_startSeconds` ON `gtfs_trips` (`patternKey`, `startSeconds`)";
+    private static final String CREATE_PATTERNS =
+            "CREATE TABLE IF NOT EXISTS `gtfs_patterns` (`patternKey` INTEGER NOT NULL, `routeKey` INTEGER NOT NULL, "
+            + "`stopCount` INTEGER NOT NULL, PRIMARY KEY(`patternKey`))";
+    private static final String CREATE_TIME_PROFILES =
+            "CREATE TABLE IF NOT EXISTS `gtfs_time_profiles` (`profileKey` INTEGER NOT NULL, `patternKey` INTEGER NOT NULL, "
+            + "`deltas` BLOB NOT NULL, PRIMARY KEY(`profileKey`))";
+    private static final String CREATE_FREQUENCIES =
+            "CREATE TABLE IF NOT EXISTS `gtfs_frequencies` (`tripKey` INTEGER NOT NULL, `startSeconds` INTEGER NOT NULL, "
+            + "`endSeconds` INTEGER NOT NULL, `headwaySeconds` INTEGER NOT NULL, `exactTimes` INTEGER NOT NULL, "
+            + "PRIMARY KEY(`tripKey`, `startSeconds`))";
+    private static final String CREATE_SHAPES =
+            "CREATE TABLE IF NOT EXISTS `gtfs_shapes` (`shapeKey` INTEGER NOT NULL, `shapeId` TEXT NOT NULL, "
+            + "`points` BLOB NOT NULL, PRIMARY KEY(`shapeKey`))";
+    private static final String INDEX_SHAPES =
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_gtfs_shapes_shapeId` ON `gtfs_shapes` (`shapeId`)";
+    private static final String CREATE_TRANSFER_PATTERNS =
+            "CREATE TABLE IF NOT EXISTS `gtfs_transfer_patterns` (`stopKey` INTEGER NOT NULL, `dag` BLOB NOT NULL, "
+            + "PRIMARY KEY(`stopKey`))";
+    private static final String CREATE_CALENDAR =
+            "CREATE TABLE IF NOT EXISTS `gtfs_calendar` (`serviceKey` INTEGER NOT NULL, `serviceId` TEXT NOT NULL, "
+            + "`monday` INTEGER NOT NULL, `tuesday` INTEGER NOT NULL, `wednesday` INTEGER NOT NULL, "
+            + "`thursday` INTEGER NOT NULL, `friday` INTEGER NOT NULL, `saturday` INTEGER NOT NULL, "
+            + "`sunday` INTEGER NOT NULL, `startDate` INTEGER NOT NULL, `endDate` INTEGER NOT NULL, PRIMARY KEY(`serviceKey`))";
+    private static final String INDEX_CALENDAR =
+            "CREATE UNIQUE INDEX IF NOT EXISTS `index_gtfs_calendar_serviceId` ON `gtfs_calendar` (`serviceId`)";
+    // Versión 7: una fila por viaje y parada (sustituida por los patrones en la versión 8)
+    private static final String CREATE_STOP_TIMES_V7 =
+            "CREATE TABLE IF NOT EXISTS `gtfs_stop_times` (`tripKey` INTEGER NOT NULL, `stopSequence` INTEGER NOT NULL, "
+            + "`stopKey` INTEGER NOT NULL, `arrivalSeconds` INTEGER NOT NULL, `departureSeconds` INTEGER NOT NULL, "
+            + "PRIMARY KEY(`tripKey`, `stopSequence`)) WITHOUT ROWID";
+    private static final String INDEX_STOP_TIMES_V7 =
+            "CREATE INDEX IF NOT EXISTS `index_gtfs_stop_times_stopKey_departureSeconds` "
+            + "ON `gtfs_stop_times` (`stopKey`, `departureSeconds`)";
+
+    // Índice de texto completo de las favoritas y sus disparadores de sincronización, tal como los genera Room
+    private static final String CREATE_FAVORITES_FTS =
+            "CREATE VIRTUAL TABLE IF NOT EXISTS `favorite_routes_fts` USING FTS4(`name` TEXT, `originName` TEXT, "
+            + "`destinationName` TEXT, `busLines` TEXT, tokenize=unicode61, content=`favorite_routes`)";
+    private static final String[] FAVORITES_FTS_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_favorite_routes_fts_BEFORE_UPDATE BEFORE UPDATE "
+                    + "ON `favorite_routes` BEGIN DELETE FROM `favorite_routes_fts` WHERE `docid`=OLD.`rowid`; END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_favorite_routes_fts_BEFORE_DELETE BEFORE DELETE "
+                    + "ON `favorite_routes` BEGIN DELETE FROM `favorite_routes_fts` WHERE `docid`=OLD.`rowid`; END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_favorite_routes_fts_AFTER_UPDATE AFTER UPDATE "
+                    + "ON `favorite_routes` BEGIN INSERT INTO `favorite_routes_fts`(`docid`, `name`, `originName`, "
+                    + "`destinationName`, `busLines`) VALUES (NEW.`rowid`, NEW.`name`, NEW.`originName`, "
+                    + "NEW.`destinationName`, NEW.`busLines`); END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_favorite_routes_fts_AFTER_INSERT AFTER INSERT "
+                    + "ON `favorite_routes` BEGIN INSERT INTO `favorite_routes_fts`(`docid`, `name`, `originName`, "
+                    + "`destinationName`, `busLines`) VALUES (NEW.`rowid`, NEW.`name`, NEW.`originName`, "
+                    + "NEW.`destinationName`, NEW.`busLines`); END"
+    };
+
+    /**
+     * Versión 4 -> 5: búsqueda de texto completo en las favoritas. Se añaden las columnas de texto que indexa
+     * favorite_routes_fts, se rellenan para las favoritas ya guardadas y se reconstruye el índice.
+     * <p>
+     * El feed importado en el dispositivo por la versión 4 tiene mal los días de servicio de calendar.txt:
+     * se vacían las tablas GTFS y GtfsImporter las vuelve a copiar enteras de la BD precargada.
+     */
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `favorite_routes` ADD COLUMN `originName` TEXT");
+            db.execSQL("ALTER TABLE `favorite_routes` ADD COLUMN `destinationName` TEXT");
+            db.execSQL("ALTER TABLE `favorite_routes` ADD COLUMN `busLines` TEXT");
+
+            Gson gson = new Gson();
+            List<FavoriteRouteEntity> favorites = new ArrayList<>();
+            try (Cursor c = db.query("SELECT id, origin, destination, routeData FROM favorite_routes")) {
+                while (c.moveToNext()) {
+                    FavoriteRouteEntity favorite = new FavoriteRouteEntity();
+                    favorite.setId(c.getLong(0));
+                    favorite.setOrigin(Converters.toLocation(c.getString(1)));
+                    favorite.setDestination(Converters.toLocation(c.getString(2)));
+                    favorite.refreshSearchColumns(parseRoute(gson, c.getString(3)));
+                    favorites.add(favorite);
+                }
+            }
+            for (FavoriteRouteEntity favorite : favorites) {
+                db.execSQL("UPDATE favorite_routes SET originName = ?, destinationName = ?, busLines = ? WHERE id = ?",
+                        new Object[]{favorite.getOriginName(), favorite.getDestinationName(), favorite.getBusLines(),
+                                favorite.getId()});
+            }
+
+            db.execSQL(CREATE_FAVORITES_FTS);
+            for (String sql : FAVORITES_FTS_TRIGGERS) db.execSQL(sql);
+            // Contenido externo: el índice se llena a partir de favorite_routes
+            db.execSQL("INSERT INTO favorite_routes_fts(favorite_routes_fts) VALUES('rebuild')");
+
+            for (String table : FEED_TABLES_V4) db.execSQL("DELETE FROM `" + table + "`");
+        }
+    };
+
+    /**
+     * Versión 5 -> 6: huella de contenido de cada favorita, única por usuario. Se calcula para las favoritas
+     * ya guardadas y, si un usuario tenía la misma ruta repetida, se conserva la guardada más recientemente.
+     */
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `favorite_routes` ADD COLUMN `contentHash` TEXT");
+
+            Gson gson = new Gson();
+            List<Object[]> hashes = new ArrayList<>();
+            try (Cursor c = db.query("SELECT id, routeData FROM favorite_routes")) {
+                while (c.moveToNext()) {
+                    String hash = RouteHashUtil.computeContentHash(parseRoute(gson, c.getString(1)));
+                    if (hash != null) hashes.add(new Object[]{hash, c.getLong(0)});
+                }
+            }
+            for (Object[] row : hashes) {
+                db.execSQL("UPDATE favorite_routes SET contentHash = ? WHERE id = ?", row);
+            }
+            // Duplicados previos al índice único (el borrado pasa por los disparadores del índice FTS)
+            db.execSQL("DELETE FROM favorite_routes WHERE contentHash IS NOT NULL AND EXISTS ("
+                    + "SELECT 1 FROM favorite_routes newer WHERE newer.userEmail = favorite_routes.userEmail "
+                    + "AND newer.contentHash = favorite_routes.contentHash "
+                    + "AND (newer.timestamp > favorite_routes.timestamp "
+                    + "OR (newer.timestamp = favorite_routes.timestamp AND newer.id > favorite_routes.id)))");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_favorite_routes_userEmail_contentHash` "
+                    + "ON `favorite_routes` (`userEmail`, `contentHash`)");
+        }
+    };
+
+    /**
+     * Versión 6 -> 7: las tablas GTFS pasan a claves enteras (diccionario de identificadores del feed)
+     * con índices compuestos según las consultas. Se conservan los datos importados y el resto de tablas.
+     */
+    public static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            String[] tables = {"gtfs_stops", "gtfs_routes", "gtfs_trips", "gtfs_stop_times", "gtfs_calendar", "gtfs_calendar_dates"};
+            for (String table : tables) {
+                db.execSQL("ALTER TABLE `" + table + "` RENAME TO `" + table + "_old`");
+            }
+            createGtfsTablesV7(db);
+
+            // Las claves de paradas, líneas y servicios son los rowid de las tablas anteriores
+            db.execSQL("INSERT INTO gtfs_stops (stopKey, stopId, name, lat, lon) "
+                    + "SELECT rowid, stopId, name, lat, lon FROM gtfs_stops_old");
+            db.execSQL("INSERT INTO gtfs_routes (routeKey, routeId, shortName, longName, color) "
+                    + "SELECT rowid, routeId, shortName, longName, color FROM gtfs_routes_old");
+            db.execSQL("INSERT INTO gtfs_calendar (serviceKey, serviceId, monday, tuesday, wednesday, thursday, friday, "
+                    + "saturday, sunday, startDate, endDate) "
+                    + "SELECT rowid, serviceId, monday, tuesday, wednesday, thursday, friday, saturday, sunday, "
+                    + "startDate, endDate FROM gtfs_calendar_old");
+            // Servicios que solo aparecen en calendar_dates o en los viajes
+            db.execSQL("INSERT INTO gtfs_calendar (serviceId, monday, tuesday, wednesday, thursday, friday, "
+                    + "saturday, sunday, startDate, endDate) "
+                    + "SELECT serviceId, 0, 0, 0, 0, 0, 0, 0, 0, 0 FROM ("
+                    + "SELECT serviceId FROM gtfs_calendar_dates_old UNION SELECT serviceId FROM gtfs_trips_old) "
+                    + "WHERE serviceId IS NOT NULL AND serviceId NOT IN (SELECT serviceId FROM gtfs_calendar)");
+            db.execSQL("INSERT INTO gtfs_trips (tripKey, tripId, routeKey, serviceKey, tripHeadsign) "
+                    + "SELECT t.rowid, t.tripId, r.routeKey, c.serviceKey, t.tripHeadsign FROM gtfs_trips_old t "
+                    + "JOIN gtfs_routes r ON r.routeId = t.routeId "
+                    + "JOIN gtfs_calendar c ON c.serviceId = t.serviceId");
+            // Insertar en el orden de la clave primaria para llenar el árbol de forma secuencial
+            db.execSQL("INSERT OR REPLACE INTO gtfs_stop_times (tripKey, stopSequence, stopKey, arrivalSeconds, departureSeconds) "
+                    + "SELECT t.tripKey, st.stopSequence, s.stopKey, st.arrivalSeconds, st.departureSeconds "
+                    + "FROM gtfs_stop_times_old st "
+                    + "JOIN gtfs_trips t ON t.tripId = st.tripId "
+                    + "JOIN gtfs_stops s ON s.stopId = st.stopId "
+                    + "ORDER BY t.tripKey, st.stopSequence");
+            db.execSQL("INSERT OR REPLACE INTO gtfs_calendar_dates (serviceKey, date, exceptionType) "
+                    + "SELECT c.serviceKey, d.date, d.exceptionType FROM gtfs_calendar_dates_old d "
+                    + "JOIN gtfs_calendar c ON c.serviceId = d.serviceId");
+
+            for (String table : tables) {
+                db.execSQL("DROP TABLE `" + table + "_old`");
+            }
+        }
+    };
+
+    /**
+     * Versión 7 -> 8: stop_times se sustituye por patrones de viaje (secuencias de paradas únicas)
+     * y perfiles de tiempos compartidos; cada viaje guarda solo su patrón, su perfil y su hora de salida.
+     */
+    public static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `gtfs_trips` RENAME TO `gtfs_trips_old`");
+            db.execSQL(CREATE_TRIPS);
+            db.execSQL(CREATE_PATTERNS);
+            db.execSQL(GtfsSchema.CREATE_PATTERN_STOPS);
+            db.execSQL(GtfsSchema.INDEX_PATTERN_STOPS);
+            db.execSQL(CREATE_TIME_PROFILES);
+
+            // stop_times está ordenada por (tripKey, stopSequence): cada viaje se lee de forma contigua
+            TripPatterns.Builder patterns = new TripPatterns.Builder();
+            List<int[]> trips = new ArrayList<>();  // tripKey, patternKey, profileKey, startSeconds
+            try (Cursor c = db.query("SELECT st.tripKey, t.routeKey, st.stopKey, st.arrivalSeconds, st.departureSeconds "
+                    + "FROM gtfs_stop_times st JOIN gtfs_trips_old t ON t.tripKey = st.tripKey "
+                    + "ORDER BY st.tripKey, st.stopSequence")) {
+                List<int[]> rows = new ArrayList<>();
+                int currentTrip = -1;
+                int currentRoute = 0;
+                while (c.moveToNext()) {
+                    int tripKey = c.getInt(0);
+                    if (tripKey != currentTrip) {
+                        addTrip(patterns, trips, currentTrip, currentRoute, rows);
+                        rows.clear();
+                        currentTrip = tripKey;
+                        currentRoute = c.getInt(1);
+                    }
+                    rows.add(new int[]{c.getInt(2), c.getInt(3), c.getInt(4)});
+                }
+                addTrip(patterns, trips, currentTrip, currentRoute, rows);
+            }
+
+            for (TripPatterns.Pattern p : patterns.getPatterns()) {
+                db.execSQL("INSERT INTO gtfs_patterns (patternKey, routeKey, stopCount) VALUES (?, ?, ?)",
+                        new Object[]{p.patternKey, p.routeKey, p.stopKeys.length});
+                for (int i = 0; i < p.stopKeys.length; i++) {
+                    db.execSQL("INSERT INTO gtfs_pattern_stops (patternKey, stopIndex, stopKey) VALUES (?, ?, ?)",
+                            new Object[]{p.patternKey, i, p.stopKeys[i]});
+                }
+            }
+            for (TripPatterns.Profile p : patterns.getProfiles()) {
+                db.execSQL("INSERT INTO gtfs_time_profiles (profileKey, patternKey, deltas) VALUES (?, ?, ?)",
+                        new Object[]{p.profileKey, p.patternKey, p.deltas});
+            }
+            // Los viajes sin horas no se conservan: no tienen patrón y el horario ya los descartaba
+            for (int[] t : trips) {
+                db.execSQL("INSERT INTO gtfs_trips (tripKey, tripId, routeKey, serviceKey, tripHeadsign, "
+                        + "patternKey, profileKey, startSeconds) "
+                        + "SELECT tripKey, tripId, routeKey, serviceKey, tripHeadsign, ?, ?, ? "
+                        + "FROM gtfs_trips_old WHERE tripKey = ?",
+                        new Object[]{t[1], t[2], t[3], t[0]});
+            }
+
+            db.execSQL("DROP TABLE `gtfs_trips_old`");
+            db.execSQL("DROP TABLE `gtfs_stop_times`");
+            // Los índices de viajes se crean al final: el de tripId sigue asociado a la tabla renombrada hasta borrarla
+            db.execSQL(INDEX_TRIPS);
+            db.execSQL(INDEX_TRIPS_PATTERN);
+        }
+    };
+
+    /**
+     * Versión 8 -> 9: reglas de frequencies.txt (viajes plantilla con salidas cada cierto intervalo)
+     */
+    public static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(CREATE_FREQUENCIES);
+        }
+    };
+
+    /**
+     * Versión 9 -> 10: trazados de shapes.txt y trazado de cada viaje. Los viajes ya importados quedan
+     * con shapeKey = -1 y los trazados se importan en el siguiente arranque (ver GtfsImporter).
+     */
+    public static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(CREATE_SHAPES);
+            db.execSQL(INDEX_SHAPES);
+            db.execSQL("ALTER TABLE `gtfs_trips` ADD COLUMN `shapeKey` INTEGER NOT NULL DEFAULT -1");
+        }
+    };
+
+    /**
+     * Versión 10 -> 11: patrones de transbordo por parada de origen. Se calculan en segundo plano
+     * (ver TransferPatternStore).
+     */
+    public static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL(CREATE_TRANSFER_PATTERNS);
+        }
+    };
+
+    /**
+     * Ruta guardada en routeData, o null si falta o no se puede leer (favoritas de versiones antiguas)
+     */
+    private static Route parseRoute(Gson gson, String routeData) {
+        if (routeData == null) return null;
+        try {
+            return gson.fromJson(routeData, Route.class);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static void addTrip(TripPatterns.Builder patterns, List<int[]> trips, int tripKey, int routeKey, List<int[]> rows) {
+        if (tripKey < 0 || rows.isEmpty()) return;
+        int n = rows.size();
+        int[] stops = new int[n], arrivals = new int[n], departures = new int[n];
+        for (int i = 0; i < n; i++) {
+            int[] row = rows.get(i);
+            stops[i] = row[0];
+            arrivals[i] = row[1];
+            departures[i] = row[2];
+        }
+        TripPatterns.TripTimes times = patterns.addTrip(routeKey, stops, arrivals, departures);
+        trips.add(new int[]{tripKey, times.patternKey, times.profileKey, times.startSeconds});
+    }
+
+    /**
+     * Crea las tablas GTFS de la versión 7 con sus índices (punto de partida de {@link #MIGRATION_7_8})
+     */
+    private static void createGtfsTablesV7(SupportSQLiteDatabase db) {
+        db.execSQL(CREATE_STOPS);
+        db.execSQL(INDEX_STOPS);
+        db.execSQL(CREATE_ROUTES);
+        db.execSQL(INDEX_ROUTES);
+        db.execSQL(CREATE_TRIPS_V7);
+        db.execSQL(INDEX_TRIPS);
+        db.execSQL(CREATE_CALENDAR);
+        db.execSQL(INDEX_CALENDAR);
+        db.execSQL(GtfsSchema.CREATE_CALENDAR_DATES);
+        db.execSQL(CREATE_STOP_TIMES_V7);
+        db.execSQL(INDEX_STOP_TIMES_V7);
+    }
+
+    /**
+     * Room crea todas las tablas con rowid. En una instalación nueva (tablas vacías) se sustituyen
+     * las de calendar_dates y pattern_stops por su versión WITHOUT ROWID, con las mismas columnas e índices.
+     */
+    static void recreateWithoutRowidTables(SupportSQLiteDatabase db) {
+        for (String sql : GtfsSchema.RECREATE_WITHOUT_ROWID_TABLES) db.execSQL(sql);
+    }
+}
@@ -1,15 +1,25 @@
 package com.example.ourenbus2.database.dao;
 
+import android.text.TextUtils;
+
 import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.RawQuery;
+import androidx.room.Transaction;
 import androidx.room.Update;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
 
 import com.example.ourenbus2.database.entity.FavoriteRouteEntity;
+import com.example.ourenbus2.database.entity.FavoriteRouteFtsEntity;
+import com.example.ourenbus2.database.entity.FavoriteRouteSummary;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -19,13 +29,37 @@ import java.util.List;
 public interface FavoriteRouteDao {
 
     /**
-     * Inserta una nueva ruta favorita en la base de datos.
+     * Inserta una nueva ruta favorita en la base de datos. Si el usuario ya tenía una favorita
+     * con la misma huella de contenido (índice único userEmail + contentHash), se actualiza esa fila
+     * y conserva su ID. No se usa REPLACE: borraría la fila sin pasar por los disparadores del índice FTS.
      *
      * @param favoriteRoute Ruta favorita a insertar
-     * @return ID de la ruta favorita insertada
+     * @return ID de la ruta favorita insertada o actualizada
+     */
+    @Transaction
+    default long insert(FavoriteRouteEntity favoriteRoute) {
+        long id = insertIfAbsent(favoriteRoute);
+        if (id == -1) {
+            id = getIdByUserAndHash(favoriteRoute.getUserEmail(), favoriteRoute.getContentHash());
+            favoriteRoute.setId(id);
+            update(favoriteRoute);
+        }
+        return id;
+    }
+
+    /**
+     * Inserta la favorita si no choca con el índice único
+     *
+     * @return ID de la nueva fila o -1 si ya existía
+     */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertIfAbsent(FavoriteRouteEntity favoriteRoute);
+
+    /**
+     * ID de la favorita del usuario con la huella de contenido indicada (búsqueda por índice único)
      */
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
-    long insert(FavoriteRouteEntity favoriteRoute);
+    @Query("SELECT id FROM favorite_routes WHERE userEmail = :email AND contentHash = :contentHash")
+    long getIdByUserAndHash(String email, String contentHash);
 
     /**
      * Actualiza una ruta favorita existente en la base de datos.
@@ -60,6 +94,83 @@ public interface FavoriteRouteDao {
     @Query("SELECT * FROM favorite_routes WHERE userEmail = :email ORDER BY timestamp DESC")
     LiveData<List<FavoriteRouteEntity>> getAllFavoriteRoutes(String email);
 
+    /**
+     * Obtiene, paginados, los resúmenes (sin datos de ruta) de las favoritas de un usuario.
+     *
+     * @param email Email del usuario
+     * @return Fuente paginada de resúmenes ordenados por fecha de guardado
+     */
+    @Query("SELECT id, name, origin, destination, timestamp FROM favorite_routes WHERE userEmail = :email ORDER BY timestamp DESC")
+    PagingSource<Integer, FavoriteRouteSummary> getFavoriteRouteSummaries(String email);
+
+    /**
+     * Resúmenes de las favoritas de un usuario en una sola lista (consulta síncrona, fuera del hilo principal).
+     *
+     * @param email Email del usuario
+     * @return Resúmenes ordenados por fecha de guardado
+     */
+    @Query("SELECT id, name, origin, destination, timestamp FROM favorite_routes WHERE userEmail = :email ORDER BY timestamp DESC")
+    List<FavoriteRouteSummary> getFavoriteRouteSummaryList(String email);
+
+    // Columnas del índice FTS, en el orden de FavoriteRouteFtsEntity
+    String[] SEARCH_COLUMNS = {"name", "originName", "destinationName", "busLines"};
+
+    /**
+     * Busca favoritas del usuario en el índice de texto completo (nombre, origen, destino y líneas),
+     * ordenadas por relevancia y, a igualdad, por fecha. La relevancia se calcula en SQLite: para cada
+     * término y columna suma el peso de la columna si la fila contiene el término en ella, dividido entre
+     * el nº de filas de la tabla que lo contienen en esa columna. El límite se aplica en la propia consulta.
+     *
+     * @param email   Email del usuario
+     * @param terms   Términos FTS de prefijo (p. ej. {@code "estacion*"}); todos deben aparecer
+     * @param weights Peso de cada columna de {@link #SEARCH_COLUMNS}
+     * @param limit   Nº máximo de resultados
+     * @return Fuente paginada de los resúmenes coincidentes
+     */
+    default PagingSource<Integer, FavoriteRouteSummary> searchFavoriteRouteSummaries(String email, List<String> terms,
+                                                                                      double[] weights, int limit) {
+        List<Object> args = new ArrayList<>();
+        args.add(TextUtils.join(" ", terms));
+        args.add(email);
+        StringBuilder score = new StringBuilder();
+        for (String term : terms) {
+            for (int c = 0; c < SEARCH_COLUMNS.length; c++) {
+                String columnQuery = SEARCH_COLUMNS[c] + ":" + term;
+                if (score.length() > 0) score.append(" + ");
+                score.append(c < weights.length ? weights[c] : 0.5)
+                     .append(" * (favorite_routes.id IN (SELECT rowid FROM favorite_routes_fts WHERE favorite_routes_fts MATCH ?))")
+                     .append(" / (SELECT max(count(*), 1) FROM favorite_routes_fts WHERE favorite_routes_fts MATCH ?)");
+                args.add(columnQuery);
+                args.add(columnQuery);
+            }
+        }
+        args.add(limit);
+        String sql = "SELECT favorite_routes.id, favorite_routes.name, favorite_routes.origin, favorite_routes.destination, " +
+                     "favorite_routes.timestamp " +
+                     "FROM favorite_routes_fts JOIN favorite_routes ON favorite_routes.id = favorite_routes_fts.rowid " +
+                     "WHERE favorite_routes_fts MATCH ? AND favorite_routes.userEmail = ? " +
+                     "ORDER BY (" + score + ") DESC, favorite_routes.timestamp DESC LIMIT ?";
+        return searchFavoriteRouteSummaries(new SimpleSQLiteQuery(sql, args.toArray()));
+    }
+
+    @RawQuery(observedEntities = {FavoriteRouteEntity.class, FavoriteRouteFtsEntity.class})
+    PagingSource<Integer, FavoriteRouteSummary> searchFavoriteRouteSummaries(SupportSQLiteQuery query);
+
+    /**
+     * IDs de todas las favoritas de la BD, de cualquier usuario (consulta síncrona)
+     */
+    @Query("SELECT id FROM favorite_routes")
+    List<Long> getAllFavoriteRouteIds();
+
+    /**
+     * Obtiene de forma síncrona los datos JSON de una ruta favorita.
+     *
+     * @param id ID de la ruta favorita
+     * @return JSON de la ruta o null si no existe
+     */
+    @Query("SELECT routeData FROM favorite_routes WHERE id = :id")
+    String getRouteDataById(long id);
+
     /**
      * Elimina una ruta favorita por su ID.
      *
@@ -69,10 +180,10 @@ public interface FavoriteRouteDao {
     void deleteFavoriteRouteById(long id);
 
     /**
-     * Elimina por usuario, nombre y datos exactos de ruta
+     * Elimina la favorita del usuario con la huella de contenido indicada (búsqueda por índice único)
      */
-    @Query("DELETE FROM favorite_routes WHERE userEmail = :email AND name = :name AND routeData = :routeData")
-    void deleteByUserNameData(String email, String name, String routeData);
+    @Query("DELETE FROM favorite_routes WHERE userEmail = :email AND contentHash = :contentHash")
+    void deleteByUserAndHash(String email, String contentHash);
 
     /**
      * Elimina todas las rutas favoritas.
@@ -81,11 +192,12 @@ public interface FavoriteRouteDao {
     void deleteAll();
 
     /**
-     * Busca rutas favoritas que coincidan con el texto de búsqueda.
+     * Busca rutas favoritas que coincidan con la consulta de texto completo.
      *
-     * @param searchText Texto de búsqueda
-     * @return Lista de rutas favoritas que coinciden con el texto de búsqueda
+     * @param matchQuery Consulta FTS
+     * @return Lista de rutas favoritas que coinciden con la consulta
      */
-    @Query("SELECT * FROM favorite_routes WHERE userEmail = :email AND name LIKE '%' || :searchText || '%' ORDER BY timestamp DESC")
-    LiveData<List<FavoriteRouteEntity>> searchFavoriteRoutes(String email, String searchText);
-} 
\ No newline at end of file
+    @Query("SELECT favorite_routes.* FROM favorite_routes_fts JOIN favorite_routes ON favorite_routes.id = favorite_routes_fts.rowid " +
+           "WHERE favorite_routes_fts MATCH :matchQuery AND favorite_routes.userEmail = :email ORDER BY favorite_routes.timestamp DESC")
+    LiveData<List<FavoriteRouteEntity>> searchFavoriteRoutes(String email, String matchQuery);
+}
\ No newline at end of file
@@ -5,15 +5,25 @@ import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import com.example.ourenbus2.database.entity.gtfs.GtfsFrequencyEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternStopEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsRouteEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsShapeEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsStopTimeEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTimeProfileEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTransferPatternEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsTripEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTripShapeKey;
 import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarDateEntity;
 
 import java.util.List;
 
+/**
+ * Acceso a las tablas GTFS. Las relaciones usan claves enteras (stopKey, tripKey, ...);
+ * los identificadores originales del feed solo se consultan a través de sus índices únicos.
+ */
 @Dao
 public interface GtfsDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
@@ -26,7 +36,22 @@ public interface GtfsDao {
     void insertTrips(List<GtfsTripEntity> trips);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertStopTimes(List<GtfsStopTimeEntity> stopTimes);
+    void insertPatterns(List<GtfsPatternEntity> patterns);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertPatternStops(List<GtfsPatternStopEntity> patternStops);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertTimeProfiles(List<GtfsTimeProfileEntity> profiles);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertFrequencies(List<GtfsFrequencyEntity> frequencies);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertShapes(List<GtfsShapeEntity> shapes);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertTransferPatterns(List<GtfsTransferPatternEntity> patterns);
 
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertCalendars(List<GtfsCalendarEntity> calendars);
@@ -34,35 +59,93 @@ public interface GtfsDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertCalendarDates(List<GtfsCalendarDateEntity> calendarDates);
 
+    @Query("SELECT EXISTS(SELECT 1 FROM gtfs_stops)")
+    boolean hasStops();
+
+    /** Indica si hay viajes importados antes de guardar los trazados (shapeKey = -1) */
+    @Query("SELECT EXISTS(SELECT 1 FROM gtfs_trips WHERE shapeKey < 0)")
+    boolean hasUnresolvedShapes();
+
+    @Query("UPDATE gtfs_trips SET shapeKey = :shapeKey WHERE tripId = :tripId")
+    void setTripShape(String tripId, int shapeKey);
+
+    /** Viajes sin trazado conocido pasan a no tenerlo (shapeKey = 0) */
+    @Query("UPDATE gtfs_trips SET shapeKey = 0 WHERE shapeKey < 0")
+    void clearUnresolvedShapes();
+
     @Query("SELECT * FROM gtfs_stops")
     List<GtfsStopEntity> getAllStops();
 
     @Query("SELECT * FROM gtfs_routes")
     List<GtfsRouteEntity> getAllRoutes();
 
-    @Query("SELECT * FROM gtfs_trips WHERE routeId = :routeId")
-    List<GtfsTripEntity> getTripsByRoute(String routeId);
+    /** Paradas de un patrón en orden: se leen directamente por la clave primaria (patternKey, stopIndex) */
+    @Query("SELECT * FROM gtfs_pattern_stops WHERE patternKey = :patternKey ORDER BY stopIndex ASC")
+    List<GtfsPatternStopEntity> getPatternStops(int patternKey);
 
-    @Query("SELECT * FROM gtfs_stop_times WHERE tripId = :tripId ORDER BY stopSequence ASC")
-    List<GtfsStopTimeEntity> getStopTimesByTrip(String tripId);
+    /** Patrones que pasan por una parada, leídos solo del índice por stopKey */
+    @Query("SELECT * FROM gtfs_pattern_stops WHERE stopKey = :stopKey")
+    List<GtfsPatternStopEntity> getPatternStopsByStop(int stopKey);
 
-    @Query("SELECT DISTINCT tripId FROM gtfs_stop_times WHERE stopId = :stopId")
-    List<String> getTripIdsByStop(String stopId);
+    /** Viajes de un patrón ordenados por salida (índice (patternKey, startSeconds)) */
+    @Query("SELECT * FROM gtfs_trips WHERE patternKey = :patternKey ORDER BY startSeconds ASC")
+    List<GtfsTripEntity> getTripsByPattern(int patternKey);
+
+    @Query("SELECT * FROM gtfs_shapes WHERE shapeKey = :shapeKey LIMIT 1")
+    GtfsShapeEntity getShape(int shapeKey);
+
+    /** Trazado de cada viaje (sin leer el resto de columnas) */
+    @Query("SELECT tripId, shapeKey FROM gtfs_trips WHERE shapeKey > 0")
+    List<GtfsTripShapeKey> getTripShapeKeys();
+
+    @Query("SELECT * FROM gtfs_transfer_patterns WHERE stopKey = :stopKey LIMIT 1")
+    GtfsTransferPatternEntity getTransferPatterns(int stopKey);
+
+    /** Paradas de origen con patrones de transbordo ya calculados */
+    @Query("SELECT stopKey FROM gtfs_transfer_patterns")
+    List<Integer> getTransferPatternStopKeys();
+
+    /** Borra los patrones de transbordo (calculados con otro horario o para otros días) */
+    @Query("DELETE FROM gtfs_transfer_patterns")
+    void deleteTransferPatterns();
+
+    @Query("SELECT * FROM gtfs_time_profiles WHERE profileKey = :profileKey LIMIT 1")
+    GtfsTimeProfileEntity getTimeProfile(int profileKey);
 
     @Query("SELECT * FROM gtfs_stops WHERE stopId = :stopId LIMIT 1")
     GtfsStopEntity getStopById(String stopId);
 
-    @Query("SELECT * FROM gtfs_trips WHERE tripId = :tripId LIMIT 1")
-    GtfsTripEntity getTripById(String tripId);
+    @Query("SELECT * FROM gtfs_trips WHERE tripKey = :tripKey LIMIT 1")
+    GtfsTripEntity getTrip(int tripKey);
 
-    @Query("SELECT * FROM gtfs_routes WHERE routeId = :routeId LIMIT 1")
-    GtfsRouteEntity getRouteById(String routeId);
+    @Query("SELECT * FROM gtfs_routes WHERE routeKey = :routeKey LIMIT 1")
+    GtfsRouteEntity getRoute(int routeKey);
 
-    @Query("SELECT * FROM gtfs_calendar WHERE serviceId = :serviceId LIMIT 1")
-    GtfsCalendarEntity getCalendarByService(String serviceId);
+    @Query("SELECT * FROM gtfs_calendar WHERE serviceKey = :serviceKey LIMIT 1")
+    GtfsCalendarEntity getCalendar(int serviceKey);
 
-    @Query("SELECT * FROM gtfs_calendar_dates WHERE serviceId = :serviceId")
-    List<GtfsCalendarDateEntity> getCalendarDatesByService(String serviceId);
-}
+    @Query("SELECT * FROM gtfs_calendar_dates WHERE serviceKey = :serviceKey")
+    List<GtfsCalendarDateEntity> getCalendarDatesByService(int serviceKey);
 
+    @Query("SELECT * FROM gtfs_trips")
+    List<GtfsTripEntity> getAllTrips();
 
+    @Query("SELECT * FROM gtfs_patterns")
+    List<GtfsPatternEntity> getAllPatterns();
+
+    /** Paradas de todos los patrones, en orden de (patternKey, stopIndex) */
+    @Query("SELECT * FROM gtfs_pattern_stops")
+    List<GtfsPatternStopEntity> getAllPatternStops();
+
+    @Query("SELECT * FROM gtfs_time_profiles")
+    List<GtfsTimeProfileEntity> getAllTimeProfiles();
+
+    @Query("SELECT * FROM gtfs_frequencies")
+    List<GtfsFrequencyEntity> getAllFrequencies();
+
+    @Query("SELECT * FROM gtfs_calendar")
+    List<GtfsCalendarEntity> getAllCalendars();
+
+    @Query("SELECT * FROM gtfs_calendar_dates")
+    List<GtfsCalendarDateEntity> getAllCalendarDates();
+}
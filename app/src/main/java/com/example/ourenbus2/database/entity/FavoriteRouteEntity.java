@@ -2,14 +2,21 @@ package com.example.ourenbus2.database.entity;
 
 import androidx.room.Entity;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import com.example.ourenbus2.model.BusLine;
 import com.example.ourenbus2.model.Location;
+import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.model.RouteSegment;
+
+import java.util.LinkedHashSet;
 
 /**
  * Entidad que representa una ruta favorita en la base de datos.
  */
-@Entity(tableName = "favorite_routes")
+@Entity(tableName = "favorite_routes",
+        indices = {@Index(value = {"userEmail", "contentHash"}, unique = true)})
 public class FavoriteRouteEntity {
 
     @PrimaryKey(autoGenerate = true)
@@ -20,6 +27,11 @@ public class FavoriteRouteEntity {
     private String routeData;  // Datos de la ruta en formato JSON
     private long timestamp;    // Fecha de guardado
     private String userEmail;  // Email del usuario propietario
+    // Texto plano indexado por la búsqueda de texto completo (favorite_routes_fts)
+    private String originName;
+    private String destinationName;
+    private String busLines;   // Nombres de las líneas de bus de la ruta, separados por espacios
+    private String contentHash; // Huella del contenido canónico de la ruta (única por usuario)
 
     /**
      * Constructor por defecto.
@@ -44,6 +56,8 @@ public class FavoriteRouteEntity {
         this.routeData = routeData;
         this.timestamp = timestamp;
         this.userEmail = userEmail;
+        this.originName = origin != null ? origin.getName() : null;
+        this.destinationName = destination != null ? destination.getName() : null;
     }
 
     /**
@@ -157,4 +171,53 @@ public class FavoriteRouteEntity {
     public String getUserEmail() { return userEmail; }
 
     public void setUserEmail(String userEmail) { this.userEmail = userEmail; }
+
+    public String getOriginName() { return originName; }
+
+    public void setOriginName(String originName) { this.originName = originName; }
+
+    public String getDestinationName() { return destinationName; }
+
+    public void setDestinationName(String destinationName) { this.destinationName = destinationName; }
+
+    public String getBusLines() { return busLines; }
+
+    public String getContentHash() { return contentHash; }
+
+    public void setContentHash(String contentHash) { this.contentHash = contentHash; }
+
+    public void setBusLines(String busLines) { this.busLines = busLines; }
+
+    /**
+     * Recalcula las columnas de texto que indexa la búsqueda (nombres de origen y destino y líneas de bus).
+     * Debe llamarse antes de cada inserción o actualización para que favorite_routes_fts no quede desfasado.
+     *
+     * @param route Ruta guardada en routeData, o null si no se ha podido leer (se conservan las líneas)
+     */
+    public void refreshSearchColumns(Route route) {
+        originName = origin != null ? origin.getName() : null;
+        destinationName = destination != null ? destination.getName() : null;
+        if (route != null) busLines = buildBusLinesText(route);
+    }
+
+    /**
+     * Texto con las líneas de bus de la ruta (número y nombre) para el índice de búsqueda.
+     */
+    public static String buildBusLinesText(Route route) {
+        if (route.getSegments() == null) return null;
+        LinkedHashSet<String> lines = new LinkedHashSet<>();
+        for (RouteSegment segment : route.getSegments()) {
+            if (segment.getType() != RouteSegment.SegmentType.BUS || segment.getBusLine() == null) continue;
+            BusLine line = segment.getBusLine();
+            if (line.getLineNumber() > 0) lines.add(String.valueOf(line.getLineNumber()));
+            if (line.getName() != null && !line.getName().isEmpty()) lines.add(line.getName());
+        }
+        if (lines.isEmpty()) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(line);
+        }
+        return sb.toString();
+    }
 } 
\ No newline at end of file
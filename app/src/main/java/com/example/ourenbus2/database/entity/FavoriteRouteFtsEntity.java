@@ -0,0 +1,19 @@
+package com.example.ourenbus2.database.entity;
+
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+
+/**
+ * Índice de texto completo (FTS4) sobre las rutas favoritas.
+ * Usa {@link FavoriteRouteEntity} como tabla de contenido externo: Room crea los triggers
+ * que mantienen el índice sincronizado en cada inserción, actualización o borrado.
+ */
+@Fts4(contentEntity = FavoriteRouteEntity.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "favorite_routes_fts")
+public class FavoriteRouteFtsEntity {
+    public String name;
+    public String originName;
+    public String destinationName;
+    public String busLines;
+}
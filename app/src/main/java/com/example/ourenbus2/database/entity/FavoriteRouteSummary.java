@@ -0,0 +1,35 @@
+package com.example.ourenbus2.database.entity;
+
+import com.example.ourenbus2.model.Location;
+
+import java.util.Objects;
+
+/**
+ * Proyección ligera de una ruta favorita para el listado: no incluye {@code routeData},
+ * de modo que la lista puede paginarse sin decodificar el JSON completo de cada ruta.
+ */
+public class FavoriteRouteSummary {
+
+    public long id;
+    public String name;
+    public Location origin;
+    public Location destination;
+    public long timestamp;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FavoriteRouteSummary that = (FavoriteRouteSummary) o;
+        return id == that.id &&
+               timestamp == that.timestamp &&
+               Objects.equals(name, that.name) &&
+               Objects.equals(origin, that.origin) &&
+               Objects.equals(destination, that.destination);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, name, timestamp);
+    }
+}
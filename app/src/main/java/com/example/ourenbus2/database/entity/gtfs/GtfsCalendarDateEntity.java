@@ -1,16 +1,14 @@
 package com.example.ourenbus2.database.entity.gtfs;
 
 import androidx.room.Entity;
-import androidx.room.Index;
-import androidx.room.PrimaryKey;
 
-@Entity(tableName = "gtfs_calendar_dates", indices = {@Index("serviceId")})
+/**
+ * Excepción de calendar_dates.txt. La tabla se crea WITHOUT ROWID (ver
+ * {@link com.example.ourenbus2.database.Migrations}): la clave primaria es el propio índice.
+ */
+@Entity(tableName = "gtfs_calendar_dates", primaryKeys = {"serviceKey", "date"})
 public class GtfsCalendarDateEntity {
-    @PrimaryKey(autoGenerate = true)
-    public long id;
-    public String serviceId;
+    public int serviceKey;
     public int date; // yyyymmdd
     public int exceptionType; // 1=add service, 2=remove service
 }
-
-
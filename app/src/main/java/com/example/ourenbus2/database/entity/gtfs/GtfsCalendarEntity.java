@@ -2,13 +2,19 @@ package com.example.ourenbus2.database.entity.gtfs;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "gtfs_calendar")
+/**
+ * Servicio GTFS (calendar.txt). También hay una fila, con todos los días a 0, por cada servicio
+ * que solo aparece en calendar_dates.txt, de modo que esta tabla es el diccionario de servicios.
+ */
+@Entity(tableName = "gtfs_calendar", indices = {@Index(value = "serviceId", unique = true)})
 public class GtfsCalendarEntity {
     @PrimaryKey
+    public int serviceKey;
     @NonNull
-    public String serviceId;
+    public String serviceId = "";
     public int monday;
     public int tuesday;
     public int wednesday;
@@ -19,5 +25,3 @@ public class GtfsCalendarEntity {
     public int startDate; // yyyymmdd
     public int endDate;   // yyyymmdd
 }
-
-
@@ -0,0 +1,17 @@
+package com.example.ourenbus2.database.entity.gtfs;
+
+import androidx.room.Entity;
+
+/**
+ * Regla de frequencies.txt: el viaje es una plantilla que sale de su primera parada cada
+ * {@code headwaySeconds} entre {@code startSeconds} y {@code endSeconds}. Las salidas no se guardan,
+ * se generan al consultar el horario.
+ */
+@Entity(tableName = "gtfs_frequencies", primaryKeys = {"tripKey", "startSeconds"})
+public class GtfsFrequencyEntity {
+    public int tripKey;
+    public int startSeconds;  // segundos desde medianoche
+    public int endSeconds;    // segundos desde medianoche
+    public int headwaySeconds;
+    public int exactTimes;    // 0 = intervalo aproximado, 1 = horario exacto
+}
@@ -0,0 +1,15 @@
+package com.example.ourenbus2.database.entity.gtfs;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Patrón de viaje: secuencia única de paradas de una línea (ver {@link GtfsPatternStopEntity})
+ */
+@Entity(tableName = "gtfs_patterns")
+public class GtfsPatternEntity {
+    @PrimaryKey
+    public int patternKey;
+    public int routeKey;
+    public int stopCount;
+}
@@ -0,0 +1,18 @@
+package com.example.ourenbus2.database.entity.gtfs;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+
+/**
+ * Parada de un patrón. La tabla se crea WITHOUT ROWID (ver
+ * {@link com.example.ourenbus2.database.Migrations}); el índice por stopKey incluye la clave
+ * primaria y da los patrones que pasan por una parada sin leer la tabla.
+ */
+@Entity(tableName = "gtfs_pattern_stops",
+        primaryKeys = {"patternKey", "stopIndex"},
+        indices = {@Index("stopKey")})
+public class GtfsPatternStopEntity {
+    public int patternKey;
+    public int stopIndex;
+    public int stopKey;
+}
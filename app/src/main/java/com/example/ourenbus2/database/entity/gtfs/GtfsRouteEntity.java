@@ -2,16 +2,16 @@ package com.example.ourenbus2.database.entity.gtfs;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "gtfs_routes")
+@Entity(tableName = "gtfs_routes", indices = {@Index(value = "routeId", unique = true)})
 public class GtfsRouteEntity {
     @PrimaryKey
+    public int routeKey;
     @NonNull
-    public String routeId;
+    public String routeId = "";
     public String shortName;
     public String longName;
     public String color;
 }
-
-
@@ -0,0 +1,20 @@
+package com.example.ourenbus2.database.entity.gtfs;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Trazado de shapes.txt: puntos codificados con {@link com.example.ourenbus2.util.gtfs.TripShape},
+ * compartidos por todos los viajes que lo recorren
+ */
+@Entity(tableName = "gtfs_shapes", indices = {@Index(value = "shapeId", unique = true)})
+public class GtfsShapeEntity {
+    @PrimaryKey
+    public int shapeKey;
+    @NonNull
+    public String shapeId = "";
+    @NonNull
+    public byte[] points = new byte[0];
+}
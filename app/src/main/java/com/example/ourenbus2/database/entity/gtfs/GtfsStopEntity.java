@@ -2,16 +2,20 @@ package com.example.ourenbus2.database.entity.gtfs;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "gtfs_stops")
+/**
+ * Parada GTFS. {@code stopKey} es la clave entera que usan el resto de tablas; el stop_id
+ * original solo se guarda aquí.
+ */
+@Entity(tableName = "gtfs_stops", indices = {@Index(value = "stopId", unique = true)})
 public class GtfsStopEntity {
     @PrimaryKey
+    public int stopKey;
     @NonNull
-    public String stopId;
+    public String stopId = "";
     public String name;
     public double lat;
     public double lon;
 }
-
-
@@ -0,0 +1,18 @@
+package com.example.ourenbus2.database.entity.gtfs;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Perfil de tiempos de un patrón: incrementos entre paradas codificados con
+ * {@link com.example.ourenbus2.util.gtfs.TripPatterns}, compartidos por todos los viajes que los repiten
+ */
+@Entity(tableName = "gtfs_time_profiles")
+public class GtfsTimeProfileEntity {
+    @PrimaryKey
+    public int profileKey;
+    public int patternKey;
+    @NonNull
+    public byte[] deltas = new byte[0];
+}
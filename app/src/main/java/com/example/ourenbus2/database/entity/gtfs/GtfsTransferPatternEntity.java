@@ -0,0 +1,17 @@
+package com.example.ourenbus2.database.entity.gtfs;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * Patrones de transbordo precalculados desde una parada, codificados con
+ * {@link com.example.ourenbus2.util.gtfs.TransferPatterns#encode}
+ */
+@Entity(tableName = "gtfs_transfer_patterns")
+public class GtfsTransferPatternEntity {
+    @PrimaryKey
+    public int stopKey;
+    @NonNull
+    public byte[] dag = new byte[0];
+}
@@ -1,17 +1,29 @@
 package com.example.ourenbus2.database.entity.gtfs;
 
 import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "gtfs_trips")
+/**
+ * Viaje GTFS. Sus horas no se guardan por parada: se obtienen de su patrón, su perfil de tiempos
+ * y la salida de la primera parada.
+ */
+@Entity(tableName = "gtfs_trips", indices = {@Index(value = "tripId", unique = true),
+        @Index({"patternKey", "startSeconds"})})
 public class GtfsTripEntity {
     @PrimaryKey
+    public int tripKey;
     @NonNull
-    public String tripId;
-    public String routeId;
-    public String serviceId;
+    public String tripId = "";
+    public int routeKey;
+    public int serviceKey;
     public String tripHeadsign;
+    public int patternKey;
+    public int profileKey;
+    public int startSeconds; // salida de la primera parada, segundos desde medianoche
+    // Trazado del viaje: 0 si no tiene, -1 si todavía no se han importado los trazados
+    @ColumnInfo(defaultValue = "-1")
+    public int shapeKey = -1;
 }
-
-
@@ -0,0 +1,9 @@
+package com.example.ourenbus2.database.entity.gtfs;
+
+/**
+ * Proyección de un viaje con solo su trazado, para cargar la relación viaje-trazado sin leer el resto de columnas
+ */
+public class GtfsTripShapeKey {
+    public String tripId;
+    public int shapeKey;
+}
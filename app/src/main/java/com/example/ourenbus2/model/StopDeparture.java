@@ -0,0 +1,56 @@
+package com.example.ourenbus2.model;
+
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Próxima salida de un bus desde una parada (panel de salidas)
+ */
+public class StopDeparture {
+
+    private final String lineNumber;
+    private final String lineColor;
+    private final String headsign;
+    private final Date departureTime;
+
+    public StopDeparture(String lineNumber, String lineColor, String headsign, Date departureTime) {
+        this.lineNumber = lineNumber;
+        this.lineColor = lineColor;
+        this.headsign = headsign;
+        this.departureTime = departureTime;
+    }
+
+    public String getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Color de la línea en formato GTFS (hexadecimal sin '#'), o null si no tiene
+     */
+    public String getLineColor() {
+        return lineColor;
+    }
+
+    public String getHeadsign() {
+        return headsign;
+    }
+
+    public Date getDepartureTime() {
+        return departureTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StopDeparture that = (StopDeparture) o;
+        return Objects.equals(lineNumber, that.lineNumber) &&
+               Objects.equals(headsign, that.headsign) &&
+               Objects.equals(departureTime, that.departureTime);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(lineNumber, headsign, departureTime);
+    }
+}
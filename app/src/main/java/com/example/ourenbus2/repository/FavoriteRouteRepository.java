@@ -4,22 +4,37 @@ import android.app.Application;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.LruCache;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
 import com.example.ourenbus2.database.AppDatabase;
 import com.example.ourenbus2.database.dao.FavoriteRouteDao;
 import com.example.ourenbus2.database.entity.FavoriteRouteEntity;
+import com.example.ourenbus2.database.entity.FavoriteRouteSummary;
 import com.example.ourenbus2.model.Location;
 import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.util.RouteHashUtil;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 
 import java.lang.reflect.Type;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * Repositorio para gestionar las rutas favoritas
@@ -29,6 +44,18 @@ public class FavoriteRouteRepository {
     private static final String PREF_NAME = "favorite_routes_preferences"; // legacy, ya no se usa para guardar rutas
     private static final String KEY_ROUTES = "favorite_routes"; // legacy
 
+    // Paginación del listado de favoritas (solo resúmenes)
+    private static final int PAGE_SIZE = 20;
+    private static final int PREFETCH_DISTANCE = 10;
+    // Nº máximo de rutas completas decodificadas que se mantienen en memoria
+    private static final int DECODED_CACHE_SIZE = 16;
+    // Prefetches pendientes como máximo: al hacer scroll solo interesan las últimas filas mostradas
+    private static final int MAX_PENDING_PREFETCHES = 4;
+    // Búsqueda de texto completo: nº máximo de resultados y peso de cada columna del índice FTS
+    // (mismo orden que FavoriteRouteFtsEntity: name, originName, destinationName, busLines)
+    private static final int SEARCH_LIMIT = 100;
+    private static final double[] SEARCH_COLUMN_WEIGHTS = {1.0, 0.75, 0.75, 0.5};
+
     private final SharedPreferences preferences; // solo para otras preferencias si fuese necesario
     private final Gson gson;
     private String currentUserEmail = null;
@@ -37,6 +64,20 @@ public class FavoriteRouteRepository {
     private LiveData<List<FavoriteRouteEntity>> roomFavorites;
     private final androidx.lifecycle.MediatorLiveData<List<Route>> favoritesLiveData = new androidx.lifecycle.MediatorLiveData<>();
 
+    // Resúmenes paginados del usuario actual; la fuente se reasigna al cambiar de usuario o de búsqueda
+    private final androidx.lifecycle.MediatorLiveData<PagingData<FavoriteRouteSummary>> favoriteSummaries = new androidx.lifecycle.MediatorLiveData<>();
+    private LiveData<PagingData<FavoriteRouteSummary>> summarySource;
+    private String searchText = null;
+
+    // Decodificación de rutas completas fuera del hilo principal, con caché LRU. Se guarda el árbol JSON
+    // ya leído de la BD, no la Route: cada carga construye una instancia nueva que el llamador puede modificar
+    private final Executor decodeExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<Long, JsonElement> decodedRoutes = new LruCache<>(DECODED_CACHE_SIZE);
+    // Ids pendientes de prefetch, el más reciente primero; se procesan de uno en uno en decodeExecutor
+    private final ArrayDeque<Long> pendingPrefetches = new ArrayDeque<>();
+    private boolean prefetchScheduled;
+
     /**
      * Constructor del repositorio.
      *
@@ -51,17 +92,157 @@ public class FavoriteRouteRepository {
         // Por defecto, sin usuario -> LiveData vacía
         roomFavorites = new MutableLiveData<>(new ArrayList<>());
         favoritesLiveData.addSource(roomFavorites, list -> mapAndPost(list));
+        updateSummarySource();
     }
     
     /**
-     * Carga las rutas favoritas desde SharedPreferences
+     * Decodifica en segundo plano la lista completa de favoritas (API heredada).
      */
     private void mapAndPost(List<FavoriteRouteEntity> entities) {
-        List<Route> out = new ArrayList<>();
-        if (entities != null) {
-            for (FavoriteRouteEntity e : entities) out.add(convertToRoute(e));
+        decodeExecutor.execute(() -> {
+            List<Route> out = new ArrayList<>();
+            if (entities != null) {
+                for (FavoriteRouteEntity e : entities) out.add(convertToRoute(e));
+            }
+            favoritesLiveData.postValue(out);
+        });
+    }
+
+    /**
+     * Reasigna la fuente paginada de resúmenes según el usuario y la búsqueda actuales.
+     */
+    private void updateSummarySource() {
+        if (summarySource != null) {
+            favoriteSummaries.removeSource(summarySource);
         }
-        favoritesLiveData.postValue(out);
+        String email = currentUserEmail;
+        String text = searchText != null ? searchText.trim() : "";
+        if (email == null) {
+            summarySource = new MutableLiveData<>(PagingData.empty());
+        } else if (buildMatchTerms(text).isEmpty()) {
+            PagingConfig config = new PagingConfig(PAGE_SIZE, PREFETCH_DISTANCE, false);
+            summarySource = PagingLiveData.getLiveData(
+                    new Pager<>(config, () -> favoriteRouteDao.getFavoriteRouteSummaries(email)));
+        } else {
+            summarySource = searchSummaries(email, buildMatchTerms(text));
+        }
+        favoriteSummaries.addSource(summarySource, favoriteSummaries::setValue);
+    }
+
+    /**
+     * Búsqueda en el índice FTS, paginada igual que el listado completo. SQLite ordena por relevancia
+     * y acota a {@link #SEARCH_LIMIT} resultados; Room invalida la fuente cuando cambia la tabla.
+     */
+    private LiveData<PagingData<FavoriteRouteSummary>> searchSummaries(String email, List<String> terms) {
+        PagingConfig config = new PagingConfig(PAGE_SIZE, PREFETCH_DISTANCE, false);
+        return PagingLiveData.getLiveData(new Pager<>(config, () ->
+                favoriteRouteDao.searchFavoriteRouteSummaries(email, terms, SEARCH_COLUMN_WEIGHTS, SEARCH_LIMIT)));
+    }
+
+    /**
+     * Convierte el texto introducido en términos FTS de prefijo: cada palabra pasa a {@code palabra*}.
+     */
+    static List<String> buildMatchTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) return terms;
+        for (String token : text.toLowerCase(java.util.Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) {
+            if (!token.isEmpty()) terms.add(token + '*');
+        }
+        return terms;
+    }
+
+    /**
+     * Convierte el texto introducido en una consulta FTS de prefijos en la que deben aparecer todas las
+     * palabras. Devuelve null si no queda ninguna palabra buscable.
+     */
+    static String buildMatchQuery(String text) {
+        List<String> terms = buildMatchTerms(text);
+        return terms.isEmpty() ? null : TextUtils.join(" ", terms);
+    }
+
+    /**
+     * Obtiene los resúmenes paginados de las favoritas del usuario actual (filtrados por la búsqueda activa).
+     */
+    public LiveData<PagingData<FavoriteRouteSummary>> getFavoriteSummaries() { return favoriteSummaries; }
+
+    /**
+     * Establece el texto con el que se filtran los resúmenes de favoritas.
+     */
+    public void setSearchText(String searchText) {
+        this.searchText = searchText;
+        updateSummarySource();
+    }
+
+    /**
+     * Carga la ruta completa de una favorita. Se decodifica en segundo plano (o se toma de la caché)
+     * y el callback se invoca en el hilo principal.
+     *
+     * @param id       ID de la ruta favorita
+     * @param callback Receptor de la ruta (null si ya no existe)
+     */
+    public void loadRoute(long id, RouteCallback callback) {
+        JsonElement cached = decodedRoutes.get(id);
+        if (cached != null) {
+            if (callback != null) callback.onRouteLoaded(toRoute(id, cached));
+            return;
+        }
+        decodeExecutor.execute(() -> {
+            Route route = decodeRoute(id);
+            if (callback != null) mainHandler.post(() -> callback.onRouteLoaded(route));
+        });
+    }
+
+    /**
+     * Decodifica por adelantado una favorita próxima a mostrarse para que abrirla sea inmediato.
+     * Las peticiones se agrupan: solo se conservan las {@link #MAX_PENDING_PREFETCHES} más recientes y
+     * se atienden de una en una, de modo que las cargas explícitas no esperan tras todo un scroll.
+     */
+    public void prefetchRoute(long id) {
+        if (decodedRoutes.get(id) != null) return;
+        synchronized (pendingPrefetches) {
+            pendingPrefetches.remove(id);
+            pendingPrefetches.addFirst(id);
+            while (pendingPrefetches.size() > MAX_PENDING_PREFETCHES) pendingPrefetches.removeLast();
+            if (prefetchScheduled) return;
+            prefetchScheduled = true;
+        }
+        decodeExecutor.execute(this::runNextPrefetch);
+    }
+
+    private void runNextPrefetch() {
+        Long id;
+        synchronized (pendingPrefetches) {
+            id = pendingPrefetches.pollFirst();
+            if (id == null) {
+                prefetchScheduled = false;
+                return;
+            }
+        }
+        decodeTree(id);
+        // Se vuelve a encolar en lugar de vaciar la cola: las cargas pedidas entretanto van antes
+        decodeExecutor.execute(this::runNextPrefetch);
+    }
+
+    private Route decodeRoute(long id) {
+        JsonElement tree = decodeTree(id);
+        return tree != null ? toRoute(id, tree) : null;
+    }
+
+    private JsonElement decodeTree(long id) {
+        JsonElement cached = decodedRoutes.get(id);
+        if (cached != null) return cached;
+        String json = favoriteRouteDao.getRouteDataById(id);
+        if (json == null) return null;
+        JsonElement tree = JsonParser.parseString(json);
+        if (!tree.isJsonObject()) return null;
+        decodedRoutes.put(id, tree);
+        return tree;
+    }
+
+    private Route toRoute(long id, JsonElement tree) {
+        Route r = gson.fromJson(tree, Route.class);
+        if (r != null) r.setId(id);
+        return r;
     }
     
     /**
@@ -110,7 +291,9 @@ public class FavoriteRouteRepository {
      * @return Lista de rutas favoritas que coinciden con el texto de búsqueda
      */
     public LiveData<List<FavoriteRouteEntity>> searchFavoriteRoutes(String userId, String searchText) {
-        return favoriteRouteDao.searchFavoriteRoutes(userId, searchText);
+        String matchQuery = buildMatchQuery(searchText);
+        if (matchQuery == null) return favoriteRouteDao.getAllFavoriteRoutes(userId);
+        return favoriteRouteDao.searchFavoriteRoutes(userId, matchQuery);
     }
 
     /**
@@ -131,11 +314,14 @@ public class FavoriteRouteRepository {
                 System.currentTimeMillis(),
                 userId
         );
+        favoriteRoute.refreshSearchColumns(route);
+        favoriteRoute.setContentHash(RouteHashUtil.computeContentHash(route));
         new InsertFavoriteRouteAsyncTask(favoriteRouteDao, () -> { /* Room LiveData actualizará */ }).execute(favoriteRoute);
     }
 
     public void setCurrentUser(String userEmail) {
         // Establecer el email de usuario actual
+        String previousEmail = currentUserEmail;
         currentUserEmail = (userEmail != null && !userEmail.isEmpty()) ? userEmail : null;
         // Reasignar fuente Room para el usuario actual
         if (roomFavorites != null) {
@@ -147,6 +333,11 @@ public class FavoriteRouteRepository {
             roomFavorites = new MutableLiveData<>(new ArrayList<>());
         }
         favoritesLiveData.addSource(roomFavorites, this::mapAndPost);
+        if (currentUserEmail == null ? previousEmail != null : !currentUserEmail.equals(previousEmail)) {
+            decodedRoutes.evictAll();
+            searchText = null;
+            updateSummarySource();
+        }
     }
 
     private String getCurrentUserEmail() { return currentUserEmail; }
@@ -161,7 +352,8 @@ public class FavoriteRouteRepository {
      * @param favoriteRoute Ruta favorita a actualizar
      */
     public void update(FavoriteRouteEntity favoriteRoute) {
-        new UpdateFavoriteRouteAsyncTask(favoriteRouteDao).execute(favoriteRoute);
+        decodedRoutes.remove(favoriteRoute.getId());
+        new UpdateFavoriteRouteAsyncTask(favoriteRouteDao, gson).execute(favoriteRoute);
     }
 
     /**
@@ -170,6 +362,7 @@ public class FavoriteRouteRepository {
      * @param favoriteRoute Ruta favorita a eliminar
      */
     public void delete(FavoriteRouteEntity favoriteRoute) {
+        decodedRoutes.remove(favoriteRoute.getId());
         new DeleteFavoriteRouteAsyncTask(favoriteRouteDao, this::mergeAndPost).execute(favoriteRoute);
     }
 
@@ -179,21 +372,22 @@ public class FavoriteRouteRepository {
      * @param id ID de la ruta favorita a eliminar
      */
     public void deleteById(long id) {
+        decodedRoutes.remove(id);
         new DeleteFavoriteRouteByIdAsyncTask(favoriteRouteDao, this::mergeAndPost).execute(id);
     }
 
     /**
-     * Elimina una ruta favorita del usuario actual por nombre y datos de ruta (JSON), útil cuando no tenemos el ID.
+     * Elimina una ruta favorita del usuario actual por su huella de contenido, útil cuando no tenemos el ID.
      */
     public void deleteByUserAndContent(Route route) {
         if (route == null) return;
         String email = getCurrentUserEmail();
         if (email == null || email.isEmpty()) return;
-        String json = gson.toJson(route);
+        String contentHash = RouteHashUtil.computeContentHash(route);
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... voids) {
-                favoriteRouteDao.deleteByUserNameData(email, route.getName(), json);
+                favoriteRouteDao.deleteByUserAndHash(email, contentHash);
                 return null;
             }
         }.execute();
@@ -217,6 +411,13 @@ public class FavoriteRouteRepository {
         return r;
     }
 
+    /**
+     * Callback para recibir una ruta favorita decodificada.
+     */
+    public interface RouteCallback {
+        void onRouteLoaded(Route route);
+    }
+
     /**
      * Tarea asíncrona para insertar una ruta favorita.
      */
@@ -246,14 +447,19 @@ public class FavoriteRouteRepository {
      */
     private static class UpdateFavoriteRouteAsyncTask extends AsyncTask<FavoriteRouteEntity, Void, Void> {
         private final FavoriteRouteDao favoriteRouteDao;
+        private final Gson gson;
 
-        private UpdateFavoriteRouteAsyncTask(FavoriteRouteDao favoriteRouteDao) {
+        private UpdateFavoriteRouteAsyncTask(FavoriteRouteDao favoriteRouteDao, Gson gson) {
             this.favoriteRouteDao = favoriteRouteDao;
+            this.gson = gson;
         }
 
         @Override
         protected Void doInBackground(FavoriteRouteEntity... favoriteRouteEntities) {
-            favoriteRouteDao.update(favoriteRouteEntities[0]);
+            FavoriteRouteEntity entity = favoriteRouteEntities[0];
+            // El origen, el destino o la ruta pueden haber cambiado: el índice de búsqueda se alimenta de estas columnas
+            entity.refreshSearchColumns(gson.fromJson(entity.getRouteData(), Route.class));
+            favoriteRouteDao.update(entity);
             return null;
         }
     }
@@ -8,7 +8,6 @@ import com.example.ourenbus2.database.AppDatabase;
 import com.example.ourenbus2.database.dao.GtfsDao;
 import com.example.ourenbus2.database.entity.gtfs.GtfsRouteEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsStopTimeEntity;
 import com.example.ourenbus2.database.entity.gtfs.GtfsTripEntity;
 
 /**
@@ -0,0 +1,175 @@
+package com.example.ourenbus2.service;
+
+import android.content.Context;
+
+import com.example.ourenbus2.database.AppDatabase;
+import com.example.ourenbus2.database.dao.GtfsDao;
+import com.example.ourenbus2.database.entity.gtfs.GtfsShapeEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTripShapeKey;
+import com.example.ourenbus2.util.gtfs.BusLocator;
+import com.example.ourenbus2.util.gtfs.CompiledTimetable;
+import com.example.ourenbus2.util.gtfs.GtfsTimetable;
+import com.example.ourenbus2.util.gtfs.GtfsTimetableProvider;
+import com.example.ourenbus2.util.gtfs.RealtimeOverlay;
+import com.example.ourenbus2.util.gtfs.TripShape;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Servicio singleton que estima dónde está cada bus en circulación según el horario (con los retrasos
+ * de tiempo real si hay una capa vigente), interpolando a lo largo del trazado del viaje.
+ * <p>
+ * Los trazados se leen del horario compilado (o de la BD si la app no lo incluye) la primera vez que
+ * se necesitan y se guardan en memoria. Debe llamarse fuera del hilo principal.
+ */
+public class BusPositionService {
+
+    private static final int SECONDS_PER_DAY = 24 * 3600;
+
+    private static BusPositionService instance;
+
+    private final GtfsDao gtfsDao;
+    private final Context appContext;
+    private final Map<Integer, TripShape> shapes = new ConcurrentHashMap<>();
+    private BusLocator locator;
+
+    private BusPositionService(Context context) {
+        appContext = context.getApplicationContext();
+        gtfsDao = AppDatabase.getInstance(appContext).gtfsDao();
+    }
+
+    /**
+     * Obtener instancia del servicio (Singleton)
+     */
+    public static synchronized BusPositionService getInstance(Context context) {
+        if (instance == null) {
+            instance = new BusPositionService(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Buses en circulación dentro de un recuadro en un momento dado
+     *
+     * @param limit Máximo de buses devueltos
+     * @return Buses, o lista vacía si no hay horario importado
+     */
+    public List<LiveBus> locate(double south, double west, double north, double east, Date now, int limit) {
+        BusLocator current = locator();
+        if (current == null) return Collections.emptyList();
+        GtfsTimetable tt = current.getTimetable();
+        Calendar day = Calendar.getInstance();
+        day.setTime(now);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        int seconds = (int) ((now.getTime() - day.getTimeInMillis()) / 1000L);
+        RealtimeOverlay overlay = tt.getRealtime();
+        if (!overlay.appliesTo(GtfsTimetable.serviceDate(day), now.getTime())) overlay = RealtimeOverlay.EMPTY;
+
+        List<BusLocator.BusPosition> positions = new ArrayList<>(current.locate(tt.getActiveServices(day), seconds, overlay,
+                south, west, north, east, limit));
+        // Viajes del día de servicio anterior que siguen pasada la medianoche (horas de 24:00 en adelante)
+        if (positions.size() < limit) {
+            day.add(Calendar.DAY_OF_MONTH, -1);
+            BitSet yesterday = tt.getActiveServices(day);
+            positions.addAll(current.locate(yesterday, seconds + SECONDS_PER_DAY, RealtimeOverlay.EMPTY,
+                    south, west, north, east, limit - positions.size()));
+        }
+
+        List<LiveBus> out = new ArrayList<>(positions.size());
+        for (BusLocator.BusPosition p : positions) {
+            int route = tt.getTripRoute(p.trip);
+            out.add(new LiveBus(p.getKey(), p.latitude, p.longitude, p.bearing, tt.getRouteShortName(route),
+                    tt.getRouteColor(route), tt.getTripHeadsign(p.trip), tt.getStopName(p.nextStop), p.delaySeconds));
+        }
+        return out;
+    }
+
+    /**
+     * Localizador del horario actual; se reconstruye si el horario se ha recargado
+     */
+    private synchronized BusLocator locator() {
+        GtfsTimetable tt = GtfsTimetableProvider.get(appContext);
+        if (tt == null) return null;
+        if (locator == null || locator.getTimetable() != tt) {
+            final CompiledTimetable compiled = GtfsTimetableProvider.getCompiled(appContext);
+            final int[] shapeKeys = new int[tt.getTripCount()];
+            if (compiled != null) {
+                // Los trazados compilados se numeran desde 0; las claves de trazado empiezan en 1
+                for (int trip = 0; trip < shapeKeys.length; trip++) shapeKeys[trip] = compiled.getTripShape(trip) + 1;
+            } else {
+                for (GtfsTripShapeKey t : gtfsDao.getTripShapeKeys()) {
+                    int trip = tt.findTrip(t.tripId);
+                    if (trip >= 0) shapeKeys[trip] = t.shapeKey;
+                }
+            }
+            shapes.clear();
+            locator = new BusLocator(tt, new BusLocator.ShapeSource() {
+                @Override
+                public int shapeKeyOf(int trip) {
+                    return shapeKeys[trip];
+                }
+
+                @Override
+                public TripShape shape(int shapeKey) {
+                    return shapeOf(compiled, shapeKey);
+                }
+            });
+        }
+        return locator;
+    }
+
+    private TripShape shapeOf(CompiledTimetable compiled, int shapeKey) {
+        TripShape shape = shapes.get(shapeKey);
+        if (shape == null) {
+            if (compiled != null) {
+                shape = compiled.getShape(shapeKey - 1);
+            } else {
+                GtfsShapeEntity e = gtfsDao.getShape(shapeKey);
+                if (e == null) return null;
+                shape = TripShape.decode(e.points);
+            }
+            shapes.put(shapeKey, shape);
+        }
+        return shape;
+    }
+
+    /**
+     * Posición estimada de un bus, lista para mostrar en el mapa
+     */
+    public static final class LiveBus {
+        /** Identifica la misma salida entre refrescos */
+        public final long key;
+        public final double latitude;
+        public final double longitude;
+        public final float bearing;
+        public final String lineName;
+        public final String lineColor;
+        public final String headsign;
+        public final String nextStopName;
+        /** Retraso previsto en segundos (0 si es solo horario) */
+        public final int delaySeconds;
+
+        LiveBus(long key, double latitude, double longitude, float bearing, String lineName, String lineColor,
+                String headsign, String nextStopName, int delaySeconds) {
+            this.key = key;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.bearing = bearing;
+            this.lineName = lineName;
+            this.lineColor = lineColor;
+            this.headsign = headsign;
+            this.nextStopName = nextStopName;
+            this.delaySeconds = delaySeconds;
+        }
+    }
+}
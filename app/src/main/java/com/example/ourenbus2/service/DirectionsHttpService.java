@@ -227,6 +227,18 @@ public class DirectionsHttpService {
      * Devuelve todas las rutas TRANSIT (solo bus) candidatas con alternatives=true para un horario.
      */
     public List<Route> getTransitRoutesAtCandidates(String apiKey, Location origin, Location destination, long departureEpoch) throws IOException {
+        return getTransitCandidates(apiKey, origin, destination, "departure_time", departureEpoch);
+    }
+
+    /**
+     * Rutas TRANSIT (solo bus) candidatas que llegan al destino no más tarde de la hora indicada
+     * (parámetro arrival_time de Directions, una sola petición)
+     */
+    public List<Route> getTransitRoutesArrivingBy(String apiKey, Location origin, Location destination, long arrivalEpoch) throws IOException {
+        return getTransitCandidates(apiKey, origin, destination, "arrival_time", arrivalEpoch);
+    }
+
+    private List<Route> getTransitCandidates(String apiKey, Location origin, Location destination, String timeParameter, long timeEpoch) throws IOException {
         String originParam = origin.getLatitude() + "," + origin.getLongitude();
         String destParam = destination.getLatitude() + "," + destination.getLongitude();
         Uri uri = Uri.parse(BASE).buildUpon()
@@ -238,7 +250,7 @@ public class DirectionsHttpService {
                 .appendQueryParameter("transit_routing_preference", "less_walking")
                 .appendQueryParameter("region", "es")
                 .appendQueryParameter("language", Locale.getDefault().getLanguage())
-                .appendQueryParameter("departure_time", String.valueOf(departureEpoch))
+                .appendQueryParameter(timeParameter, String.valueOf(timeEpoch))
                 .appendQueryParameter("key", apiKey)
                 .build();
         String body = httpGet(uri.toString());
@@ -264,7 +276,7 @@ public class DirectionsHttpService {
                 JSONArray steps = leg0.optJSONArray("steps");
                 int totalDuration = 0;
                 int totalDistance = 0;
-                long cursorTimeMs = departureEpoch * 1000L;
+                long cursorTimeMs = startEpoch(leg0, timeParameter, timeEpoch) * 1000L;
                 if (steps != null) {
                     for (int i = 0; i < steps.length(); i++) {
                         JSONObject s = steps.getJSONObject(i);
@@ -331,11 +343,11 @@ public class DirectionsHttpService {
                                     seg.setNextStop(ns);
                                 }
                                 if (depTime != null) {
-                                    long t = depTime.optLong("value", departureEpoch);
+                                    long t = depTime.optLong("value", timeEpoch);
                                     segStartMs = t * 1000L;
                                 }
                                 if (arrTime != null) {
-                                    long t = arrTime.optLong("value", departureEpoch);
+                                    long t = arrTime.optLong("value", timeEpoch);
                                     segEndMs = t * 1000L;
                                 }
                                 String lineToken = shortName.isEmpty() ? lineName : resources.getString(com.example.ourenbus2.R.string.line_prefix, shortName);
@@ -388,6 +400,17 @@ public class DirectionsHttpService {
         }
     }
 
+    /**
+     * Hora de inicio del trayecto: la indicada al salir, o la salida que calcula Directions al pedir una llegada
+     */
+    private static long startEpoch(JSONObject leg, String timeParameter, long timeEpoch) {
+        if (!"arrival_time".equals(timeParameter)) return timeEpoch;
+        JSONObject departure = leg.optJSONObject("departure_time");
+        if (departure != null && departure.has("value")) return departure.optLong("value", timeEpoch);
+        JSONObject duration = leg.optJSONObject("duration");
+        return timeEpoch - (duration != null ? duration.optLong("value", 0) : 0);
+    }
+
     /**
      * Obtiene la mejor ruta a pie para comparar tiempos.
      */
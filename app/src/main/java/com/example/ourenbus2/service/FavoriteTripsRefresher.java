@@ -0,0 +1,342 @@
+package com.example.ourenbus2.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.ourenbus2.database.AppDatabase;
+import com.example.ourenbus2.database.dao.FavoriteRouteDao;
+import com.example.ourenbus2.database.entity.FavoriteRouteSummary;
+import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.model.RouteSegment;
+import com.example.ourenbus2.util.gtfs.GtfsRouter;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servicio singleton que mantiene precalculadas las próximas salidas de las rutas favoritas.
+ * <p>
+ * Mientras la app está visible refresca periódicamente las favoritas más probables; además aprende a
+ * qué horas se abre cada favorita (histograma por hora de la semana) y programa un refresco justo antes
+ * de la siguiente hora habitual. Al abrir una favorita, {@link #getWarmRoute} devuelve una ruta ya
+ * calculada sin esperar a una búsqueda.
+ * <p>
+ * Las salidas solo se guardan en memoria, así que todo ocurre mientras el proceso de la app sigue vivo:
+ * si el sistema lo cierra, el refresco de la hora habitual no se ejecuta y la primera apertura calcula
+ * la ruta como siempre. Un trabajo programado fuera del proceso no serviría de nada, porque lo calculado
+ * se perdería con él.
+ * <p>
+ * Solo usa el horario GTFS local: en segundo plano no se hacen peticiones de red.
+ */
+public class FavoriteTripsRefresher {
+
+    private static final String PREF_NAME = "favorite_usage";
+    private static final int SLOTS_PER_WEEK = 7 * 24;
+
+    // Refresco periódico mientras la app está en primer plano
+    private static final long REFRESH_MINUTES = 3;
+    // Antigüedad máxima de unas salidas precalculadas para darlas por buenas
+    private static final long MAX_AGE_MS = 10 * 60 * 1000L;
+    // Favoritas que se mantienen calientes y alternativas calculadas para cada una
+    private static final int MAX_WARM_FAVORITES = 8;
+    private static final int TRIPS_PER_FAVORITE = 3;
+    // Aperturas en una misma hora de la semana para considerarla hora habitual, y antelación del refresco
+    private static final int COMMUTE_MIN_USES = 3;
+    private static final long COMMUTE_LEAD_MS = 10 * 60 * 1000L;
+
+    private static FavoriteTripsRefresher instance;
+
+    private final Context appContext;
+    private final FavoriteRouteDao favoriteRouteDao;
+    private final SharedPreferences usagePreferences;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<Long, WarmTrips> warmTrips = new ConcurrentHashMap<>();
+    private final Map<Long, int[]> usage = new ConcurrentHashMap<>();
+    private final MutableLiveData<Map<Long, WarmTrips>> warmTripsLiveData = new MutableLiveData<>(Collections.emptyMap());
+
+    private volatile String userEmail;
+    private ScheduledFuture<?> periodicRefresh;
+    private ScheduledFuture<?> commuteRefresh;
+
+    private FavoriteTripsRefresher(Context context) {
+        appContext = context.getApplicationContext();
+        favoriteRouteDao = AppDatabase.getInstance(appContext).favoriteRouteDao();
+        usagePreferences = appContext.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Obtener instancia del servicio (Singleton)
+     */
+    public static synchronized FavoriteTripsRefresher getInstance(Context context) {
+        if (instance == null) {
+            instance = new FavoriteTripsRefresher(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Cambia el usuario cuyas favoritas se refrescan; descarta lo calculado para el anterior
+     */
+    public synchronized void setUser(String email) {
+        String normalized = (email != null && !email.isEmpty()) ? email : null;
+        if (normalized == null ? userEmail == null : normalized.equals(userEmail)) return;
+        userEmail = normalized;
+        warmTrips.clear();
+        warmTripsLiveData.postValue(Collections.emptyMap());
+        scheduler.execute(this::refresh);
+        scheduleCommuteRefresh();
+    }
+
+    /**
+     * Empieza el refresco periódico (al pasar la app a primer plano)
+     */
+    public synchronized void start() {
+        if (periodicRefresh != null) return;
+        periodicRefresh = scheduler.scheduleWithFixedDelay(this::refresh, 0, REFRESH_MINUTES, TimeUnit.MINUTES);
+        scheduleCommuteRefresh();
+    }
+
+    /**
+     * Detiene el refresco periódico; el refresco de la próxima hora habitual sigue programado
+     */
+    public synchronized void stop() {
+        if (periodicRefresh != null) {
+            periodicRefresh.cancel(false);
+            periodicRefresh = null;
+        }
+    }
+
+    /**
+     * Anota que se ha abierto una favorita ahora, para aprender sus horas habituales
+     */
+    public void recordUse(long favoriteId) {
+        scheduler.execute(() -> {
+            int[] counts = usageOf(favoriteId);
+            counts[slotOf(System.currentTimeMillis())]++;
+            usagePreferences.edit().putString(String.valueOf(favoriteId), encode(counts)).apply();
+            scheduleCommuteRefresh();
+        });
+    }
+
+    /**
+     * Primera alternativa precalculada a la que todavía se llega: saliendo ahora, el tramo a pie hasta
+     * la parada termina antes de que pase el primer bus
+     *
+     * @return Ruta, o null si no hay salidas recientes para la favorita
+     */
+    public Route getWarmRoute(long favoriteId) {
+        WarmTrips trips = warmTrips.get(favoriteId);
+        long now = System.currentTimeMillis();
+        if (trips == null || now - trips.computedAt > MAX_AGE_MS) return null;
+        for (Route route : trips.routes) {
+            Date firstBus = firstBusStart(route);
+            if (firstBus != null && firstBus.getTime() - leadingWalkMs(route) > now) return route;
+        }
+        return null;
+    }
+
+    /**
+     * Salidas precalculadas por id de favorita (se publica una copia tras cada refresco)
+     */
+    public LiveData<Map<Long, WarmTrips>> getWarmTrips() {
+        return warmTripsLiveData;
+    }
+
+    private void refresh() {
+        String email = userEmail;
+        if (email == null) return;
+        try {
+            forgetDeletedFavorites();
+            if (!GtfsRouter.hasData(appContext)) return;
+            List<FavoriteRouteSummary> favorites = favoriteRouteDao.getFavoriteRouteSummaryList(email);
+            if (favorites == null) return;
+            final long now = System.currentTimeMillis();
+            // Primero las que se suelen abrir a esta hora; a igualdad, las más recientes (orden de la consulta)
+            final Map<Long, Integer> scores = new HashMap<>();
+            for (FavoriteRouteSummary f : favorites) scores.put(f.id, usageScore(f.id, now));
+            List<FavoriteRouteSummary> ranked = new ArrayList<>(favorites);
+            Collections.sort(ranked, (a, b) -> Integer.compare(scores.get(b.id), scores.get(a.id)));
+
+            Set<Long> kept = new HashSet<>();
+            Date from = new Date(now);
+            for (FavoriteRouteSummary f : ranked.subList(0, Math.min(MAX_WARM_FAVORITES, ranked.size()))) {
+                if (!email.equals(userEmail)) return;
+                List<Route> routes = GtfsRouter.findNextRoutes(appContext, f.origin, f.destination, from, TRIPS_PER_FAVORITE);
+                if (routes.isEmpty()) continue;
+                for (Route r : routes) r.setId(f.id);
+                warmTrips.put(f.id, new WarmTrips(now, routes));
+                kept.add(f.id);
+            }
+            warmTrips.keySet().retainAll(kept);
+            warmTripsLiveData.postValue(Collections.unmodifiableMap(new HashMap<>(warmTrips)));
+        } catch (Exception ignored) {
+            // Sin horario o BD no disponible: se reintenta en el siguiente refresco
+        }
+    }
+
+    /**
+     * Borra el histograma de uso de las favoritas que ya no existen (se borran desde varias pantallas;
+     * los ids son de toda la BD, así que se comparan con todas las favoritas y no solo las del usuario)
+     */
+    private void forgetDeletedFavorites() {
+        Set<String> keys = usagePreferences.getAll().keySet();
+        if (keys.isEmpty()) return;
+        Set<Long> existing = new HashSet<>(favoriteRouteDao.getAllFavoriteRouteIds());
+        SharedPreferences.Editor editor = usagePreferences.edit();
+        boolean removed = false;
+        for (String key : keys) {
+            long id;
+            try {
+                id = Long.parseLong(key);
+            } catch (NumberFormatException e) {
+                id = -1;
+            }
+            if (existing.contains(id)) continue;
+            editor.remove(key);
+            usage.remove(id);
+            removed = true;
+        }
+        if (removed) {
+            editor.apply();
+            scheduleCommuteRefresh();
+        }
+    }
+
+    /**
+     * Programa un refresco un poco antes de la próxima hora habitual de cualquier favorita. Se ejecuta en
+     * el planificador del proceso (ver la documentación de la clase)
+     */
+    private synchronized void scheduleCommuteRefresh() {
+        if (commuteRefresh != null) commuteRefresh.cancel(false);
+        commuteRefresh = null;
+        long now = System.currentTimeMillis();
+        Calendar slotStart = Calendar.getInstance();
+        slotStart.setTimeInMillis(now);
+        slotStart.set(Calendar.MINUTE, 0);
+        slotStart.set(Calendar.SECOND, 0);
+        slotStart.set(Calendar.MILLISECOND, 0);
+        for (int i = 1; i <= SLOTS_PER_WEEK; i++) {
+            slotStart.add(Calendar.HOUR_OF_DAY, 1);
+            long at = slotStart.getTimeInMillis() - COMMUTE_LEAD_MS;
+            if (at <= now || !isCommuteSlot(slotOf(slotStart.getTimeInMillis()))) continue;
+            commuteRefresh = scheduler.schedule(() -> {
+                refresh();
+                scheduleCommuteRefresh();
+            }, at - now, TimeUnit.MILLISECONDS);
+            return;
+        }
+    }
+
+    private boolean isCommuteSlot(int slot) {
+        for (String key : usagePreferences.getAll().keySet()) {
+            try {
+                if (usageOf(Long.parseLong(key))[slot] >= COMMUTE_MIN_USES) return true;
+            } catch (NumberFormatException ignored) { }
+        }
+        return false;
+    }
+
+    /** Aperturas de la favorita en la hora actual y en la siguiente */
+    private int usageScore(long favoriteId, long now) {
+        int[] counts = usageOf(favoriteId);
+        int slot = slotOf(now);
+        return counts[slot] + counts[(slot + 1) % SLOTS_PER_WEEK];
+    }
+
+    private int[] usageOf(long favoriteId) {
+        int[] counts = usage.get(favoriteId);
+        if (counts == null) {
+            counts = decode(usagePreferences.getString(String.valueOf(favoriteId), null));
+            usage.put(favoriteId, counts);
+        }
+        return counts;
+    }
+
+    /** Hora de la semana (0 = domingo 00:00) */
+    private static int slotOf(long timeMs) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(timeMs);
+        return (c.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * 24 + c.get(Calendar.HOUR_OF_DAY);
+    }
+
+    private static String encode(int[] counts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(counts[i]);
+        }
+        return sb.toString();
+    }
+
+    private static int[] decode(String value) {
+        int[] counts = new int[SLOTS_PER_WEEK];
+        if (value == null) return counts;
+        String[] parts = value.split(",");
+        for (int i = 0; i < parts.length && i < SLOTS_PER_WEEK; i++) {
+            try { counts[i] = Integer.parseInt(parts[i]); } catch (NumberFormatException ignored) { }
+        }
+        return counts;
+    }
+
+    /** Duración de los tramos a pie anteriores al primer bus */
+    private static long leadingWalkMs(Route route) {
+        long walk = 0;
+        for (RouteSegment segment : route.getSegments()) {
+            if (segment.getType() == RouteSegment.SegmentType.BUS) break;
+            if (segment.getType() != RouteSegment.SegmentType.WALKING) continue;
+            if (segment.getStartTime() != null && segment.getEndTime() != null) {
+                walk += segment.getEndTime().getTime() - segment.getStartTime().getTime();
+            } else {
+                walk += segment.getDuration() * 60000L;
+            }
+        }
+        return walk;
+    }
+
+    private static Date firstBusStart(Route route) {
+        if (route.getSegments() == null) return null;
+        for (RouteSegment segment : route.getSegments()) {
+            if (segment.getType() == RouteSegment.SegmentType.BUS) return segment.getStartTime();
+        }
+        return null;
+    }
+
+    /**
+     * Próximas alternativas de una favorita y el momento en que se calcularon
+     */
+    public static final class WarmTrips {
+        public final long computedAt;
+        public final List<Route> routes;
+
+        WarmTrips(long computedAt, List<Route> routes) {
+            this.computedAt = computedAt;
+            this.routes = Collections.unmodifiableList(routes);
+        }
+
+        /** Llegada al destino de la primera alternativa */
+        public Date getArrival() {
+            List<RouteSegment> segments = routes.get(0).getSegments();
+            return segments == null || segments.isEmpty() ? null : segments.get(segments.size() - 1).getEndTime();
+        }
+
+        /** Salida del primer bus de la primera alternativa */
+        public Date getFirstBusDeparture() {
+            return firstBusStart(routes.get(0));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.ourenbus2.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.preference.PreferenceManager;
+
+import com.example.ourenbus2.util.gtfs.GtfsRealtimeFeed;
+import com.example.ourenbus2.util.gtfs.GtfsTimetable;
+import com.example.ourenbus2.util.gtfs.GtfsTimetableProvider;
+import com.example.ourenbus2.util.gtfs.RealtimeOverlay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servicio singleton que sondea un feed GTFS-Realtime (protobuf) y aplica sus retrasos y cancelaciones
+ * al horario en memoria como una {@link RealtimeOverlay}, sin recompilarlo.
+ * <p>
+ * La URL y el intervalo se configuran en ajustes; sin URL no se sondea. Admite http(s) y file:// (útil
+ * para pruebas con un feed local). Si una descarga falla se mantiene la capa anterior hasta que caduca.
+ */
+public class GtfsRealtimeService {
+
+    public static final String KEY_FEED_URL = "realtime_feed_url";
+    public static final String KEY_INTERVAL = "realtime_interval";
+    private static final int DEFAULT_INTERVAL_SECONDS = 30;
+    private static final int MIN_INTERVAL_SECONDS = 10;
+
+    private static GtfsRealtimeService instance;
+
+    private final Context appContext;
+    private final SharedPreferences preferences;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final MutableLiveData<List<GtfsRealtimeFeed.VehiclePosition>> vehicles = new MutableLiveData<>(Collections.emptyList());
+    private final MutableLiveData<List<GtfsRealtimeFeed.Alert>> alerts = new MutableLiveData<>(Collections.emptyList());
+
+    // Al cambiar la URL en ajustes se sondea enseguida (referencia fuerte: las preferencias la guardan débil)
+    private final SharedPreferences.OnSharedPreferenceChangeListener urlListener = (prefs, key) -> {
+        if (KEY_FEED_URL.equals(key)) pollNow();
+    };
+
+    private ScheduledFuture<?> nextPoll;
+    private boolean running;
+    // Cambia en cada start() para que un sondeo en curso de una tanda anterior no programe otro
+    private int generation;
+
+    private GtfsRealtimeService(Context context) {
+        appContext = context.getApplicationContext();
+        preferences = PreferenceManager.getDefaultSharedPreferences(appContext);
+        preferences.registerOnSharedPreferenceChangeListener(urlListener);
+    }
+
+    /**
+     * Obtener instancia del servicio (Singleton)
+     */
+    public static synchronized GtfsRealtimeService getInstance(Context context) {
+        if (instance == null) {
+            instance = new GtfsRealtimeService(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Empieza a sondear (al pasar la app a primer plano)
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        final int current = ++generation;
+        nextPoll = scheduler.schedule(() -> poll(current), 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Sondea ya y sigue desde ahí con el intervalo configurado
+     */
+    public synchronized void pollNow() {
+        if (!running) return;
+        if (nextPoll != null) nextPoll.cancel(false);
+        final int current = ++generation;
+        nextPoll = scheduler.schedule(() -> poll(current), 0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Deja de sondear; la última capa aplicada caduca sola
+     */
+    public synchronized void stop() {
+        running = false;
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+        }
+    }
+
+    /**
+     * Posiciones de los vehículos del último feed
+     */
+    public LiveData<List<GtfsRealtimeFeed.VehiclePosition>> getVehicles() {
+        return vehicles;
+    }
+
+    /**
+     * Avisos vigentes del último feed
+     */
+    public LiveData<List<GtfsRealtimeFeed.Alert>> getAlerts() {
+        return alerts;
+    }
+
+    private void poll(int pollGeneration) {
+        try {
+            String url = preferences.getString(KEY_FEED_URL, "").trim();
+            if (url.isEmpty()) return;
+            GtfsTimetable tt = GtfsTimetableProvider.get(appContext);
+            if (tt == null) return;
+            GtfsRealtimeFeed feed = GtfsRealtimeFeed.parse(download(url));
+            long now = System.currentTimeMillis();
+            Calendar day = Calendar.getInstance();
+            day.setTimeInMillis(now);
+            day.set(Calendar.HOUR_OF_DAY, 0);
+            day.set(Calendar.MINUTE, 0);
+            day.set(Calendar.SECOND, 0);
+            day.set(Calendar.MILLISECOND, 0);
+            tt.setRealtime(RealtimeOverlay.build(tt, feed, GtfsTimetable.serviceDate(day), day.getTimeInMillis() / 1000L, now));
+
+            List<GtfsRealtimeFeed.VehiclePosition> positioned = new ArrayList<>();
+            for (GtfsRealtimeFeed.VehiclePosition v : feed.vehicles) {
+                if (v.hasPosition) positioned.add(v);
+            }
+            List<GtfsRealtimeFeed.Alert> active = new ArrayList<>();
+            for (GtfsRealtimeFeed.Alert a : feed.alerts) {
+                if (a.isActive(now / 1000L)) active.add(a);
+            }
+            vehicles.postValue(Collections.unmodifiableList(positioned));
+            alerts.postValue(Collections.unmodifiableList(active));
+        } catch (Exception ignored) {
+            // Feed no disponible o corrupto: se reintenta en el siguiente sondeo
+        } finally {
+            scheduleNext(pollGeneration);
+        }
+    }
+
+    private synchronized void scheduleNext(int pollGeneration) {
+        if (!running || pollGeneration != generation) return;
+        nextPoll = scheduler.schedule(() -> poll(pollGeneration), intervalSeconds(), TimeUnit.SECONDS);
+    }
+
+    private int intervalSeconds() {
+        try {
+            int seconds = Integer.parseInt(preferences.getString(KEY_INTERVAL, String.valueOf(DEFAULT_INTERVAL_SECONDS)));
+            return Math.max(MIN_INTERVAL_SECONDS, seconds);
+        } catch (NumberFormatException e) {
+            return DEFAULT_INTERVAL_SECONDS;
+        }
+    }
+
+    private static byte[] download(String urlString) throws IOException {
+        URLConnection connection = new URL(urlString).openConnection();
+        connection.setConnectTimeout(10000);
+        connection.setReadTimeout(15000);
+        try {
+            if (connection instanceof HttpURLConnection) {
+                int code = ((HttpURLConnection) connection).getResponseCode();
+                if (code < 200 || code >= 300) throw new IOException("HTTP " + code);
+            }
+            try (InputStream is = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[16 * 1024];
+                int n;
+                while ((n = is.read(buffer)) != -1) out.write(buffer, 0, n);
+                return out.toByteArray();
+            }
+        } finally {
+            if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).disconnect();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
@@ -18,9 +19,12 @@ import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
+import com.google.android.gms.maps.LocationSource;
 
 /**
- * Servicio singleton para gestionar la ubicación del usuario
+ * Servicio singleton para gestionar la ubicación del usuario.
+ * Es la única fuente de ubicación de la app: la frecuencia y precisión de las peticiones
+ * dependen del {@link TrackingMode} (caminando, en el bus o esperando en la parada).
  */
 public class LocationService {
     
@@ -28,13 +32,50 @@ public class LocationService {
     private static final long LOCATION_UPDATE_INTERVAL = 10000; // 10 segundos
     private static final long FASTEST_UPDATE_INTERVAL = 5000; // 5 segundos
     
+    // Caminando: alta precisión y frecuencia para seguir calles y giros
+    private static final long WALKING_UPDATE_INTERVAL = 3000;
+    private static final long WALKING_FASTEST_INTERVAL = 1000;
+    private static final float WALKING_MIN_DISTANCE = 3f;
+    // En el bus: bajo consumo y entregas agrupadas (el GPS puede dormir entre lotes)
+    private static final long RIDING_UPDATE_INTERVAL = 15000;
+    private static final long RIDING_MAX_DELAY = 60000;
+    private static final float RIDING_MIN_DISTANCE = 25f;
+    // Esperando en la parada: solo ubicaciones que pidan otras apps
+    private static final long WAITING_UPDATE_INTERVAL = 60000;
+    
+    /**
+     * Radio alrededor de la parada de bajada en el que se pasa a alta precisión.
+     * Cubre lo que avanza un bus urbano durante un lote completo de RIDING_MAX_DELAY.
+     */
+    private static final float APPROACH_RADIUS_METERS = 700f;
+    
+    /**
+     * Modos de seguimiento de la ubicación
+     */
+    public enum TrackingMode {
+        /** Fuera de la navegación: mapa y búsqueda de rutas */
+        STANDARD,
+        /** Tramo a pie */
+        WALKING,
+        /** Tramo en bus */
+        RIDING,
+        /** Esperando el bus en la parada */
+        WAITING
+    }
+    
     private static LocationService instance;
     
     private final Context context;
     private final FusedLocationProviderClient fusedLocationClient;
-    private final LocationRequest locationRequest;
     private final LocationCallback locationCallback;
     
+    private TrackingMode trackingMode = TrackingMode.STANDARD;
+    private boolean updatesActive = false;
+    
+    // Parada de bajada vigilada mientras se va en el bus (null si no hay ninguna)
+    private double[] proximityTarget;
+    private final MutableLiveData<Boolean> approachingTarget = new MutableLiveData<>(false);
+    
     // LiveData para la ubicación
     private final MutableLiveData<Location> locationLiveData = new MutableLiveData<>();
     
@@ -48,15 +89,15 @@ public class LocationService {
         this.context = context.getApplicationContext();
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this.context);
         
-        // Configurar solicitud de ubicación
-        locationRequest = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, LOCATION_UPDATE_INTERVAL)
-                .setMinUpdateIntervalMillis(FASTEST_UPDATE_INTERVAL)
-                .build();
-        
         // Configurar callback de ubicación
         locationCallback = new LocationCallback() {
             @Override
             public void onLocationResult(@NonNull LocationResult locationResult) {
+                // En modo agrupado llegan varias ubicaciones a la vez: revisar todas por si alguna
+                // ya está junto a la parada de bajada
+                for (Location fix : locationResult.getLocations()) {
+                    checkProximity(fix);
+                }
                 Location location = locationResult.getLastLocation();
                 if (location != null) {
                     locationLiveData.setValue(location);
@@ -129,10 +170,11 @@ public class LocationService {
         }
         
         fusedLocationClient.requestLocationUpdates(
-                locationRequest,
+                buildLocationRequest(),
                 locationCallback,
                 Looper.getMainLooper()
         );
+        updatesActive = true;
     }
     
     /**
@@ -140,6 +182,96 @@ public class LocationService {
      */
     private void stopLocationUpdates() {
         fusedLocationClient.removeLocationUpdates(locationCallback);
+        updatesActive = false;
+    }
+    
+    /**
+     * Solicitud de ubicación para el modo actual. Al acercarse a la parada de bajada se usa
+     * la misma precisión que caminando aunque se siga en el bus.
+     */
+    private LocationRequest buildLocationRequest() {
+        TrackingMode mode = trackingMode;
+        if (mode == TrackingMode.RIDING && Boolean.TRUE.equals(approachingTarget.getValue())) {
+            mode = TrackingMode.WALKING;
+        }
+        switch (mode) {
+            case WALKING:
+                return new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, WALKING_UPDATE_INTERVAL)
+                        .setMinUpdateIntervalMillis(WALKING_FASTEST_INTERVAL)
+                        .setMinUpdateDistanceMeters(WALKING_MIN_DISTANCE)
+                        .build();
+            case RIDING:
+                return new LocationRequest.Builder(Priority.PRIORITY_BALANCED_POWER_ACCURACY, RIDING_UPDATE_INTERVAL)
+                        .setMaxUpdateDelayMillis(RIDING_MAX_DELAY)
+                        .setMinUpdateDistanceMeters(RIDING_MIN_DISTANCE)
+                        .build();
+            case WAITING:
+                return new LocationRequest.Builder(Priority.PRIORITY_PASSIVE, WAITING_UPDATE_INTERVAL)
+                        .build();
+            case STANDARD:
+            default:
+                return new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, LOCATION_UPDATE_INTERVAL)
+                        .setMinUpdateIntervalMillis(FASTEST_UPDATE_INTERVAL)
+                        .build();
+        }
+    }
+    
+    /**
+     * Vuelve a registrar las actualizaciones con la solicitud del modo actual
+     */
+    private void applyLocationRequest() {
+        if (!updatesActive) return;
+        fusedLocationClient.removeLocationUpdates(locationCallback);
+        startLocationUpdates();
+    }
+    
+    /**
+     * Cambia el modo de seguimiento. Solo se vuelve a registrar la petición si el modo cambia.
+     */
+    public void setTrackingMode(TrackingMode mode) {
+        if (mode == null || mode == trackingMode) return;
+        trackingMode = mode;
+        applyLocationRequest();
+    }
+    
+    public TrackingMode getTrackingMode() {
+        return trackingMode;
+    }
+    
+    /**
+     * Vigila la llegada a un punto (la parada de bajada): al entrar en el radio de aproximación
+     * se notifica por {@link #isApproachingTarget()} y se sube la precisión.
+     */
+    public void setProximityTarget(double latitude, double longitude) {
+        proximityTarget = new double[]{latitude, longitude};
+        if (Boolean.TRUE.equals(approachingTarget.getValue())) {
+            approachingTarget.setValue(false);
+            applyLocationRequest();
+        }
+        Location last = locationLiveData.getValue();
+        if (last != null) checkProximity(last);
+    }
+    
+    /**
+     * Deja de vigilar el punto de llegada
+     */
+    public void clearProximityTarget() {
+        proximityTarget = null;
+        if (Boolean.TRUE.equals(approachingTarget.getValue())) {
+            approachingTarget.setValue(false);
+            applyLocationRequest();
+        }
+    }
+    
+    private void checkProximity(Location location) {
+        double[] target = proximityTarget;
+        if (target == null || location == null || Boolean.TRUE.equals(approachingTarget.getValue())) return;
+        float[] distance = new float[1];
+        Location.distanceBetween(location.getLatitude(), location.getLongitude(), target[0], target[1], distance);
+        if (distance[0] <= APPROACH_RADIUS_METERS) {
+            approachingTarget.setValue(true);
+            applyLocationRequest();
+        }
     }
     
     /**
@@ -179,6 +311,39 @@ public class LocationService {
         return locationLiveData;
     }
     
+    /**
+     * Indica si el usuario ha entrado en el radio de la parada de bajada vigilada
+     */
+    public LiveData<Boolean> isApproachingTarget() {
+        return approachingTarget;
+    }
+    
+    /**
+     * Fuente de ubicación para la capa "mi ubicación" de Google Maps, de modo que el mapa
+     * use estas actualizaciones en lugar de abrir su propia petición al proveedor.
+     */
+    public LocationSource getMapLocationSource() {
+        return new LocationSource() {
+            private Observer<Location> observer;
+            
+            @Override
+            public void activate(@NonNull OnLocationChangedListener listener) {
+                observer = location -> {
+                    if (location != null) listener.onLocationChanged(location);
+                };
+                locationLiveData.observeForever(observer);
+            }
+            
+            @Override
+            public void deactivate() {
+                if (observer != null) {
+                    locationLiveData.removeObserver(observer);
+                    observer = null;
+                }
+            }
+        };
+    }
+    
     /**
      * Obtiene el LiveData del estado de los permisos
      */
@@ -0,0 +1,183 @@
+package com.example.ourenbus2.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.example.ourenbus2.model.Location;
+import com.example.ourenbus2.model.RouteSegment;
+import com.example.ourenbus2.util.geo.DecodedPolyline;
+import com.example.ourenbus2.util.geo.PolylineCodec;
+import com.example.ourenbus2.util.geo.SimplifiedPolyline;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Servicio singleton que prepara la geometría de una ruta para el mapa.
+ * Decodifica las polilíneas en segundo plano (con caché LRU por cadena codificada), precalcula
+ * sus niveles de simplificación y entrega en el hilo principal puntos y límites listos para dibujar.
+ */
+public class RouteGeometryService {
+
+    // Tamaño de la caché en nº total de vértices decodificados
+    private static final int CACHE_MAX_POINTS = 200_000;
+
+    // Metros por píxel en el ecuador a zoom 0 (proyección de Google Maps, teselas de 256 px)
+    private static final double METERS_PER_PIXEL_ZOOM_0 = 156_543.03392;
+
+    private static RouteGeometryService instance;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, SimplifiedPolyline> decodedCache = new LruCache<String, SimplifiedPolyline>(CACHE_MAX_POINTS) {
+        @Override
+        protected int sizeOf(String key, SimplifiedPolyline value) {
+            return Math.max(1, value.getStoredSize());
+        }
+    };
+
+    private RouteGeometryService() { }
+
+    /**
+     * Obtener instancia del servicio (Singleton)
+     */
+    public static synchronized RouteGeometryService getInstance() {
+        if (instance == null) {
+            instance = new RouteGeometryService();
+        }
+        return instance;
+    }
+
+    /**
+     * Devuelve la polilínea decodificada con sus niveles de simplificación, usando la caché.
+     * Puede llamarse desde cualquier hilo.
+     */
+    public SimplifiedPolyline getSimplified(String encoded) {
+        if (encoded == null || encoded.isEmpty()) return null;
+        SimplifiedPolyline simplified = decodedCache.get(encoded);
+        if (simplified == null) {
+            simplified = SimplifiedPolyline.of(PolylineCodec.decode(encoded));
+            decodedCache.put(encoded, simplified);
+        }
+        return simplified;
+    }
+
+    /**
+     * Devuelve la polilínea decodificada, usando la caché. Puede llamarse desde cualquier hilo.
+     */
+    public DecodedPolyline getDecoded(String encoded) {
+        SimplifiedPolyline simplified = getSimplified(encoded);
+        return simplified != null ? simplified.getPolyline() : null;
+    }
+
+    /**
+     * Prepara en segundo plano la geometría de los segmentos y la entrega en el hilo principal.
+     * Los segmentos de espera no tienen recorrido y se omiten.
+     *
+     * @param segments Segmentos de la ruta
+     * @param callback Receptor de la geometría
+     */
+    public void prepare(List<RouteSegment> segments, GeometryCallback callback) {
+        final List<RouteSegment> copy = segments != null ? new ArrayList<>(segments) : Collections.<RouteSegment>emptyList();
+        executor.execute(() -> {
+            RouteGeometry geometry = build(copy);
+            mainHandler.post(() -> callback.onGeometryReady(geometry));
+        });
+    }
+
+    private RouteGeometry build(List<RouteSegment> segments) {
+        List<SegmentGeometry> out = new ArrayList<>();
+        LatLngBounds.Builder boundsBuilder = new LatLngBounds.Builder();
+        boolean hasPoints = false;
+        for (RouteSegment segment : segments) {
+            if (segment.getType() == RouteSegment.SegmentType.WAIT) continue;
+            List<LatLng> points = new ArrayList<>();
+            List<List<LatLng>> levels = new ArrayList<>();
+            SimplifiedPolyline simplified = getSimplified(segment.getPolylineEncoded());
+            if (simplified != null && simplified.getPolyline().size() > 1) {
+                DecodedPolyline decoded = simplified.getPolyline();
+                for (int i = 0; i < decoded.size(); i++) {
+                    points.add(new LatLng(decoded.getLatitude(i), decoded.getLongitude(i)));
+                }
+                // Los niveles reutilizan los LatLng del nivel completo
+                levels.add(Collections.unmodifiableList(points));
+                for (int level = 1; level < simplified.getLevelCount(); level++) {
+                    int[] indices = simplified.getLevel(level);
+                    List<LatLng> levelPoints = new ArrayList<>(indices.length);
+                    for (int index : indices) levelPoints.add(points.get(index));
+                    levels.add(Collections.unmodifiableList(levelPoints));
+                }
+            } else {
+                // Sin polilínea: línea recta entre los extremos del segmento
+                Location start = segment.getStartLocation();
+                Location end = segment.getEndLocation();
+                if (start != null && end != null) {
+                    points.add(new LatLng(start.getLatitude(), start.getLongitude()));
+                    points.add(new LatLng(end.getLatitude(), end.getLongitude()));
+                }
+            }
+            if (levels.isEmpty()) levels.add(Collections.unmodifiableList(points));
+            for (LatLng p : points) boundsBuilder.include(p);
+            hasPoints |= !points.isEmpty();
+            out.add(new SegmentGeometry(segment, levels));
+        }
+        return new RouteGeometry(Collections.unmodifiableList(out), hasPoints ? boundsBuilder.build() : null);
+    }
+
+    /**
+     * Geometría lista para dibujar de un segmento, con un nivel por tolerancia de simplificación
+     */
+    public static class SegmentGeometry {
+        public final RouteSegment segment;
+        public final List<LatLng> points;
+        private final List<List<LatLng>> levels;
+
+        SegmentGeometry(RouteSegment segment, List<List<LatLng>> levels) {
+            this.segment = segment;
+            this.points = levels.get(0);
+            this.levels = Collections.unmodifiableList(levels);
+        }
+
+        /**
+         * Puntos del nivel indicado (o del más simplificado disponible)
+         */
+        public List<LatLng> getPoints(int level) {
+            return levels.get(Math.max(0, Math.min(level, levels.size() - 1)));
+        }
+    }
+
+    /**
+     * Geometría de una ruta completa: segmentos dibujables y límites (null si no hay puntos)
+     */
+    public static class RouteGeometry {
+        public final List<SegmentGeometry> segments;
+        public final LatLngBounds bounds;
+
+        RouteGeometry(List<SegmentGeometry> segments, LatLngBounds bounds) {
+            this.segments = segments;
+            this.bounds = bounds;
+        }
+
+        /**
+         * Nivel de simplificación adecuado para el zoom de cámara indicado
+         */
+        public int levelForZoom(float zoom) {
+            double latitude = bounds != null ? bounds.getCenter().latitude : 0;
+            double metersPerPixel = METERS_PER_PIXEL_ZOOM_0 * Math.cos(Math.toRadians(latitude)) / Math.pow(2, zoom);
+            return SimplifiedPolyline.levelForResolution(metersPerPixel);
+        }
+    }
+
+    /**
+     * Callback para recibir la geometría preparada
+     */
+    public interface GeometryCallback {
+        void onGeometryReady(RouteGeometry geometry);
+    }
+}
@@ -0,0 +1,370 @@
+package com.example.ourenbus2.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.ourenbus2.model.Location;
+import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.model.RouteSegment;
+import com.example.ourenbus2.util.RouteGenerator;
+import com.example.ourenbus2.util.gtfs.GtfsImporter;
+import com.example.ourenbus2.util.gtfs.GtfsRouter;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Servicio singleton que calcula una ruta lanzando a la vez el enrutado local (GTFS) y Directions.
+ * <p>
+ * Al vencer el plazo ({@link #DEADLINE_MS}), o antes si ya han respondido las dos fuentes, se muestra
+ * la mejor ruta disponible; si después llega una claramente mejor, se sustituye. Si ninguna fuente
+ * devuelve ruta se recurre a la ruta a pie (red peatonal local o Directions) y, en último caso, a la
+ * ruta de ejemplo. Anota en preferencias qué fuente gana, cuánto tarda cada una y cuántas mejoras
+ * llegan tarde, para ajustar el plazo.
+ */
+public class RouteOrchestrator {
+
+    /** Plazo para mostrar la primera ruta */
+    public static final long DEADLINE_MS = 2000;
+    // Mejora mínima (llegar antes o salir más tarde) para cambiar la ruta elegida o ya mostrada
+    private static final long UPGRADE_MARGIN_MS = 2 * 60 * 1000L;
+    // Salidas que se piden a Directions al salir ahora (minutos desde ahora)
+    private static final int[] DIRECTIONS_DEPARTURE_OFFSETS_MIN = {0, 5, 10, 15};
+    private static final String PREF_NAME = "routing_sources";
+
+    /**
+     * Origen de una ruta mostrada
+     */
+    public enum Source { LOCAL, DIRECTIONS, WALKING, SAMPLE }
+
+    /**
+     * Recibe las rutas de una búsqueda (desde hilos en segundo plano)
+     */
+    public interface Listener {
+        /** Ruta a mostrar: la primera al vencer el plazo y después cada mejora */
+        void onRoute(Route route, Source source);
+
+        /** Han terminado todas las fuentes; error si no se ha podido mostrar ninguna ruta */
+        void onComplete(String error);
+    }
+
+    private static RouteOrchestrator instance;
+
+    private final DirectionsHttpService directionsService;
+    private final Context appContext;
+    private final SharedPreferences stats;
+    // Enrutado local y peticiones a Directions en paralelo
+    private final ExecutorService executor = Executors.newFixedThreadPool(DIRECTIONS_DEPARTURE_OFFSETS_MIN.length + 1);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private RouteOrchestrator(Context context) {
+        appContext = context.getApplicationContext();
+        directionsService = new DirectionsHttpService(appContext);
+        stats = appContext.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Obtener instancia del servicio (Singleton)
+     */
+    public static synchronized RouteOrchestrator getInstance(Context context) {
+        if (instance == null) {
+            instance = new RouteOrchestrator(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Empieza una búsqueda
+     *
+     * @param apiKey   Clave de Directions; sin ella solo se usa el enrutado local
+     * @param arriveBy Hora de llegada deseada, o null para salir ahora
+     * @return Búsqueda en curso, para cancelarla si se lanza otra
+     */
+    public Search search(String apiKey, Location origin, Location destination, Date arriveBy, Listener listener) {
+        Search search = new Search(apiKey, origin, destination, arriveBy, listener);
+        search.start();
+        return search;
+    }
+
+    /**
+     * Contadores por fuente: primera ruta mostrada, al vencer el plazo o después si no había ninguna
+     * ({@code shown_}), mejoras de una ruta ya mostrada ({@code upgraded_}), respuestas tras el plazo
+     * ({@code late_}), respuestas con ruta ({@code results_}) y milisegundos acumulados de respuesta
+     * ({@code latency_ms_})
+     */
+    public Map<String, ?> getSourceStats() {
+        return stats.getAll();
+    }
+
+    private void count(String key, Source source, long amount) {
+        String name = key + source.name();
+        synchronized (stats) {
+            stats.edit().putLong(name, stats.getLong(name, 0) + amount).apply();
+        }
+    }
+
+    /**
+     * Una búsqueda en curso. Las dos fuentes terminan en cualquier orden; el estado se protege con el
+     * propio objeto.
+     */
+    public final class Search {
+        private final String apiKey;
+        private final Location origin;
+        private final Location destination;
+        private final Date arriveBy;
+        private final Listener listener;
+        private final long startedAt = System.currentTimeMillis();
+
+        private CompletableFuture<Route> local;
+        private CompletableFuture<Route> directions;
+        private ScheduledFuture<?> deadline;
+        private Route localRoute;
+        private Route directionsRoute;
+        private int finished;
+        private boolean deadlinePassed;
+        private boolean cancelled;
+        private Route shown;
+
+        Search(String apiKey, Location origin, Location destination, Date arriveBy, Listener listener) {
+            this.apiKey = apiKey;
+            this.origin = origin;
+            this.destination = destination;
+            this.arriveBy = arriveBy;
+            this.listener = listener;
+        }
+
+        /**
+         * Descarta la búsqueda: no se notifica nada más
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            if (deadline != null) deadline.cancel(false);
+            if (local != null) local.cancel(false);
+            if (directions != null) directions.cancel(false);
+        }
+
+        private void start() {
+            local = CompletableFuture.supplyAsync(this::routeLocally, executor);
+            directions = routeWithDirections();
+            local.whenComplete((route, error) -> onResult(Source.LOCAL, route));
+            directions.whenComplete((route, error) -> onResult(Source.DIRECTIONS, route));
+            synchronized (this) {
+                if (!deadlinePassed) deadline = scheduler.schedule(this::onDeadline, DEADLINE_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private Route routeLocally() {
+            try { GtfsImporter.importIfEmpty(appContext); } catch (Exception ignored) { }
+            if (!GtfsRouter.hasData(appContext)) return null;
+            Route route = arriveBy != null
+                    ? GtfsRouter.findRouteArrivingBy(appContext, origin, destination, arriveBy)
+                    : GtfsRouter.findSimpleRoute(appContext, origin, destination);
+            return route != null && route.isValid() ? route : null;
+        }
+
+        /**
+         * Peticiones de transporte público a Directions en paralelo (una por salida candidata, o una
+         * sola al pedir una llegada) y elección de la mejor con preferencia por el bus
+         */
+        private CompletableFuture<Route> routeWithDirections() {
+            if (apiKey == null || apiKey.isEmpty()) return CompletableFuture.completedFuture(null);
+            List<CompletableFuture<List<Route>>> requests = new ArrayList<>();
+            if (arriveBy != null) {
+                long arrivalEpoch = arriveBy.getTime() / 1000L;
+                requests.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return directionsService.getTransitRoutesArrivingBy(apiKey, origin, destination, arrivalEpoch);
+                    } catch (Exception e) { return null; }
+                }, executor));
+            } else {
+                long now = startedAt / 1000L;
+                for (int offset : DIRECTIONS_DEPARTURE_OFFSETS_MIN) {
+                    long departureEpoch = now + offset * 60L;
+                    requests.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return directionsService.getTransitRoutesAtCandidates(apiKey, origin, destination, departureEpoch);
+                        } catch (Exception e) { return null; }
+                    }, executor));
+                }
+            }
+            return CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).thenApply(done -> {
+                List<Route> candidates = new ArrayList<>();
+                for (CompletableFuture<List<Route>> request : requests) {
+                    List<Route> batch = request.join();
+                    if (batch == null) continue;
+                    for (Route r : batch) if (r != null && r.isValid()) candidates.add(r);
+                }
+                return candidates.isEmpty() ? null : pickBestBusBiased(candidates);
+            });
+        }
+
+        private void onResult(Source source, Route route) {
+            boolean complete;
+            synchronized (this) {
+                if (cancelled) return;
+                long latency = System.currentTimeMillis() - startedAt;
+                if (route != null) {
+                    count("results_", source, 1);
+                    count("latency_ms_", source, latency);
+                }
+                if (source == Source.LOCAL) localRoute = route;
+                else directionsRoute = route;
+                finished++;
+                complete = finished == 2;
+                if (deadlinePassed) {
+                    if (route != null) count("late_", source, 1);
+                    if (isBetter(route, shown)) {
+                        // Si al vencer el plazo no había ninguna, la primera que llega cuenta como mostrada
+                        count(shown == null ? "shown_" : "upgraded_", source, 1);
+                        shown = route;
+                        // Con el cerrojo tomado: las rutas llegan al listener en el orden en que se aceptan
+                        listener.onRoute(route, source);
+                    }
+                }
+            }
+            // Con las dos respuestas no hace falta esperar al plazo
+            if (complete) {
+                onDeadline();
+                finish();
+            }
+        }
+
+        private synchronized void onDeadline() {
+            if (cancelled || deadlinePassed) return;
+            deadlinePassed = true;
+            if (deadline != null) deadline.cancel(false);
+            // A igualdad gana la local: no gasta cuota y lleva los retrasos de tiempo real
+            Route best;
+            Source source;
+            if (isBetter(directionsRoute, localRoute)) {
+                best = directionsRoute;
+                source = Source.DIRECTIONS;
+            } else {
+                best = localRoute;
+                source = Source.LOCAL;
+            }
+            if (best == null) return;
+            shown = best;
+            count("shown_", source, 1);
+            listener.onRoute(best, source);
+        }
+
+        /**
+         * Las dos fuentes han respondido: si no se ha mostrado nada, ruta a pie o de ejemplo
+         */
+        private void finish() {
+            synchronized (this) {
+                if (cancelled) return;
+                if (shown != null) {
+                    listener.onComplete(null);
+                    return;
+                }
+            }
+            executor.execute(() -> {
+                Route route = GtfsRouter.findWalkingRoute(appContext, origin, destination, new Date());
+                if ((route == null || !route.isValid()) && apiKey != null && !apiKey.isEmpty()) {
+                    try {
+                        route = directionsService.getBestWalkingRoute(apiKey, origin, destination);
+                    } catch (Exception ignored) { }
+                }
+                Source source = Source.WALKING;
+                if (route == null || !route.isValid()) {
+                    route = RouteGenerator.generateSampleRoute(origin, destination);
+                    source = Source.SAMPLE;
+                }
+                synchronized (this) {
+                    if (cancelled) return;
+                    if (route != null && route.isValid()) {
+                        shown = route;
+                        count("shown_", source, 1);
+                        listener.onRoute(route, source);
+                        listener.onComplete(null);
+                    } else {
+                        listener.onComplete("No se pudo calcular la ruta");
+                    }
+                }
+            });
+        }
+
+        /**
+         * Llega al menos el margen de mejora antes que la actual (o, al pedir una llegada, sale al menos
+         * ese tiempo más tarde)
+         */
+        private boolean isBetter(Route candidate, Route current) {
+            if (candidate == null) return false;
+            if (current == null) return true;
+            if (arriveBy != null) return startTime(candidate) - startTime(current) >= UPGRADE_MARGIN_MS;
+            return endTime(current) - endTime(candidate) >= UPGRADE_MARGIN_MS;
+        }
+    }
+
+    private static long startTime(Route route) {
+        List<RouteSegment> segments = route.getSegments();
+        Date start = segments != null && !segments.isEmpty() ? segments.get(0).getStartTime() : null;
+        return start != null ? start.getTime() : Long.MIN_VALUE;
+    }
+
+    private static long endTime(Route route) {
+        List<RouteSegment> segments = route.getSegments();
+        Date end = segments != null && !segments.isEmpty() ? segments.get(segments.size() - 1).getEndTime() : null;
+        return end != null ? end.getTime() : Long.MAX_VALUE;
+    }
+
+    private static Route pickBestBusBiased(List<Route> routes) {
+        Route bestAcceptable = null;
+        double bestAcceptableScore = -1e9;
+        Route bestFallback = null;
+        double bestFallbackScore = -1e9;
+        int bestFallbackMaxWait = Integer.MAX_VALUE;
+        final int MAX_WAIT_MIN = 10;
+        for (Route r : routes) {
+            int minutesBus = 0;
+            int minutesWalk = 0;
+            int minutesWait = 0;
+            int busSegments = 0;
+            int maxWait = 0;
+            if (r.getSegments() != null) {
+                for (RouteSegment s : r.getSegments()) {
+                    switch (s.getType()) {
+                        case BUS:
+                            minutesBus += s.getDuration();
+                            busSegments++;
+                            break;
+                        case WALKING:
+                            minutesWalk += s.getDuration();
+                            break;
+                        case WAIT:
+                            minutesWait += s.getDuration();
+                            if (s.getDuration() > maxWait) maxWait = s.getDuration();
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            int waitOver = Math.max(0, minutesWait - MAX_WAIT_MIN);
+            double score = minutesBus * 2.0 + busSegments * 1.0 - minutesWalk * 1.0 - waitOver * 3.0;
+            score += -0.01 * r.getTotalDuration();
+            score += -0.001 * (minutesWalk);
+            if (maxWait <= MAX_WAIT_MIN) {
+                if (score > bestAcceptableScore) { bestAcceptableScore = score; bestAcceptable = r; }
+            } else {
+                if (maxWait < bestFallbackMaxWait || (maxWait == bestFallbackMaxWait && score > bestFallbackScore)) {
+                    bestFallbackMaxWait = maxWait;
+                    bestFallbackScore = score;
+                    bestFallback = r;
+                }
+            }
+        }
+        if (bestAcceptable != null) return bestAcceptable;
+        return bestFallback != null ? bestFallback : routes.get(0);
+    }
+}
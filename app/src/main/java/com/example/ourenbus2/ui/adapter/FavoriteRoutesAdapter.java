@@ -7,29 +7,45 @@ import android.widget.ImageButton;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
 import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.ourenbus2.R;
-import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.database.entity.FavoriteRouteSummary;
+import com.example.ourenbus2.service.FavoriteTripsRefresher;
 
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 
 /**
- * Adaptador para mostrar rutas favoritas en un RecyclerView
+ * Adaptador paginado para mostrar rutas favoritas en un RecyclerView.
+ * Solo trabaja con resúmenes (nombre, origen, destino y fecha); la ruta completa
+ * se decodifica aparte cuando el elemento se abre o está a punto de mostrarse.
  */
-public class FavoriteRoutesAdapter extends ListAdapter<Route, FavoriteRoutesAdapter.RouteViewHolder> {
+public class FavoriteRoutesAdapter extends PagingDataAdapter<FavoriteRouteSummary, FavoriteRoutesAdapter.RouteViewHolder> {
 
     private final OnRouteClickListener listener;
     private final SimpleDateFormat dateFormat;
+    private final SimpleDateFormat timeFormat;
+    private Map<Long, FavoriteTripsRefresher.WarmTrips> warmTrips = Collections.emptyMap();
 
     public FavoriteRoutesAdapter(OnRouteClickListener listener) {
         super(DIFF_CALLBACK);
         this.listener = listener;
         this.dateFormat = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
+        this.timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    }
+
+    /**
+     * Actualiza las próximas salidas precalculadas que se muestran bajo cada favorita
+     */
+    public void setWarmTrips(Map<Long, FavoriteTripsRefresher.WarmTrips> warmTrips) {
+        this.warmTrips = warmTrips != null ? warmTrips : Collections.emptyMap();
+        notifyItemRangeChanged(0, getItemCount());
     }
 
     @NonNull
@@ -42,8 +58,14 @@ public class FavoriteRoutesAdapter extends ListAdapter<Route, FavoriteRoutesAdap
 
     @Override
     public void onBindViewHolder(@NonNull RouteViewHolder holder, int position) {
-        Route current = getItem(position);
-        holder.bind(current, listener);
+        FavoriteRouteSummary current = getItem(position);
+        if (current == null) return;
+        holder.bind(current, dateFormat, listener);
+        holder.bindNextTrip(warmTrips.get(current.id), timeFormat);
+        // El elemento entra (o está a punto de entrar) en pantalla: decodificar la ruta en segundo plano
+        if (listener != null) {
+            listener.onRouteNearby(current);
+        }
     }
 
     static class RouteViewHolder extends RecyclerView.ViewHolder {
@@ -51,6 +73,7 @@ public class FavoriteRoutesAdapter extends ListAdapter<Route, FavoriteRoutesAdap
         private final TextView tvRouteOrigin;
         private final TextView tvRouteDestination;
         private final TextView tvRouteSavedDate;
+        private final TextView tvRouteNextTrip;
         private final ImageButton btnDelete;
 
         RouteViewHolder(@NonNull View itemView) {
@@ -59,41 +82,40 @@ public class FavoriteRoutesAdapter extends ListAdapter<Route, FavoriteRoutesAdap
             tvRouteOrigin = itemView.findViewById(R.id.tv_route_origin);
             tvRouteDestination = itemView.findViewById(R.id.tv_route_destination);
             tvRouteSavedDate = itemView.findViewById(R.id.tv_route_saved_date);
+            tvRouteNextTrip = itemView.findViewById(R.id.tv_route_next_trip);
             btnDelete = itemView.findViewById(R.id.btn_delete_route);
         }
 
-        void bind(final Route route, final OnRouteClickListener listener) {
+        void bind(final FavoriteRouteSummary route, SimpleDateFormat dateFormat, final OnRouteClickListener listener) {
+            String originName = route.origin != null ? route.origin.getName() : "";
+            String destinationName = route.destination != null ? route.destination.getName() : "";
+
             // Nombre de la ruta (si tiene uno personalizado)
-            String name = route.getName();
-            if (name != null && !name.isEmpty()) {
-                tvRouteName.setText(name);
+            if (route.name != null && !route.name.isEmpty()) {
+                tvRouteName.setText(route.name);
             } else {
                 // Si no tiene nombre personalizado, usamos origen -> destino
-                tvRouteName.setText(route.getOrigin().getName() + " → " + route.getDestination().getName());
+                tvRouteName.setText(originName + " → " + destinationName);
             }
-            
+
             // Origen y destino
-            tvRouteOrigin.setText(route.getOrigin().getName());
-            tvRouteDestination.setText(route.getDestination().getName());
-            
+            tvRouteOrigin.setText(originName);
+            tvRouteDestination.setText(destinationName);
+
             // Fecha de guardado
-            Date savedDate = route.getSavedDate();
-            if (savedDate != null) {
-                // Formatear fecha de guardado
-                SimpleDateFormat fmt = new SimpleDateFormat("dd/MM/yyyy HH:mm", Locale.getDefault());
-                String formattedDate = fmt.format(savedDate);
-                tvRouteSavedDate.setText(formattedDate);
+            if (route.timestamp > 0) {
+                tvRouteSavedDate.setText(dateFormat.format(new Date(route.timestamp)));
             } else {
                 tvRouteSavedDate.setText("");
             }
-            
+
             // Click en el elemento
             itemView.setOnClickListener(v -> {
                 if (listener != null) {
                     listener.onRouteClicked(route);
                 }
             });
-            
+
             // Click en el botón eliminar
             btnDelete.setOnClickListener(v -> {
                 if (listener != null) {
@@ -101,41 +123,35 @@ public class FavoriteRoutesAdapter extends ListAdapter<Route, FavoriteRoutesAdap
                 }
             });
         }
-    }
-    
-    @Override
-    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
-        super.onAttachedToRecyclerView(recyclerView);
-        // Guardar el formateador de fecha en el tag del RecyclerView para evitar recrearlo
-        recyclerView.setTag(dateFormat);
+
+        void bindNextTrip(FavoriteTripsRefresher.WarmTrips trips, SimpleDateFormat timeFormat) {
+            Date departure = trips != null ? trips.getFirstBusDeparture() : null;
+            Date arrival = trips != null ? trips.getArrival() : null;
+            if (departure == null || arrival == null) {
+                tvRouteNextTrip.setVisibility(View.GONE);
+                return;
+            }
+            tvRouteNextTrip.setText(itemView.getContext().getString(R.string.favorite_next_trip,
+                    timeFormat.format(departure), timeFormat.format(arrival)));
+            tvRouteNextTrip.setVisibility(View.VISIBLE);
+        }
     }
 
     public interface OnRouteClickListener {
-        void onRouteClicked(Route route);
-        void onRouteDeleteClicked(Route route);
+        void onRouteClicked(FavoriteRouteSummary route);
+        void onRouteDeleteClicked(FavoriteRouteSummary route);
+        void onRouteNearby(FavoriteRouteSummary route);
     }
 
-    private static final DiffUtil.ItemCallback<Route> DIFF_CALLBACK = new DiffUtil.ItemCallback<Route>() {
+    private static final DiffUtil.ItemCallback<FavoriteRouteSummary> DIFF_CALLBACK = new DiffUtil.ItemCallback<FavoriteRouteSummary>() {
         @Override
-        public boolean areItemsTheSame(@NonNull Route oldItem, @NonNull Route newItem) {
-            // Comparamos por combinación estable de origen/destino (coordenadas) y nombre
-            String oldKey = buildKey(oldItem);
-            String newKey = buildKey(newItem);
-            return oldKey.equals(newKey);
+        public boolean areItemsTheSame(@NonNull FavoriteRouteSummary oldItem, @NonNull FavoriteRouteSummary newItem) {
+            return oldItem.id == newItem.id;
         }
 
         @Override
-        public boolean areContentsTheSame(@NonNull Route oldItem, @NonNull Route newItem) {
-            // Comparamos el contenido completo
+        public boolean areContentsTheSame(@NonNull FavoriteRouteSummary oldItem, @NonNull FavoriteRouteSummary newItem) {
             return oldItem.equals(newItem);
         }
     };
-
-    private static String buildKey(Route r) {
-        if (r == null || r.getOrigin() == null || r.getDestination() == null) return String.valueOf(r != null ? r.getId() : 0);
-        return String.format(java.util.Locale.US, "%s|%.6f,%.6f|%.6f,%.6f",
-                r.getName() != null ? r.getName() : "",
-                r.getOrigin().getLatitude(), r.getOrigin().getLongitude(),
-                r.getDestination().getLatitude(), r.getDestination().getLongitude());
-    }
-} 
\ No newline at end of file
+}
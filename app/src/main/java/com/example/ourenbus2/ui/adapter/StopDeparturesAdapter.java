@@ -0,0 +1,103 @@
+package com.example.ourenbus2.ui.adapter;
+
+import android.graphics.Color;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.ourenbus2.R;
+import com.example.ourenbus2.model.StopDeparture;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Adaptador para el panel de próximas salidas de una parada
+ */
+public class StopDeparturesAdapter extends ListAdapter<StopDeparture, StopDeparturesAdapter.DepartureViewHolder> {
+
+    private final SimpleDateFormat timeFormat;
+    private long now = System.currentTimeMillis();
+
+    public StopDeparturesAdapter() {
+        super(DIFF_CALLBACK);
+        this.timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    }
+
+    /**
+     * Hora de referencia para los minutos que faltan en cada salida
+     */
+    public void setNow(long now) {
+        this.now = now;
+    }
+
+    @NonNull
+    @Override
+    public DepartureViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View itemView = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_stop_departure, parent, false);
+        return new DepartureViewHolder(itemView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull DepartureViewHolder holder, int position) {
+        holder.bind(getItem(position), timeFormat, now);
+    }
+
+    static class DepartureViewHolder extends RecyclerView.ViewHolder {
+        private final TextView tvLine;
+        private final TextView tvHeadsign;
+        private final TextView tvTime;
+
+        DepartureViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvLine = itemView.findViewById(R.id.tv_departure_line);
+            tvHeadsign = itemView.findViewById(R.id.tv_departure_headsign);
+            tvTime = itemView.findViewById(R.id.tv_departure_time);
+        }
+
+        void bind(StopDeparture departure, SimpleDateFormat timeFormat, long now) {
+            tvLine.setText(departure.getLineNumber());
+            tvLine.setBackgroundColor(parseColor(departure.getLineColor()));
+            tvHeadsign.setText(departure.getHeadsign());
+
+            long minutes = (departure.getDepartureTime().getTime() - now) / 60000L;
+            String clock = timeFormat.format(departure.getDepartureTime());
+            if (minutes <= 0) {
+                tvTime.setText(R.string.departure_now);
+            } else {
+                tvTime.setText(itemView.getContext().getString(R.string.departure_in_minutes, (int) minutes, clock));
+            }
+        }
+
+        private int parseColor(String gtfsColor) {
+            if (gtfsColor != null && !gtfsColor.isEmpty()) {
+                try {
+                    return Color.parseColor(gtfsColor.startsWith("#") ? gtfsColor : "#" + gtfsColor);
+                } catch (IllegalArgumentException ignored) {
+                    // Color GTFS no válido: usar el color principal
+                }
+            }
+            return ContextCompat.getColor(itemView.getContext(), R.color.primary);
+        }
+    }
+
+    private static final DiffUtil.ItemCallback<StopDeparture> DIFF_CALLBACK = new DiffUtil.ItemCallback<StopDeparture>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull StopDeparture oldItem, @NonNull StopDeparture newItem) {
+            return oldItem.equals(newItem);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull StopDeparture oldItem, @NonNull StopDeparture newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
+}
@@ -10,15 +10,16 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.LoadState;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.ourenbus2.R;
-import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.database.entity.FavoriteRouteSummary;
 import com.example.ourenbus2.ui.adapter.FavoriteRoutesAdapter;
 import com.example.ourenbus2.ui.viewmodel.FavoriteRoutesViewModel;
 
-import java.util.List;
+import kotlin.Unit;
 
 /**
  * Fragmento para mostrar y gestionar las rutas favoritas
@@ -50,8 +51,11 @@ public class FavoritesFragment extends Fragment implements FavoriteRoutesAdapter
         // Configurar RecyclerView
         setupRecyclerView();
         
-        // Observar cambios en las rutas favoritas (lista completa)
-        viewModel.getFavoriteRoutes().observe(getViewLifecycleOwner(), this::updateUI);
+        // Observar los resúmenes paginados de favoritas (la ruta completa se decodifica al abrirla)
+        viewModel.getFavoriteSummaries().observe(getViewLifecycleOwner(),
+                pagingData -> adapter.submitData(getViewLifecycleOwner().getLifecycle(), pagingData));
+        // Próxima salida y llegada de cada favorita, refrescadas en segundo plano
+        viewModel.getWarmTrips().observe(getViewLifecycleOwner(), adapter::setWarmTrips);
 
         // Buscador por nombre
         android.widget.EditText search = view.findViewById(R.id.et_search_favorites);
@@ -60,7 +64,7 @@ public class FavoritesFragment extends Fragment implements FavoriteRoutesAdapter
                 @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) { }
                 @Override public void onTextChanged(CharSequence s, int start, int before, int count) { }
                 @Override public void afterTextChanged(android.text.Editable s) {
-                    filterList(s != null ? s.toString() : "");
+                    viewModel.setSearchText(s != null ? s.toString() : "");
                 }
             });
         }
@@ -70,11 +74,17 @@ public class FavoritesFragment extends Fragment implements FavoriteRoutesAdapter
         adapter = new FavoriteRoutesAdapter(this);
         rvFavorites.setLayoutManager(new LinearLayoutManager(requireContext()));
         rvFavorites.setAdapter(adapter);
+        // Mostrar el mensaje de lista vacía cuando la primera página cargada no tiene elementos
+        adapter.addLoadStateListener(loadStates -> {
+            if (loadStates.getRefresh() instanceof LoadState.NotLoading) {
+                updateUI(adapter.getItemCount() > 0);
+            }
+            return Unit.INSTANCE;
+        });
     }
     
-    private void updateUI(List<Route> routes) {
-        if (routes != null && !routes.isEmpty()) {
-            adapter.submitList(routes);
+    private void updateUI(boolean hasFavorites) {
+        if (hasFavorites) {
             tvNoFavorites.setVisibility(View.GONE);
             rvFavorites.setVisibility(View.VISIBLE);
         } else {
@@ -82,29 +92,21 @@ public class FavoritesFragment extends Fragment implements FavoriteRoutesAdapter
             rvFavorites.setVisibility(View.GONE);
         }
     }
-
-    private void filterList(String query) {
-        List<Route> current = viewModel.getFavoriteRoutes().getValue();
-        if (current == null) { updateUI(null); return; }
-        if (query == null || query.trim().isEmpty()) { updateUI(current); return; }
-        String q = query.toLowerCase();
-        java.util.List<Route> filtered = new java.util.ArrayList<>();
-        for (Route r : current) {
-            String name = r.getName() != null ? r.getName() : (r.getOrigin().getName() + " → " + r.getDestination().getName());
-            if (name.toLowerCase().contains(q)) filtered.add(r);
-        }
-        updateUI(filtered);
-    }
     
     @Override
-    public void onRouteClicked(Route route) {
-        // Comunicar selección; MainActivity observará y volverá a la vista principal
-        viewModel.selectRoute(route);
+    public void onRouteClicked(FavoriteRouteSummary route) {
+        // Decodificar la ruta y comunicar selección; MainActivity observará y volverá a la vista principal
+        viewModel.openFavorite(route);
     }
     
     @Override
-    public void onRouteDeleteClicked(Route route) {
+    public void onRouteDeleteClicked(FavoriteRouteSummary route) {
         // Eliminar ruta de favoritos
-        viewModel.deleteRoute(route);
+        viewModel.deleteFavorite(route);
+    }
+
+    @Override
+    public void onRouteNearby(FavoriteRouteSummary route) {
+        viewModel.prefetchFavorite(route);
     }
 } 
\ No newline at end of file
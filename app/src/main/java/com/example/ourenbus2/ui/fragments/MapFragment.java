@@ -1,9 +1,15 @@
 package com.example.ourenbus2.ui.fragments;
 
+import android.content.Context;
+import android.location.Location;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -11,33 +17,67 @@ import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.example.ourenbus2.R;
+import com.example.ourenbus2.model.BusStop;
 import com.example.ourenbus2.model.Route;
-import com.example.ourenbus2.model.RouteSegment;
+import com.example.ourenbus2.service.BusPositionService;
 import com.example.ourenbus2.service.LocationService;
+import com.example.ourenbus2.service.RouteGeometryService;
+import com.example.ourenbus2.ui.map.IsochroneLayer;
+import com.example.ourenbus2.ui.map.LiveBusLayer;
+import com.example.ourenbus2.ui.map.RouteMapLayer;
 import com.example.ourenbus2.ui.viewmodel.RouteViewModel;
+import com.example.ourenbus2.util.gtfs.GtfsRouter;
+import com.example.ourenbus2.util.gtfs.Isochrone;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.android.gms.maps.model.PolylineOptions;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Fragmento que muestra el mapa con la ruta
  */
 public class MapFragment extends Fragment implements OnMapReadyCallback {
 
+    // Franjas de la isócrona en minutos; la última es también la duración máxima de la búsqueda
+    private static final int[] ISOCHRONE_MINUTES = {15, 30, 45};
+    // Buses en circulación: cada cuánto se recalculan, zoom mínimo para mostrarlos y máximo en pantalla
+    private static final long LIVE_BUS_REFRESH_MS = 5000;
+    private static final float LIVE_BUS_MIN_ZOOM = 13f;
+    private static final int MAX_LIVE_BUSES = 150;
+
     private GoogleMap googleMap;
     private RouteViewModel viewModel;
     private LocationService locationService;
-    private FloatingActionButton fabMyLocation, fabZoomIn, fabZoomOut;
+    private FloatingActionButton fabMyLocation, fabZoomIn, fabZoomOut, fabIsochrone;
+    private View layoutIsochroneLegend;
+    // Identifica la última petición de dibujo para ignorar geometrías que lleguen tarde
+    private int drawGeneration = 0;
+    // Capa con las polilíneas y marcadores de la ruta; se actualiza de forma incremental
+    private RouteMapLayer routeLayer;
+    // Isócrona calculada en segundo plano; el contador descarta resultados de peticiones anteriores
+    private IsochroneLayer isochroneLayer;
+    private int isochroneGeneration = 0;
+    // Buses estimados según el horario; solo se calculan los de la zona visible mientras el fragmento está activo
+    private LiveBusLayer liveBusLayer;
+    private int liveBusGeneration = 0;
+    private boolean resumed;
+    private final Runnable liveBusRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refreshLiveBuses();
+            mainHandler.postDelayed(this, LIVE_BUS_REFRESH_MS);
+        }
+    };
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     @Nullable
     @Override
@@ -59,6 +99,11 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         fabMyLocation = view.findViewById(R.id.fab_my_location);
         fabZoomIn = view.findViewById(R.id.fab_zoom_in);
         fabZoomOut = view.findViewById(R.id.fab_zoom_out);
+        fabIsochrone = view.findViewById(R.id.fab_isochrone);
+        layoutIsochroneLegend = view.findViewById(R.id.layout_isochrone_legend);
+        ((TextView) view.findViewById(R.id.tv_isochrone_15)).setText(getString(R.string.reachable_minutes, ISOCHRONE_MINUTES[0]));
+        ((TextView) view.findViewById(R.id.tv_isochrone_30)).setText(getString(R.string.reachable_minutes, ISOCHRONE_MINUTES[1]));
+        ((TextView) view.findViewById(R.id.tv_isochrone_45)).setText(getString(R.string.reachable_minutes, ISOCHRONE_MINUTES[2]));
         
         // Configurar mapa
         SupportMapFragment mapFragment = (SupportMapFragment) getChildFragmentManager().findFragmentById(R.id.map);
@@ -82,6 +127,22 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         
         fabZoomIn.setOnClickListener(v -> { if (googleMap != null) googleMap.animateCamera(CameraUpdateFactory.zoomIn()); });
         fabZoomOut.setOnClickListener(v -> { if (googleMap != null) googleMap.animateCamera(CameraUpdateFactory.zoomOut()); });
+        
+        // Zonas alcanzables desde la ubicación actual (o el centro del mapa); otra pulsación las oculta
+        fabIsochrone.setOnClickListener(v -> {
+            if (googleMap == null) return;
+            if (isochroneLayer.isShown()) {
+                hideIsochrone();
+                return;
+            }
+            Location location = locationService.getLocationLiveData().getValue();
+            if (location != null) {
+                showIsochrone(location.getLatitude(), location.getLongitude());
+            } else {
+                LatLng center = googleMap.getCameraPosition().target;
+                showIsochrone(center.latitude, center.longitude);
+            }
+        });
     }
     
     private void observeViewModel() {
@@ -100,13 +161,119 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         googleMap.setMapType(GoogleMap.MAP_TYPE_NORMAL);
         googleMap.getUiSettings().setZoomControlsEnabled(false);
         googleMap.getUiSettings().setCompassEnabled(true);
+        // Punto azul alimentado por el servicio de ubicación compartido
+        googleMap.setLocationSource(locationService.getMapLocationSource());
+        routeLayer = new RouteMapLayer(googleMap, getResources().getColor(R.color.route_walk, null), getResources().getColor(R.color.primary, null));
+        isochroneLayer = new IsochroneLayer(googleMap, ISOCHRONE_MINUTES, new int[]{
+                getResources().getColor(R.color.isochrone_15, null),
+                getResources().getColor(R.color.isochrone_30, null),
+                getResources().getColor(R.color.isochrone_45, null)});
+        // Pulsación larga: zonas alcanzables desde ese punto
+        googleMap.setOnMapLongClickListener(point -> showIsochrone(point.latitude, point.longitude));
+        liveBusLayer = new LiveBusLayer(googleMap, requireContext(), getResources().getColor(R.color.primary, null));
+        googleMap.setOnCameraIdleListener(() -> {
+            routeLayer.onZoomChanged(googleMap.getCameraPosition().zoom);
+            refreshLiveBuses();
+        });
+        // Al pulsar una parada de la ruta se abre el panel con sus próximas salidas
+        googleMap.setOnMarkerClickListener(marker -> {
+            BusStop stop = RouteMapLayer.getStop(marker);
+            if (stop == null) return false;
+            StopDeparturesBottomSheet.newInstance(stop).show(getChildFragmentManager(), StopDeparturesBottomSheet.TAG);
+            return true;
+        });
         LatLng ourense = new LatLng(42.3402, -7.8636);
         googleMap.moveCamera(CameraUpdateFactory.newLatLngZoom(ourense, 14));
         requestLocationPermission();
         Route currentRoute = viewModel.getCurrentRoute().getValue();
         if (currentRoute != null) drawRoute(currentRoute);
+        if (resumed) startLiveBuses();
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        resumed = true;
+        startLiveBuses();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        resumed = false;
+        mainHandler.removeCallbacks(liveBusRefresh);
+        liveBusGeneration++;
+    }
+
+    private void startLiveBuses() {
+        if (googleMap == null) return;
+        mainHandler.removeCallbacks(liveBusRefresh);
+        mainHandler.post(liveBusRefresh);
+    }
+
+    /**
+     * Recalcula en segundo plano los buses de la zona visible; con poco zoom se ocultan
+     */
+    private void refreshLiveBuses() {
+        if (googleMap == null || liveBusLayer == null || !resumed) return;
+        final int generation = ++liveBusGeneration;
+        if (googleMap.getCameraPosition().zoom < LIVE_BUS_MIN_ZOOM) {
+            liveBusLayer.clear();
+            return;
+        }
+        final LatLngBounds bounds = googleMap.getProjection().getVisibleRegion().latLngBounds;
+        final Context appContext = requireContext().getApplicationContext();
+        executor.execute(() -> {
+            List<BusPositionService.LiveBus> buses;
+            try {
+                buses = BusPositionService.getInstance(appContext).locate(bounds.southwest.latitude,
+                        bounds.southwest.longitude, bounds.northeast.latitude, bounds.northeast.longitude,
+                        new Date(), MAX_LIVE_BUSES);
+            } catch (Exception e) {
+                return;
+            }
+            final List<BusPositionService.LiveBus> result = buses;
+            mainHandler.post(() -> {
+                if (generation != liveBusGeneration || googleMap == null || getView() == null) return;
+                liveBusLayer.update(result);
+            });
+        });
     }
     
+    /**
+     * Calcula en segundo plano las zonas alcanzables desde un punto saliendo ahora y las muestra
+     */
+    public void showIsochrone(double latitude, double longitude) {
+        if (googleMap == null) return;
+        final int generation = ++isochroneGeneration;
+        final Context appContext = requireContext().getApplicationContext();
+        final int maxSeconds = ISOCHRONE_MINUTES[ISOCHRONE_MINUTES.length - 1] * 60;
+        executor.execute(() -> {
+            Isochrone isochrone;
+            try {
+                isochrone = GtfsRouter.findIsochrone(appContext, latitude, longitude, new Date(), maxSeconds);
+            } catch (Exception e) {
+                isochrone = null;
+            }
+            final Isochrone result = isochrone;
+            mainHandler.post(() -> {
+                if (generation != isochroneGeneration || googleMap == null || getView() == null) return;
+                if (result == null) {
+                    Toast.makeText(requireContext(), R.string.reachable_unavailable, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                isochroneLayer.show(result);
+                layoutIsochroneLegend.setVisibility(View.VISIBLE);
+            });
+        });
+    }
+
+    private void hideIsochrone() {
+        isochroneGeneration++;
+        isochroneLayer.clear();
+        layoutIsochroneLegend.setVisibility(View.GONE);
+    }
+
     private void requestLocationPermission() {
         locationService.requestLocationPermission(requireActivity());
         locationService.isLocationPermissionGranted().observe(getViewLifecycleOwner(), granted -> {
@@ -118,82 +285,26 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
     
     private void drawRoute(Route route) {
         if (googleMap == null || route == null || !route.isValid()) return;
-        googleMap.clear();
-        LatLng originLatLng = new LatLng(route.getOrigin().getLatitude(), route.getOrigin().getLongitude());
-        LatLng destLatLng = new LatLng(route.getDestination().getLatitude(), route.getDestination().getLongitude());
-        googleMap.addMarker(new MarkerOptions().position(originLatLng).title(route.getOrigin().getName()).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_GREEN)));
-        googleMap.addMarker(new MarkerOptions().position(destLatLng).title(route.getDestination().getName()).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED)));
-        List<LatLng> allPoints = new ArrayList<>();
-        LatLngBounds.Builder boundsBuilder = new LatLngBounds.Builder();
-        for (RouteSegment segment : route.getSegments()) {
-            // No dibujar líneas para segmentos de espera
-            if (segment.getType() == RouteSegment.SegmentType.WAIT) {
-                continue;
-            }
-            int color;
-            if (segment.getType() == RouteSegment.SegmentType.WALKING) {
-                color = getResources().getColor(R.color.route_walk, null);
-            } else if (segment.getType() == RouteSegment.SegmentType.BUS && segment.getBusLine() != null && segment.getBusLine().getColor() != null) {
-                try { color = android.graphics.Color.parseColor(segment.getBusLine().getColor()); }
-                catch (Exception e) { color = getResources().getColor(R.color.primary, null); }
-            } else {
-                color = getResources().getColor(R.color.primary, null);
-            }
-            List<LatLng> polyPoints = null;
-            if (segment.getPolylineEncoded() != null && !segment.getPolylineEncoded().isEmpty()) {
-                polyPoints = decodePolyline(segment.getPolylineEncoded());
-            }
-            if (polyPoints != null && polyPoints.size() > 1) {
-                googleMap.addPolyline(new PolylineOptions().addAll(polyPoints).width(10).color(color));
-                for (LatLng p : polyPoints) boundsBuilder.include(p);
-                allPoints.addAll(polyPoints);
-            } else if (segment.getStartLocation() != null && segment.getEndLocation() != null) {
-                LatLng start = new LatLng(segment.getStartLocation().getLatitude(), segment.getStartLocation().getLongitude());
-                LatLng end = new LatLng(segment.getEndLocation().getLatitude(), segment.getEndLocation().getLongitude());
-                googleMap.addPolyline(new PolylineOptions().add(start, end).width(10).color(color));
-                allPoints.add(start); allPoints.add(end);
-                boundsBuilder.include(start); boundsBuilder.include(end);
-            }
-            if (segment.getType() == RouteSegment.SegmentType.BUS && segment.getBusStop() != null) {
-                LatLng busStopLatLng = new LatLng(segment.getBusStop().getLatitude(), segment.getBusStop().getLongitude());
-                googleMap.addMarker(new MarkerOptions().position(busStopLatLng).title(segment.getBusStop().getName()).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE)));
-            }
-        }
-        if (!allPoints.isEmpty()) {
-            LatLngBounds bounds = boundsBuilder.build();
-            googleMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, 100));
-        }
+        final int generation = ++drawGeneration;
+        // La geometría se decodifica en segundo plano; el mapa solo recibe puntos listos para dibujar
+        RouteGeometryService.getInstance().prepare(route.getSegments(), geometry -> {
+            // Descartar resultados de una ruta anterior o de una vista ya destruida
+            if (generation != drawGeneration || googleMap == null || getView() == null) return;
+            renderRoute(route, geometry);
+        });
     }
 
-    // Decodificador local de polilíneas codificadas (formato Google)
-    private List<LatLng> decodePolyline(String encoded) {
-        List<LatLng> poly = new ArrayList<>();
-        int index = 0, len = encoded.length();
-        int lat = 0, lng = 0;
-        while (index < len) {
-            int b, shift = 0, result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlat = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lat += dlat;
-
-            shift = 0;
-            result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlng = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lng += dlng;
-
-            double latD = lat / 1E5;
-            double lngD = lng / 1E5;
-            poly.add(new LatLng(latD, lngD));
+    private void renderRoute(Route route, RouteGeometryService.RouteGeometry geometry) {
+        routeLayer.setRoute(geometry, route.getOrigin(), route.getDestination());
+        if (geometry.bounds != null) {
+            googleMap.animateCamera(CameraUpdateFactory.newLatLngBounds(geometry.bounds, 100));
         }
-        return poly;
     }
-} 
\ No newline at end of file
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mainHandler.removeCallbacks(liveBusRefresh);
+        executor.shutdownNow();
+    }
+}
@@ -16,23 +16,19 @@ import androidx.fragment.app.Fragment;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.example.ourenbus2.R;
+import com.example.ourenbus2.model.BusStop;
 import com.example.ourenbus2.model.Location;
 import com.example.ourenbus2.model.RouteSegment;
+import com.example.ourenbus2.service.LocationService;
+import com.example.ourenbus2.service.RouteGeometryService;
+import com.example.ourenbus2.ui.map.RouteMapLayer;
 import com.example.ourenbus2.ui.viewmodel.NavigationViewModel;
-import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
-import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
-import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
-import com.google.android.gms.maps.model.MarkerOptions;
-import com.google.android.gms.maps.model.PolylineOptions;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import java.util.List;
@@ -44,17 +40,19 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
 
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1;
     private static final float ZOOM_LEVEL = 17f;
-    private static final long LOCATION_UPDATE_INTERVAL = 5000; // 5 segundos
 
     private GoogleMap googleMap;
     private NavigationViewModel viewModel;
-    private FusedLocationProviderClient fusedLocationClient;
-    private LocationCallback locationCallback;
+    private LocationService locationService;
     private FloatingActionButton fabMyLocation;
     private FloatingActionButton fabZoomIn;
     private FloatingActionButton fabZoomOut;
     private FloatingActionButton fabNavigationMode;
     private boolean followUserLocation = true;
+    // Identifica la última petición de dibujo para ignorar geometrías que lleguen tarde
+    private int drawGeneration = 0;
+    // Capa con las polilíneas y marcadores de la ruta; se actualiza de forma incremental
+    private RouteMapLayer routeLayer;
 
     @Nullable
     @Override
@@ -84,11 +82,8 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
             mapFragment.getMapAsync(this);
         }
         
-        // Configurar cliente de ubicación
-        fusedLocationClient = LocationServices.getFusedLocationProviderClient(requireActivity());
-        
-        // Configurar callback de ubicación
-        setupLocationCallback();
+        // Las ubicaciones llegan del servicio compartido (a través de la actividad y el ViewModel)
+        locationService = LocationService.getInstance(requireContext());
     }
     
     private void setupListeners() {
@@ -114,34 +109,21 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
         });
     }
     
-    private void setupLocationCallback() {
-        locationCallback = new LocationCallback() {
-            @Override
-            public void onLocationResult(LocationResult locationResult) {
-                if (locationResult == null) {
-                    return;
-                }
-                
-                android.location.Location location = locationResult.getLastLocation();
-                if (location != null) {
-                    // Actualizar ubicación en el ViewModel
-                    viewModel.updateUserLocation(location);
-                    
-                    // Centrar mapa en la ubicación si estamos siguiendo al usuario
-                    if (followUserLocation) {
-                        centerMapOnLocation(location);
-                    }
-                }
-            }
-        };
-    }
-    
     @Override
     public void onMapReady(GoogleMap map) {
         googleMap = map;
         
         // Configurar mapa
         googleMap.setMapType(GoogleMap.MAP_TYPE_NORMAL);
+        routeLayer = new RouteMapLayer(googleMap, Color.GRAY, Color.BLACK);
+        googleMap.setOnCameraIdleListener(() -> routeLayer.onZoomChanged(googleMap.getCameraPosition().zoom));
+        // Al pulsar una parada de la ruta se abre el panel con sus próximas salidas
+        googleMap.setOnMarkerClickListener(marker -> {
+            BusStop stop = RouteMapLayer.getStop(marker);
+            if (stop == null) return false;
+            StopDeparturesBottomSheet.newInstance(stop).show(getChildFragmentManager(), StopDeparturesBottomSheet.TAG);
+            return true;
+        });
         
         // Comprobar permisos de ubicación
         if (hasLocationPermission()) {
@@ -178,110 +160,29 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
     }
     
     /**
-     * Dibuja la ruta en el mapa
+     * Dibuja la ruta en el mapa. La geometría se prepara en segundo plano.
      */
     private void drawRoute(List<RouteSegment> segments) {
         if (googleMap == null || segments == null || segments.isEmpty()) {
             return;
         }
-
-        googleMap.clear();
-
-        LatLngBounds.Builder boundsBuilder = new LatLngBounds.Builder();
-
-        for (RouteSegment segment : segments) {
-            Location start = segment.getStartLocation();
-            Location end = segment.getEndLocation();
-            if (start == null || end == null) continue;
-
-            LatLng startLatLng = new LatLng(start.getLatitude(), start.getLongitude());
-            LatLng endLatLng = new LatLng(end.getLatitude(), end.getLongitude());
-
-            int color;
-            if (segment.getType() == RouteSegment.SegmentType.WALKING) {
-                color = Color.GRAY;
-            } else if (segment.getType() == RouteSegment.SegmentType.BUS && segment.getBusLine() != null && segment.getBusLine().getColor() != null) {
-                try { color = Color.parseColor(segment.getBusLine().getColor()); }
-                catch (Exception e) { color = Color.BLACK; }
-            } else {
-                color = Color.BLACK;
-            }
-
-            // Dibujar polilínea real si está disponible
-            boolean drewPolyline = false;
-            if (segment.getPolylineEncoded() != null && !segment.getPolylineEncoded().isEmpty()) {
-                List<LatLng> points = decodePolyline(segment.getPolylineEncoded());
-                if (points != null && points.size() > 1) {
-                    googleMap.addPolyline(new PolylineOptions().addAll(points).color(color).width(10));
-                    for (LatLng p : points) boundsBuilder.include(p);
-                    drewPolyline = true;
-                }
-            }
-            if (!drewPolyline) {
-                googleMap.addPolyline(new PolylineOptions().add(startLatLng, endLatLng).color(color).width(10));
-                boundsBuilder.include(startLatLng);
-                boundsBuilder.include(endLatLng);
-            }
-
-            // Marcadores de origen/destino
-            if (segment.equals(segments.get(0))) {
-                googleMap.addMarker(new MarkerOptions()
-                        .position(startLatLng)
-                        .title(start.getName())
-                        .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_GREEN)));
-            }
-            if (segment.equals(segments.get(segments.size() - 1))) {
-                googleMap.addMarker(new MarkerOptions()
-                        .position(endLatLng)
-                        .title(end.getName())
-                        .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED)));
-            }
-
-            // Marcador de parada de bus si existe
-            if (segment.getType() == RouteSegment.SegmentType.BUS && segment.getBusStop() != null) {
-                LatLng stopLatLng = new LatLng(segment.getBusStop().getLatitude(), segment.getBusStop().getLongitude());
-                googleMap.addMarker(new MarkerOptions()
-                        .position(stopLatLng)
-                        .title(segment.getBusStop().getName())
-                        .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE)));
-            }
-        }
-
-        try {
-            LatLngBounds bounds = boundsBuilder.build();
-            googleMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, 100));
-        } catch (IllegalStateException ignored) {}
+        final int generation = ++drawGeneration;
+        RouteGeometryService.getInstance().prepare(segments, geometry -> {
+            // Descartar resultados de una ruta anterior o de una vista ya destruida
+            if (generation != drawGeneration || googleMap == null || getView() == null) return;
+            renderRoute(segments, geometry);
+        });
     }
 
-    private List<LatLng> decodePolyline(String encoded) {
-        List<LatLng> poly = new java.util.ArrayList<>();
-        int index = 0, len = encoded.length();
-        int lat = 0, lng = 0;
-        while (index < len) {
-            int b, shift = 0, result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlat = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lat += dlat;
-
-            shift = 0;
-            result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlng = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lng += dlng;
+    private void renderRoute(List<RouteSegment> segments, RouteGeometryService.RouteGeometry geometry) {
+        Location start = segments.get(0).getStartLocation();
+        Location end = segments.get(segments.size() - 1).getEndLocation();
+        routeLayer.setRoute(geometry, start, end);
+        routeLayer.setActiveSegment(viewModel.getActiveSegment().getValue());
 
-            double latD = lat / 1E5;
-            double lngD = lng / 1E5;
-            poly.add(new LatLng(latD, lngD));
+        if (geometry.bounds != null) {
+            googleMap.animateCamera(CameraUpdateFactory.newLatLngBounds(geometry.bounds, 100));
         }
-        return poly;
     }
     
     /**
@@ -292,10 +193,8 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
             return;
         }
         
-        // En una implementación real, aquí destacaríamos visualmente el segmento activo
-        // Por ejemplo, cambiando su grosor o color
-        
-        // Por ahora, simplemente centramos el mapa en el segmento
+        // Destacar la polilínea del segmento (grosor y orden de dibujo) y centrar el mapa en él
+        routeLayer.setActiveSegment(segment);
         centerMapOnSegment(segment);
     }
     
@@ -337,11 +236,8 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
         
         LatLng position = new LatLng(userLocation.getLatitude(), userLocation.getLongitude());
         
-        // Limpiar marcadores anteriores y agregar el nuevo
-        googleMap.addMarker(new MarkerOptions()
-                .position(position)
-                .title(getString(R.string.current_location))
-                .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE)));
+        // Mover el marcador existente en lugar de crear uno nuevo en cada posición
+        routeLayer.updateUserPosition(position, getString(R.string.current_location));
         
         // Si estamos siguiendo al usuario, centrar el mapa en su posición
         if (followUserLocation) {
@@ -364,20 +260,17 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
      */
     private void enableNavigationCamera() {
         if (googleMap == null) return;
-        try {
-            fusedLocationClient.getLastLocation().addOnSuccessListener(location -> {
-                if (location == null) return;
-                LatLng pos = new LatLng(location.getLatitude(), location.getLongitude());
-                float bearing = location.hasBearing() ? location.getBearing() : googleMap.getCameraPosition().bearing;
-                com.google.android.gms.maps.model.CameraPosition cam = new com.google.android.gms.maps.model.CameraPosition.Builder()
-                        .target(pos)
-                        .zoom(Math.max(googleMap.getCameraPosition().zoom, ZOOM_LEVEL))
-                        .bearing(bearing)
-                        .tilt(45f)
-                        .build();
-                googleMap.animateCamera(CameraUpdateFactory.newCameraPosition(cam));
-            });
-        } catch (SecurityException ignored) { }
+        android.location.Location location = viewModel.getCurrentUserLocation().getValue();
+        if (location == null) return;
+        LatLng pos = new LatLng(location.getLatitude(), location.getLongitude());
+        float bearing = location.hasBearing() ? location.getBearing() : googleMap.getCameraPosition().bearing;
+        com.google.android.gms.maps.model.CameraPosition cam = new com.google.android.gms.maps.model.CameraPosition.Builder()
+                .target(pos)
+                .zoom(Math.max(googleMap.getCameraPosition().zoom, ZOOM_LEVEL))
+                .bearing(bearing)
+                .tilt(45f)
+                .build();
+        googleMap.animateCamera(CameraUpdateFactory.newCameraPosition(cam));
     }
     
     /**
@@ -389,14 +282,12 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
             return;
         }
         
-        try {
-            fusedLocationClient.getLastLocation().addOnSuccessListener(location -> {
-                if (location != null) {
-                    centerMapOnLocation(location);
-                }
-            });
-        } catch (SecurityException e) {
-            Toast.makeText(requireContext(), R.string.error_location_permission, Toast.LENGTH_SHORT).show();
+        android.location.Location location = viewModel.getCurrentUserLocation().getValue();
+        if (location != null) {
+            centerMapOnLocation(location);
+        } else {
+            // Sin ubicación todavía: pedir la última conocida; llegará por el ViewModel y se centrará al seguir al usuario
+            locationService.getLastLocation();
         }
     }
     
@@ -420,65 +311,26 @@ public class NavigationMapFragment extends Fragment implements OnMapReadyCallbac
     private void enableMyLocation() {
         if (googleMap != null && hasLocationPermission()) {
             try {
+                // El punto azul usa las ubicaciones del servicio compartido, no una petición propia del mapa
+                googleMap.setLocationSource(locationService.getMapLocationSource());
                 googleMap.setMyLocationEnabled(true);
                 googleMap.getUiSettings().setMyLocationButtonEnabled(false); // Usamos nuestro propio botón
-                
-                // Iniciar actualizaciones de ubicación
-                startLocationUpdates();
             } catch (SecurityException e) {
                 Toast.makeText(requireContext(), R.string.error_location_permission, Toast.LENGTH_SHORT).show();
             }
         }
     }
     
-    /**
-     * Inicia las actualizaciones de ubicación
-     */
-    private void startLocationUpdates() {
-        if (!hasLocationPermission()) {
-            return;
-        }
-        
-        try {
-            LocationRequest locationRequest = LocationRequest.create()
-                    .setInterval(LOCATION_UPDATE_INTERVAL)
-                    .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
-            
-            fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, null);
-        } catch (SecurityException e) {
-            Toast.makeText(requireContext(), R.string.error_location_permission, Toast.LENGTH_SHORT).show();
-        }
-    }
-    
-    /**
-     * Detiene las actualizaciones de ubicación
-     */
-    private void stopLocationUpdates() {
-        fusedLocationClient.removeLocationUpdates(locationCallback);
-    }
-    
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         if (requestCode == LOCATION_PERMISSION_REQUEST_CODE) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                // Con el permiso ya concedido solo arranca las actualizaciones del servicio
+                locationService.requestLocationPermission(requireActivity());
                 enableMyLocation();
             } else {
                 Toast.makeText(requireContext(), R.string.error_location_permission, Toast.LENGTH_SHORT).show();
             }
         }
     }
-    
-    @Override
-    public void onResume() {
-        super.onResume();
-        if (hasLocationPermission()) {
-            startLocationUpdates();
-        }
-    }
-    
-    @Override
-    public void onPause() {
-        super.onPause();
-        stopLocationUpdates();
-    }
-} 
\ No newline at end of file
+}
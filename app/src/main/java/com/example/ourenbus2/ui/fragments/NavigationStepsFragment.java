@@ -5,6 +5,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -95,5 +96,12 @@ public class NavigationStepsFragment extends Fragment {
         viewModel.getIsRecalculating().observe(getViewLifecycleOwner(), isRecalculating -> {
             loadingView.setVisibility(isRecalculating ? View.VISIBLE : View.GONE);
         });
+        
+        // Aviso al entrar en el radio de la parada de bajada
+        viewModel.getApproachingStop().observe(getViewLifecycleOwner(), approaching -> {
+            if (Boolean.TRUE.equals(approaching)) {
+                Toast.makeText(requireContext(), R.string.approaching_stop, Toast.LENGTH_LONG).show();
+            }
+        });
     }
 } 
\ No newline at end of file
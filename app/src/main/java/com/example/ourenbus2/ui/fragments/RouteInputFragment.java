@@ -1,10 +1,12 @@
 package com.example.ourenbus2.ui.fragments;
 
+import android.app.TimePickerDialog;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.text.format.DateFormat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -25,6 +27,8 @@ import com.example.ourenbus2.ui.viewmodel.RouteViewModel;
 import com.google.android.material.textfield.MaterialAutoCompleteTextView;
 
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
 
 import android.widget.ArrayAdapter;
@@ -41,6 +45,7 @@ public class RouteInputFragment extends Fragment {
     private MaterialAutoCompleteTextView etOrigin;
     private MaterialAutoCompleteTextView etDestination;
     private CheckBox cbUseCurrentLocation;
+    private CheckBox cbArriveBy;
     private Button btnSearchRoute;
     
     // Sugerencias
@@ -83,6 +88,7 @@ public class RouteInputFragment extends Fragment {
         etOrigin = view.findViewById(R.id.et_origin);
         etDestination = view.findViewById(R.id.et_destination);
         cbUseCurrentLocation = view.findViewById(R.id.cb_use_current_location);
+        cbArriveBy = view.findViewById(R.id.cb_arrive_by);
         btnSearchRoute = view.findViewById(R.id.btn_search_route);
         
         // Configurar adapters de dropdown
@@ -201,6 +207,15 @@ public class RouteInputFragment extends Fragment {
             }
         });
         
+        // Llegar a una hora: elegir la hora límite de llegada (desmarcado = salir ahora)
+        cbArriveBy.setOnClickListener(v -> {
+            if (cbArriveBy.isChecked()) {
+                showArriveByPicker();
+            } else {
+                viewModel.setArriveBy(null);
+            }
+        });
+        
         // Botón para buscar ruta
         btnSearchRoute.setOnClickListener(v -> {
             String originText = etOrigin.getText() != null ? etOrigin.getText().toString().trim() : "";
@@ -251,6 +266,25 @@ public class RouteInputFragment extends Fragment {
         });
     }
 
+    private void showArriveByPicker() {
+        Calendar initial = Calendar.getInstance();
+        Date current = viewModel.getArriveBy().getValue();
+        if (current != null) initial.setTime(current);
+        else initial.add(Calendar.MINUTE, 30);
+        TimePickerDialog dialog = new TimePickerDialog(requireContext(), (picker, hour, minute) -> {
+            Calendar arrival = Calendar.getInstance();
+            arrival.set(Calendar.HOUR_OF_DAY, hour);
+            arrival.set(Calendar.MINUTE, minute);
+            arrival.set(Calendar.SECOND, 0);
+            arrival.set(Calendar.MILLISECOND, 0);
+            // Una hora ya pasada se interpreta como la de mañana
+            if (arrival.getTimeInMillis() <= System.currentTimeMillis()) arrival.add(Calendar.DAY_OF_MONTH, 1);
+            viewModel.setArriveBy(arrival.getTime());
+        }, initial.get(Calendar.HOUR_OF_DAY), initial.get(Calendar.MINUTE), DateFormat.is24HourFormat(requireContext()));
+        dialog.setOnCancelListener(d -> cbArriveBy.setChecked(viewModel.getArriveBy().getValue() != null));
+        dialog.show();
+    }
+
     private void resolveAndSearchByText(@Nullable Location knownOrigin, @Nullable String originText, @NonNull String destText) {
         String apiKey = getApiKey();
         if (apiKey == null || apiKey.isEmpty()) {
@@ -397,6 +431,13 @@ public class RouteInputFragment extends Fragment {
             }
         });
         
+        viewModel.getArriveBy().observe(getViewLifecycleOwner(), arrival -> {
+            cbArriveBy.setChecked(arrival != null);
+            cbArriveBy.setText(arrival != null
+                    ? getString(R.string.arrive_by_time, DateFormat.getTimeFormat(requireContext()).format(arrival))
+                    : getString(R.string.arrive_by));
+        });
+        
         // Observar ubicación actual
         locationService.getLocationLiveData().observe(getViewLifecycleOwner(), location -> {
             if (location != null && cbUseCurrentLocation.isChecked()) {
@@ -6,12 +6,14 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatDelegate;
+import androidx.preference.EditTextPreference;
 import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.SwitchPreference;
 
 import com.example.ourenbus2.R;
+import com.example.ourenbus2.service.GtfsRealtimeService;
 import com.example.ourenbus2.util.PreferencesUtil;
 
 /**
@@ -32,6 +34,9 @@ public class SettingsFragment extends PreferenceFragmentCompat {
         // Configurar preferencia de ubicación
         setupLocationPreference();
         
+        // Configurar feed de tiempo real
+        setupRealtimePreference();
+        
         // Configurar preferencia de datos
         setupDataPreference();
         
@@ -108,6 +113,16 @@ public class SettingsFragment extends PreferenceFragmentCompat {
         }
     }
     
+    private void setupRealtimePreference() {
+        EditTextPreference urlPref = findPreference(GtfsRealtimeService.KEY_FEED_URL);
+        if (urlPref != null) {
+            urlPref.setSummaryProvider(preference -> {
+                String url = ((EditTextPreference) preference).getText();
+                return url == null || url.trim().isEmpty() ? getString(R.string.realtime_feed_url_summary) : url;
+            });
+        }
+    }
+    
     private void setupDataPreference() {
         Preference clearDataPref = findPreference("clear_data");
         if (clearDataPref != null) {
@@ -0,0 +1,132 @@
+package com.example.ourenbus2.ui.fragments;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.ourenbus2.R;
+import com.example.ourenbus2.model.BusStop;
+import com.example.ourenbus2.model.StopDeparture;
+import com.example.ourenbus2.ui.adapter.StopDeparturesAdapter;
+import com.example.ourenbus2.util.gtfs.DepartureBoard;
+import com.google.android.material.bottomsheet.BottomSheetDialogFragment;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Panel inferior con las próximas salidas de una parada, abierto al pulsar una parada en el mapa
+ */
+public class StopDeparturesBottomSheet extends BottomSheetDialogFragment {
+
+    public static final String TAG = "StopDeparturesBottomSheet";
+
+    private static final String ARG_NAME = "stop_name";
+    private static final String ARG_LATITUDE = "stop_latitude";
+    private static final String ARG_LONGITUDE = "stop_longitude";
+    private static final int MAX_DEPARTURES = 10;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private TextView tvNoDepartures;
+    private ProgressBar pbDepartures;
+    private RecyclerView rvDepartures;
+    private StopDeparturesAdapter adapter;
+
+    public static StopDeparturesBottomSheet newInstance(BusStop stop) {
+        Bundle args = new Bundle();
+        args.putString(ARG_NAME, stop.getName());
+        args.putDouble(ARG_LATITUDE, stop.getLatitude());
+        args.putDouble(ARG_LONGITUDE, stop.getLongitude());
+        StopDeparturesBottomSheet sheet = new StopDeparturesBottomSheet();
+        sheet.setArguments(args);
+        return sheet;
+    }
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        return inflater.inflate(R.layout.bottom_sheet_stop_departures, container, false);
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        Bundle args = requireArguments();
+
+        TextView tvStopName = view.findViewById(R.id.tv_stop_name);
+        tvNoDepartures = view.findViewById(R.id.tv_no_departures);
+        pbDepartures = view.findViewById(R.id.pb_departures);
+        rvDepartures = view.findViewById(R.id.rv_departures);
+
+        tvStopName.setText(args.getString(ARG_NAME));
+        adapter = new StopDeparturesAdapter();
+        rvDepartures.setLayoutManager(new LinearLayoutManager(requireContext()));
+        rvDepartures.setAdapter(adapter);
+
+        // Zonas alcanzables desde la parada, en el mapa que abrió el panel
+        view.findViewById(R.id.btn_reachable_from_stop).setOnClickListener(v -> {
+            if (getParentFragment() instanceof MapFragment) {
+                ((MapFragment) getParentFragment()).showIsochrone(args.getDouble(ARG_LATITUDE), args.getDouble(ARG_LONGITUDE));
+            }
+            dismiss();
+        });
+
+        loadDepartures(args.getDouble(ARG_LATITUDE), args.getDouble(ARG_LONGITUDE));
+    }
+
+    /**
+     * Consulta el horario en segundo plano (la primera vez puede tener que cargarlo de la BD)
+     */
+    private void loadDepartures(double latitude, double longitude) {
+        final Context appContext = requireContext().getApplicationContext();
+        executor.execute(() -> {
+            Date now = new Date();
+            List<StopDeparture> departures;
+            try {
+                departures = DepartureBoard.getNextDepartures(appContext, latitude, longitude, now, MAX_DEPARTURES);
+            } catch (Exception e) {
+                departures = Collections.emptyList();
+            }
+            final List<StopDeparture> result = departures;
+            mainHandler.post(() -> {
+                if (getView() == null) return;
+                showDepartures(result, now.getTime());
+            });
+        });
+    }
+
+    private void showDepartures(List<StopDeparture> departures, long now) {
+        pbDepartures.setVisibility(View.GONE);
+        if (departures.isEmpty()) {
+            tvNoDepartures.setVisibility(View.VISIBLE);
+            rvDepartures.setVisibility(View.GONE);
+        } else {
+            tvNoDepartures.setVisibility(View.GONE);
+            rvDepartures.setVisibility(View.VISIBLE);
+            adapter.setNow(now);
+            adapter.submitList(departures);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        executor.shutdownNow();
+    }
+}
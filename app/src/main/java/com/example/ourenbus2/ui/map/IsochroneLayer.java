@@ -0,0 +1,85 @@
+package com.example.ourenbus2.ui.map;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import com.example.ourenbus2.util.gtfs.Isochrone;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.GroundOverlay;
+import com.google.android.gms.maps.model.GroundOverlayOptions;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+/**
+ * Capa de mapa que pinta una {@link Isochrone} como una imagen superpuesta: un píxel por celda,
+ * coloreado según la franja de minutos. El mapa suaviza la imagen al escalarla, así que los bordes
+ * entre franjas se ven como un mapa de calor.
+ */
+public class IsochroneLayer {
+
+    private static final float Z_INDEX = -1f;
+    private static final int ALPHA = 0x80;
+
+    private final GoogleMap map;
+    private final int[] bandSeconds;
+    private final int[] bandColors;
+    private GroundOverlay overlay;
+
+    /**
+     * @param map          Mapa sobre el que se dibuja
+     * @param bandMinutes  Límite superior de cada franja, de menor a mayor
+     * @param bandColors   Color de cada franja
+     */
+    public IsochroneLayer(GoogleMap map, int[] bandMinutes, int[] bandColors) {
+        this.map = map;
+        this.bandSeconds = new int[bandMinutes.length];
+        for (int i = 0; i < bandMinutes.length; i++) bandSeconds[i] = bandMinutes[i] * 60;
+        this.bandColors = new int[bandColors.length];
+        for (int i = 0; i < bandColors.length; i++) {
+            int c = bandColors[i];
+            this.bandColors[i] = Color.argb(ALPHA, Color.red(c), Color.green(c), Color.blue(c));
+        }
+    }
+
+    /**
+     * Sustituye la isócrona mostrada
+     */
+    public void show(Isochrone isochrone) {
+        clear();
+        int rows = isochrone.getRows(), cols = isochrone.getCols();
+        if (rows == 0 || cols == 0) return;
+        int[] pixels = new int[rows * cols];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                pixels[r * cols + c] = colorFor(isochrone.getTravelSeconds(r, c));
+            }
+        }
+        Bitmap bitmap = Bitmap.createBitmap(pixels, cols, rows, Bitmap.Config.ARGB_8888);
+        LatLngBounds bounds = new LatLngBounds(
+                new LatLng(isochrone.getSouth(), isochrone.getWest()),
+                new LatLng(isochrone.getNorth(), isochrone.getEast()));
+        overlay = map.addGroundOverlay(new GroundOverlayOptions()
+                .image(BitmapDescriptorFactory.fromBitmap(bitmap))
+                .positionFromBounds(bounds)
+                .zIndex(Z_INDEX));
+    }
+
+    public boolean isShown() {
+        return overlay != null;
+    }
+
+    public void clear() {
+        if (overlay != null) {
+            overlay.remove();
+            overlay = null;
+        }
+    }
+
+    private int colorFor(int seconds) {
+        for (int i = 0; i < bandSeconds.length; i++) {
+            if (seconds <= bandSeconds[i]) return bandColors[i];
+        }
+        return Color.TRANSPARENT;
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.ourenbus2.ui.map;
+
+import android.animation.ValueAnimator;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.example.ourenbus2.R;
+import com.example.ourenbus2.service.BusPositionService;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Capa de mapa con los buses en circulación. Cada salida conserva su marcador entre refrescos y se
+ * desplaza con una animación hasta la nueva posición; solo se añaden o quitan los que entran o salen.
+ */
+public class LiveBusLayer {
+
+    private static final float Z_INDEX = 2f;
+    private static final long MOVE_ANIMATION_MS = 1000;
+    private static final int ICON_DP = 28;
+
+    private final GoogleMap map;
+    private final Context context;
+    private final int defaultColor;
+    private final Map<Long, Marker> markers = new HashMap<>();
+    private final Map<Long, ValueAnimator> animations = new HashMap<>();
+    // Icono por línea (nombre y color)
+    private final Map<String, BitmapDescriptor> icons = new HashMap<>();
+
+    /**
+     * @param defaultColor Color de las líneas sin color en el feed
+     */
+    public LiveBusLayer(GoogleMap map, Context context, int defaultColor) {
+        this.map = map;
+        this.context = context.getApplicationContext();
+        this.defaultColor = defaultColor;
+    }
+
+    /**
+     * Sustituye los buses mostrados por los de la lista
+     */
+    public void update(List<BusPositionService.LiveBus> buses) {
+        Set<Long> seen = new HashSet<>();
+        for (BusPositionService.LiveBus bus : buses) {
+            if (!seen.add(bus.key)) continue;
+            LatLng position = new LatLng(bus.latitude, bus.longitude);
+            Marker marker = markers.get(bus.key);
+            if (marker == null) {
+                marker = map.addMarker(new MarkerOptions()
+                        .position(position)
+                        .anchor(0.5f, 0.5f)
+                        .zIndex(Z_INDEX)
+                        .icon(iconFor(bus.lineName, bus.lineColor)));
+                if (marker == null) continue;
+                markers.put(bus.key, marker);
+            } else {
+                animateTo(bus.key, marker, position);
+            }
+            marker.setTitle(bus.lineName + (bus.headsign != null ? " · " + bus.headsign : ""));
+            int delayMinutes = bus.delaySeconds / 60;
+            marker.setSnippet(delayMinutes > 0
+                    ? context.getString(R.string.live_bus_next_stop_delayed, bus.nextStopName, delayMinutes)
+                    : context.getString(R.string.live_bus_next_stop, bus.nextStopName));
+        }
+        Iterator<Map.Entry<Long, Marker>> it = markers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Marker> entry = it.next();
+            if (seen.contains(entry.getKey())) continue;
+            cancelAnimation(entry.getKey());
+            entry.getValue().remove();
+            it.remove();
+        }
+    }
+
+    /**
+     * Quita todos los buses del mapa
+     */
+    public void clear() {
+        for (ValueAnimator animator : animations.values()) animator.cancel();
+        animations.clear();
+        for (Marker marker : markers.values()) marker.remove();
+        markers.clear();
+    }
+
+    private void animateTo(long key, Marker marker, LatLng target) {
+        cancelAnimation(key);
+        final LatLng start = marker.getPosition();
+        if (start.equals(target)) return;
+        ValueAnimator animator = ValueAnimator.ofFloat(0f, 1f);
+        animator.setDuration(MOVE_ANIMATION_MS);
+        animator.addUpdateListener(a -> {
+            float f = a.getAnimatedFraction();
+            marker.setPosition(new LatLng(start.latitude + (target.latitude - start.latitude) * f,
+                    start.longitude + (target.longitude - start.longitude) * f));
+        });
+        animations.put(key, animator);
+        animator.start();
+    }
+
+    private void cancelAnimation(long key) {
+        ValueAnimator animator = animations.remove(key);
+        if (animator != null) animator.cancel();
+    }
+
+    /**
+     * Círculo con el color de la línea y su nombre corto
+     */
+    private BitmapDescriptor iconFor(String lineName, String lineColor) {
+        String key = lineName + "|" + lineColor;
+        BitmapDescriptor icon = icons.get(key);
+        if (icon != null) return icon;
+        float density = context.getResources().getDisplayMetrics().density;
+        int size = Math.round(ICON_DP * density);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.WHITE);
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+        paint.setColor(parseColor(lineColor));
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f - 2 * density, paint);
+        if (lineName != null && !lineName.isEmpty()) {
+            paint.setColor(Color.WHITE);
+            paint.setFakeBoldText(true);
+            paint.setTextAlign(Paint.Align.CENTER);
+            paint.setTextSize((lineName.length() > 2 ? 9 : 11) * density);
+            float baseline = size / 2f - (paint.descent() + paint.ascent()) / 2f;
+            canvas.drawText(lineName, size / 2f, baseline, paint);
+        }
+        icon = BitmapDescriptorFactory.fromBitmap(bitmap);
+        icons.put(key, icon);
+        return icon;
+    }
+
+    private int parseColor(String gtfsColor) {
+        if (gtfsColor != null && !gtfsColor.isEmpty()) {
+            try {
+                return Color.parseColor(gtfsColor.startsWith("#") ? gtfsColor : "#" + gtfsColor);
+            } catch (IllegalArgumentException ignored) { }
+        }
+        return defaultColor;
+    }
+}
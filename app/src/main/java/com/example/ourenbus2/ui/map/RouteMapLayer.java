@@ -0,0 +1,266 @@
+package com.example.ourenbus2.ui.map;
+
+import android.graphics.Color;
+
+import com.example.ourenbus2.model.BusStop;
+import com.example.ourenbus2.model.Location;
+import com.example.ourenbus2.model.RouteSegment;
+import com.example.ourenbus2.service.RouteGeometryService;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Capa de mapa que mantiene referencias a las polilíneas y marcadores de una ruta.
+ * En lugar de limpiar el mapa y redibujarlo todo, solo añade o quita los objetos que cambian,
+ * mueve un único marcador de usuario y cambia el estilo del segmento activo en el sitio.
+ */
+public class RouteMapLayer {
+
+    private static final float ROUTE_WIDTH = 10f;
+    private static final float ACTIVE_ROUTE_WIDTH = 16f;
+    private static final float ROUTE_Z_INDEX = 0f;
+    private static final float ACTIVE_ROUTE_Z_INDEX = 1f;
+
+    private final GoogleMap map;
+    private final int walkColor;
+    private final int defaultColor;
+
+    // Claves estables -> objetos del mapa; el orden de inserción sigue al de los segmentos
+    private final Map<String, DrawnSegment> segments = new LinkedHashMap<>();
+    private final Map<String, Marker> markers = new HashMap<>();
+    private Marker userMarker;
+    private String userMarkerTitle;
+    private DrawnSegment activeSegment;
+
+    private RouteGeometryService.RouteGeometry geometry;
+    private int level = 0;
+
+    /**
+     * @param map          Mapa sobre el que se dibuja
+     * @param walkColor    Color de los tramos a pie
+     * @param defaultColor Color de los tramos sin color de línea
+     */
+    public RouteMapLayer(GoogleMap map, int walkColor, int defaultColor) {
+        this.map = map;
+        this.walkColor = walkColor;
+        this.defaultColor = defaultColor;
+    }
+
+    /**
+     * Muestra la geometría de una ruta reutilizando los objetos que ya estaban en el mapa
+     *
+     * @param geometry    Geometría preparada por {@link RouteGeometryService}
+     * @param origin      Origen de la ruta (marcador verde), puede ser null
+     * @param destination Destino de la ruta (marcador rojo), puede ser null
+     */
+    public void setRoute(RouteGeometryService.RouteGeometry geometry, Location origin, Location destination) {
+        this.geometry = geometry;
+        this.level = geometry.levelForZoom(map.getCameraPosition().zoom);
+
+        // Polilíneas: conservar las de segmentos idénticos, quitar las sobrantes y añadir las nuevas
+        Map<String, DrawnSegment> previous = new LinkedHashMap<>(segments);
+        segments.clear();
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (RouteGeometryService.SegmentGeometry segmentGeometry : geometry.segments) {
+            if (segmentGeometry.points.size() < 2) continue;
+            String baseKey = segmentKey(segmentGeometry.segment);
+            Integer n = occurrences.get(baseKey);
+            occurrences.put(baseKey, n == null ? 1 : n + 1);
+            String key = n == null ? baseKey : baseKey + "#" + n;
+            DrawnSegment drawn = previous.remove(key);
+            if (drawn == null) {
+                Polyline polyline = map.addPolyline(new PolylineOptions()
+                        .addAll(segmentGeometry.getPoints(level))
+                        .color(colorFor(segmentGeometry.segment))
+                        .width(ROUTE_WIDTH)
+                        .zIndex(ROUTE_Z_INDEX));
+                drawn = new DrawnSegment(segmentGeometry, polyline);
+            } else {
+                drawn.geometry = segmentGeometry;
+                drawn.polyline.setPoints(segmentGeometry.getPoints(level));
+            }
+            segments.put(key, drawn);
+        }
+        for (DrawnSegment stale : previous.values()) {
+            if (stale == activeSegment) activeSegment = null;
+            stale.polyline.remove();
+        }
+
+        // Marcadores: origen, destino y paradas de subida
+        Map<String, MarkerOptions> wanted = new LinkedHashMap<>();
+        Map<String, BusStop> stopsByKey = new HashMap<>();
+        if (origin != null) {
+            putMarker(wanted, "origin", origin.getLatitude(), origin.getLongitude(), origin.getName(), BitmapDescriptorFactory.HUE_GREEN);
+        }
+        if (destination != null) {
+            putMarker(wanted, "destination", destination.getLatitude(), destination.getLongitude(), destination.getName(), BitmapDescriptorFactory.HUE_RED);
+        }
+        for (RouteGeometryService.SegmentGeometry segmentGeometry : geometry.segments) {
+            RouteSegment segment = segmentGeometry.segment;
+            BusStop stop = segment.getBusStop();
+            if (segment.getType() == RouteSegment.SegmentType.BUS && stop != null) {
+                stopsByKey.put(putMarker(wanted, "stop", stop.getLatitude(), stop.getLongitude(), stop.getName(), BitmapDescriptorFactory.HUE_AZURE), stop);
+            }
+        }
+        Iterator<Map.Entry<String, Marker>> it = markers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Marker> entry = it.next();
+            if (wanted.remove(entry.getKey()) == null) {
+                entry.getValue().remove();
+                it.remove();
+            }
+        }
+        for (Map.Entry<String, MarkerOptions> entry : wanted.entrySet()) {
+            Marker marker = map.addMarker(entry.getValue());
+            // Las paradas llevan su BusStop para abrir el panel de salidas al pulsarlas
+            if (marker != null) marker.setTag(stopsByKey.get(entry.getKey()));
+            markers.put(entry.getKey(), marker);
+        }
+    }
+
+    /**
+     * Destaca el segmento activo cambiando el estilo de su polilínea, sin redibujar
+     */
+    public void setActiveSegment(RouteSegment segment) {
+        DrawnSegment next = find(segment);
+        if (next == activeSegment) return;
+        if (activeSegment != null) {
+            activeSegment.polyline.setWidth(ROUTE_WIDTH);
+            activeSegment.polyline.setZIndex(ROUTE_Z_INDEX);
+        }
+        activeSegment = next;
+        if (activeSegment != null) {
+            activeSegment.polyline.setWidth(ACTIVE_ROUTE_WIDTH);
+            activeSegment.polyline.setZIndex(ACTIVE_ROUTE_Z_INDEX);
+        }
+    }
+
+    /**
+     * Mueve el marcador del usuario (se crea la primera vez)
+     */
+    public void updateUserPosition(LatLng position, String title) {
+        if (userMarker == null) {
+            userMarker = map.addMarker(new MarkerOptions()
+                    .position(position)
+                    .title(title)
+                    .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE)));
+            userMarkerTitle = title;
+        } else {
+            userMarker.setPosition(position);
+            if (title != null && !title.equals(userMarkerTitle)) {
+                userMarker.setTitle(title);
+                userMarkerTitle = title;
+            }
+        }
+    }
+
+    /**
+     * Cambia los puntos de las polilíneas al nivel de simplificación del zoom indicado
+     */
+    public void onZoomChanged(float zoom) {
+        if (geometry == null) return;
+        int newLevel = geometry.levelForZoom(zoom);
+        if (newLevel == level) return;
+        level = newLevel;
+        for (DrawnSegment drawn : segments.values()) {
+            drawn.polyline.setPoints(drawn.geometry.getPoints(level));
+        }
+    }
+
+    /**
+     * Quita del mapa todos los objetos de la capa
+     */
+    public void clear() {
+        for (DrawnSegment drawn : segments.values()) drawn.polyline.remove();
+        for (Marker marker : markers.values()) marker.remove();
+        if (userMarker != null) userMarker.remove();
+        segments.clear();
+        markers.clear();
+        userMarker = null;
+        activeSegment = null;
+        geometry = null;
+    }
+
+    private DrawnSegment find(RouteSegment segment) {
+        if (segment == null) return null;
+        for (DrawnSegment drawn : segments.values()) {
+            if (drawn.geometry.segment == segment) return drawn;
+        }
+        for (DrawnSegment drawn : segments.values()) {
+            if (drawn.geometry.segment.equals(segment)) return drawn;
+        }
+        return null;
+    }
+
+    private int colorFor(RouteSegment segment) {
+        if (segment.getType() == RouteSegment.SegmentType.WALKING) {
+            return walkColor;
+        }
+        if (segment.getType() == RouteSegment.SegmentType.BUS && segment.getBusLine() != null && segment.getBusLine().getColor() != null) {
+            try { return Color.parseColor(segment.getBusLine().getColor()); }
+            catch (Exception e) { return defaultColor; }
+        }
+        return defaultColor;
+    }
+
+    /**
+     * Clave de un segmento: tipo, línea y recorrido. Dos segmentos con la misma clave se dibujan igual.
+     */
+    private static String segmentKey(RouteSegment segment) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(segment.getType());
+        if (segment.getBusLine() != null) {
+            sb.append('|').append(segment.getBusLine().getLineNumber()).append('|').append(segment.getBusLine().getColor());
+        }
+        if (segment.getPolylineEncoded() != null && !segment.getPolylineEncoded().isEmpty()) {
+            sb.append('|').append(segment.getPolylineEncoded());
+        } else {
+            appendLocation(sb, segment.getStartLocation());
+            appendLocation(sb, segment.getEndLocation());
+        }
+        return sb.toString();
+    }
+
+    private static void appendLocation(StringBuilder sb, Location location) {
+        sb.append('|');
+        if (location != null) sb.append(location.getLatitude()).append(',').append(location.getLongitude());
+    }
+
+    /**
+     * Parada de bus asociada a un marcador de la capa, o null si no es una parada
+     */
+    public static BusStop getStop(Marker marker) {
+        Object tag = marker != null ? marker.getTag() : null;
+        return tag instanceof BusStop ? (BusStop) tag : null;
+    }
+
+    private static String putMarker(Map<String, MarkerOptions> wanted, String kind, double lat, double lng, String title, float hue) {
+        String key = kind + '|' + lat + ',' + lng + '|' + title;
+        wanted.put(key, new MarkerOptions()
+                .position(new LatLng(lat, lng))
+                .title(title)
+                .icon(BitmapDescriptorFactory.defaultMarker(hue)));
+        return key;
+    }
+
+    private static class DrawnSegment {
+        RouteGeometryService.SegmentGeometry geometry;
+        final Polyline polyline;
+
+        DrawnSegment(RouteGeometryService.SegmentGeometry geometry, Polyline polyline) {
+            this.geometry = geometry;
+            this.polyline = polyline;
+        }
+    }
+}
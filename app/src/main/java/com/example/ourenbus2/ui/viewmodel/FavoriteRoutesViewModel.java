@@ -7,11 +7,15 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
+import androidx.paging.PagingData;
 
+import com.example.ourenbus2.database.entity.FavoriteRouteSummary;
 import com.example.ourenbus2.model.Route;
 import com.example.ourenbus2.repository.FavoriteRouteRepository;
+import com.example.ourenbus2.service.FavoriteTripsRefresher;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * ViewModel para gestionar las rutas favoritas
@@ -36,6 +40,52 @@ public class FavoriteRoutesViewModel extends AndroidViewModel {
         return favoriteRoutes;
     }
 
+    /**
+     * Obtiene los resúmenes paginados de las rutas favoritas (sin decodificar la ruta completa)
+     */
+    public LiveData<PagingData<FavoriteRouteSummary>> getFavoriteSummaries() {
+        return repository.getFavoriteSummaries();
+    }
+
+    /**
+     * Próximas salidas precalculadas de las favoritas, por id
+     */
+    public LiveData<Map<Long, FavoriteTripsRefresher.WarmTrips>> getWarmTrips() {
+        return FavoriteTripsRefresher.getInstance(getApplication()).getWarmTrips();
+    }
+
+    /**
+     * Filtra los resúmenes de favoritas por texto
+     */
+    public void setSearchText(String searchText) {
+        repository.setSearchText(searchText);
+    }
+
+    /**
+     * Abre una favorita: decodifica la ruta en segundo plano y la publica como seleccionada
+     */
+    public void openFavorite(FavoriteRouteSummary summary) {
+        if (summary == null) return;
+        FavoriteTripsRefresher.getInstance(getApplication()).recordUse(summary.id);
+        repository.loadRoute(summary.id, route -> {
+            if (route != null) selectedRoute.setValue(route);
+        });
+    }
+
+    /**
+     * Adelanta la decodificación de una favorita que está a punto de mostrarse
+     */
+    public void prefetchFavorite(FavoriteRouteSummary summary) {
+        if (summary != null) repository.prefetchRoute(summary.id);
+    }
+
+    /**
+     * Elimina una favorita a partir de su resumen
+     */
+    public void deleteFavorite(FavoriteRouteSummary summary) {
+        if (summary != null) repository.deleteById(summary.id);
+    }
+
     /**
      * Elimina una ruta de favoritos
      */
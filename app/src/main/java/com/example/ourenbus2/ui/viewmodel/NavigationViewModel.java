@@ -2,23 +2,42 @@ package com.example.ourenbus2.ui.viewmodel;
 
 import android.app.Application;
 import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
+import com.example.ourenbus2.R;
 import com.example.ourenbus2.model.Route;
 import com.example.ourenbus2.model.RouteSegment;
+import com.example.ourenbus2.service.LocationService;
+import com.example.ourenbus2.service.RouteGeometryService;
+import com.example.ourenbus2.util.geo.DecodedPolyline;
+import com.example.ourenbus2.util.geo.OffRouteDetector;
+import com.example.ourenbus2.util.geo.PolylineCodec;
+import com.example.ourenbus2.util.geo.RouteProgressIndex;
+import com.example.ourenbus2.util.gtfs.GtfsRouter;
+import com.example.ourenbus2.util.gtfs.GtfsTimetableProvider;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * ViewModel para la pantalla de navegación
  */
 public class NavigationViewModel extends AndroidViewModel {
     
+    // Margen antes de la salida del bus en el que se vuelve a alta precisión para detectar la subida
+    private static final long BOARDING_WAKE_UP_MS = 60000;
+    // Distancia al final del segmento a partir de la cual se pasa al siguiente
+    private static final double SEGMENT_END_TOLERANCE_METERS = 20.0;
+    
     // Ruta actual en navegación
     private final MutableLiveData<Route> currentRoute = new MutableLiveData<>();
     
@@ -46,8 +65,25 @@ public class NavigationViewModel extends AndroidViewModel {
     // Tiempo estimado restante en minutos
     private final MutableLiveData<Integer> remainingTime = new MutableLiveData<>(0);
     
+    // Distancia restante a lo largo de la ruta en metros
+    private final MutableLiveData<Integer> remainingDistance = new MutableLiveData<>(0);
+    
+    // Índice de la geometría de la ruta activa (se construye en segundo plano al iniciar la navegación)
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile RouteProgressIndex progressIndex;
+    
+    // Detección de salida de la ruta (solo desde el hilo principal)
+    private final OffRouteDetector offRouteDetector = new OffRouteDetector();
+    
+    // Fuente de ubicación compartida; su modo sigue al tipo del segmento activo
+    private final LocationService locationService;
+    private final Runnable boardingWakeUp;
+    
     public NavigationViewModel(@NonNull Application application) {
         super(application);
+        locationService = LocationService.getInstance(application);
+        boardingWakeUp = () -> locationService.setTrackingMode(LocationService.TrackingMode.WALKING);
     }
     
     /**
@@ -61,23 +97,53 @@ public class NavigationViewModel extends AndroidViewModel {
         routeSegments.setValue(segments);
         
         if (segments != null && !segments.isEmpty()) {
-            // Primer segmento como actual
-            activeSegment.setValue(segments.get(0));
+            // Primer segmento como actual y segundo como próximo (si existe)
+            setActiveIndex(segments, 0);
             selectedSegment.setValue(segments.get(0));
-            
-            // Segundo segmento como próximo (si existe)
-            if (segments.size() > 1) {
-                nextSegment.setValue(segments.get(1));
-            } else {
-                nextSegment.setValue(null);
-            }
         }
         
         // Inicializar tiempo restante
         remainingTime.setValue(route.getEstimatedTimeInMinutes());
+        remainingDistance.setValue(route.getTotalDistance());
         
         // Inicializar progreso
         navigationProgress.setValue(0);
+        
+        offRouteDetector.reset();
+        buildProgressIndex(route);
+        
+        // Cargar el horario GTFS en memoria para que un posible recálculo sea inmediato
+        executor.execute(() -> {
+            try {
+                GtfsTimetableProvider.get(getApplication());
+            } catch (Exception ignored) { }
+        });
+    }
+    
+    /**
+     * Construye en segundo plano el índice de distancias acumuladas de la ruta
+     */
+    private void buildProgressIndex(Route route) {
+        progressIndex = null;
+        final List<RouteSegment> segments = route.getSegments() != null ? new ArrayList<>(route.getSegments()) : new ArrayList<>();
+        executor.execute(() -> {
+            RouteGeometryService geometryService = RouteGeometryService.getInstance();
+            RouteProgressIndex.Builder builder = new RouteProgressIndex.Builder();
+            for (RouteSegment segment : segments) {
+                DecodedPolyline line = geometryService.getDecoded(segment.getPolylineEncoded());
+                com.example.ourenbus2.model.Location start = segment.getStartLocation();
+                com.example.ourenbus2.model.Location end = segment.getEndLocation();
+                if ((line == null || line.size() < 2) && start != null && end != null) {
+                    builder.addSegment(start.getLatitude(), start.getLongitude(), end.getLatitude(), end.getLongitude(), segment.getDuration());
+                } else {
+                    // Un segmento sin geometría se añade vacío para mantener la correspondencia de índices
+                    builder.addSegment(line != null ? line : PolylineCodec.decode(null), segment.getDuration());
+                }
+            }
+            RouteProgressIndex index = builder.build();
+            // Descartar si entretanto se ha iniciado otra ruta
+            if (currentRoute.getValue() == route) progressIndex = index;
+        });
     }
     
     /**
@@ -102,83 +168,164 @@ public class NavigationViewModel extends AndroidViewModel {
      * Avanza al siguiente segmento de la ruta
      */
     public void advanceToNextSegment() {
-        RouteSegment current = activeSegment.getValue();
         RouteSegment next = nextSegment.getValue();
         
         if (next != null) {
-            // Avanzar al siguiente segmento
-            activeSegment.setValue(next);
-            
-            // Buscar el siguiente segmento en la lista
             List<RouteSegment> segments = currentRoute.getValue().getSegments();
-            int currentIndex = segments.indexOf(next);
-            
-            if (currentIndex >= 0 && currentIndex < segments.size() - 1) {
-                nextSegment.setValue(segments.get(currentIndex + 1));
+            setActiveIndex(segments, segments.indexOf(next));
+        }
+    }
+    
+    /**
+     * Marca como activo el segmento indicado y ajusta el próximo segmento y el modo de ubicación
+     */
+    private void setActiveIndex(List<RouteSegment> segments, int index) {
+        if (index < 0 || index >= segments.size()) return;
+        RouteSegment segment = segments.get(index);
+        activeSegment.setValue(segment);
+        nextSegment.setValue(index < segments.size() - 1 ? segments.get(index + 1) : null);
+        applyTrackingMode(segment);
+    }
+    
+    /**
+     * Ajusta la frecuencia de ubicación al segmento activo: alta caminando, agrupada en el bus
+     * (vigilando la parada de bajada) y casi nula esperando hasta poco antes de que salga el bus.
+     */
+    private void applyTrackingMode(RouteSegment segment) {
+        mainHandler.removeCallbacks(boardingWakeUp);
+        if (segment.getType() == RouteSegment.SegmentType.BUS) {
+            com.example.ourenbus2.model.Location stop = segment.getEndLocation();
+            if (stop != null) {
+                locationService.setProximityTarget(stop.getLatitude(), stop.getLongitude());
             } else {
-                // No hay más segmentos
-                nextSegment.setValue(null);
+                locationService.clearProximityTarget();
+            }
+            locationService.setTrackingMode(LocationService.TrackingMode.RIDING);
+            return;
+        }
+        locationService.clearProximityTarget();
+        if (segment.getType() == RouteSegment.SegmentType.WAIT) {
+            Date departure = segment.getEndTime();
+            long delay = departure != null ? departure.getTime() - BOARDING_WAKE_UP_MS - System.currentTimeMillis() : 0;
+            if (delay > 0) {
+                locationService.setTrackingMode(LocationService.TrackingMode.WAITING);
+                mainHandler.postDelayed(boardingWakeUp, delay);
+                return;
+            }
+        }
+        locationService.setTrackingMode(LocationService.TrackingMode.WALKING);
+    }
+    
+    /**
+     * Avanza el segmento activo según la proyección de la ubicación. Nunca retrocede y no deja
+     * atrás una espera mientras su bus no haya salido.
+     */
+    private void syncActiveSegment(Route route, RouteProgressIndex index, RouteProgressIndex.Projection projection) {
+        List<RouteSegment> segments = route.getSegments();
+        if (segments == null) return;
+        int current = segments.indexOf(activeSegment.getValue());
+        int target = projection.segmentIndex;
+        // Al llegar al final de un tramo (p. ej. a la parada) se pasa al siguiente
+        if (target == current && current >= 0 && current + 1 < segments.size()
+                && segments.get(current).getType() != RouteSegment.SegmentType.WAIT
+                && index.getSegmentEnd(current) - projection.alongRoute <= SEGMENT_END_TOLERANCE_METERS) {
+            target = current + 1;
+        }
+        if (target <= current || target >= segments.size()) return;
+        long now = System.currentTimeMillis();
+        for (int i = current + 1; i < target; i++) {
+            RouteSegment segment = segments.get(i);
+            if (segment.getType() == RouteSegment.SegmentType.WAIT
+                    && segment.getEndTime() != null && segment.getEndTime().getTime() > now) {
+                target = i;
+                break;
             }
         }
+        setActiveIndex(segments, target);
     }
     
     /**
-     * Recalcula la ruta (simulado)
+     * Recalcula la ruta desde la posición actual con el enrutador GTFS local, conservando los
+     * tramos pendientes que todavía se pueden alcanzar. El resultado sustituye a la ruta en curso.
      */
     public void recalculateRoute() {
+        Route route = currentRoute.getValue();
+        Location location = currentUserLocation.getValue();
+        if (route == null || location == null || Boolean.TRUE.equals(isRecalculating.getValue())) {
+            return;
+        }
         isRecalculating.setValue(true);
         
-        // Simulación de recálculo
-        new Thread(() -> {
+        List<RouteSegment> segments = route.getSegments();
+        final int activeIndex = segments != null ? Math.max(0, segments.indexOf(activeSegment.getValue())) : 0;
+        final com.example.ourenbus2.model.Location position = new com.example.ourenbus2.model.Location(
+                getApplication().getString(R.string.current_location), location.getLatitude(), location.getLongitude());
+        executor.execute(() -> {
+            Route rerouted = null;
             try {
-                Thread.sleep(2000); // Simular 2 segundos de recálculo
-                isRecalculating.postValue(false);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                rerouted = GtfsRouter.reroute(getApplication(), route, activeIndex, position, new Date());
+            } catch (Exception ignored) {
+                // Sin datos GTFS o error de BD: se mantiene la ruta actual
             }
-        }).start();
+            final Route result = rerouted;
+            mainHandler.post(() -> {
+                isRecalculating.setValue(false);
+                // Publicar solo si la ruta no ha cambiado mientras tanto
+                if (result != null && result.isValid() && currentRoute.getValue() == route) {
+                    result.setName(route.getName());
+                    startNavigation(result);
+                } else {
+                    // Sin ruta nueva: volver a vigilar para reintentar si se sigue fuera de la ruta
+                    offRouteDetector.reset();
+                }
+            });
+        });
     }
     
     /**
-     * Actualiza el progreso de la navegación basado en la ubicación actual
+     * Actualiza el progreso de la navegación proyectando la ubicación sobre la geometría de la ruta
      */
     private void updateNavigationProgress(Location location) {
         Route route = currentRoute.getValue();
-        RouteSegment segment = activeSegment.getValue();
+        RouteProgressIndex index = progressIndex;
         
-        if (route == null || segment == null || location == null) {
+        if (route == null || index == null || location == null || index.getTotalLength() <= 0) {
             return;
         }
         
-        // Simular progreso basado en la cercanía al destino final
-        com.example.ourenbus2.model.Location destinationLocation = route.getDestination();
-        float[] results = new float[1];
-        
-        Location.distanceBetween(
-                location.getLatitude(), location.getLongitude(),
-                destinationLocation.getLatitude(), destinationLocation.getLongitude(),
-                results
-        );
-        
-        float distanceToDestination = results[0]; // metros
-        
-        // Calcular un progreso aproximado
-        // En una app real, esto sería mucho más sofisticado
-        double totalRouteDistance = 0;
-        for (RouteSegment seg : route.getSegments()) {
-            totalRouteDistance += seg.getDistance();
+        RouteProgressIndex.Projection projection = index.project(location.getLatitude(), location.getLongitude());
+        if (projection == null) {
+            return;
         }
         
-        // Progreso entre 0 y 100
-        int progress = (int) (100 - (distanceToDestination / totalRouteDistance * 100));
-        progress = Math.max(0, Math.min(100, progress)); // Limitar entre 0 y 100
+        double total = index.getTotalLength();
+        int progress = (int) Math.round(projection.alongRoute / total * 100);
+        navigationProgress.setValue(Math.max(0, Math.min(100, progress)));
+        remainingDistance.setValue((int) Math.round(Math.max(0, total - projection.alongRoute)));
+        remainingTime.setValue((int) Math.ceil(index.remainingMinutes(projection)));
         
-        navigationProgress.setValue(progress);
-        
-        // Actualizar tiempo restante estimado
-        int totalTime = route.getEstimatedTimeInMinutes();
-        int timeRemaining = (int) (totalTime * (1 - (progress / 100.0)));
-        remainingTime.setValue(timeRemaining);
+        checkOffRoute(route, index, projection, location);
+        syncActiveSegment(route, index, projection);
+    }
+    
+    /**
+     * Recalcula la ruta automáticamente cuando el usuario lleva un tiempo fuera de ella.
+     * Solo se vigilan los tramos con geometría real: la línea recta entre dos paradas no sigue las calles.
+     */
+    private void checkOffRoute(Route route, RouteProgressIndex index, RouteProgressIndex.Projection projection, Location location) {
+        RouteSegment active = activeSegment.getValue();
+        List<RouteSegment> segments = route.getSegments();
+        if (active == null || segments == null || active.getType() == RouteSegment.SegmentType.WAIT) {
+            return;
+        }
+        int activeIndex = segments.indexOf(active);
+        if (activeIndex < 0 || !index.hasGeometry(activeIndex)) {
+            return;
+        }
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : 0f;
+        if (offRouteDetector.update(projection.distanceToRoute, accuracy, location.getTime())) {
+            recalculateRoute();
+        }
     }
     
     // Getters para los LiveData
@@ -210,6 +357,10 @@ public class NavigationViewModel extends AndroidViewModel {
         return remainingTime;
     }
     
+    public LiveData<Integer> getRemainingDistance() {
+        return remainingDistance;
+    }
+    
     public LiveData<List<RouteSegment>> getRouteSegments() {
         return routeSegments;
     }
@@ -217,4 +368,21 @@ public class NavigationViewModel extends AndroidViewModel {
     public LiveData<RouteSegment> getSelectedSegment() {
         return selectedSegment;
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Indica si el usuario se acerca a la parada en la que debe bajar del bus
+     */
+    public LiveData<Boolean> getApproachingStop() {
+        return locationService.isApproachingTarget();
+    }
+    
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        executor.shutdownNow();
+        // Fuera de la navegación se vuelve al modo normal de ubicación
+        mainHandler.removeCallbacks(boardingWakeUp);
+        locationService.clearProximityTarget();
+        locationService.setTrackingMode(LocationService.TrackingMode.STANDARD);
+    }
+}
\ No newline at end of file
@@ -14,13 +14,12 @@ import com.example.ourenbus2.model.Route;
 import com.example.ourenbus2.repository.LocationRepository;
 import com.example.ourenbus2.repository.RouteRepository;
 import com.example.ourenbus2.repository.FavoriteRouteRepository;
-import com.example.ourenbus2.service.DirectionsHttpService;
-import com.example.ourenbus2.util.RouteGenerator;
+import com.example.ourenbus2.service.RouteOrchestrator;
 import com.example.ourenbus2.repository.UserRepository;
-import com.example.ourenbus2.util.gtfs.GtfsImporter;
-import com.example.ourenbus2.util.gtfs.GtfsRouter;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -31,7 +30,7 @@ public class RouteViewModel extends AndroidViewModel {
     private final RouteRepository routeRepository;
     private final FavoriteRouteRepository favoritesRepository;
     private final UserRepository userRepository;
-    private final DirectionsHttpService directionsService;
+    private final RouteOrchestrator orchestrator;
 
     private final MutableLiveData<Location> currentLocation = new MutableLiveData<>();
     private final MutableLiveData<Location> origin = new MutableLiveData<>();
@@ -41,9 +40,13 @@ public class RouteViewModel extends AndroidViewModel {
     private final LiveData<List<Route>> favoriteRoutes;
     private final MutableLiveData<Boolean> isLoading = new MutableLiveData<>(false);
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>(null);
+    // Hora de llegada deseada; null = salir ahora
+    private final MutableLiveData<Date> arriveBy = new MutableLiveData<>(null);
 
     private Location lastOrigin;
     private Location lastDestination;
+    private Date lastArriveBy;
+    private RouteOrchestrator.Search currentSearch;
 
     public RouteViewModel(@NonNull Application application) {
         super(application);
@@ -52,13 +55,14 @@ public class RouteViewModel extends AndroidViewModel {
         routeRepository = new RouteRepository(application);
         favoritesRepository = new FavoriteRouteRepository(application);
         userRepository = new UserRepository(application);
-        directionsService = new DirectionsHttpService(application);
+        orchestrator = RouteOrchestrator.getInstance(application);
         favoriteRoutes = favoritesRepository.getAllFavoriteRoutes();
     }
 
     public void updateCurrentLocation(Location location) { currentLocation.setValue(location); }
     public void setOrigin(Location location) { origin.setValue(location); }
     public void setDestination(Location location) { destination.setValue(location); }
+    public void setArriveBy(Date arrival) { arriveBy.setValue(arrival); }
 
     public void searchLocationSuggestions(String query) {
         executor.execute(() -> {
@@ -71,117 +75,45 @@ public class RouteViewModel extends AndroidViewModel {
 
     public void searchRoute(Location origin, Location destination) {
         if (origin == null || destination == null) return;
+        final Date arrival = arriveBy.getValue();
         if (lastOrigin != null && lastDestination != null &&
                 equalsCoord(lastOrigin, origin) && equalsCoord(lastDestination, destination) &&
-                currentRoute.getValue() != null) {
+                Objects.equals(lastArriveBy, arrival) && currentRoute.getValue() != null) {
             return;
         }
         lastOrigin = origin;
         lastDestination = destination;
-
-        executor.execute(() -> {
-            isLoading.postValue(true);
-            errorMessage.postValue(null);
-            String apiKey = getApiKey();
-            if (apiKey == null || apiKey.isEmpty()) {
+        lastArriveBy = arrival;
+
+        // Ruta local y de Directions en paralelo: se muestra la mejor al vencer el plazo y luego cada mejora
+        if (currentSearch != null) currentSearch.cancel();
+        isLoading.setValue(true);
+        errorMessage.setValue(null);
+        currentSearch = orchestrator.search(getApiKey(), origin, destination, arrival, new RouteOrchestrator.Listener() {
+            @Override
+            public void onRoute(Route route, RouteOrchestrator.Source source) {
+                currentRoute.postValue(route);
                 isLoading.postValue(false);
-                errorMessage.postValue("Falta MAPS_API_KEY");
-                return;
             }
-            Route route = null;
-            try {
-                // Intentar primero con GTFS local si hay feed importado
-                try { GtfsImporter.importIfEmpty(getApplication()); } catch (Exception ignored) {}
-                if (GtfsRouter.hasData(getApplication())) {
-                    Route gtfs = GtfsRouter.findSimpleRoute(getApplication(), origin, destination);
-                    if (gtfs != null && gtfs.isValid()) {
-                        route = gtfs;
-                    }
-                }
-                if (route == null) {
-                // Probar ventana de salida 0/5/10/15 minutos, priorizando uso de bus
-                long now = System.currentTimeMillis() / 1000L;
-                long[] departures = new long[] { now, now + 5 * 60, now + 10 * 60, now + 15 * 60 };
-                List<Route> candidates = new java.util.ArrayList<>();
-                for (long dep : departures) {
-                    try {
-                        List<Route> batch = directionsService.getTransitRoutesAtCandidates(apiKey, origin, destination, dep);
-                        if (batch != null) {
-                            for (Route r : batch) if (r != null && r.isValid()) candidates.add(r);
-                        }
-                    } catch (Exception ignored) { }
-                }
-                // Si no hay candidatos transit, caer a la mejor a pie
-                if (candidates.isEmpty()) {
-                    route = directionsService.getBestWalkingRoute(apiKey, origin, destination);
-                } else {
-                    route = pickBestBusBiased(candidates);
-                }
-                }
-            } catch (Exception e) {
-                errorMessage.postValue("Error Directions: " + e.getMessage());
-            }
-            // Fallback si Directions no devuelve ruta válida
-            if (route == null || !route.isValid()) {
-                route = RouteGenerator.generateSampleRoute(origin, destination);
-            }
-            if (route != null && route.isValid()) {
-                currentRoute.postValue(route);
-            } else {
-                errorMessage.postValue("No se pudo calcular la ruta");
+
+            @Override
+            public void onComplete(String error) {
+                isLoading.postValue(false);
+                if (error != null) errorMessage.postValue(error);
             }
-            isLoading.postValue(false);
         });
     }
 
-    private Route pickBestBusBiased(List<Route> routes) {
-        Route bestAcceptable = null;
-        double bestAcceptableScore = -1e9;
-        Route bestFallback = null;
-        double bestFallbackScore = -1e9;
-        int bestFallbackMaxWait = Integer.MAX_VALUE;
-        final int MAX_WAIT_MIN = 10;
-        for (Route r : routes) {
-            int minutesBus = 0;
-            int minutesWalk = 0;
-            int minutesWait = 0;
-            int busSegments = 0;
-            int maxWait = 0;
-            if (r.getSegments() != null) {
-                for (com.example.ourenbus2.model.RouteSegment s : r.getSegments()) {
-                    switch (s.getType()) {
-                        case BUS:
-                            minutesBus += s.getDuration();
-                            busSegments++;
-                            break;
-                        case WALKING:
-                            minutesWalk += s.getDuration();
-                            break;
-                        case WAIT:
-                            minutesWait += s.getDuration();
-                            if (s.getDuration() > maxWait) maxWait = s.getDuration();
-                            break;
-                        default:
-                            break;
-                    }
-                }
-            }
-            int waitOver = Math.max(0, minutesWait - MAX_WAIT_MIN);
-            double score = minutesBus * 2.0 + busSegments * 1.0 - minutesWalk * 1.0 - waitOver * 3.0;
-            score += -0.01 * r.getTotalDuration();
-            score += -0.001 * (minutesWalk);
-            if (maxWait <= MAX_WAIT_MIN) {
-                if (score > bestAcceptableScore) { bestAcceptableScore = score; bestAcceptable = r; }
-            } else {
-                if (maxWait < bestFallbackMaxWait || (maxWait == bestFallbackMaxWait && score > bestFallbackScore)) {
-                    bestFallbackMaxWait = maxWait;
-                    bestFallbackScore = score;
-                    bestFallback = r;
-                }
-            }
-        }
-        if (bestAcceptable != null) return bestAcceptable;
-        return bestFallback != null ? bestFallback : routes.get(0);
+    /**
+     * Muestra una ruta ya calculada (p. ej. las salidas precalculadas de una favorita) sin volver a buscar
+     */
+    public void showRoute(Route route) {
+        if (route == null || !route.isValid()) return;
+        lastOrigin = route.getOrigin();
+        lastDestination = route.getDestination();
+        lastArriveBy = null;
+        errorMessage.setValue(null);
+        currentRoute.setValue(route);
     }
 
     private String getApiKey() {
@@ -210,9 +142,16 @@ public class RouteViewModel extends AndroidViewModel {
 
     public void removeRouteFromFavorites(Route route) { favoritesRepository.deleteRoute(route); }
 
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (currentSearch != null) currentSearch.cancel();
+    }
+
     public LiveData<Location> getCurrentLocation() { return currentLocation; }
     public LiveData<Location> getOrigin() { return origin; }
     public LiveData<Location> getDestination() { return destination; }
+    public LiveData<Date> getArriveBy() { return arriveBy; }
     public LiveData<Route> getCurrentRoute() { return currentRoute; }
     public LiveData<List<Location>> getLocationSuggestions() { return locationSuggestions; }
     public LiveData<List<Route>> getFavoriteRoutes() { return favoriteRoutes; }
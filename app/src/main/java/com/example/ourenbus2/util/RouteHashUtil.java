@@ -0,0 +1,77 @@
+package com.example.ourenbus2.util;
+
+import com.example.ourenbus2.model.BusStop;
+import com.example.ourenbus2.model.Location;
+import com.example.ourenbus2.model.Route;
+import com.example.ourenbus2.model.RouteSegment;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Utilidad para calcular una huella estable del contenido de una ruta.
+ * Solo usa la forma canónica de la ruta (origen, destino y firma de los segmentos),
+ * no el JSON serializado, de modo que no depende del orden de campos de Gson ni de las horas.
+ */
+public class RouteHashUtil {
+
+    // Redondeo de coordenadas (~1 m) para que pequeñas diferencias de precisión no cambien la huella
+    private static final double COORD_SCALE = 1e5;
+
+    /**
+     * Calcula la huella SHA-256 (hex) de la ruta
+     * @param route Ruta
+     * @return Huella del contenido o null si la ruta es null
+     */
+    public static String computeContentHash(Route route) {
+        if (route == null) return null;
+        StringBuilder sb = new StringBuilder();
+        appendLocation(sb, route.getOrigin());
+        sb.append('>');
+        appendLocation(sb, route.getDestination());
+        if (route.getSegments() != null) {
+            for (RouteSegment s : route.getSegments()) {
+                sb.append('|').append(s.getType());
+                if (s.getBusLine() != null) sb.append(':').append(s.getBusLine().getLineNumber());
+                appendStop(sb, s.getBusStop());
+                appendStop(sb, s.getNextStop());
+                sb.append(':');
+                appendLocation(sb, s.getStartLocation());
+                sb.append('>');
+                appendLocation(sb, s.getEndLocation());
+            }
+        }
+        return sha256(sb.toString());
+    }
+
+    private static void appendLocation(StringBuilder sb, Location l) {
+        if (l == null) {
+            sb.append('-');
+            return;
+        }
+        sb.append(Math.round(l.getLatitude() * COORD_SCALE)).append(',').append(Math.round(l.getLongitude() * COORD_SCALE));
+    }
+
+    private static void appendStop(StringBuilder sb, BusStop stop) {
+        sb.append(':');
+        if (stop == null) {
+            sb.append('-');
+            return;
+        }
+        sb.append(Math.round(stop.getLatitude() * COORD_SCALE)).append(',').append(Math.round(stop.getLongitude() * COORD_SCALE));
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) hex.append(String.format(Locale.ROOT, "%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 está disponible en todas las plataformas soportadas
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.ourenbus2.util.geo;
+
+/**
+ * Polilínea decodificada en arrays primitivos (grados), sin un objeto por vértice.
+ * Es inmutable, de modo que puede compartirse entre hilos y guardarse en caché.
+ */
+public final class DecodedPolyline {
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double minLat, minLng, maxLat, maxLng;
+
+    DecodedPolyline(double[] latitudes, double[] longitudes) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        double mnLat = Double.POSITIVE_INFINITY, mnLng = Double.POSITIVE_INFINITY;
+        double mxLat = Double.NEGATIVE_INFINITY, mxLng = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < latitudes.length; i++) {
+            mnLat = Math.min(mnLat, latitudes[i]);
+            mxLat = Math.max(mxLat, latitudes[i]);
+            mnLng = Math.min(mnLng, longitudes[i]);
+            mxLng = Math.max(mxLng, longitudes[i]);
+        }
+        this.minLat = mnLat;
+        this.minLng = mnLng;
+        this.maxLat = mxLat;
+        this.maxLng = mxLng;
+    }
+
+    public int size() { return latitudes.length; }
+
+    public double getLatitude(int i) { return latitudes[i]; }
+
+    public double getLongitude(int i) { return longitudes[i]; }
+
+    public double getMinLatitude() { return minLat; }
+
+    public double getMinLongitude() { return minLng; }
+
+    public double getMaxLatitude() { return maxLat; }
+
+    public double getMaxLongitude() { return maxLng; }
+}
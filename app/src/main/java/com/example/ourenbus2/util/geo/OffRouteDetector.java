@@ -0,0 +1,65 @@
+package com.example.ourenbus2.util.geo;
+
+/**
+ * Decide si el usuario se ha salido de la ruta a partir de la distancia de cada ubicación a la
+ * geometría. Usa histéresis para no reaccionar a saltos sueltos del GPS: hacen falta varias
+ * ubicaciones seguidas fuera durante un tiempo mínimo, y para volver a estar en ruta hay que
+ * acercarse bastante más de lo que se tuvo que alejar.
+ */
+public final class OffRouteDetector {
+
+    /** Distancia (descontada la precisión de la ubicación) a partir de la cual una ubicación cuenta como fuera */
+    public static final double OFF_ROUTE_METERS = 50.0;
+    /** Distancia por debajo de la cual se vuelve a considerar en ruta */
+    public static final double BACK_ON_ROUTE_METERS = 25.0;
+    /** Ubicaciones seguidas fuera de la ruta necesarias para confirmarlo */
+    public static final int MIN_OFF_ROUTE_FIXES = 3;
+    /** Tiempo mínimo fuera de la ruta para confirmarlo */
+    public static final long MIN_OFF_ROUTE_MILLIS = 20000;
+    /** Las ubicaciones con peor precisión que esta no se tienen en cuenta */
+    public static final float MAX_ACCURACY_METERS = 100f;
+
+    private int offFixes = 0;
+    private long offSince = -1;
+    private boolean offRoute = false;
+
+    /**
+     * Procesa una ubicación
+     *
+     * @param distanceMeters Distancia de la ubicación a la ruta
+     * @param accuracyMeters Precisión de la ubicación (0 si se desconoce)
+     * @param timeMillis     Hora de la ubicación
+     * @return true solo en la ubicación que confirma la salida de la ruta
+     */
+    public boolean update(double distanceMeters, float accuracyMeters, long timeMillis) {
+        if (accuracyMeters > MAX_ACCURACY_METERS) return false;
+        if (distanceMeters <= BACK_ON_ROUTE_METERS) {
+            reset();
+            return false;
+        }
+        if (offRoute) return false;
+        if (distanceMeters - accuracyMeters <= OFF_ROUTE_METERS) {
+            // Zona intermedia: ni se confirma la salida ni se olvidan las ubicaciones anteriores
+            return false;
+        }
+        if (offFixes++ == 0) offSince = timeMillis;
+        if (offFixes >= MIN_OFF_ROUTE_FIXES && timeMillis - offSince >= MIN_OFF_ROUTE_MILLIS) {
+            offRoute = true;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isOffRoute() {
+        return offRoute;
+    }
+
+    /**
+     * Olvida el estado (p. ej. al empezar una ruta nueva)
+     */
+    public void reset() {
+        offFixes = 0;
+        offSince = -1;
+        offRoute = false;
+    }
+}
@@ -0,0 +1,502 @@
+package com.example.ourenbus2.util.geo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Red peatonal en formato CSR (filas comprimidas): por nodo, el rango de sus tramos de salida en arrays
+ * paralelos de destino, longitud y tiempo. El tiempo de cada sentido se calcula al construir la red con
+ * la función de Tobler sobre la pendiente, así que subir una cuesta cuesta más que bajarla. Se genera
+ * fuera del dispositivo a partir de un extracto de OSM (ver {@link Builder}) y se carga con {@link #read}.
+ * <p>
+ * Las rutas se calculan con A* (heurística: distancia en línea recta a la velocidad máxima, que es
+ * admisible) y los tiempos a varias paradas con Dijkstra acotado, sobre la red inversa si se va hacia
+ * el punto. Inmutable: seguro para consultas desde varios hilos.
+ */
+public final class PedestrianGraph {
+
+    /** Velocidad en llano, la misma que el resto del enrutado (80 m/min) */
+    public static final double FLAT_METERS_PER_SECOND = 80.0 / 60.0;
+    /** Distancia máxima de un punto al nodo más cercano para usar la red */
+    public static final double SNAP_METERS = 300.0;
+
+    private static final int MAGIC = 0x4F425747; // "OBWG"
+    private static final int VERSION = 1;
+    private static final double E6 = 1E6;
+    private static final double METERS_PER_DEGREE = 111_320.0;
+    // Tobler: la velocidad máxima es la de una bajada del 5 %, e^0.175 veces la de llano
+    private static final double MAX_METERS_PER_SECOND = FLAT_METERS_PER_SECOND * Math.exp(3.5 * 0.05);
+    // Celdas del índice de nodos (grados de latitud; la longitud se escala por el coseno)
+    private static final double CELL_DEGREES = 0.001;
+
+    private final int[] nodeLat;           // grados * 1e6
+    private final int[] nodeLon;
+    private final int[] edgeStart;         // nodeCount + 1
+    private final int[] edgeTarget;
+    private final int[] edgeDecimeters;
+    private final int[] edgeDeciseconds;
+    // Red inversa: por nodo, los tramos que llegan a él
+    private final int[] reverseStart;
+    private final int[] reverseSource;
+    private final int[] reverseEdge;
+    // Índice de rejilla: nodos ordenados por celda
+    private final double minLat, minLon, cellLonDegrees;
+    private final int gridRows, gridCols;
+    private final int[] cellStart;
+    private final int[] cellNodes;
+
+    private PedestrianGraph(int[] nodeLat, int[] nodeLon, int[] edgeStart, int[] edgeTarget,
+                            int[] edgeDecimeters, int[] edgeDeciseconds) {
+        this.nodeLat = nodeLat;
+        this.nodeLon = nodeLon;
+        this.edgeStart = edgeStart;
+        this.edgeTarget = edgeTarget;
+        this.edgeDecimeters = edgeDecimeters;
+        this.edgeDeciseconds = edgeDeciseconds;
+        int n = nodeLat.length, m = edgeTarget.length;
+
+        // Red inversa por recuento
+        reverseStart = new int[n + 1];
+        for (int e = 0; e < m; e++) reverseStart[edgeTarget[e] + 1]++;
+        for (int v = 0; v < n; v++) reverseStart[v + 1] += reverseStart[v];
+        reverseSource = new int[m];
+        reverseEdge = new int[m];
+        int[] fill = Arrays.copyOf(reverseStart, n);
+        for (int u = 0; u < n; u++) {
+            for (int e = edgeStart[u]; e < edgeStart[u + 1]; e++) {
+                int slot = fill[edgeTarget[e]]++;
+                reverseSource[slot] = u;
+                reverseEdge[slot] = e;
+            }
+        }
+
+        // Rejilla sobre la caja de la red
+        double mnLat = Double.POSITIVE_INFINITY, mnLon = Double.POSITIVE_INFINITY;
+        double mxLat = Double.NEGATIVE_INFINITY, mxLon = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            mnLat = Math.min(mnLat, nodeLat[v] / E6);
+            mxLat = Math.max(mxLat, nodeLat[v] / E6);
+            mnLon = Math.min(mnLon, nodeLon[v] / E6);
+            mxLon = Math.max(mxLon, nodeLon[v] / E6);
+        }
+        if (n == 0) mnLat = mxLat = mnLon = mxLon = 0;
+        minLat = mnLat;
+        minLon = mnLon;
+        cellLonDegrees = CELL_DEGREES / Math.max(0.1, Math.cos(Math.toRadians((mnLat + mxLat) / 2)));
+        gridRows = (int) ((mxLat - mnLat) / CELL_DEGREES) + 1;
+        gridCols = (int) ((mxLon - mnLon) / cellLonDegrees) + 1;
+        cellStart = new int[gridRows * gridCols + 1];
+        int[] cellOf = new int[n];
+        for (int v = 0; v < n; v++) {
+            cellOf[v] = cell(row(nodeLat[v] / E6), col(nodeLon[v] / E6));
+            cellStart[cellOf[v] + 1]++;
+        }
+        for (int c = 0; c < gridRows * gridCols; c++) cellStart[c + 1] += cellStart[c];
+        cellNodes = new int[n];
+        int[] cellFill = Arrays.copyOf(cellStart, gridRows * gridCols);
+        for (int v = 0; v < n; v++) cellNodes[cellFill[cellOf[v]]++] = v;
+    }
+
+    public int getNodeCount() { return nodeLat.length; }
+
+    public int getEdgeCount() { return edgeTarget.length; }
+
+    /**
+     * Ruta a pie más rápida entre dos puntos, incluidos los trozos en línea recta hasta la red
+     * @return Ruta, o null si algún punto queda lejos de la red o no están conectados
+     */
+    public Path route(double fromLat, double fromLon, double toLat, double toLon) {
+        int source = nearestNode(fromLat, fromLon);
+        int target = nearestNode(toLat, toLon);
+        if (source < 0 || target < 0) return null;
+        int n = nodeLat.length;
+        int[] cost = new int[n];
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        int[] viaEdge = new int[n];
+        boolean[] settled = new boolean[n];
+        double targetLat = nodeLat[target] / E6, targetLon = nodeLon[target] / E6;
+        NodeHeap heap = new NodeHeap();
+        cost[source] = 0;
+        viaEdge[source] = -1;
+        heap.push(source, estimate(source, targetLat, targetLon));
+        while (!heap.isEmpty()) {
+            int u = heap.pop();
+            if (settled[u]) continue;
+            settled[u] = true;
+            if (u == target) break;
+            for (int e = edgeStart[u]; e < edgeStart[u + 1]; e++) {
+                int v = edgeTarget[e];
+                int c = cost[u] + edgeDeciseconds[e];
+                if (c < cost[v]) {
+                    cost[v] = c;
+                    viaEdge[v] = e;
+                    heap.push(v, c + estimate(v, targetLat, targetLon));
+                }
+            }
+        }
+        if (!settled[target]) return null;
+
+        // Recorrido hacia atrás desde el destino
+        List<Integer> nodes = new ArrayList<>();
+        int decimeters = 0;
+        for (int v = target; ; ) {
+            nodes.add(v);
+            int e = viaEdge[v];
+            if (e < 0) break;
+            decimeters += edgeDecimeters[e];
+            v = sourceOf(e);
+        }
+        int count = nodes.size() + 2;
+        double[] lats = new double[count], lons = new double[count];
+        lats[0] = fromLat;
+        lons[0] = fromLon;
+        for (int i = 0; i < nodes.size(); i++) {
+            int v = nodes.get(nodes.size() - 1 - i);
+            lats[i + 1] = nodeLat[v] / E6;
+            lons[i + 1] = nodeLon[v] / E6;
+        }
+        lats[count - 1] = toLat;
+        lons[count - 1] = toLon;
+        double snapMeters = snapMeters(fromLat, fromLon, source) + snapMeters(toLat, toLon, target);
+        double meters = decimeters / 10.0 + snapMeters;
+        int seconds = (int) Math.ceil(cost[target] / 10.0 + snapMeters / FLAT_METERS_PER_SECOND);
+        return new Path(seconds, meters, lats, lons);
+    }
+
+    /**
+     * Segundos a pie entre un punto y varios otros (p. ej. las paradas de acceso o de salida), con una
+     * sola búsqueda de Dijkstra que se detiene al llegar a todos o al pasar del límite
+     *
+     * @param towardsPoint true para el tiempo de cada otro punto hasta el punto (red inversa)
+     * @param maxSeconds   Límite de la búsqueda
+     * @return Segundos por punto, o -1 si queda lejos de la red, no está conectado o pasa del límite
+     */
+    public int[] secondsBetween(double lat, double lon, double[] lats, double[] lons, boolean towardsPoint, int maxSeconds) {
+        int[] out = new int[lats.length];
+        Arrays.fill(out, -1);
+        int source = nearestNode(lat, lon);
+        if (source < 0) return out;
+        int n = nodeLat.length;
+        int[] targetNode = new int[lats.length];
+        boolean[] isTarget = new boolean[n];
+        int pending = 0;
+        for (int i = 0; i < lats.length; i++) {
+            targetNode[i] = nearestNode(lats[i], lons[i]);
+            if (targetNode[i] >= 0 && !isTarget[targetNode[i]]) {
+                isTarget[targetNode[i]] = true;
+                pending++;
+            }
+        }
+        int[] cost = new int[n];
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        boolean[] settled = new boolean[n];
+        int limit = maxSeconds * 10;
+        NodeHeap heap = new NodeHeap();
+        cost[source] = 0;
+        heap.push(source, 0);
+        while (!heap.isEmpty() && pending > 0) {
+            int u = heap.pop();
+            if (settled[u]) continue;
+            settled[u] = true;
+            if (cost[u] > limit) break;
+            if (isTarget[u]) pending--;
+            int start = towardsPoint ? reverseStart[u] : edgeStart[u];
+            int end = towardsPoint ? reverseStart[u + 1] : edgeStart[u + 1];
+            for (int i = start; i < end; i++) {
+                int v = towardsPoint ? reverseSource[i] : edgeTarget[i];
+                int c = cost[u] + edgeDeciseconds[towardsPoint ? reverseEdge[i] : i];
+                if (c < cost[v]) {
+                    cost[v] = c;
+                    heap.push(v, c);
+                }
+            }
+        }
+        double sourceSnap = snapMeters(lat, lon, source) / FLAT_METERS_PER_SECOND;
+        for (int i = 0; i < lats.length; i++) {
+            int v = targetNode[i];
+            if (v < 0 || !settled[v] || cost[v] > limit) continue;
+            double snap = sourceSnap + snapMeters(lats[i], lons[i], v) / FLAT_METERS_PER_SECOND;
+            int seconds = (int) Math.ceil(cost[v] / 10.0 + snap);
+            if (seconds <= maxSeconds) out[i] = seconds;
+        }
+        return out;
+    }
+
+    /**
+     * Nodo más cercano a un punto, recorriendo anillos de celdas cada vez más amplios
+     * @return Nodo, o -1 si no hay ninguno a menos de {@link #SNAP_METERS}
+     */
+    public int nearestNode(double lat, double lon) {
+        if (nodeLat.length == 0) return -1;
+        int r0 = row(lat), c0 = col(lon);
+        int best = -1;
+        double bestMeters = SNAP_METERS;
+        int maxRing = (int) Math.ceil(SNAP_METERS / (CELL_DEGREES * METERS_PER_DEGREE)) + 1;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Los nodos de este anillo están al menos a (ring - 1) celdas
+            if (best >= 0 && (ring - 1) * CELL_DEGREES * METERS_PER_DEGREE > bestMeters) break;
+            for (int r = r0 - ring; r <= r0 + ring; r++) {
+                if (r < 0 || r >= gridRows) continue;
+                boolean edgeRow = r == r0 - ring || r == r0 + ring;
+                for (int c = c0 - ring; c <= c0 + ring; c += edgeRow ? 1 : 2 * Math.max(1, ring)) {
+                    if (c < 0 || c >= gridCols) continue;
+                    int cell = cell(r, c);
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int v = cellNodes[i];
+                        double d = approxMeters(lat, lon, nodeLat[v] / E6, nodeLon[v] / E6);
+                        if (d < bestMeters) {
+                            bestMeters = d;
+                            best = v;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private int sourceOf(int edge) {
+        // Búsqueda binaria en los inicios de fila
+        int lo = 0, hi = nodeLat.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (edgeStart[mid] <= edge) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private int estimate(int node, double targetLat, double targetLon) {
+        double meters = approxMeters(nodeLat[node] / E6, nodeLon[node] / E6, targetLat, targetLon);
+        return (int) (meters / MAX_METERS_PER_SECOND * 10.0);
+    }
+
+    private double snapMeters(double lat, double lon, int node) {
+        return approxMeters(lat, lon, nodeLat[node] / E6, nodeLon[node] / E6);
+    }
+
+    private int row(double lat) {
+        return (int) Math.floor((lat - minLat) / CELL_DEGREES);
+    }
+
+    private int col(double lon) {
+        return (int) Math.floor((lon - minLon) / cellLonDegrees);
+    }
+
+    private int cell(int row, int col) {
+        return Math.max(0, Math.min(gridRows - 1, row)) * gridCols + Math.max(0, Math.min(gridCols - 1, col));
+    }
+
+    /**
+     * Distancia equirectangular: a escala de ciudad coincide con la haversine y es más barata
+     */
+    static double approxMeters(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * 6_371_000.0;
+    }
+
+    /**
+     * Escribe la red en el formato binario que lee {@link #read}
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(nodeLat.length);
+        data.writeInt(edgeTarget.length);
+        for (int[] array : new int[][]{nodeLat, nodeLon, edgeStart, edgeTarget, edgeDecimeters, edgeDeciseconds}) {
+            for (int value : array) data.writeInt(value);
+        }
+        data.flush();
+    }
+
+    /**
+     * Lee una red escrita con {@link #write}
+     * @throws IOException Si el fichero no es una red peatonal de esta versión o está truncado
+     */
+    public static PedestrianGraph read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) throw new IOException("Red peatonal no válida");
+        int n = data.readInt(), m = data.readInt();
+        if (n < 0 || m < 0) throw new IOException("Red peatonal no válida");
+        int[] nodeLat = readInts(data, n), nodeLon = readInts(data, n);
+        int[] edgeStart = readInts(data, n + 1);
+        int[] edgeTarget = readInts(data, m);
+        int[] edgeDecimeters = readInts(data, m), edgeDeciseconds = readInts(data, m);
+        if (edgeStart[0] != 0 || edgeStart[n] != m) throw new IOException("Red peatonal no válida");
+        for (int e = 0; e < m; e++) {
+            if (edgeTarget[e] < 0 || edgeTarget[e] >= n) throw new IOException("Red peatonal no válida");
+        }
+        return new PedestrianGraph(nodeLat, nodeLon, edgeStart, edgeTarget, edgeDecimeters, edgeDeciseconds);
+    }
+
+    private static int[] readInts(DataInputStream data, int count) throws IOException {
+        int[] out = new int[count];
+        for (int i = 0; i < count; i++) out[i] = data.readInt();
+        return out;
+    }
+
+    /**
+     * Ruta a pie: tiempo, distancia y geometría (del punto de origen al de destino)
+     */
+    public static final class Path {
+        public final int seconds;
+        public final double meters;
+        private final double[] latitudes;
+        private final double[] longitudes;
+
+        Path(int seconds, double meters, double[] latitudes, double[] longitudes) {
+            this.seconds = seconds;
+            this.meters = meters;
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+        }
+
+        public int size() { return latitudes.length; }
+
+        public double getLatitude(int i) { return latitudes[i]; }
+
+        public double getLongitude(int i) { return longitudes[i]; }
+
+        /**
+         * Geometría como polilínea codificada (ver {@link PolylineCodec})
+         */
+        public String encode() {
+            return PolylineCodec.encode(latitudes, longitudes, latitudes.length);
+        }
+    }
+
+    /**
+     * Montículo binario de nodos por clave, con entradas repetidas (las obsoletas se saltan al sacarlas)
+     */
+    private static final class NodeHeap {
+        private long[] items = new long[256];
+        private int size;
+
+        void push(int node, int key) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            long item = ((long) key << 32) | node;
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (items[parent] <= item) break;
+                items[i] = items[parent];
+                i = parent;
+            }
+            items[i] = item;
+        }
+
+        int pop() {
+            long top = items[0];
+            long last = items[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && items[child + 1] < items[child]) child++;
+                if (last <= items[child]) break;
+                items[i] = items[child];
+                i = child;
+            }
+            items[i] = last;
+            return (int) top;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    /**
+     * Construye la red a partir de nodos y tramos de vías peatonales (p. ej. los de un extracto de OSM
+     * con su altitud de un modelo digital del terreno). Los tramos se recorren en los dos sentidos.
+     */
+    public static final class Builder {
+        private int[] lat = new int[1024], lon = new int[1024];
+        private float[] elevation = new float[1024];
+        private int nodeCount;
+        private int[] from = new int[1024], to = new int[1024];
+        private int segmentCount;
+
+        /**
+         * @param elevationMeters Altitud del nodo, o NaN si se desconoce (se toma como llano)
+         * @return Índice del nodo
+         */
+        public int addNode(double latitude, double longitude, double elevationMeters) {
+            if (nodeCount == lat.length) {
+                lat = Arrays.copyOf(lat, nodeCount * 2);
+                lon = Arrays.copyOf(lon, nodeCount * 2);
+                elevation = Arrays.copyOf(elevation, nodeCount * 2);
+            }
+            lat[nodeCount] = (int) Math.round(latitude * E6);
+            lon[nodeCount] = (int) Math.round(longitude * E6);
+            elevation[nodeCount] = (float) elevationMeters;
+            return nodeCount++;
+        }
+
+        /**
+         * Añade un tramo entre dos nodos, transitable en ambos sentidos
+         */
+        public Builder addSegment(int a, int b) {
+            if (a == b) return this;
+            if (segmentCount == from.length) {
+                from = Arrays.copyOf(from, segmentCount * 2);
+                to = Arrays.copyOf(to, segmentCount * 2);
+            }
+            from[segmentCount] = a;
+            to[segmentCount] = b;
+            segmentCount++;
+            return this;
+        }
+
+        /**
+         * Añade los tramos consecutivos de una vía
+         */
+        public Builder addWay(int[] nodes) {
+            for (int i = 0; i + 1 < nodes.length; i++) addSegment(nodes[i], nodes[i + 1]);
+            return this;
+        }
+
+        public PedestrianGraph build() {
+            int n = nodeCount, m = segmentCount * 2;
+            int[] edgeStart = new int[n + 1];
+            for (int i = 0; i < segmentCount; i++) {
+                edgeStart[from[i] + 1]++;
+                edgeStart[to[i] + 1]++;
+            }
+            for (int v = 0; v < n; v++) edgeStart[v + 1] += edgeStart[v];
+            int[] fill = Arrays.copyOf(edgeStart, n);
+            int[] target = new int[m], decimeters = new int[m], deciseconds = new int[m];
+            for (int i = 0; i < segmentCount; i++) {
+                int a = from[i], b = to[i];
+                double meters = approxMeters(lat[a] / E6, lon[a] / E6, lat[b] / E6, lon[b] / E6);
+                int ab = fill[a]++, ba = fill[b]++;
+                target[ab] = b;
+                target[ba] = a;
+                decimeters[ab] = decimeters[ba] = (int) Math.round(meters * 10);
+                deciseconds[ab] = deciseconds(meters, elevation[b] - elevation[a]);
+                deciseconds[ba] = deciseconds(meters, elevation[a] - elevation[b]);
+            }
+            return new PedestrianGraph(Arrays.copyOf(lat, n), Arrays.copyOf(lon, n), edgeStart, target, decimeters, deciseconds);
+        }
+
+        /**
+         * Tiempo de un tramo con la función de Tobler, escalada para que en llano dé la velocidad de
+         * {@link #FLAT_METERS_PER_SECOND}
+         */
+        private static int deciseconds(double meters, double climb) {
+            double slope = meters > 0 && !Double.isNaN(climb) ? climb / meters : 0;
+            double speed = FLAT_METERS_PER_SECOND * Math.exp(-3.5 * (Math.abs(slope + 0.05) - 0.05));
+            return (int) Math.ceil(meters / speed * 10.0);
+        }
+    }
+}
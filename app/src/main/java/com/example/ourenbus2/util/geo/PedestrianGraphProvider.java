@@ -0,0 +1,42 @@
+package com.example.ourenbus2.util.geo;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Carga (una sola vez) la red peatonal empaquetada en los assets ({@link PedestrianGraph}).
+ * Debe llamarse fuera del hilo principal.
+ */
+public class PedestrianGraphProvider {
+
+    /** Red peatonal de Ourense, generada al compilar la app (compilePedestrianGraph) a partir de un extracto de OSM */
+    public static final String ASSET_NAME = "ourense_walk.graph";
+
+    private static volatile PedestrianGraph graph;
+    private static volatile boolean loaded;
+
+    /**
+     * Devuelve la red en memoria, leyéndola del asset la primera vez
+     * @return Red, o null si la app no la incluye (el enrutado usa entonces la distancia en línea recta)
+     */
+    public static PedestrianGraph get(Context context) {
+        if (loaded) return graph;
+        synchronized (PedestrianGraphProvider.class) {
+            if (!loaded) {
+                graph = load(context);
+                loaded = true;
+            }
+            return graph;
+        }
+    }
+
+    private static PedestrianGraph load(Context context) {
+        try (InputStream in = context.getAssets().open(ASSET_NAME)) {
+            return PedestrianGraph.read(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
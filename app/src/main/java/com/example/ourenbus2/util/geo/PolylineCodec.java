@@ -0,0 +1,89 @@
+package com.example.ourenbus2.util.geo;
+
+/**
+ * Codificación/decodificación de polilíneas en el formato de Google (precisión 1e5).
+ */
+public class PolylineCodec {
+
+    private static final double SCALE = 1E5;
+
+    /**
+     * Decodifica una polilínea codificada en arrays de coordenadas
+     * @param encoded Polilínea codificada
+     * @return Polilínea decodificada (vacía si la entrada es null o está mal formada)
+     */
+    public static DecodedPolyline decode(String encoded) {
+        if (encoded == null || encoded.isEmpty()) {
+            return new DecodedPolyline(new double[0], new double[0]);
+        }
+        int len = encoded.length();
+        // Cada vértice ocupa al menos 2 caracteres: reservar por exceso y recortar al final
+        int[] lats = new int[len / 2 + 1];
+        int[] lngs = new int[len / 2 + 1];
+        int count = 0;
+        int index = 0, lat = 0, lng = 0;
+        try {
+            while (index < len) {
+                int b, shift = 0, result = 0;
+                do {
+                    b = encoded.charAt(index++) - 63;
+                    result |= (b & 0x1f) << shift;
+                    shift += 5;
+                } while (b >= 0x20);
+                lat += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+                shift = 0;
+                result = 0;
+                do {
+                    b = encoded.charAt(index++) - 63;
+                    result |= (b & 0x1f) << shift;
+                    shift += 5;
+                } while (b >= 0x20);
+                lng += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+                lats[count] = lat;
+                lngs[count] = lng;
+                count++;
+            }
+        } catch (StringIndexOutOfBoundsException ignored) {
+            // Polilínea truncada: nos quedamos con los vértices completos
+        }
+        double[] outLat = new double[count];
+        double[] outLng = new double[count];
+        for (int i = 0; i < count; i++) {
+            outLat[i] = lats[i] / SCALE;
+            outLng[i] = lngs[i] / SCALE;
+        }
+        return new DecodedPolyline(outLat, outLng);
+    }
+
+    /**
+     * Codifica una secuencia de coordenadas en el formato de Google
+     * @param latitudes  Latitudes en grados
+     * @param longitudes Longitudes en grados
+     * @param count      Nº de vértices a codificar
+     * @return Polilínea codificada
+     */
+    public static String encode(double[] latitudes, double[] longitudes, int count) {
+        StringBuilder sb = new StringBuilder(count * 6);
+        long prevLat = 0, prevLng = 0;
+        for (int i = 0; i < count; i++) {
+            long lat = Math.round(latitudes[i] * SCALE);
+            long lng = Math.round(longitudes[i] * SCALE);
+            encodeValue(sb, lat - prevLat);
+            encodeValue(sb, lng - prevLng);
+            prevLat = lat;
+            prevLng = lng;
+        }
+        return sb.toString();
+    }
+
+    private static void encodeValue(StringBuilder sb, long value) {
+        long v = value < 0 ? ~(value << 1) : (value << 1);
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+}
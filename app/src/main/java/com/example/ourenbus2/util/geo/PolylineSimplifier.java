@@ -0,0 +1,78 @@
+package com.example.ourenbus2.util.geo;
+
+/**
+ * Simplificación de polilíneas (Douglas–Peucker) con tolerancia en metros.
+ * Trabaja sobre una proyección equirectangular local, suficiente a escala urbana.
+ */
+public class PolylineSimplifier {
+
+    private static final double METERS_PER_DEGREE_LAT = 110_540.0;
+    private static final double METERS_PER_DEGREE_LNG = 111_320.0;
+
+    /**
+     * Calcula los índices de los vértices que se conservan al simplificar
+     * @param line            Polilínea decodificada
+     * @param toleranceMeters Distancia máxima permitida entre la original y la simplificada
+     * @return Índices crecientes de los vértices conservados (siempre incluye el primero y el último)
+     */
+    public static int[] simplify(DecodedPolyline line, double toleranceMeters) {
+        int n = line.size();
+        if (n <= 2 || toleranceMeters <= 0) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = i;
+            return all;
+        }
+        // Proyección a metros alrededor del primer vértice
+        double cosLat = Math.cos(Math.toRadians(line.getLatitude(0)));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (line.getLongitude(i) - line.getLongitude(0)) * METERS_PER_DEGREE_LNG * cosLat;
+            y[i] = (line.getLatitude(i) - line.getLatitude(0)) * METERS_PER_DEGREE_LAT;
+        }
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        double tolSq = toleranceMeters * toleranceMeters;
+        // Pila explícita de tramos [desde, hasta] para no depender de la recursión en polilíneas largas
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        int kept = 2;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            double maxSq = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                double d = segmentDistanceSq(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (d > maxSq) {
+                    maxSq = d;
+                    index = i;
+                }
+            }
+            if (index >= 0 && maxSq > tolSq) {
+                keep[index] = true;
+                kept++;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+        int[] out = new int[kept];
+        int k = 0;
+        for (int i = 0; i < n; i++) if (keep[i]) out[k++] = i;
+        return out;
+    }
+
+    private static double segmentDistanceSq(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double lenSq = dx * dx + dy * dy;
+        double t = lenSq > 0 ? ((px - ax) * dx + (py - ay) * dy) / lenSq : 0;
+        t = Math.max(0, Math.min(1, t));
+        double cx = ax + t * dx - px, cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.ourenbus2.util.geo;
+
+import java.util.Arrays;
+
+/**
+ * Índice de la geometría de una ruta para calcular el progreso de la navegación.
+ * Guarda los vértices de todos los segmentos con su distancia acumulada y proyecta cada
+ * posición sobre el tramo más cercano, buscando primero en una ventana alrededor de la
+ * proyección anterior (coste constante amortizado por posición). Si la posición queda lejos de
+ * esa ventana, el tramo más cercano se busca en un {@link SegmentRTree} (coste logarítmico).
+ * <p>
+ * No es seguro para varios hilos: {@link #project} recuerda la última coincidencia.
+ */
+public final class RouteProgressIndex {
+
+    private static final double METERS_PER_DEGREE_LAT = 110_540.0;
+    private static final double METERS_PER_DEGREE_LNG = 111_320.0;
+
+    // Ventana de búsqueda (en tramos) alrededor de la última proyección
+    private static final int WINDOW_BACK = 10;
+    private static final int WINDOW_AHEAD = 50;
+    // Si la mejor proyección de la ventana queda más lejos que esto, se busca en el R-tree de toda la ruta
+    private static final double RESYNC_DISTANCE_METERS = 60.0;
+
+    private final double[] x;          // metros (proyección local)
+    private final double[] y;
+    private final double[] cumulative; // distancia acumulada en cada vértice
+    private final int[] edgeSegment;   // segmento de la ruta al que pertenece el tramo i -> i+1
+    private final double[] segmentStart;
+    private final double[] segmentEnd;
+    private final double[] segmentMinutes;
+    private final double[] minutesAfter; // minutos de los segmentos posteriores a cada segmento
+    private final boolean[] segmentHasGeometry;
+    private final SegmentRTree tree;
+    private final double originLat, originLng, cosLat;
+
+    private int lastEdge = 0;
+
+    private RouteProgressIndex(Builder b) {
+        int n = b.count;
+        this.originLat = n > 0 ? b.lat[0] : 0;
+        this.originLng = n > 0 ? b.lng[0] : 0;
+        this.cosLat = Math.cos(Math.toRadians(originLat));
+        this.x = new double[n];
+        this.y = new double[n];
+        this.cumulative = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = (b.lng[i] - originLng) * METERS_PER_DEGREE_LNG * cosLat;
+            y[i] = (b.lat[i] - originLat) * METERS_PER_DEGREE_LAT;
+            if (i > 0) cumulative[i] = cumulative[i - 1] + Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+        }
+        this.tree = SegmentRTree.build(x, y, n);
+        this.edgeSegment = Arrays.copyOf(b.vertexSegment, Math.max(0, n - 1));
+        // El tramo que llega al primer vértice de un segmento pertenece a ese segmento
+        for (int i = 0; i + 1 < n; i++) edgeSegment[i] = b.vertexSegment[i + 1];
+
+        int segments = b.segmentCount;
+        this.segmentStart = new double[segments];
+        this.segmentEnd = new double[segments];
+        this.segmentMinutes = Arrays.copyOf(b.segmentMinutes, segments);
+        this.minutesAfter = new double[segments];
+        this.segmentHasGeometry = Arrays.copyOf(b.segmentHasGeometry, segments);
+        for (int s = 0; s < segments; s++) {
+            int first = b.segmentFirstVertex[s];
+            int last = b.segmentLastVertex[s];
+            // Incluye el tramo de enlace con el segmento anterior
+            int from = first > 0 ? first - 1 : first;
+            segmentStart[s] = n > 0 ? cumulative[Math.min(from, n - 1)] : 0;
+            segmentEnd[s] = n > 0 ? cumulative[Math.min(last, n - 1)] : 0;
+        }
+        double acc = 0;
+        for (int s = segments - 1; s >= 0; s--) {
+            minutesAfter[s] = acc;
+            acc += segmentMinutes[s];
+        }
+    }
+
+    /**
+     * Longitud total de la ruta en metros
+     */
+    public double getTotalLength() {
+        return cumulative.length > 0 ? cumulative[cumulative.length - 1] : 0;
+    }
+
+    /**
+     * Indica si el segmento se añadió con su geometría real y no como línea recta entre extremos
+     */
+    public boolean hasGeometry(int segmentIndex) {
+        return segmentHasGeometry[segmentIndex];
+    }
+
+    /**
+     * Distancia a lo largo de la ruta en la que termina un segmento
+     */
+    public double getSegmentEnd(int segmentIndex) {
+        return segmentEnd[segmentIndex];
+    }
+
+    /**
+     * Proyecta una posición sobre la ruta
+     * @return Proyección, o null si la ruta no tiene tramos
+     */
+    public Projection project(double latitude, double longitude) {
+        if (x.length < 2) return null;
+        double px = (longitude - originLng) * METERS_PER_DEGREE_LNG * cosLat;
+        double py = (latitude - originLat) * METERS_PER_DEGREE_LAT;
+        int edges = x.length - 1;
+
+        Projection best = scan(px, py, Math.max(0, lastEdge - WINDOW_BACK), Math.min(edges - 1, lastEdge + WINDOW_AHEAD));
+        if (best.distanceToRoute > RESYNC_DISTANCE_METERS) {
+            int edge = tree.nearestEdge(px, py, best.distanceToRoute * best.distanceToRoute);
+            if (edge >= 0) best = scan(px, py, edge, edge);
+        }
+        lastEdge = best.edge;
+        return best;
+    }
+
+    /**
+     * Minutos restantes estimados desde una proyección: parte proporcional del segmento actual
+     * más la duración de los segmentos posteriores.
+     */
+    public double remainingMinutes(Projection p) {
+        int s = p.segmentIndex;
+        double length = segmentEnd[s] - segmentStart[s];
+        double fraction = length > 0 ? (p.alongRoute - segmentStart[s]) / length : 1.0;
+        fraction = Math.max(0, Math.min(1, fraction));
+        return (1 - fraction) * segmentMinutes[s] + minutesAfter[s];
+    }
+
+    private Projection scan(double px, double py, int fromEdge, int toEdge) {
+        double bestSq = Double.POSITIVE_INFINITY;
+        int bestEdge = fromEdge;
+        double bestT = 0;
+        for (int i = fromEdge; i <= toEdge; i++) {
+            double ax = x[i], ay = y[i];
+            double dx = x[i + 1] - ax, dy = y[i + 1] - ay;
+            double lenSq = dx * dx + dy * dy;
+            double t = lenSq > 0 ? ((px - ax) * dx + (py - ay) * dy) / lenSq : 0;
+            t = Math.max(0, Math.min(1, t));
+            double cx = ax + t * dx - px, cy = ay + t * dy - py;
+            double dSq = cx * cx + cy * cy;
+            if (dSq < bestSq) {
+                bestSq = dSq;
+                bestEdge = i;
+                bestT = t;
+            }
+        }
+        double along = cumulative[bestEdge] + bestT * (cumulative[bestEdge + 1] - cumulative[bestEdge]);
+        return new Projection(along, Math.sqrt(bestSq), bestEdge, edgeSegment[bestEdge]);
+    }
+
+    /**
+     * Resultado de proyectar una posición sobre la ruta
+     */
+    public static final class Projection {
+        /** Metros recorridos a lo largo de la ruta hasta el punto proyectado */
+        public final double alongRoute;
+        /** Distancia en metros entre la posición y la ruta */
+        public final double distanceToRoute;
+        /** Segmento de la ruta en el que cae la proyección */
+        public final int segmentIndex;
+        final int edge;
+
+        Projection(double alongRoute, double distanceToRoute, int edge, int segmentIndex) {
+            this.alongRoute = alongRoute;
+            this.distanceToRoute = distanceToRoute;
+            this.edge = edge;
+            this.segmentIndex = segmentIndex;
+        }
+    }
+
+    /**
+     * Construye el índice añadiendo los segmentos de la ruta en orden
+     */
+    public static final class Builder {
+        private double[] lat = new double[64];
+        private double[] lng = new double[64];
+        private int[] vertexSegment = new int[64];
+        private int count = 0;
+        private int[] segmentFirstVertex = new int[8];
+        private int[] segmentLastVertex = new int[8];
+        private double[] segmentMinutes = new double[8];
+        private boolean[] segmentHasGeometry = new boolean[8];
+        private int segmentCount = 0;
+
+        /**
+         * Añade un segmento con su geometría decodificada
+         */
+        public Builder addSegment(DecodedPolyline line, double minutes) {
+            int first = count;
+            for (int i = 0; i < line.size(); i++) addVertex(line.getLatitude(i), line.getLongitude(i));
+            return endSegment(first, minutes, line.size() >= 2);
+        }
+
+        /**
+         * Añade un segmento sin geometría como línea recta entre sus extremos
+         */
+        public Builder addSegment(double startLat, double startLng, double endLat, double endLng, double minutes) {
+            int first = count;
+            addVertex(startLat, startLng);
+            addVertex(endLat, endLng);
+            return endSegment(first, minutes, false);
+        }
+
+        public RouteProgressIndex build() {
+            return new RouteProgressIndex(this);
+        }
+
+        private void addVertex(double la, double ln) {
+            if (count == lat.length) {
+                lat = Arrays.copyOf(lat, count * 2);
+                lng = Arrays.copyOf(lng, count * 2);
+                vertexSegment = Arrays.copyOf(vertexSegment, count * 2);
+            }
+            lat[count] = la;
+            lng[count] = ln;
+            vertexSegment[count] = segmentCount;
+            count++;
+        }
+
+        private Builder endSegment(int first, double minutes, boolean hasGeometry) {
+            if (segmentCount == segmentMinutes.length) {
+                segmentFirstVertex = Arrays.copyOf(segmentFirstVertex, segmentCount * 2);
+                segmentLastVertex = Arrays.copyOf(segmentLastVertex, segmentCount * 2);
+                segmentMinutes = Arrays.copyOf(segmentMinutes, segmentCount * 2);
+                segmentHasGeometry = Arrays.copyOf(segmentHasGeometry, segmentCount * 2);
+            }
+            segmentHasGeometry[segmentCount] = hasGeometry;
+            segmentFirstVertex[segmentCount] = first;
+            segmentLastVertex[segmentCount] = Math.max(first, count - 1);
+            segmentMinutes[segmentCount] = minutes;
+            segmentCount++;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.ourenbus2.util.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * R-tree estático empaquetado con STR (Sort-Tile-Recursive) sobre los tramos de una polilínea
+ * en coordenadas planas (metros). Cada tramo va del vértice {@code i} al {@code i + 1}.
+ * La búsqueda del tramo más cercano desciende en profundidad descartando las cajas más lejanas
+ * que la mejor distancia encontrada, con coste logarítmico en el número de vértices.
+ * <p>
+ * Inmutable: seguro para consultas desde varios hilos.
+ */
+public final class SegmentRTree {
+
+    /** Máximo de hijos por nodo */
+    private static final int NODE_CAPACITY = 16;
+
+    private final double[] x;
+    private final double[] y;
+    // Niveles del árbol, de las hojas (0) a la raíz; cada nodo cubre un rango contiguo del nivel inferior
+    private final double[][] minX, minY, maxX, maxY;
+    private final int[][] childStart, childEnd;
+    // Tramos en el orden en que los cubren las hojas
+    private final int[] edges;
+
+    private SegmentRTree(double[] x, double[] y, int[] edges, double[][] minX, double[][] minY,
+                         double[][] maxX, double[][] maxY, int[][] childStart, int[][] childEnd) {
+        this.x = x;
+        this.y = y;
+        this.edges = edges;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.childStart = childStart;
+        this.childEnd = childEnd;
+    }
+
+    /**
+     * Construye el árbol sobre los tramos de la polilínea formada por los {@code count} primeros vértices
+     */
+    public static SegmentRTree build(double[] x, double[] y, int count) {
+        int edgeCount = Math.max(0, count - 1);
+        // Nivel de entrada: cajas de los tramos
+        double[] eMinX = new double[edgeCount], eMinY = new double[edgeCount];
+        double[] eMaxX = new double[edgeCount], eMaxY = new double[edgeCount];
+        int[] edges = new int[edgeCount];
+        for (int i = 0; i < edgeCount; i++) {
+            edges[i] = i;
+            eMinX[i] = Math.min(x[i], x[i + 1]);
+            eMaxX[i] = Math.max(x[i], x[i + 1]);
+            eMinY[i] = Math.min(y[i], y[i + 1]);
+            eMaxY[i] = Math.max(y[i], y[i + 1]);
+        }
+
+        List<double[][]> boxes = new ArrayList<>();
+        List<int[][]> ranges = new ArrayList<>();
+        double[][] level = {eMinX, eMinY, eMaxX, eMaxY};
+        int[] order = edges;
+        boolean first = true;
+        do {
+            int n = level[0].length;
+            int[] sorted = strOrder(level, n);
+            // Reordenar el nivel actual según el empaquetado
+            double[][] packed = new double[4][n];
+            for (int k = 0; k < 4; k++) {
+                for (int i = 0; i < n; i++) packed[k][i] = level[k][sorted[i]];
+            }
+            if (first) {
+                int[] reordered = new int[n];
+                for (int i = 0; i < n; i++) reordered[i] = order[sorted[i]];
+                order = reordered;
+                first = false;
+            } else {
+                permuteLastLevel(boxes, ranges, packed, sorted);
+            }
+            // Agrupar en nodos del nivel superior
+            int parents = Math.max(1, (n + NODE_CAPACITY - 1) / NODE_CAPACITY);
+            double[][] up = new double[4][parents];
+            int[][] range = new int[2][parents];
+            for (int p = 0; p < parents; p++) {
+                int from = p * NODE_CAPACITY, to = Math.min(n, from + NODE_CAPACITY);
+                up[0][p] = up[1][p] = Double.POSITIVE_INFINITY;
+                up[2][p] = up[3][p] = Double.NEGATIVE_INFINITY;
+                for (int i = from; i < to; i++) {
+                    up[0][p] = Math.min(up[0][p], packed[0][i]);
+                    up[1][p] = Math.min(up[1][p], packed[1][i]);
+                    up[2][p] = Math.max(up[2][p], packed[2][i]);
+                    up[3][p] = Math.max(up[3][p], packed[3][i]);
+                }
+                range[0][p] = from;
+                range[1][p] = to;
+            }
+            boxes.add(up);
+            ranges.add(range);
+            level = up;
+        } while (level[0].length > 1);
+
+        int levels = boxes.size();
+        double[][] minX = new double[levels][], minY = new double[levels][], maxX = new double[levels][], maxY = new double[levels][];
+        int[][] childStart = new int[levels][], childEnd = new int[levels][];
+        for (int l = 0; l < levels; l++) {
+            minX[l] = boxes.get(l)[0];
+            minY[l] = boxes.get(l)[1];
+            maxX[l] = boxes.get(l)[2];
+            maxY[l] = boxes.get(l)[3];
+            childStart[l] = ranges.get(l)[0];
+            childEnd[l] = ranges.get(l)[1];
+        }
+        return new SegmentRTree(x, y, order, minX, minY, maxX, maxY, childStart, childEnd);
+    }
+
+    /**
+     * Sustituye las cajas del último nivel construido por su versión reordenada, llevando consigo
+     * los rangos de hijos de cada nodo
+     */
+    private static void permuteLastLevel(List<double[][]> boxes, List<int[][]> ranges,
+                                         double[][] packed, int[] sorted) {
+        int last = boxes.size() - 1;
+        int[][] range = ranges.get(last);
+        int n = sorted.length;
+        int[][] newRange = new int[2][n];
+        for (int i = 0; i < n; i++) {
+            newRange[0][i] = range[0][sorted[i]];
+            newRange[1][i] = range[1][sorted[i]];
+        }
+        boxes.set(last, packed);
+        ranges.set(last, newRange);
+    }
+
+    /**
+     * Orden STR: franjas verticales por centro en X y, dentro de cada franja, por centro en Y
+     */
+    private static int[] strOrder(double[][] level, int n) {
+        Integer[] idx = new Integer[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        final double[] cx = new double[n], cy = new double[n];
+        for (int i = 0; i < n; i++) {
+            cx[i] = (level[0][i] + level[2][i]) * 0.5;
+            cy[i] = (level[1][i] + level[3][i]) * 0.5;
+        }
+        Arrays.sort(idx, (a, b) -> Double.compare(cx[a], cx[b]));
+        int leaves = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(Math.max(1, leaves)));
+        int sliceSize = slices * NODE_CAPACITY;
+        for (int from = 0; from < n; from += sliceSize) {
+            Arrays.sort(idx, from, Math.min(n, from + sliceSize), (a, b) -> Double.compare(cy[a], cy[b]));
+        }
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) out[i] = idx[i];
+        return out;
+    }
+
+    /**
+     * Número de tramos indexados
+     */
+    public int size() {
+        return edges.length;
+    }
+
+    /**
+     * Tramo más cercano al punto
+     *
+     * @param maxDistanceSq Solo se consideran tramos a menos de esta distancia al cuadrado
+     *                      (p. ej. la de una búsqueda previa); {@code Double.POSITIVE_INFINITY} para todos
+     * @return Índice del tramo (vértice inicial), o -1 si no hay ninguno dentro del límite
+     */
+    public int nearestEdge(double px, double py, double maxDistanceSq) {
+        if (edges.length == 0) return -1;
+        double[] best = {maxDistanceSq};
+        int[] bestEdge = {-1};
+        int root = minX.length - 1;
+        search(root, 0, px, py, best, bestEdge);
+        return bestEdge[0];
+    }
+
+    private void search(int level, int node, double px, double py, double[] best, int[] bestEdge) {
+        if (boxDistanceSq(level, node, px, py) >= best[0]) return;
+        int from = childStart[level][node], to = childEnd[level][node];
+        if (level == 0) {
+            for (int i = from; i < to; i++) {
+                int e = edges[i];
+                double d = edgeDistanceSq(e, px, py);
+                if (d < best[0]) {
+                    best[0] = d;
+                    bestEdge[0] = e;
+                }
+            }
+            return;
+        }
+        for (int c = from; c < to; c++) {
+            search(level - 1, c, px, py, best, bestEdge);
+        }
+    }
+
+    private double boxDistanceSq(int level, int node, double px, double py) {
+        double dx = Math.max(0, Math.max(minX[level][node] - px, px - maxX[level][node]));
+        double dy = Math.max(0, Math.max(minY[level][node] - py, py - maxY[level][node]));
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Distancia al cuadrado entre el punto y el tramo {@code e -> e + 1}
+     */
+    double edgeDistanceSq(int e, double px, double py) {
+        double ax = x[e], ay = y[e];
+        double dx = x[e + 1] - ax, dy = y[e + 1] - ay;
+        double lenSq = dx * dx + dy * dy;
+        double t = lenSq > 0 ? ((px - ax) * dx + (py - ay) * dy) / lenSq : 0;
+        t = Math.max(0, Math.min(1, t));
+        double cx = ax + t * dx - px, cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.ourenbus2.util.geo;
+
+/**
+ * Polilínea decodificada junto con sus niveles de simplificación precalculados.
+ * El nivel 0 es la geometría completa; cada nivel siguiente usa una tolerancia mayor.
+ */
+public final class SimplifiedPolyline {
+
+    /** Tolerancia (metros) de cada nivel */
+    public static final double[] LEVEL_TOLERANCES_METERS = {0, 2, 6, 20, 60};
+
+    private final DecodedPolyline polyline;
+    private final int[][] levels;
+
+    private SimplifiedPolyline(DecodedPolyline polyline, int[][] levels) {
+        this.polyline = polyline;
+        this.levels = levels;
+    }
+
+    /**
+     * Precalcula todos los niveles de simplificación de una polilínea
+     */
+    public static SimplifiedPolyline of(DecodedPolyline polyline) {
+        int[][] levels = new int[LEVEL_TOLERANCES_METERS.length][];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = PolylineSimplifier.simplify(polyline, LEVEL_TOLERANCES_METERS[i]);
+        }
+        return new SimplifiedPolyline(polyline, levels);
+    }
+
+    /**
+     * Nivel más simplificado cuya tolerancia no supera la resolución del mapa
+     * @param metersPerPixel Metros sobre el terreno por píxel de pantalla
+     */
+    public static int levelForResolution(double metersPerPixel) {
+        int level = 0;
+        for (int i = 1; i < LEVEL_TOLERANCES_METERS.length; i++) {
+            if (LEVEL_TOLERANCES_METERS[i] <= metersPerPixel) level = i;
+        }
+        return level;
+    }
+
+    public DecodedPolyline getPolyline() { return polyline; }
+
+    public int getLevelCount() { return levels.length; }
+
+    /**
+     * Índices (sobre la polilínea completa) de los vértices del nivel indicado
+     */
+    public int[] getLevel(int level) { return levels[level]; }
+
+    /**
+     * Nº total de vértices almacenados en todos los niveles
+     */
+    public int getStoredSize() {
+        int total = polyline.size();
+        for (int[] level : levels) total += level.length;
+        return total;
+    }
+}
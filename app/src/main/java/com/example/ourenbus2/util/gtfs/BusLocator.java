@@ -0,0 +1,201 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Posición estimada de los buses en circulación a partir del horario: para cada viaje activo se toma el
+ * par de horas de paso que rodea la hora actual y se interpola a lo largo de su trazado (o en línea recta
+ * entre paradas si el viaje no tiene trazado). Con una {@link RealtimeOverlay} se usan las horas con retraso.
+ * <p>
+ * Solo se calculan los patrones cuyo recuadro toca la zona visible. No depende de Android.
+ */
+public final class BusLocator {
+
+    /** Margen del recuadro de cada patrón: el trazado puede separarse algo de la línea entre paradas */
+    private static final double BOUNDS_MARGIN_DEGREES = 0.01;
+
+    /**
+     * Origen de los trazados de los viajes
+     */
+    public interface ShapeSource {
+        /** Clave del trazado de un viaje, o un valor &lt;= 0 si no tiene */
+        int shapeKeyOf(int trip);
+
+        /** Trazado por clave, o null si no está disponible */
+        TripShape shape(int shapeKey);
+    }
+
+    private final GtfsTimetable tt;
+    private final ShapeSource shapes;
+    private final double[] patternSouth;
+    private final double[] patternWest;
+    private final double[] patternNorth;
+    private final double[] patternEast;
+    private final int[] patternDuration; // del primer al último paso de la plantilla (viajes por frecuencia)
+    // Distancia de cada parada a lo largo del trazado, por (patrón, trazado)
+    private final Map<Long, double[]> stopDistances = new ConcurrentHashMap<>();
+
+    public BusLocator(GtfsTimetable tt, ShapeSource shapes) {
+        this.tt = tt;
+        this.shapes = shapes;
+        int nPatterns = tt.getPatternCount();
+        patternSouth = new double[nPatterns];
+        patternWest = new double[nPatterns];
+        patternNorth = new double[nPatterns];
+        patternEast = new double[nPatterns];
+        patternDuration = new int[nPatterns];
+        for (int p = 0; p < nPatterns; p++) {
+            double s = 90, w = 180, n = -90, e = -180;
+            for (int k = tt.patternStopOffset[p]; k < tt.patternStopOffset[p + 1]; k++) {
+                int stop = tt.patternStops[k];
+                s = Math.min(s, tt.stopLat[stop]);
+                n = Math.max(n, tt.stopLat[stop]);
+                w = Math.min(w, tt.stopLon[stop]);
+                e = Math.max(e, tt.stopLon[stop]);
+            }
+            patternSouth[p] = s - BOUNDS_MARGIN_DEGREES;
+            patternNorth[p] = n + BOUNDS_MARGIN_DEGREES;
+            patternWest[p] = w - BOUNDS_MARGIN_DEGREES;
+            patternEast[p] = e + BOUNDS_MARGIN_DEGREES;
+            int template = tt.patternTripOffset[p];
+            int last = tt.patternStopOffset[p + 1] - tt.patternStopOffset[p] - 1;
+            if (template < tt.patternTripOffset[p + 1] && last >= 0) {
+                patternDuration[p] = tt.getTripArrival(template, last) - tt.getTripDeparture(template, 0);
+            }
+        }
+    }
+
+    public GtfsTimetable getTimetable() { return tt; }
+
+    /**
+     * Buses en circulación dentro de un recuadro
+     *
+     * @param activeServices Servicios activos del día de servicio
+     * @param nowSeconds     Hora actual en segundos desde medianoche del día de servicio
+     * @param overlay        Capa de tiempo real de ese día ({@link RealtimeOverlay#EMPTY} para el horario)
+     * @param limit          Máximo de posiciones devueltas
+     */
+    public List<BusPosition> locate(BitSet activeServices, int nowSeconds, RealtimeOverlay overlay,
+                                    double south, double west, double north, double east, int limit) {
+        List<BusPosition> out = new ArrayList<>();
+        double[] point = new double[3];
+        int minDelay = overlay.getMinDelay(), maxDelay = overlay.getMaxDelay();
+        for (int p = 0; p < patternSouth.length && out.size() < limit; p++) {
+            if (patternNorth[p] < south || patternSouth[p] > north || patternEast[p] < west || patternWest[p] > east) continue;
+            int first = tt.patternTripOffset[p], end = tt.patternTripOffset[p + 1];
+            if (first == end) continue;
+            int last = tt.patternStopOffset[p + 1] - tt.patternStopOffset[p] - 1;
+            if (last < 1) continue;
+
+            if (tt.isFrequencyPattern(p)) {
+                if (!activeServices.get(tt.tripService[first])) continue;
+                int templateStart = tt.getTripDeparture(first, 0);
+                for (int r = tt.patternFrequencyOffset[p]; r < tt.patternFrequencyOffset[p + 1]; r++) {
+                    int start = tt.frequencyStart[r], headway = tt.frequencyHeadway[r];
+                    int from = nowSeconds - patternDuration[p] - start;
+                    int j = from <= 0 ? 0 : (from + headway - 1) / headway;
+                    for (int tripStart = start + j * headway; tripStart <= nowSeconds && tripStart < tt.frequencyEnd[r];
+                         tripStart += headway) {
+                        locateTrip(p, first, tripStart - templateStart, nowSeconds, RealtimeOverlay.EMPTY,
+                                south, west, north, east, point, out);
+                    }
+                }
+                continue;
+            }
+
+            // Último viaje que puede haber salido ya; los anteriores terminan antes (no se adelantan)
+            int lo = first, hi = end;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (tt.getTripDeparture(mid, 0) <= nowSeconds - minDelay) lo = mid + 1;
+                else hi = mid;
+            }
+            for (int t = lo - 1; t >= first && out.size() < limit; t--) {
+                if (tt.getTripArrival(t, last) + maxDelay < nowSeconds) break;
+                if (!activeServices.get(tt.tripService[t]) || overlay.isCanceled(t)) continue;
+                locateTrip(p, t, 0, nowSeconds, overlay, south, west, north, east, point, out);
+            }
+        }
+        return out.size() > limit ? out.subList(0, limit) : out;
+    }
+
+    private void locateTrip(int pattern, int trip, int shift, int now, RealtimeOverlay overlay,
+                            double south, double west, double north, double east, double[] point, List<BusPosition> out) {
+        int n = tt.getTripStopCount(trip);
+        int startTime = tt.getTripDeparture(trip, 0) + shift + overlay.departureDelay(trip, 0);
+        int endTime = tt.getTripArrival(trip, n - 1) + shift + overlay.arrivalDelay(trip, n - 1);
+        if (now < startTime || now > endTime) return;
+
+        // Última parada de la que ya ha salido (o en la que está)
+        int i = 0;
+        while (i + 1 < n && tt.getTripArrival(trip, i + 1) + shift + overlay.arrivalDelay(trip, i + 1) <= now) i++;
+        int departure = tt.getTripDeparture(trip, i) + shift + overlay.departureDelay(trip, i);
+        int next = Math.min(i + 1, n - 1);
+        double fraction = 0;
+        if (now > departure && next > i) {
+            int arrival = tt.getTripArrival(trip, next) + shift + overlay.arrivalDelay(trip, next);
+            fraction = arrival <= departure ? 1 : (double) (now - departure) / (arrival - departure);
+        }
+
+        int shapeKey = shapes != null ? shapes.shapeKeyOf(trip) : 0;
+        TripShape shape = shapeKey > 0 ? shapes.shape(shapeKey) : null;
+        if (shape != null && shape.getPointCount() >= 2) {
+            double[] distances = distancesOf(pattern, shapeKey, shape, trip);
+            shape.pointAt(distances[i] + (distances[next] - distances[i]) * fraction, point);
+        } else {
+            int a = tt.getTripStop(trip, i), b = tt.getTripStop(trip, next);
+            point[0] = tt.stopLat[a] + (tt.stopLat[b] - tt.stopLat[a]) * fraction;
+            point[1] = tt.stopLon[a] + (tt.stopLon[b] - tt.stopLon[a]) * fraction;
+            point[2] = TripShape.bearing(tt.stopLat[a], tt.stopLon[a], tt.stopLat[b], tt.stopLon[b]);
+        }
+        if (point[0] < south || point[0] > north || point[1] < west || point[1] > east) return;
+        int nextStop = now >= departure ? next : i;
+        out.add(new BusPosition(trip, shift, point[0], point[1], (float) point[2], tt.getTripStop(trip, nextStop),
+                overlay.arrivalDelay(trip, nextStop)));
+    }
+
+    private double[] distancesOf(int pattern, int shapeKey, TripShape shape, int trip) {
+        long key = ((long) pattern << 32) | shapeKey;
+        double[] distances = stopDistances.get(key);
+        if (distances == null) {
+            distances = shape.stopDistances(tt, trip);
+            stopDistances.put(key, distances);
+        }
+        return distances;
+    }
+
+    /**
+     * Posición estimada de un viaje
+     */
+    public static final class BusPosition {
+        public final int trip;
+        /** Desfase respecto a las horas del viaje (salidas generadas por frecuencia), 0 en el resto */
+        public final int timeShift;
+        public final double latitude;
+        public final double longitude;
+        /** Rumbo en grados desde el norte */
+        public final float bearing;
+        public final int nextStop;
+        /** Retraso previsto en la próxima parada en segundos (0 sin tiempo real) */
+        public final int delaySeconds;
+
+        BusPosition(int trip, int timeShift, double latitude, double longitude, float bearing, int nextStop, int delaySeconds) {
+            this.trip = trip;
+            this.timeShift = timeShift;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.bearing = bearing;
+            this.nextStop = nextStop;
+            this.delaySeconds = delaySeconds;
+        }
+
+        /** Identifica la misma salida entre refrescos */
+        public long getKey() {
+            return ((long) trip << 32) | (timeShift & 0xffffffffL);
+        }
+    }
+}
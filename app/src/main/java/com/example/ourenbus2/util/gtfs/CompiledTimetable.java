@@ -0,0 +1,222 @@
+package com.example.ourenbus2.util.gtfs;
+
+import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarDateEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsFrequencyEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsRouteEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsShapeEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTimeProfileEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTripEntity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Horario GTFS listo para enrutar ({@link GtfsTimetable}: patrones, horas ordenadas, calendarios y
+ * transbordos) junto con el trazado de cada viaje, en el formato binario que genera el módulo
+ * gtfs-compiler al compilar la app. El dispositivo solo lee el fichero ({@link #read}); el feed se
+ * procesa en la máquina de compilación. No depende de Android.
+ */
+public final class CompiledTimetable {
+
+    private static final int MAGIC = 0x4F424354; // "OBCT"
+    private static final int VERSION = 1;
+
+    private final GtfsTimetable timetable;
+    private final int[] tripShapes;      // trazado de cada viaje del horario, o -1
+    private final String[] shapeIds;
+    private final byte[][] shapePoints;  // codificados con TripShape
+
+    private CompiledTimetable(GtfsTimetable timetable, int[] tripShapes, String[] shapeIds, byte[][] shapePoints) {
+        this.timetable = timetable;
+        this.tripShapes = tripShapes;
+        this.shapeIds = shapeIds;
+        this.shapePoints = shapePoints;
+    }
+
+    /**
+     * Compila un feed ya leído con {@link GtfsFeedReader}
+     */
+    public static CompiledTimetable compile(GtfsFeedReader.Feed feed) {
+        GtfsTimetable tt = buildTimetable(feed.stops, feed.routes, feed.calendars, feed.calendarDates,
+                feed.patternStops, feed.timeProfiles, feed.trips, feed.frequencies);
+        // Las claves de trazado del lector son consecutivas desde 1
+        Map<Integer, Integer> shapeIndex = new HashMap<>();
+        String[] shapeIds = new String[feed.shapes.size()];
+        byte[][] shapePoints = new byte[feed.shapes.size()][];
+        for (int i = 0; i < shapeIds.length; i++) {
+            GtfsShapeEntity e = feed.shapes.get(i);
+            shapeIndex.put(e.shapeKey, i);
+            shapeIds[i] = e.shapeId;
+            shapePoints[i] = e.points;
+        }
+        int[] tripShapes = new int[tt.getTripCount()];
+        Arrays.fill(tripShapes, -1);
+        for (GtfsTripEntity t : feed.trips) {
+            int trip = tt.findTrip(t.tripId);
+            Integer shape = shapeIndex.get(t.shapeKey);
+            if (trip >= 0 && shape != null) tripShapes[trip] = shape;
+        }
+        return new CompiledTimetable(tt, tripShapes, shapeIds, shapePoints);
+    }
+
+    /**
+     * Construye el horario en memoria a partir de las filas de las tablas GTFS (las del lector del feed
+     * o las de la BD). Las relaciones usan claves enteras: se traducen a los identificadores del feed.
+     */
+    public static GtfsTimetable buildTimetable(List<GtfsStopEntity> stops, List<GtfsRouteEntity> routes,
+                                               List<GtfsCalendarEntity> calendars,
+                                               List<GtfsCalendarDateEntity> calendarDates,
+                                               List<GtfsPatternStopEntity> patternStopRows,
+                                               List<GtfsTimeProfileEntity> timeProfiles,
+                                               List<GtfsTripEntity> trips, List<GtfsFrequencyEntity> frequencies) {
+        GtfsTimetable.Builder builder = new GtfsTimetable.Builder();
+        Map<Integer, String> stopIds = new HashMap<>();
+        for (GtfsStopEntity s : stops) {
+            stopIds.put(s.stopKey, s.stopId);
+            builder.addStop(s.stopId, s.name, s.lat, s.lon);
+        }
+        Map<Integer, String> routeIds = new HashMap<>();
+        for (GtfsRouteEntity r : routes) {
+            routeIds.put(r.routeKey, r.routeId);
+            builder.addRoute(r.routeId, r.shortName, r.color);
+        }
+        Map<Integer, String> serviceIds = new HashMap<>();
+        for (GtfsCalendarEntity c : calendars) {
+            int weekdays = (c.monday == 1 ? 1 : 0)
+                    | (c.tuesday == 1 ? 1 << 1 : 0)
+                    | (c.wednesday == 1 ? 1 << 2 : 0)
+                    | (c.thursday == 1 ? 1 << 3 : 0)
+                    | (c.friday == 1 ? 1 << 4 : 0)
+                    | (c.saturday == 1 ? 1 << 5 : 0)
+                    | (c.sunday == 1 ? 1 << 6 : 0);
+            serviceIds.put(c.serviceKey, c.serviceId);
+            builder.addService(c.serviceId, weekdays, c.startDate, c.endDate);
+        }
+        for (GtfsCalendarDateEntity d : calendarDates) {
+            builder.addServiceException(serviceIds.get(d.serviceKey), d.date, d.exceptionType);
+        }
+        // Paradas de cada patrón y perfiles de tiempos: las horas se expanden por viaje
+        Map<Integer, List<String>> patternStops = new HashMap<>();
+        for (GtfsPatternStopEntity ps : patternStopRows) {
+            List<String> list = patternStops.get(ps.patternKey);
+            if (list == null) {
+                list = new ArrayList<>();
+                patternStops.put(ps.patternKey, list);
+            }
+            list.add(stopIds.get(ps.stopKey));
+        }
+        Map<Integer, String> tripIds = new HashMap<>();
+        Map<Integer, byte[]> profiles = new HashMap<>();
+        for (GtfsTimeProfileEntity p : timeProfiles) profiles.put(p.profileKey, p.deltas);
+        for (GtfsTripEntity t : trips) {
+            List<String> stopsOfTrip = patternStops.get(t.patternKey);
+            byte[] profile = profiles.get(t.profileKey);
+            if (stopsOfTrip == null || profile == null) continue;
+            tripIds.put(t.tripKey, t.tripId);
+            builder.addTrip(t.tripId, routeIds.get(t.routeKey), serviceIds.get(t.serviceKey), t.tripHeadsign);
+            int n = stopsOfTrip.size();
+            int[] arrivals = new int[n], departures = new int[n];
+            TripPatterns.decodeTimes(profile, t.startSeconds, arrivals, departures);
+            for (int i = 0; i < n; i++) {
+                builder.addStopTime(t.tripId, stopsOfTrip.get(i), i, arrivals[i], departures[i]);
+            }
+        }
+        // Las salidas de los viajes por frecuencia se generan al consultar, no al cargar
+        for (GtfsFrequencyEntity f : frequencies) {
+            builder.addFrequency(tripIds.get(f.tripKey), f.startSeconds, f.endSeconds, f.headwaySeconds);
+        }
+        return builder.build();
+    }
+
+    public GtfsTimetable getTimetable() { return timetable; }
+
+    public int getShapeCount() { return shapeIds.length; }
+
+    /**
+     * Trazado del viaje, o -1 si el feed no lo incluye
+     */
+    public int getTripShape(int trip) { return tripShapes[trip]; }
+
+    public TripShape getShape(int shape) { return TripShape.decode(shapePoints[shape]); }
+
+    /**
+     * Resumen de lo compilado, para el registro de la compilación
+     */
+    public String getStatistics() {
+        GtfsTimetable tt = timetable;
+        int shapedTrips = 0;
+        for (int shape : tripShapes) if (shape >= 0) shapedTrips++;
+        return String.format("%d paradas, %d líneas, %d servicios, %d patrones (%d por frecuencia), %d viajes, "
+                        + "%d horas de paso, %d salidas indexadas, %d transbordos a pie, %d trazados (%d viajes con trazado)",
+                tt.stopIds.length, tt.routeIds.length, tt.serviceIds.length, tt.patternRoute.length,
+                countFrequencyPatterns(tt), tt.tripIds.length, tt.arrivals.length, tt.stopDepartureTimes.length,
+                tt.transferTargets.length, shapeIds.length, shapedTrips);
+    }
+
+    private static int countFrequencyPatterns(GtfsTimetable tt) {
+        int n = 0;
+        for (int p = 0; p < tt.patternRoute.length; p++) if (tt.isFrequencyPattern(p)) n++;
+        return n;
+    }
+
+    /**
+     * Escribe el horario y los trazados en el formato que lee {@link #read}
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        timetable.write(data);
+        data.writeInt(tripShapes.length);
+        for (int shape : tripShapes) data.writeInt(shape);
+        data.writeInt(shapeIds.length);
+        for (int i = 0; i < shapeIds.length; i++) {
+            data.writeUTF(shapeIds[i]);
+            data.writeInt(shapePoints[i].length);
+            data.write(shapePoints[i]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Lee un horario escrito con {@link #write}
+     * @throws IOException Si el fichero no es un horario compilado de esta versión o está truncado
+     */
+    public static CompiledTimetable read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) throw new IOException("Horario compilado no válido");
+        GtfsTimetable tt = GtfsTimetable.read(data);
+        int nTrips = data.readInt();
+        if (nTrips != tt.getTripCount()) throw new IOException("Horario compilado no válido");
+        int[] tripShapes = new int[nTrips];
+        for (int i = 0; i < nTrips; i++) tripShapes[i] = data.readInt();
+        int nShapes = data.readInt();
+        if (nShapes < 0) throw new IOException("Horario compilado no válido");
+        String[] shapeIds = new String[nShapes];
+        byte[][] shapePoints = new byte[nShapes][];
+        for (int i = 0; i < nShapes; i++) {
+            shapeIds[i] = data.readUTF();
+            int length = data.readInt();
+            if (length < 0) throw new IOException("Horario compilado no válido");
+            shapePoints[i] = new byte[length];
+            data.readFully(shapePoints[i]);
+        }
+        for (int shape : tripShapes) {
+            if (shape < -1 || shape >= nShapes) throw new IOException("Horario compilado no válido");
+        }
+        return new CompiledTimetable(tt, tripShapes, shapeIds, shapePoints);
+    }
+}
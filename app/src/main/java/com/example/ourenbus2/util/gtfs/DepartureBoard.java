@@ -0,0 +1,79 @@
+package com.example.ourenbus2.util.gtfs;
+
+import android.content.Context;
+
+import com.example.ourenbus2.model.StopDeparture;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Panel de próximas salidas de una parada a partir del horario GTFS en memoria, con los retrasos de
+ * tiempo real en las salidas de hoy.
+ * Debe llamarse fuera del hilo principal (la primera llamada puede cargar el horario).
+ */
+public class DepartureBoard {
+
+    /** Distancia máxima entre el punto pulsado y la parada GTFS que se le asocia */
+    public static final double STOP_MATCH_METERS = 50.0;
+
+    private static final int SECONDS_PER_DAY = 24 * 3600;
+
+    /**
+     * Próximas salidas de la parada GTFS más cercana a unas coordenadas
+     *
+     * @param from  Hora a partir de la que se buscan salidas
+     * @param limit Máximo de salidas
+     * @return Salidas ordenadas por hora (vacía si no hay parada cercana o datos GTFS)
+     */
+    public static List<StopDeparture> getNextDepartures(Context context, double latitude, double longitude, Date from, int limit) {
+        List<StopDeparture> out = new ArrayList<>();
+        GtfsTimetable tt = GtfsTimetableProvider.get(context);
+        if (tt == null || tt.getStopCount() == 0) return out;
+        List<int[]> near = tt.stopsNear(latitude, longitude, STOP_MATCH_METERS, 0);
+        if (near.isEmpty()) return out;
+        int stop = near.get(0)[0];
+
+        Calendar today = serviceDay(from);
+        Calendar yesterday = (Calendar) today.clone();
+        yesterday.add(Calendar.DAY_OF_MONTH, -1);
+        int now = (int) ((from.getTime() - today.getTimeInMillis()) / 1000L);
+
+        // Viajes de hoy y viajes de ayer que pasan de medianoche (horas GTFS de más de 24 h)
+        RealtimeOverlay realtime = GtfsRouter.realtimeFor(tt, today);
+        List<GtfsTimetable.Departure> todays = tt.nextDepartures(stop, tt.getActiveServices(today), now, limit, realtime);
+        BitSet yesterdayServices = tt.getActiveServices(yesterday);
+        List<GtfsTimetable.Departure> late = tt.nextDepartures(stop, yesterdayServices, now + SECONDS_PER_DAY, limit);
+
+        int i = 0, j = 0;
+        while (out.size() < limit && (i < todays.size() || j < late.size())) {
+            boolean takeToday = j >= late.size()
+                    || (i < todays.size() && todays.get(i).time <= late.get(j).time - SECONDS_PER_DAY);
+            if (takeToday) {
+                out.add(toStopDeparture(tt, todays.get(i++), today.getTimeInMillis()));
+            } else {
+                out.add(toStopDeparture(tt, late.get(j++), yesterday.getTimeInMillis()));
+            }
+        }
+        return out;
+    }
+
+    private static StopDeparture toStopDeparture(GtfsTimetable tt, GtfsTimetable.Departure departure, long dayStartMs) {
+        int route = tt.getTripRoute(departure.trip);
+        return new StopDeparture(tt.getRouteShortName(route), tt.getRouteColor(route),
+                tt.getTripHeadsign(departure.trip), new Date(dayStartMs + departure.time * 1000L));
+    }
+
+    private static Calendar serviceDay(Date date) {
+        Calendar day = Calendar.getInstance();
+        day.setTime(date);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        return day;
+    }
+}
@@ -0,0 +1,454 @@
+package com.example.ourenbus2.util.gtfs;
+
+import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarDateEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsFrequencyEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsRouteEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsShapeEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTimeProfileEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTripEntity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Lee un feed GTFS comprimido y lo convierte en las filas de las tablas GTFS, con los identificadores
+ * del feed sustituidos por claves enteras consecutivas y stop_times agrupado en patrones de viaje
+ * (ver {@link TripPatterns}). Las referencias rotas (viajes de líneas o servicios que no existen,
+ * horas de paradas desconocidas) se descartan y se anotan en {@link Feed#problems}.
+ * <p>
+ * No depende de Android: la usan tanto {@link GtfsImporter} en el dispositivo como las herramientas
+ * del módulo gtfs-compiler que generan el horario compilado y la base de datos precargada.
+ */
+public final class GtfsFeedReader {
+
+    private GtfsFeedReader() { }
+
+    /**
+     * Filas de las tablas GTFS de un feed
+     */
+    public static final class Feed {
+        public final List<GtfsStopEntity> stops = new ArrayList<>();
+        public final List<GtfsRouteEntity> routes = new ArrayList<>();
+        public final List<GtfsCalendarEntity> calendars = new ArrayList<>();
+        public final List<GtfsCalendarDateEntity> calendarDates = new ArrayList<>();
+        public final List<GtfsShapeEntity> shapes = new ArrayList<>();
+        public final List<GtfsTripEntity> trips = new ArrayList<>();
+        public final List<GtfsPatternEntity> patterns = new ArrayList<>();
+        public final List<GtfsPatternStopEntity> patternStops = new ArrayList<>();
+        public final List<GtfsTimeProfileEntity> timeProfiles = new ArrayList<>();
+        public final List<GtfsFrequencyEntity> frequencies = new ArrayList<>();
+        /** Trazado de cada trip_id de trips.txt (solo en {@link #readShapes}) */
+        public final Map<String, Integer> tripShapeKeys = new HashMap<>();
+        /** Filas descartadas por referencias rotas o datos incompletos (solo en {@link #read}) */
+        public final List<String> problems = new ArrayList<>();
+    }
+
+    /**
+     * Lee el feed completo
+     */
+    public static Feed read(InputStream zip) throws IOException {
+        Map<String, List<String[]>> files = readZip(zip, null);
+        Feed feed = new Feed();
+        for (String required : new String[]{"stops.txt", "routes.txt", "trips.txt", "stop_times.txt"}) {
+            if (!files.containsKey(required)) feed.problems.add("Falta " + required);
+        }
+        // Claves enteras para los identificadores del feed
+        Map<String, Integer> stopKeys = new HashMap<>();
+        List<String[]> stops = files.get("stops.txt");
+        if (stops != null) {
+            List<GtfsStopEntity> list = new ArrayList<>();
+            for (String[] r : stops) {
+                String stopId = val(r, "stop_id");
+                if (stopId == null || stopKeys.containsKey(stopId)) {
+                    feed.problems.add("stops.txt: stop_id vacío o repetido (" + stopId + ")");
+                    continue;
+                }
+                GtfsStopEntity e = new GtfsStopEntity();
+                e.stopKey = stopKeys.size() + 1;
+                e.stopId = stopId;
+                e.name = val(r, "stop_name");
+                e.lat = parseDouble(val(r, "stop_lat"));
+                e.lon = parseDouble(val(r, "stop_lon"));
+                stopKeys.put(stopId, e.stopKey);
+                list.add(e);
+            }
+            feed.stops.addAll(list);
+        }
+        Map<String, Integer> routeKeys = new HashMap<>();
+        List<String[]> routes = files.get("routes.txt");
+        if (routes != null) {
+            List<GtfsRouteEntity> list = new ArrayList<>();
+            for (String[] r : routes) {
+                String routeId = val(r, "route_id");
+                if (routeId == null || routeKeys.containsKey(routeId)) {
+                    feed.problems.add("routes.txt: route_id vacío o repetido (" + routeId + ")");
+                    continue;
+                }
+                GtfsRouteEntity e = new GtfsRouteEntity();
+                e.routeKey = routeKeys.size() + 1;
+                e.routeId = routeId;
+                e.shortName = val(r, "route_short_name");
+                e.longName = val(r, "route_long_name");
+                e.color = val(r, "route_color");
+                routeKeys.put(routeId, e.routeKey);
+                list.add(e);
+            }
+            feed.routes.addAll(list);
+        }
+        // Diccionario de servicios: calendar.txt más los que solo aparecen en calendar_dates.txt o trips.txt
+        Map<String, GtfsCalendarEntity> services = new LinkedHashMap<>();
+        List<String[]> calendars = files.get("calendar.txt");
+        if (calendars != null) {
+            for (String[] r : calendars) {
+                GtfsCalendarEntity e = service(services, val(r, "service_id"));
+                if (e == null) continue;
+                e.monday = parseInt(val(r, "monday"));
+                e.tuesday = parseInt(val(r, "tuesday"));
+                e.wednesday = parseInt(val(r, "wednesday"));
+                e.thursday = parseInt(val(r, "thursday"));
+                e.friday = parseInt(val(r, "friday"));
+                e.saturday = parseInt(val(r, "saturday"));
+                e.sunday = parseInt(val(r, "sunday"));
+                e.startDate = parseInt(val(r, "start_date"));
+                e.endDate = parseInt(val(r, "end_date"));
+            }
+        }
+        List<String[]> calendarDates = files.get("calendar_dates.txt");
+        List<GtfsCalendarDateEntity> exceptions = new ArrayList<>();
+        if (calendarDates != null) {
+            for (String[] r : calendarDates) {
+                GtfsCalendarEntity service = service(services, val(r, "service_id"));
+                if (service == null) continue;
+                GtfsCalendarDateEntity e = new GtfsCalendarDateEntity();
+                e.serviceKey = service.serviceKey;
+                e.date = parseInt(val(r, "date"));
+                e.exceptionType = parseInt(val(r, "exception_type"));
+                exceptions.add(e);
+            }
+        }
+        Map<String, Integer> shapeKeys = readShapes(files, feed);
+        Map<String, Integer> tripKeys = new HashMap<>();
+        List<String[]> trips = files.get("trips.txt");
+        List<GtfsTripEntity> tripList = new ArrayList<>();
+        if (trips != null) {
+            for (String[] r : trips) {
+                String tripId = val(r, "trip_id");
+                Integer routeKey = routeKeys.get(val(r, "route_id"));
+                GtfsCalendarEntity service = service(services, val(r, "service_id"));
+                if (tripId == null || tripKeys.containsKey(tripId)) {
+                    feed.problems.add("trips.txt: trip_id vacío o repetido (" + tripId + ")");
+                    continue;
+                }
+                if (routeKey == null) {
+                    feed.problems.add("trips.txt: el viaje " + tripId + " usa la línea desconocida " + val(r, "route_id"));
+                    continue;
+                }
+                if (service == null) {
+                    feed.problems.add("trips.txt: el viaje " + tripId + " no tiene service_id");
+                    continue;
+                }
+                GtfsTripEntity e = new GtfsTripEntity();
+                e.tripKey = tripKeys.size() + 1;
+                e.tripId = tripId;
+                e.routeKey = routeKey;
+                e.serviceKey = service.serviceKey;
+                e.tripHeadsign = val(r, "trip_headsign");
+                String shapeId = val(r, "shape_id");
+                Integer shapeKey = shapeKeys.get(shapeId);
+                if (shapeKey == null && shapeId != null && !shapeId.isEmpty()) {
+                    feed.problems.add("trips.txt: el viaje " + tripId + " usa el trazado desconocido " + shapeId);
+                }
+                e.shapeKey = shapeKey != null ? shapeKey : 0;
+                tripKeys.put(tripId, e.tripKey);
+                tripList.add(e);
+            }
+        }
+        feed.calendars.addAll(services.values());
+        feed.calendarDates.addAll(exceptions);
+
+        // Horas de cada viaje: (secuencia, parada, llegada, salida)
+        Map<Integer, List<int[]>> tripTimes = new HashMap<>();
+        List<String[]> stopTimes = files.get("stop_times.txt");
+        if (stopTimes != null) {
+            for (String[] r : stopTimes) {
+                Integer tripKey = tripKeys.get(val(r, "trip_id"));
+                Integer stopKey = stopKeys.get(val(r, "stop_id"));
+                if (tripKey == null || stopKey == null) {
+                    feed.problems.add("stop_times.txt: " + (tripKey == null ? "viaje desconocido " + val(r, "trip_id")
+                            : "parada desconocida " + val(r, "stop_id") + " en el viaje " + val(r, "trip_id")));
+                    continue;
+                }
+                List<int[]> rows = tripTimes.get(tripKey);
+                if (rows == null) {
+                    rows = new ArrayList<>();
+                    tripTimes.put(tripKey, rows);
+                }
+                rows.add(new int[]{parseInt(val(r, "stop_sequence")), stopKey,
+                        parseHmsToSeconds(val(r, "arrival_time")), parseHmsToSeconds(val(r, "departure_time"))});
+            }
+        }
+
+        // Agrupar los viajes en patrones; los viajes sin horas se descartan
+        TripPatterns.Builder patterns = new TripPatterns.Builder();
+        List<GtfsTripEntity> keptTrips = new ArrayList<>();
+        for (GtfsTripEntity trip : tripList) {
+            List<int[]> rows = tripTimes.get(trip.tripKey);
+            if (rows == null || rows.size() < 2) {
+                feed.problems.add("stop_times.txt: el viaje " + trip.tripId + " tiene menos de 2 paradas");
+                if (rows == null) continue;
+            }
+            Collections.sort(rows, (x, y) -> Integer.compare(x[0], y[0]));
+            int n = rows.size();
+            int[] stopSeq = new int[n], arrivals = new int[n], departures = new int[n];
+            for (int i = 0; i < n; i++) {
+                stopSeq[i] = rows.get(i)[1];
+                arrivals[i] = rows.get(i)[2];
+                departures[i] = rows.get(i)[3];
+            }
+            TripPatterns.TripTimes times = patterns.addTrip(trip.routeKey, stopSeq, arrivals, departures);
+            trip.patternKey = times.patternKey;
+            trip.profileKey = times.profileKey;
+            trip.startSeconds = times.startSeconds;
+            keptTrips.add(trip);
+        }
+        List<GtfsPatternEntity> patternList = new ArrayList<>();
+        List<GtfsPatternStopEntity> patternStops = new ArrayList<>();
+        for (TripPatterns.Pattern p : patterns.getPatterns()) {
+            GtfsPatternEntity e = new GtfsPatternEntity();
+            e.patternKey = p.patternKey;
+            e.routeKey = p.routeKey;
+            e.stopCount = p.stopKeys.length;
+            patternList.add(e);
+            for (int i = 0; i < p.stopKeys.length; i++) {
+                GtfsPatternStopEntity ps = new GtfsPatternStopEntity();
+                ps.patternKey = p.patternKey;
+                ps.stopIndex = i;
+                ps.stopKey = p.stopKeys[i];
+                patternStops.add(ps);
+            }
+        }
+        List<GtfsTimeProfileEntity> profiles = new ArrayList<>();
+        for (TripPatterns.Profile p : patterns.getProfiles()) {
+            GtfsTimeProfileEntity e = new GtfsTimeProfileEntity();
+            e.profileKey = p.profileKey;
+            e.patternKey = p.patternKey;
+            e.deltas = p.deltas;
+            profiles.add(e);
+        }
+        feed.patterns.addAll(patternList);
+        feed.patternStops.addAll(patternStops);
+        feed.timeProfiles.addAll(profiles);
+        feed.trips.addAll(keptTrips);
+
+        // Reglas de frecuencia de los viajes plantilla que se han conservado
+        List<String[]> frequencies = files.get("frequencies.txt");
+        if (frequencies != null) {
+            List<GtfsFrequencyEntity> list = new ArrayList<>();
+            for (String[] r : frequencies) {
+                Integer tripKey = tripKeys.get(val(r, "trip_id"));
+                if (tripKey == null || !tripTimes.containsKey(tripKey)) {
+                    feed.problems.add("frequencies.txt: viaje desconocido o sin horas " + val(r, "trip_id"));
+                    continue;
+                }
+                GtfsFrequencyEntity e = new GtfsFrequencyEntity();
+                e.tripKey = tripKey;
+                e.startSeconds = parseHmsToSeconds(val(r, "start_time"));
+                e.endSeconds = parseHmsToSeconds(val(r, "end_time"));
+                e.headwaySeconds = parseInt(val(r, "headway_secs"));
+                e.exactTimes = parseInt(val(r, "exact_times"));
+                if (e.headwaySeconds <= 0 || e.endSeconds <= e.startSeconds) {
+                    feed.problems.add("frequencies.txt: regla sin intervalo o vacía en el viaje " + val(r, "trip_id"));
+                    continue;
+                }
+                list.add(e);
+            }
+            feed.frequencies.addAll(list);
+        }
+        return feed;
+    }
+
+    /**
+     * Lee solo los trazados y el de cada viaje (para una BD con los viajes ya importados)
+     */
+    public static Feed readShapes(InputStream zip) throws IOException {
+        Map<String, List<String[]>> files = readZip(zip, new HashSet<>(Arrays.asList("shapes.txt", "trips.txt")));
+        Feed feed = new Feed();
+        Map<String, Integer> shapeKeys = readShapes(files, feed);
+        List<String[]> trips = files.get("trips.txt");
+        if (trips != null && !shapeKeys.isEmpty()) {
+            for (String[] r : trips) {
+                Integer shapeKey = shapeKeys.get(val(r, "shape_id"));
+                String tripId = val(r, "trip_id");
+                if (shapeKey != null && tripId != null) feed.tripShapeKeys.put(tripId, shapeKey);
+            }
+        }
+        return feed;
+    }
+
+    /**
+     * Lee los ficheros .txt del zip como filas clave-valor, indexados por nombre de fichero en minúsculas
+     *
+     * @param only Ficheros a leer, o null para todos
+     */
+    private static Map<String, List<String[]>> readZip(InputStream in, Set<String> only) throws IOException {
+        try (ZipInputStream zis = new ZipInputStream(in)) {
+            Map<String, List<String[]>> files = new HashMap<>();
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (!name.endsWith(".txt")) continue;
+                String fileName = name.substring(name.lastIndexOf('/') + 1).toLowerCase();
+                if (only != null && !only.contains(fileName)) continue;
+                List<String[]> rows = new ArrayList<>();
+                BufferedReader br = new BufferedReader(new InputStreamReader(zis, StandardCharsets.UTF_8));
+                String header = br.readLine();
+                if (header == null) continue;
+                String[] headers = splitCsv(header);
+                // Algunos feeds incluyen BOM o espacios en la cabecera (p. ej. " monday" en calendar.txt)
+                for (int i = 0; i < headers.length; i++) headers[i] = headers[i].replace("\uFEFF", "").trim();
+                String line;
+                while ((line = br.readLine()) != null) {
+                    String[] cols = splitCsv(line);
+                    // Normalizar tamaño a headers
+                    if (cols.length < headers.length) {
+                        String[] fixed = new String[headers.length];
+                        System.arraycopy(cols, 0, fixed, 0, cols.length);
+                        cols = fixed;
+                    }
+                    rows.add(mapByHeader(headers, cols));
+                }
+                files.put(fileName, rows);
+            }
+            return files;
+        }
+    }
+
+    /**
+     * Trazados de shapes.txt, uno por shape_id
+     *
+     * @return Clave asignada a cada shape_id
+     */
+    private static Map<String, Integer> readShapes(Map<String, List<String[]>> files, Feed feed) {
+        Map<String, Integer> shapeKeys = new HashMap<>();
+        List<String[]> shapes = files.get("shapes.txt");
+        if (shapes == null) return shapeKeys;
+        // Puntos de cada trazado: (secuencia, lat, lon)
+        Map<String, List<double[]>> points = new LinkedHashMap<>();
+        for (String[] r : shapes) {
+            String shapeId = val(r, "shape_id");
+            if (shapeId == null) continue;
+            List<double[]> list = points.get(shapeId);
+            if (list == null) {
+                list = new ArrayList<>();
+                points.put(shapeId, list);
+            }
+            list.add(new double[]{parseDouble(val(r, "shape_pt_sequence")),
+                    parseDouble(val(r, "shape_pt_lat")), parseDouble(val(r, "shape_pt_lon"))});
+        }
+        List<GtfsShapeEntity> list = new ArrayList<>();
+        for (Map.Entry<String, List<double[]>> shape : points.entrySet()) {
+            List<double[]> rows = shape.getValue();
+            Collections.sort(rows, (x, y) -> Double.compare(x[0], y[0]));
+            double[] lat = new double[rows.size()], lon = new double[rows.size()];
+            for (int i = 0; i < lat.length; i++) {
+                lat[i] = rows.get(i)[1];
+                lon[i] = rows.get(i)[2];
+            }
+            GtfsShapeEntity e = new GtfsShapeEntity();
+            e.shapeKey = shapeKeys.size() + 1;
+            e.shapeId = shape.getKey();
+            e.points = TripShape.encode(lat, lon);
+            shapeKeys.put(e.shapeId, e.shapeKey);
+            list.add(e);
+        }
+        feed.shapes.addAll(list);
+        return shapeKeys;
+    }
+
+    /**
+     * Servicio del diccionario, creándolo (sin días activos) si todavía no existe
+     */
+    private static GtfsCalendarEntity service(Map<String, GtfsCalendarEntity> services, String serviceId) {
+        if (serviceId == null) return null;
+        GtfsCalendarEntity e = services.get(serviceId);
+        if (e == null) {
+            e = new GtfsCalendarEntity();
+            e.serviceKey = services.size() + 1;
+            e.serviceId = serviceId;
+            services.put(serviceId, e);
+        }
+        return e;
+    }
+
+    private static String[] mapByHeader(String[] headers, String[] cols) {
+        // Representamos cada fila como array de pares key=value compacto: [k0,v0,k1,v1,...]
+        String[] mapped = new String[headers.length * 2];
+        for (int i = 0; i < headers.length; i++) {
+            mapped[i * 2] = headers[i];
+            mapped[i * 2 + 1] = i < cols.length ? cols[i] : null;
+        }
+        return mapped;
+    }
+
+    private static String val(String[] mapped, String key) {
+        for (int i = 0; i < mapped.length; i += 2) {
+            if (key.equals(mapped[i])) return mapped[i + 1];
+        }
+        return null;
+    }
+
+    private static String[] splitCsv(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                inQuotes = !inQuotes;
+            } else if (c == ',' && !inQuotes) {
+                out.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        out.add(sb.toString());
+        return out.toArray(new String[0]);
+    }
+
+    private static int parseHmsToSeconds(String hms) {
+        if (hms == null || hms.isEmpty()) return 0;
+        String[] parts = hms.split(":");
+        if (parts.length < 2) return 0;
+        int h = parseInt(parts[0]);
+        int m = parseInt(parts[1]);
+        int s = parts.length > 2 ? parseInt(parts[2]) : 0;
+        return h * 3600 + m * 60 + s;
+    }
+
+    private static int parseInt(String s) {
+        try { return Integer.parseInt(s); } catch (Exception e) { return 0; }
+    }
+
+    private static double parseDouble(String s) {
+        try { return Double.parseDouble(s); } catch (Exception e) { return 0; }
+    }
+}
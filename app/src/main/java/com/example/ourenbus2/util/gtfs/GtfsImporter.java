@@ -1,214 +1,158 @@
 package com.example.ourenbus2.util.gtfs;
 
+import android.content.ContentValues;
 import android.content.Context;
-import android.content.res.AssetManager;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.example.ourenbus2.database.AppDatabase;
 import com.example.ourenbus2.database.dao.GtfsDao;
-import com.example.ourenbus2.database.entity.gtfs.GtfsRouteEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsStopTimeEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsTripEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarEntity;
-import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarDateEntity;
 
-import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.io.OutputStream;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
- * Carga un feed GTFS (stops, routes, trips, stop_times) desde assets/ourense_gtfs.zip si la BD está vacía.
+ * Carga el feed GTFS si la BD está vacía (o le faltan los trazados), p. ej. tras migrar desde una versión
+ * antigua. Las instalaciones nuevas ya traen la BD precargada (ver {@link AppDatabase}); en las migradas
+ * las tablas GTFS se copian de esa misma BD precargada. Solo si la app se ha compilado sin ella se importa
+ * el zip del feed desde assets ({@link #FEED_ASSET}).
+ * El feed se lee con {@link GtfsFeedReader}: los identificadores del feed se sustituyen por claves enteras
+ * consecutivas en las relaciones y stop_times se guarda agrupado en patrones de viaje (ver {@link TripPatterns}).
+ * Los viajes de frequencies.txt se guardan como plantilla más sus reglas de intervalo, sin expandir sus salidas.
+ * Los trazados de shapes.txt (opcional) se guardan comprimidos, uno por shape_id (ver {@link TripShape}).
+ * Tras importar se calculan en segundo plano los patrones de transbordo ({@link TransferPatternStore}).
  * El feed debe incluir los ficheros estándar: stops.txt, routes.txt, trips.txt, stop_times.txt
  */
 public class GtfsImporter {
 
+    /** Feed GTFS en assets; la compilación normal no lo incluye en el APK (ver app/src/main/gtfs) */
+    public static final String FEED_ASSET = "Ourense_gtfs.zip";
+
+    // Tablas del feed que se copian de la BD precargada (los patrones de transbordo se recalculan)
+    private static final String[] FEED_TABLES = {"gtfs_stops", "gtfs_routes", "gtfs_shapes", "gtfs_calendar",
+            "gtfs_calendar_dates", "gtfs_patterns", "gtfs_pattern_stops", "gtfs_time_profiles", "gtfs_trips",
+            "gtfs_frequencies"};
+
     public static void importIfEmpty(Context context) {
         AppDatabase db = AppDatabase.getInstance(context);
         GtfsDao dao = db.gtfsDao();
-        // Si ya hay paradas, asumimos importado
-        if (dao.getAllStops() != null && !dao.getAllStops().isEmpty()) return;
+        // Si ya hay paradas, asumimos importado; solo faltan los trazados si la BD viene de la versión 9
+        if (dao.hasStops()) {
+            if (dao.hasUnresolvedShapes()) {
+                try {
+                    if (!copyFromPrepackagedDatabase(context, db, true)) importShapesOnly(context, FEED_ASSET, db);
+                } catch (IOException ignored) {
+                    // Sin trazados los buses se dibujan en línea recta entre paradas
+                }
+            }
+            TransferPatternStore.precomputeInBackground(context);
+            return;
+        }
         try {
-            importFromAssetsZip(context, "ourense_gtfs.zip", dao);
+            if (!copyFromPrepackagedDatabase(context, db, false)) importFromAssetsZip(context, FEED_ASSET, dao);
+            GtfsTimetableProvider.invalidate();
+            TransferPatternStore.precomputeInBackground(context);
         } catch (IOException ignored) {
             // Si falla, dejamos las tablas vacías y el enrutado local no se activará
         }
     }
 
-    private static void importFromAssetsZip(Context context, String zipName, GtfsDao dao) throws IOException {
-        AssetManager assets = context.getAssets();
-        try (InputStream is = assets.open(zipName); ZipInputStream zis = new ZipInputStream(is)) {
-            Map<String, List<String[]>> files = new HashMap<>();
-            ZipEntry entry;
-            while ((entry = zis.getNextEntry()) != null) {
-                String name = entry.getName();
-                if (!name.endsWith(".txt")) continue;
-                List<String[]> rows = new ArrayList<>();
-                BufferedReader br = new BufferedReader(new InputStreamReader(zis, StandardCharsets.UTF_8));
-                String header = br.readLine();
-                if (header == null) continue;
-                String[] headers = splitCsv(header);
-                String line;
-                while ((line = br.readLine()) != null) {
-                    String[] cols = splitCsv(line);
-                    // Normalizar tamaño a headers
-                    if (cols.length < headers.length) {
-                        String[] fixed = new String[headers.length];
-                        System.arraycopy(cols, 0, fixed, 0, cols.length);
-                        cols = fixed;
+    /**
+     * Copia las tablas del feed desde la BD precargada en assets
+     * @param shapesOnly Copiar solo los trazados y asignarlos a los viajes ya guardados (BD migrada desde la versión 9)
+     * @return false si la app no incluye la BD precargada
+     */
+    private static boolean copyFromPrepackagedDatabase(Context context, AppDatabase db, boolean shapesOnly)
+            throws IOException {
+        // SQLite no abre bases de datos dentro del APK: se copia a la caché mientras dura la importación
+        File copy = new File(context.getCacheDir(), "gtfs_prepackaged.sqlite");
+        try (InputStream in = context.getAssets().open(AppDatabase.PREPACKAGED_DATABASE);
+             OutputStream out = new FileOutputStream(copy)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) out.write(buffer, 0, n);
+        } catch (IOException e) {
+            copy.delete();
+            return false;
+        }
+        try (SQLiteDatabase feed = SQLiteDatabase.openDatabase(copy.getPath(), null, SQLiteDatabase.OPEN_READONLY)) {
+            SupportSQLiteDatabase target = db.getOpenHelper().getWritableDatabase();
+            GtfsDao dao = db.gtfsDao();
+            db.runInTransaction(() -> {
+                if (shapesOnly) {
+                    copyTable(feed, target, "gtfs_shapes");
+                    try (Cursor c = feed.rawQuery("SELECT tripId, shapeKey FROM gtfs_trips", null)) {
+                        while (c.moveToNext()) dao.setTripShape(c.getString(0), c.getInt(1));
                     }
-                    rows.add(mapByHeader(headers, cols));
-                }
-                files.put(name.substring(name.lastIndexOf('/') + 1).toLowerCase(), rows);
-            }
-            // Insertar en BD
-            List<String[]> stops = files.get("stops.txt");
-            if (stops != null) {
-                List<GtfsStopEntity> list = new ArrayList<>();
-                for (String[] r : stops) {
-                    GtfsStopEntity e = new GtfsStopEntity();
-                    e.stopId = val(r, "stop_id");
-                    e.name = val(r, "stop_name");
-                    e.lat = parseDouble(val(r, "stop_lat"));
-                    e.lon = parseDouble(val(r, "stop_lon"));
-                    list.add(e);
-                }
-                dao.insertStops(list);
-            }
-            List<String[]> routes = files.get("routes.txt");
-            if (routes != null) {
-                List<GtfsRouteEntity> list = new ArrayList<>();
-                for (String[] r : routes) {
-                    GtfsRouteEntity e = new GtfsRouteEntity();
-                    e.routeId = val(r, "route_id");
-                    e.shortName = val(r, "route_short_name");
-                    e.longName = val(r, "route_long_name");
-                    e.color = val(r, "route_color");
-                    list.add(e);
-                }
-                dao.insertRoutes(list);
-            }
-            List<String[]> trips = files.get("trips.txt");
-            if (trips != null) {
-                List<GtfsTripEntity> list = new ArrayList<>();
-                for (String[] r : trips) {
-                    GtfsTripEntity e = new GtfsTripEntity();
-                    e.tripId = val(r, "trip_id");
-                    e.routeId = val(r, "route_id");
-                    e.serviceId = val(r, "service_id");
-                    e.tripHeadsign = val(r, "trip_headsign");
-                    list.add(e);
-                }
-                dao.insertTrips(list);
-            }
-            List<String[]> stopTimes = files.get("stop_times.txt");
-            if (stopTimes != null) {
-                List<GtfsStopTimeEntity> list = new ArrayList<>();
-                for (String[] r : stopTimes) {
-                    GtfsStopTimeEntity e = new GtfsStopTimeEntity();
-                    e.tripId = val(r, "trip_id");
-                    e.stopId = val(r, "stop_id");
-                    e.arrivalSeconds = parseHmsToSeconds(val(r, "arrival_time"));
-                    e.departureSeconds = parseHmsToSeconds(val(r, "departure_time"));
-                    e.stopSequence = parseInt(val(r, "stop_sequence"));
-                    list.add(e);
-                }
-                dao.insertStopTimes(list);
-            }
-            List<String[]> calendars = files.get("calendar.txt");
-            if (calendars != null) {
-                List<GtfsCalendarEntity> list = new ArrayList<>();
-                for (String[] r : calendars) {
-                    GtfsCalendarEntity e = new GtfsCalendarEntity();
-                    e.serviceId = val(r, "service_id");
-                    e.monday = parseInt(val(r, "monday"));
-                    e.tuesday = parseInt(val(r, "tuesday"));
-                    e.wednesday = parseInt(val(r, "wednesday"));
-                    e.thursday = parseInt(val(r, "thursday"));
-                    e.friday = parseInt(val(r, "friday"));
-                    e.saturday = parseInt(val(r, "saturday"));
-                    e.sunday = parseInt(val(r, "sunday"));
-                    e.startDate = parseInt(val(r, "start_date"));
-                    e.endDate = parseInt(val(r, "end_date"));
-                    list.add(e);
+                    dao.clearUnresolvedShapes();
+                } else {
+                    for (String table : FEED_TABLES) copyTable(feed, target, table);
                 }
-                dao.insertCalendars(list);
-            }
-            List<String[]> calendarDates = files.get("calendar_dates.txt");
-            if (calendarDates != null) {
-                List<GtfsCalendarDateEntity> list = new ArrayList<>();
-                for (String[] r : calendarDates) {
-                    GtfsCalendarDateEntity e = new GtfsCalendarDateEntity();
-                    e.serviceId = val(r, "service_id");
-                    e.date = parseInt(val(r, "date"));
-                    e.exceptionType = parseInt(val(r, "exception_type"));
-                    list.add(e);
-                }
-                dao.insertCalendarDates(list);
-            }
+            });
+        } finally {
+            copy.delete();
         }
+        return true;
     }
 
-    private static String[] mapByHeader(String[] headers, String[] cols) {
-        // Representamos cada fila como array de pares key=value compacto: [k0,v0,k1,v1,...]
-        String[] mapped = new String[headers.length * 2];
-        for (int i = 0; i < headers.length; i++) {
-            mapped[i * 2] = headers[i];
-            mapped[i * 2 + 1] = i < cols.length ? cols[i] : null;
+    private static void copyTable(SQLiteDatabase from, SupportSQLiteDatabase to, String table) {
+        try (Cursor c = from.rawQuery("SELECT * FROM " + table, null)) {
+            ContentValues values = new ContentValues();
+            while (c.moveToNext()) {
+                values.clear();
+                for (int i = 0; i < c.getColumnCount(); i++) {
+                    String column = c.getColumnName(i);
+                    switch (c.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER: values.put(column, c.getLong(i)); break;
+                        case Cursor.FIELD_TYPE_FLOAT: values.put(column, c.getDouble(i)); break;
+                        case Cursor.FIELD_TYPE_BLOB: values.put(column, c.getBlob(i)); break;
+                        case Cursor.FIELD_TYPE_STRING: values.put(column, c.getString(i)); break;
+                        default: values.putNull(column);
+                    }
+                }
+                to.insert(table, SQLiteDatabase.CONFLICT_REPLACE, values);
+            }
         }
-        return mapped;
     }
 
-    private static String val(String[] mapped, String key) {
-        for (int i = 0; i < mapped.length; i += 2) {
-            if (key.equals(mapped[i])) return mapped[i + 1];
+    /**
+     * Importa solo los trazados y los asigna a los viajes ya guardados (BD migrada desde la versión 9)
+     */
+    private static void importShapesOnly(Context context, String zipName, AppDatabase db) throws IOException {
+        GtfsFeedReader.Feed feed;
+        try (InputStream in = context.getAssets().open(zipName)) {
+            feed = GtfsFeedReader.readShapes(in);
         }
-        return null;
-    }
-
-    private static String[] splitCsv(String line) {
-        List<String> out = new ArrayList<>();
-        StringBuilder sb = new StringBuilder();
-        boolean inQuotes = false;
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                out.add(sb.toString());
-                sb.setLength(0);
-            } else {
-                sb.append(c);
+        GtfsDao dao = db.gtfsDao();
+        db.runInTransaction(() -> {
+            dao.insertShapes(feed.shapes);
+            for (Map.Entry<String, Integer> trip : feed.tripShapeKeys.entrySet()) {
+                dao.setTripShape(trip.getKey(), trip.getValue());
             }
-        }
-        out.add(sb.toString());
-        return out.toArray(new String[0]);
-    }
-
-    private static int parseHmsToSeconds(String hms) {
-        if (hms == null || hms.isEmpty()) return 0;
-        String[] parts = hms.split(":");
-        if (parts.length < 2) return 0;
-        int h = parseInt(parts[0]);
-        int m = parseInt(parts[1]);
-        int s = parts.length > 2 ? parseInt(parts[2]) : 0;
-        return h * 3600 + m * 60 + s;
-    }
-
-    private static int parseInt(String s) {
-        try { return Integer.parseInt(s); } catch (Exception e) { return 0; }
+            dao.clearUnresolvedShapes();
+        });
     }
 
-    private static double parseDouble(String s) {
-        try { return Double.parseDouble(s); } catch (Exception e) { return 0; }
+    private static void importFromAssetsZip(Context context, String zipName, GtfsDao dao) throws IOException {
+        GtfsFeedReader.Feed feed;
+        try (InputStream in = context.getAssets().open(zipName)) {
+            feed = GtfsFeedReader.read(in);
+        }
+        dao.insertStops(feed.stops);
+        dao.insertRoutes(feed.routes);
+        dao.insertShapes(feed.shapes);
+        dao.insertCalendars(feed.calendars);
+        dao.insertCalendarDates(feed.calendarDates);
+        dao.insertPatterns(feed.patterns);
+        dao.insertPatternStops(feed.patternStops);
+        dao.insertTimeProfiles(feed.timeProfiles);
+        dao.insertTrips(feed.trips);
+        dao.insertFrequencies(feed.frequencies);
     }
 }
-
-
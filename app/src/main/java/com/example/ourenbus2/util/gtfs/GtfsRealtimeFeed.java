@@ -0,0 +1,433 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Mensaje GTFS-Realtime (FeedMessage) decodificado: actualizaciones de viajes, posiciones de vehículos
+ * y avisos de servicio.
+ * <p>
+ * El protobuf se lee directamente del formato binario con los números de campo de gtfs-realtime.proto,
+ * sin clases generadas ni dependencias; los campos que no se usan se saltan. No depende de Android.
+ */
+public final class GtfsRealtimeFeed {
+
+    /** Hora del feed en segundos Unix (0 si no viene) */
+    public final long timestamp;
+    public final List<TripUpdate> tripUpdates;
+    public final List<VehiclePosition> vehicles;
+    public final List<Alert> alerts;
+
+    private GtfsRealtimeFeed(long timestamp, List<TripUpdate> tripUpdates, List<VehiclePosition> vehicles, List<Alert> alerts) {
+        this.timestamp = timestamp;
+        this.tripUpdates = Collections.unmodifiableList(tripUpdates);
+        this.vehicles = Collections.unmodifiableList(vehicles);
+        this.alerts = Collections.unmodifiableList(alerts);
+    }
+
+    /**
+     * Decodifica un FeedMessage
+     *
+     * @throws IOException Si los datos no son un protobuf válido
+     */
+    public static GtfsRealtimeFeed parse(byte[] data) throws IOException {
+        ProtoReader in = new ProtoReader(data, 0, data.length);
+        long timestamp = 0;
+        List<TripUpdate> tripUpdates = new ArrayList<>();
+        List<VehiclePosition> vehicles = new ArrayList<>();
+        List<Alert> alerts = new ArrayList<>();
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: timestamp = parseHeader(in.readMessage()); break;
+                case 2: parseEntity(in.readMessage(), tripUpdates, vehicles, alerts); break;
+                default: in.skip(tag);
+            }
+        }
+        return new GtfsRealtimeFeed(timestamp, tripUpdates, vehicles, alerts);
+    }
+
+    private static long parseHeader(ProtoReader in) throws IOException {
+        long timestamp = 0;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag >>> 3 == 3) timestamp = in.readVarint();
+            else in.skip(tag);
+        }
+        return timestamp;
+    }
+
+    private static void parseEntity(ProtoReader in, List<TripUpdate> tripUpdates, List<VehiclePosition> vehicles,
+                                    List<Alert> alerts) throws IOException {
+        boolean deleted = false;
+        TripUpdate tripUpdate = null;
+        VehiclePosition vehicle = null;
+        Alert alert = null;
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 2: deleted = in.readVarint() != 0; break;
+                case 3: tripUpdate = parseTripUpdate(in.readMessage()); break;
+                case 4: vehicle = parseVehicle(in.readMessage()); break;
+                case 5: alert = parseAlert(in.readMessage()); break;
+                default: in.skip(tag);
+            }
+        }
+        if (deleted) return;
+        if (tripUpdate != null) tripUpdates.add(tripUpdate);
+        if (vehicle != null) vehicles.add(vehicle);
+        if (alert != null) alerts.add(alert);
+    }
+
+    private static TripUpdate parseTripUpdate(ProtoReader in) throws IOException {
+        TripUpdate u = new TripUpdate();
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: parseTrip(in.readMessage(), u.trip); break;
+                case 2: u.stopTimeUpdates.add(parseStopTimeUpdate(in.readMessage())); break;
+                case 4: u.timestamp = in.readVarint(); break;
+                case 5: u.delay = (int) in.readVarint(); u.hasDelay = true; break;
+                default: in.skip(tag);
+            }
+        }
+        return u;
+    }
+
+    private static void parseTrip(ProtoReader in, TripDescriptor trip) throws IOException {
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: trip.tripId = in.readString(); break;
+                case 2: trip.startTime = in.readString(); break;
+                case 3: trip.startDate = in.readString(); break;
+                case 4: trip.scheduleRelationship = (int) in.readVarint(); break;
+                case 5: trip.routeId = in.readString(); break;
+                default: in.skip(tag);
+            }
+        }
+    }
+
+    private static StopTimeUpdate parseStopTimeUpdate(ProtoReader in) throws IOException {
+        StopTimeUpdate s = new StopTimeUpdate();
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: s.stopSequence = (int) in.readVarint(); break;
+                case 2: s.arrival = parseEvent(in.readMessage()); break;
+                case 3: s.departure = parseEvent(in.readMessage()); break;
+                case 4: s.stopId = in.readString(); break;
+                case 5: s.scheduleRelationship = (int) in.readVarint(); break;
+                default: in.skip(tag);
+            }
+        }
+        return s;
+    }
+
+    private static StopTimeEvent parseEvent(ProtoReader in) throws IOException {
+        StopTimeEvent e = new StopTimeEvent();
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: e.delay = (int) in.readVarint(); e.hasDelay = true; break;
+                case 2: e.time = in.readVarint(); break;
+                default: in.skip(tag);
+            }
+        }
+        return e;
+    }
+
+    private static VehiclePosition parseVehicle(ProtoReader in) throws IOException {
+        VehiclePosition v = new VehiclePosition();
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: parseTrip(in.readMessage(), v.trip); break;
+                case 2: parsePosition(in.readMessage(), v); break;
+                case 3: v.currentStopSequence = (int) in.readVarint(); break;
+                case 5: v.timestamp = in.readVarint(); break;
+                case 7: v.stopId = in.readString(); break;
+                case 8: parseVehicleDescriptor(in.readMessage(), v); break;
+                default: in.skip(tag);
+            }
+        }
+        return v;
+    }
+
+    private static void parsePosition(ProtoReader in, VehiclePosition v) throws IOException {
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: v.latitude = Float.intBitsToFloat(in.readFixed32()); v.hasPosition = true; break;
+                case 2: v.longitude = Float.intBitsToFloat(in.readFixed32()); break;
+                case 3: v.bearing = Float.intBitsToFloat(in.readFixed32()); break;
+                case 5: v.speed = Float.intBitsToFloat(in.readFixed32()); break;
+                default: in.skip(tag);
+            }
+        }
+    }
+
+    private static void parseVehicleDescriptor(ProtoReader in, VehiclePosition v) throws IOException {
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: v.vehicleId = in.readString(); break;
+                case 2: v.label = in.readString(); break;
+                default: in.skip(tag);
+            }
+        }
+    }
+
+    private static Alert parseAlert(ProtoReader in) throws IOException {
+        Alert a = new Alert();
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: a.activePeriods.add(parseTimeRange(in.readMessage())); break;
+                case 5: parseInformedEntity(in.readMessage(), a); break;
+                case 6: a.cause = (int) in.readVarint(); break;
+                case 7: a.effect = (int) in.readVarint(); break;
+                case 10: parseTranslations(in.readMessage(), a.headerText); break;
+                case 11: parseTranslations(in.readMessage(), a.descriptionText); break;
+                default: in.skip(tag);
+            }
+        }
+        return a;
+    }
+
+    private static long[] parseTimeRange(ProtoReader in) throws IOException {
+        long[] range = new long[2];
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 1: range[0] = in.readVarint(); break;
+                case 2: range[1] = in.readVarint(); break;
+                default: in.skip(tag);
+            }
+        }
+        return range;
+    }
+
+    private static void parseInformedEntity(ProtoReader in, Alert a) throws IOException {
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            switch (tag >>> 3) {
+                case 2: a.routeIds.add(in.readString()); break;
+                case 4: {
+                    TripDescriptor trip = new TripDescriptor();
+                    parseTrip(in.readMessage(), trip);
+                    if (trip.tripId != null) a.tripIds.add(trip.tripId);
+                    break;
+                }
+                case 5: a.stopIds.add(in.readString()); break;
+                default: in.skip(tag);
+            }
+        }
+    }
+
+    private static void parseTranslations(ProtoReader in, List<String[]> out) throws IOException {
+        while (in.hasMore()) {
+            int tag = in.readTag();
+            if (tag >>> 3 != 1) { in.skip(tag); continue; }
+            ProtoReader t = in.readMessage();
+            String text = null, language = null;
+            while (t.hasMore()) {
+                int inner = t.readTag();
+                switch (inner >>> 3) {
+                    case 1: text = t.readString(); break;
+                    case 2: language = t.readString(); break;
+                    default: t.skip(inner);
+                }
+            }
+            if (text != null) out.add(new String[]{language, text});
+        }
+    }
+
+    /**
+     * Identificación de un viaje dentro del feed
+     */
+    public static final class TripDescriptor {
+        /** schedule_relationship de un viaje cancelado */
+        public static final int CANCELED = 3;
+
+        public String tripId;
+        public String routeId;
+        /** Hora de inicio "HH:MM:SS" (solo viajes por frecuencia) */
+        public String startTime;
+        /** Día de servicio "YYYYMMDD" */
+        public String startDate;
+        public int scheduleRelationship;
+
+        public boolean isCanceled() { return scheduleRelationship == CANCELED; }
+    }
+
+    /**
+     * Previsión de un viaje: cancelación o retrasos por parada
+     */
+    public static final class TripUpdate {
+        public final TripDescriptor trip = new TripDescriptor();
+        /** Actualizaciones por parada en orden de recorrido */
+        public final List<StopTimeUpdate> stopTimeUpdates = new ArrayList<>();
+        public long timestamp;
+        /** Retraso de todo el viaje cuando no hay datos por parada */
+        public int delay;
+        public boolean hasDelay;
+    }
+
+    /**
+     * Previsión de llegada y salida en una parada del viaje
+     */
+    public static final class StopTimeUpdate {
+        /** schedule_relationship de una parada en la que el bus no para */
+        public static final int SKIPPED = 1;
+        /** schedule_relationship de una parada sin previsión (se usa el horario) */
+        public static final int NO_DATA = 2;
+
+        public int stopSequence = -1;
+        public String stopId;
+        public StopTimeEvent arrival;
+        public StopTimeEvent departure;
+        public int scheduleRelationship;
+    }
+
+    /**
+     * Hora prevista como retraso respecto al horario u hora absoluta
+     */
+    public static final class StopTimeEvent {
+        public int delay;
+        public boolean hasDelay;
+        /** Hora en segundos Unix (0 si no viene) */
+        public long time;
+    }
+
+    /**
+     * Posición de un vehículo en servicio
+     */
+    public static final class VehiclePosition {
+        public final TripDescriptor trip = new TripDescriptor();
+        public String vehicleId;
+        public String label;
+        public boolean hasPosition;
+        public float latitude;
+        public float longitude;
+        public float bearing;
+        /** Metros por segundo */
+        public float speed;
+        public int currentStopSequence = -1;
+        public String stopId;
+        public long timestamp;
+    }
+
+    /**
+     * Aviso de servicio con las líneas, paradas y viajes afectados
+     */
+    public static final class Alert {
+        /** Pares {inicio, fin} en segundos Unix; 0 = sin límite */
+        public final List<long[]> activePeriods = new ArrayList<>();
+        public final List<String> routeIds = new ArrayList<>();
+        public final List<String> stopIds = new ArrayList<>();
+        public final List<String> tripIds = new ArrayList<>();
+        public int cause;
+        public int effect;
+        final List<String[]> headerText = new ArrayList<>();
+        final List<String[]> descriptionText = new ArrayList<>();
+
+        /** Título en el idioma pedido, o en el primero disponible */
+        public String getHeader(String language) { return translate(headerText, language); }
+
+        /** Descripción en el idioma pedido, o en el primero disponible */
+        public String getDescription(String language) { return translate(descriptionText, language); }
+
+        /** Indica si el aviso está vigente en un instante (segundos Unix) */
+        public boolean isActive(long epochSeconds) {
+            if (activePeriods.isEmpty()) return true;
+            for (long[] p : activePeriods) {
+                if ((p[0] == 0 || epochSeconds >= p[0]) && (p[1] == 0 || epochSeconds < p[1])) return true;
+            }
+            return false;
+        }
+
+        private static String translate(List<String[]> texts, String language) {
+            if (texts.isEmpty()) return null;
+            for (String[] t : texts) {
+                if (language != null && language.equalsIgnoreCase(t[0])) return t[1];
+            }
+            return texts.get(0)[1];
+        }
+    }
+
+    /**
+     * Lector del formato binario de protobuf sobre un trozo de un array
+     */
+    private static final class ProtoReader {
+        private final byte[] buf;
+        private int pos;
+        private final int limit;
+
+        ProtoReader(byte[] buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        boolean hasMore() { return pos < limit; }
+
+        int readTag() throws IOException { return (int) readVarint(); }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) throw new IOException("Truncated varint");
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        int readFixed32() throws IOException {
+            if (limit - pos < 4) throw new IOException("Truncated fixed32");
+            int v = (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8 | (buf[pos + 2] & 0xFF) << 16 | (buf[pos + 3] & 0xFF) << 24;
+            pos += 4;
+            return v;
+        }
+
+        ProtoReader readMessage() throws IOException {
+            int length = readLength();
+            ProtoReader sub = new ProtoReader(buf, pos, pos + length);
+            pos += length;
+            return sub;
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        void skip(int tag) throws IOException {
+            switch (tag & 7) {
+                case 0: readVarint(); break;
+                case 1: advance(8); break;
+                case 2: advance(readLength()); break;
+                case 5: advance(4); break;
+                default: throw new IOException("Unsupported wire type " + (tag & 7));
+            }
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > limit - pos) throw new IOException("Truncated field");
+            return (int) length;
+        }
+
+        private void advance(int n) throws IOException {
+            if (n > limit - pos) throw new IOException("Truncated field");
+            pos += n;
+        }
+    }
+}
@@ -0,0 +1,1028 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Horario GTFS en memoria con estructuras compactas para el enrutado (RAPTOR).
+ * <p>
+ * Los viajes con la misma secuencia de paradas y línea se agrupan en patrones; dentro de cada
+ * patrón los viajes están ordenados por hora y no se adelantan entre sí, de modo que el primer
+ * viaje utilizable desde una parada se encuentra con búsqueda binaria. Las paradas guardan los
+ * patrones que pasan por ellas, los transbordos a pie hacia paradas cercanas y sus salidas
+ * ordenadas por hora (para el panel de próximas salidas).
+ * <p>
+ * Los viajes de frequencies.txt no se expanden: cada viaje plantilla forma un patrón propio con sus
+ * reglas (inicio, fin, intervalo) y las salidas concretas se generan al consultar
+ * (ver {@link #frequencyShift}).
+ * <p>
+ * Es inmutable una vez construido (salvo la capa de tiempo real, que se sustituye entera con
+ * {@link #setRealtime}) y no depende de Android. Sus vectores se pueden volcar tal cual a un fichero
+ * ({@link #write}) para cargarlo ya compilado, sin repetir la agrupación en patrones ni los índices.
+ */
+public final class GtfsTimetable {
+
+    /** Velocidad a pie (80 m/min, la misma que usa el resto del enrutado local) */
+    public static final double WALK_METERS_PER_SECOND = 80.0 / 60.0;
+    /** Distancia máxima de los transbordos a pie entre paradas */
+    public static final double MAX_TRANSFER_METERS = 300.0;
+    /** Valor de {@link #frequencyShift} cuando no quedan salidas */
+    public static final int NO_FREQUENCY_DEPARTURE = Integer.MIN_VALUE;
+
+    private static final int VERSION = 1;
+
+    // Paradas
+    final String[] stopIds;
+    final String[] stopNames;
+    final double[] stopLat;
+    final double[] stopLon;
+    private final Map<String, Integer> stopIndex;
+
+    // Líneas GTFS
+    final String[] routeIds;
+    final String[] routeShortNames;
+    final String[] routeColors;
+
+    // Servicios (calendar / calendar_dates)
+    final String[] serviceIds;
+    final int[] serviceWeekdays;    // bit 0 = lunes ... bit 6 = domingo
+    final int[] serviceStartDate;   // yyyymmdd
+    final int[] serviceEndDate;     // yyyymmdd
+    final int[][] serviceAddedDates;   // ordenadas
+    final int[][] serviceRemovedDates; // ordenadas
+
+    // Viajes
+    final String[] tripIds;
+    final String[] tripHeadsigns;
+    final int[] tripRoute;
+    final int[] tripService;
+    final int[] tripPattern;
+    final int[] tripTimeOffset;     // posición de la primera hora del viaje en arrivals/departures
+    private final Map<String, Integer> tripIndex;
+    final int[] arrivals;           // segundos desde medianoche, alineados con las paradas del patrón
+    final int[] departures;
+
+    // Patrones
+    final int[] patternRoute;
+    final int[] patternStopOffset;  // tamaño nPatterns + 1
+    final int[] patternStops;
+    final int[] patternTripOffset;  // tamaño nPatterns + 1; los viajes de un patrón son contiguos y están ordenados por hora
+
+    // Reglas de frecuencia: un patrón con reglas solo contiene su viaje plantilla
+    final int[] patternFrequencyOffset; // tamaño nPatterns + 1
+    final int[] frequencyStart;     // salida de la primera parada del primer viaje
+    final int[] frequencyEnd;       // sin salidas a partir de esta hora
+    final int[] frequencyHeadway;   // segundos entre salidas
+
+    // Parada -> patrones que pasan por ella (y posición de la parada en el patrón)
+    final int[] stopPatternOffset;  // tamaño nStops + 1
+    final int[] stopPatterns;
+    final int[] stopPatternPositions;
+
+    // Salidas de cada parada ordenadas por hora (sin la última parada de cada viaje)
+    final int[] stopDepartureOffset; // tamaño nStops + 1
+    final int[] stopDepartureTimes;
+    final int[] stopDepartureTrips;
+    final int[] stopDeparturePositions;
+
+    // Transbordos a pie entre paradas
+    final int[] transferOffset;     // tamaño nStops + 1
+    final int[] transferTargets;
+    final int[] transferSeconds;
+
+    // Retrasos y cancelaciones en vigor (GTFS-Realtime)
+    private volatile RealtimeOverlay realtime = RealtimeOverlay.EMPTY;
+    // Huella del volcado, calculada al pedirla (-1 hasta entonces)
+    private volatile long fingerprint = -1;
+    // Última llegada de cualquier viaje, calculada al pedirla (-1 hasta entonces)
+    private volatile int latestArrival = -1;
+
+    private GtfsTimetable(Builder b) {
+        int nStops = b.stopIds.size();
+        stopIds = b.stopIds.toArray(new String[0]);
+        stopNames = b.stopNames.toArray(new String[0]);
+        stopLat = toDoubleArray(b.stopLat);
+        stopLon = toDoubleArray(b.stopLon);
+        stopIndex = b.stopIndex;
+
+        routeIds = b.routeIds.toArray(new String[0]);
+        routeShortNames = b.routeShortNames.toArray(new String[0]);
+        routeColors = b.routeColors.toArray(new String[0]);
+
+        int nServices = b.serviceIds.size();
+        serviceIds = b.serviceIds.toArray(new String[0]);
+        serviceWeekdays = toIntArray(b.serviceWeekdays);
+        serviceStartDate = toIntArray(b.serviceStart);
+        serviceEndDate = toIntArray(b.serviceEnd);
+        serviceAddedDates = new int[nServices][];
+        serviceRemovedDates = new int[nServices][];
+        for (int s = 0; s < nServices; s++) {
+            serviceAddedDates[s] = sortedArray(b.serviceAdded.get(s));
+            serviceRemovedDates[s] = sortedArray(b.serviceRemoved.get(s));
+        }
+
+        // Ordenar las horas de cada viaje por secuencia y descartar viajes de menos de 2 paradas
+        int nRawTrips = b.tripIds.size();
+        List<int[]> tripStops = new ArrayList<>();   // por viaje: paradas en orden
+        List<int[]> tripArr = new ArrayList<>();
+        List<int[]> tripDep = new ArrayList<>();
+        List<Integer> keptTrips = new ArrayList<>();
+        for (int t = 0; t < nRawTrips; t++) {
+            List<int[]> rows = b.tripStopTimes.get(t);
+            if (rows == null || rows.size() < 2) continue;
+            Collections.sort(rows, (x, y) -> Integer.compare(x[0], y[0]));
+            int n = rows.size();
+            int[] st = new int[n], ar = new int[n], de = new int[n];
+            for (int i = 0; i < n; i++) {
+                int[] row = rows.get(i);
+                st[i] = row[1];
+                ar[i] = row[2];
+                de[i] = Math.max(row[2], row[3]);
+            }
+            keptTrips.add(t);
+            tripStops.add(st);
+            tripArr.add(ar);
+            tripDep.add(de);
+        }
+
+        // Agrupar por (línea, secuencia de paradas) y ordenar por salida en la primera parada.
+        // Las plantillas de frecuencia forman un grupo propio cada una.
+        Map<String, List<Integer>> groups = new HashMap<>();
+        List<String> groupOrder = new ArrayList<>();
+        for (int k = 0; k < keptTrips.size(); k++) {
+            boolean template = !b.tripFrequencies.get(keptTrips.get(k)).isEmpty();
+            String key = template ? "freq:" + k
+                    : b.tripRoute.get(keptTrips.get(k)) + ":" + Arrays.toString(tripStops.get(k));
+            List<Integer> g = groups.get(key);
+            if (g == null) {
+                g = new ArrayList<>();
+                groups.put(key, g);
+                groupOrder.add(key);
+            }
+            g.add(k);
+        }
+
+        // Dividir cada grupo en patrones sin adelantamientos (FIFO en todas las paradas)
+        List<List<Integer>> patterns = new ArrayList<>();
+        for (String key : groupOrder) {
+            List<Integer> g = groups.get(key);
+            Collections.sort(g, (x, y) -> Integer.compare(tripDep.get(x)[0], tripDep.get(y)[0]));
+            List<List<Integer>> split = new ArrayList<>();
+            for (int k : g) {
+                List<Integer> target = null;
+                for (List<Integer> candidate : split) {
+                    if (notOvertaking(tripArr, tripDep, candidate.get(candidate.size() - 1), k)) {
+                        target = candidate;
+                        break;
+                    }
+                }
+                if (target == null) {
+                    target = new ArrayList<>();
+                    split.add(target);
+                }
+                target.add(k);
+            }
+            patterns.addAll(split);
+        }
+
+        int nPatterns = patterns.size();
+        int nTrips = keptTrips.size();
+        tripIds = new String[nTrips];
+        tripHeadsigns = new String[nTrips];
+        tripRoute = new int[nTrips];
+        tripService = new int[nTrips];
+        tripPattern = new int[nTrips];
+        tripTimeOffset = new int[nTrips];
+        tripIndex = new HashMap<>(nTrips * 2);
+        patternRoute = new int[nPatterns];
+        patternStopOffset = new int[nPatterns + 1];
+        patternTripOffset = new int[nPatterns + 1];
+
+        int totalPatternStops = 0, totalTimes = 0;
+        for (List<Integer> p : patterns) {
+            int len = tripStops.get(p.get(0)).length;
+            totalPatternStops += len;
+            totalTimes += len * p.size();
+        }
+        patternStops = new int[totalPatternStops];
+        arrivals = new int[totalTimes];
+        departures = new int[totalTimes];
+
+        int stopCursor = 0, tripCursor = 0, timeCursor = 0;
+        for (int p = 0; p < nPatterns; p++) {
+            List<Integer> trips = patterns.get(p);
+            int[] stops = tripStops.get(trips.get(0));
+            patternRoute[p] = b.tripRoute.get(keptTrips.get(trips.get(0)));
+            patternStopOffset[p] = stopCursor;
+            System.arraycopy(stops, 0, patternStops, stopCursor, stops.length);
+            stopCursor += stops.length;
+            patternTripOffset[p] = tripCursor;
+            for (int k : trips) {
+                int raw = keptTrips.get(k);
+                int t = tripCursor;
+                tripIds[t] = b.tripIds.get(raw);
+                tripIndex.put(tripIds[t], t);
+                tripHeadsigns[t] = b.tripHeadsigns.get(raw);
+                tripRoute[t] = b.tripRoute.get(raw);
+                tripService[t] = b.tripService.get(raw);
+                tripPattern[t] = p;
+                tripTimeOffset[t] = timeCursor;
+                System.arraycopy(tripArr.get(k), 0, arrivals, timeCursor, stops.length);
+                System.arraycopy(tripDep.get(k), 0, departures, timeCursor, stops.length);
+                timeCursor += stops.length;
+                tripCursor++;
+            }
+        }
+        patternStopOffset[nPatterns] = stopCursor;
+        patternTripOffset[nPatterns] = tripCursor;
+
+        // Reglas de frecuencia de cada patrón plantilla, ordenadas por inicio
+        patternFrequencyOffset = new int[nPatterns + 1];
+        List<int[]> rules = new ArrayList<>();
+        for (int p = 0; p < nPatterns; p++) {
+            patternFrequencyOffset[p] = rules.size();
+            List<int[]> own = new ArrayList<>(b.tripFrequencies.get(keptTrips.get(patterns.get(p).get(0))));
+            Collections.sort(own, (x, y) -> Integer.compare(x[0], y[0]));
+            for (int[] rule : own) {
+                if (rule[2] > 0 && rule[1] > rule[0]) rules.add(rule);
+            }
+        }
+        patternFrequencyOffset[nPatterns] = rules.size();
+        frequencyStart = new int[rules.size()];
+        frequencyEnd = new int[rules.size()];
+        frequencyHeadway = new int[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            frequencyStart[i] = rules.get(i)[0];
+            frequencyEnd[i] = rules.get(i)[1];
+            frequencyHeadway[i] = rules.get(i)[2];
+        }
+
+        // Índice parada -> (patrón, posición)
+        int[] counts = new int[nStops];
+        for (int i = 0; i < patternStops.length; i++) counts[patternStops[i]]++;
+        stopPatternOffset = prefixSums(counts);
+        stopPatterns = new int[patternStops.length];
+        stopPatternPositions = new int[patternStops.length];
+        int[] fill = Arrays.copyOf(stopPatternOffset, nStops);
+        for (int p = 0; p < nPatterns; p++) {
+            for (int i = patternStopOffset[p]; i < patternStopOffset[p + 1]; i++) {
+                int s = patternStops[i];
+                stopPatterns[fill[s]] = p;
+                stopPatternPositions[fill[s]] = i - patternStopOffset[p];
+                fill[s]++;
+            }
+        }
+
+        // Salidas por parada: se ordenan por (hora, posición en el vector de horas)
+        int[] departureCounts = new int[nStops];
+        for (int t = 0; t < nTrips; t++) {
+            int p = tripPattern[t];
+            if (isFrequencyPattern(p)) continue;
+            for (int i = patternStopOffset[p]; i < patternStopOffset[p + 1] - 1; i++) departureCounts[patternStops[i]]++;
+        }
+        stopDepartureOffset = prefixSums(departureCounts);
+        long[] keyed = new long[stopDepartureOffset[nStops]];
+        int[] dfill = Arrays.copyOf(stopDepartureOffset, nStops);
+        for (int t = 0; t < nTrips; t++) {
+            int p = tripPattern[t];
+            if (isFrequencyPattern(p)) continue;
+            int len = patternStopOffset[p + 1] - patternStopOffset[p];
+            for (int i = 0; i < len - 1; i++) {
+                int s = patternStops[patternStopOffset[p] + i];
+                int timeIndex = tripTimeOffset[t] + i;
+                keyed[dfill[s]++] = ((long) departures[timeIndex] << 32) | timeIndex;
+            }
+        }
+        stopDepartureTimes = new int[keyed.length];
+        stopDepartureTrips = new int[keyed.length];
+        stopDeparturePositions = new int[keyed.length];
+        for (int s = 0; s < nStops; s++) {
+            Arrays.sort(keyed, stopDepartureOffset[s], stopDepartureOffset[s + 1]);
+        }
+        for (int i = 0; i < keyed.length; i++) {
+            int timeIndex = (int) keyed[i];
+            // tripTimeOffset es creciente: el viaje es el último cuyo inicio no supera el índice
+            int t = Arrays.binarySearch(tripTimeOffset, timeIndex);
+            if (t < 0) t = -t - 2;
+            stopDepartureTimes[i] = (int) (keyed[i] >>> 32);
+            stopDepartureTrips[i] = t;
+            stopDeparturePositions[i] = timeIndex - tripTimeOffset[t];
+        }
+
+        // Transbordos a pie entre paradas próximas
+        List<int[]> transfers = new ArrayList<>();
+        int[] transferCounts = new int[nStops];
+        for (int a = 0; a < nStops; a++) {
+            for (int c = 0; c < nStops; c++) {
+                if (a == c) continue;
+                double d = distanceMeters(stopLat[a], stopLon[a], stopLat[c], stopLon[c]);
+                if (d <= MAX_TRANSFER_METERS) {
+                    transfers.add(new int[]{a, c, (int) Math.ceil(d / WALK_METERS_PER_SECOND)});
+                    transferCounts[a]++;
+                }
+            }
+        }
+        transferOffset = prefixSums(transferCounts);
+        transferTargets = new int[transfers.size()];
+        transferSeconds = new int[transfers.size()];
+        int[] tfill = Arrays.copyOf(transferOffset, nStops);
+        for (int[] tr : transfers) {
+            int i = tfill[tr[0]]++;
+            transferTargets[i] = tr[1];
+            transferSeconds[i] = tr[2];
+        }
+    }
+
+    private GtfsTimetable(DataInputStream data) throws IOException {
+        if (data.readInt() != VERSION) throw new IOException("Horario compilado con otra versión");
+        stopIds = readStrings(data);
+        stopNames = readStrings(data);
+        stopLat = readDoubles(data);
+        stopLon = readDoubles(data);
+        stopIndex = indexOf(stopIds);
+
+        routeIds = readStrings(data);
+        routeShortNames = readStrings(data);
+        routeColors = readStrings(data);
+
+        serviceIds = readStrings(data);
+        serviceWeekdays = readInts(data);
+        serviceStartDate = readInts(data);
+        serviceEndDate = readInts(data);
+        serviceAddedDates = new int[serviceIds.length][];
+        serviceRemovedDates = new int[serviceIds.length][];
+        for (int s = 0; s < serviceIds.length; s++) {
+            serviceAddedDates[s] = readInts(data);
+            serviceRemovedDates[s] = readInts(data);
+        }
+
+        tripIds = readStrings(data);
+        tripHeadsigns = readStrings(data);
+        tripRoute = readInts(data);
+        tripService = readInts(data);
+        tripPattern = readInts(data);
+        tripTimeOffset = readInts(data);
+        tripIndex = indexOf(tripIds);
+        arrivals = readInts(data);
+        departures = readInts(data);
+
+        patternRoute = readInts(data);
+        patternStopOffset = readInts(data);
+        patternStops = readInts(data);
+        patternTripOffset = readInts(data);
+
+        patternFrequencyOffset = readInts(data);
+        frequencyStart = readInts(data);
+        frequencyEnd = readInts(data);
+        frequencyHeadway = readInts(data);
+
+        stopPatternOffset = readInts(data);
+        stopPatterns = readInts(data);
+        stopPatternPositions = readInts(data);
+
+        stopDepartureOffset = readInts(data);
+        stopDepartureTimes = readInts(data);
+        stopDepartureTrips = readInts(data);
+        stopDeparturePositions = readInts(data);
+
+        transferOffset = readInts(data);
+        transferTargets = readInts(data);
+        transferSeconds = readInts(data);
+    }
+
+    /**
+     * Vuelca los vectores del horario en el orden en que los lee {@link #read}
+     */
+    void write(DataOutputStream data) throws IOException {
+        data.writeInt(VERSION);
+        writeStrings(data, stopIds);
+        writeStrings(data, stopNames);
+        writeDoubles(data, stopLat);
+        writeDoubles(data, stopLon);
+        writeStrings(data, routeIds);
+        writeStrings(data, routeShortNames);
+        writeStrings(data, routeColors);
+        writeStrings(data, serviceIds);
+        for (int[] array : new int[][]{serviceWeekdays, serviceStartDate, serviceEndDate}) writeInts(data, array);
+        for (int s = 0; s < serviceIds.length; s++) {
+            writeInts(data, serviceAddedDates[s]);
+            writeInts(data, serviceRemovedDates[s]);
+        }
+        writeStrings(data, tripIds);
+        writeStrings(data, tripHeadsigns);
+        for (int[] array : new int[][]{tripRoute, tripService, tripPattern, tripTimeOffset, arrivals, departures,
+                patternRoute, patternStopOffset, patternStops, patternTripOffset,
+                patternFrequencyOffset, frequencyStart, frequencyEnd, frequencyHeadway,
+                stopPatternOffset, stopPatterns, stopPatternPositions,
+                stopDepartureOffset, stopDepartureTimes, stopDepartureTrips, stopDeparturePositions,
+                transferOffset, transferTargets, transferSeconds}) {
+            writeInts(data, array);
+        }
+    }
+
+    /**
+     * Lee un horario escrito con {@link #write}
+     * @throws IOException Si es de otra versión, está truncado o sus índices no cuadran
+     */
+    static GtfsTimetable read(DataInputStream data) throws IOException {
+        GtfsTimetable tt = new GtfsTimetable(data);
+        int nStops = tt.stopIds.length, nPatterns = tt.patternRoute.length;
+        if (tt.stopPatternOffset.length != nStops + 1 || tt.stopDepartureOffset.length != nStops + 1
+                || tt.transferOffset.length != nStops + 1 || tt.patternStopOffset.length != nPatterns + 1
+                || tt.patternTripOffset.length != nPatterns + 1 || tt.patternFrequencyOffset.length != nPatterns + 1
+                || tt.patternTripOffset[nPatterns] != tt.tripIds.length
+                || tt.arrivals.length != tt.departures.length) {
+            throw new IOException("Horario compilado no válido");
+        }
+        return tt;
+    }
+
+    // ---- Consultas públicas ----
+
+    public int getStopCount() { return stopIds.length; }
+
+    /**
+     * Huella del horario: CRC32 de su volcado con {@link #write}, así que cambia con cualquier parada,
+     * viaje, calendario o transbordo. Sirve para descartar lo calculado con otro horario.
+     */
+    public long getFingerprint() {
+        long value = fingerprint;
+        if (value >= 0) return value;
+        CRC32 crc = new CRC32();
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) { }
+
+            @Override
+            public void write(byte[] b, int off, int len) { }
+        };
+        try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(discard, crc)))) {
+            write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        value = crc.getValue();
+        fingerprint = value;
+        return value;
+    }
+
+    /**
+     * Hora de llegada más tardía de cualquier viaje, contando las salidas de las reglas de frecuencia.
+     * Pasa de 24 h si hay viajes que cruzan la medianoche (siguen circulando el día siguiente).
+     */
+    public int getLatestArrival() {
+        int value = latestArrival;
+        if (value >= 0) return value;
+        value = 0;
+        for (int time : arrivals) value = Math.max(value, time);
+        for (int p = 0; p < patternRoute.length; p++) {
+            if (!isFrequencyPattern(p)) continue;
+            int template = patternTripOffset[p];
+            int base = tripTimeOffset[template];
+            int duration = arrivals[base + getTripStopCount(template) - 1] - departures[base];
+            for (int r = patternFrequencyOffset[p]; r < patternFrequencyOffset[p + 1]; r++) {
+                value = Math.max(value, frequencyEnd[r] + duration);
+            }
+        }
+        latestArrival = value;
+        return value;
+    }
+
+    public String getStopId(int stop) { return stopIds[stop]; }
+
+    public String getStopName(int stop) { return stopNames[stop]; }
+
+    public double getStopLatitude(int stop) { return stopLat[stop]; }
+
+    public double getStopLongitude(int stop) { return stopLon[stop]; }
+
+    /**
+     * Índice interno de una parada a partir de su stop_id, o -1 si no existe
+     */
+    public int findStop(String stopId) {
+        Integer i = stopIndex.get(stopId);
+        return i != null ? i : -1;
+    }
+
+    public String getRouteShortName(int route) { return routeShortNames[route]; }
+
+    public String getRouteColor(int route) { return routeColors[route]; }
+
+    public int getTripCount() { return tripIds.length; }
+
+    public String getTripId(int trip) { return tripIds[trip]; }
+
+    /**
+     * Índice interno de un viaje a partir de su trip_id, o -1 si no existe
+     */
+    public int findTrip(String tripId) {
+        Integer i = tripIndex.get(tripId);
+        return i != null ? i : -1;
+    }
+
+    public String getTripHeadsign(int trip) { return tripHeadsigns[trip]; }
+
+    public int getTripRoute(int trip) { return tripRoute[trip]; }
+
+    public int getPatternCount() { return patternRoute.length; }
+
+    /** Nº de paradas del patrón del viaje */
+    public int getTripStopCount(int trip) {
+        int p = tripPattern[trip];
+        return patternStopOffset[p + 1] - patternStopOffset[p];
+    }
+
+    /** Parada en la posición indicada del recorrido del viaje */
+    public int getTripStop(int trip, int position) {
+        return patternStops[patternStopOffset[tripPattern[trip]] + position];
+    }
+
+    public int getTripArrival(int trip, int position) { return arrivals[tripTimeOffset[trip] + position]; }
+
+    public int getTripDeparture(int trip, int position) { return departures[tripTimeOffset[trip] + position]; }
+
+    /**
+     * Capa de tiempo real en vigor ({@link RealtimeOverlay#EMPTY} si no hay)
+     */
+    public RealtimeOverlay getRealtime() { return realtime; }
+
+    /**
+     * Sustituye la capa de tiempo real; las búsquedas que empiecen después ya la ven
+     *
+     * @param overlay Capa construida sobre este mismo horario
+     */
+    public void setRealtime(RealtimeOverlay overlay) {
+        if (overlay != RealtimeOverlay.EMPTY && overlay.timetable != this) {
+            throw new IllegalArgumentException("Overlay built for another timetable");
+        }
+        realtime = overlay;
+    }
+
+    /**
+     * Indica si el patrón se recorre por frecuencias (su único viaje es una plantilla)
+     */
+    public boolean isFrequencyPattern(int pattern) {
+        return patternFrequencyOffset[pattern] < patternFrequencyOffset[pattern + 1];
+    }
+
+    /**
+     * Primera salida generada por las reglas de frecuencia de un patrón desde la posición indicada
+     * a partir de {@code time}. Las horas del viaje resultante son las de la plantilla más el desfase.
+     *
+     * @return Desfase en segundos respecto a la plantilla, o {@link #NO_FREQUENCY_DEPARTURE} si no hay
+     */
+    public int frequencyShift(int pattern, int position, int time, BitSet activeServices) {
+        int template = patternTripOffset[pattern];
+        if (!activeServices.get(tripService[template])) return NO_FREQUENCY_DEPARTURE;
+        int base = tripTimeOffset[template];
+        int first = departures[base];
+        int offset = departures[base + position] - first;
+        for (int r = patternFrequencyOffset[pattern]; r < patternFrequencyOffset[pattern + 1]; r++) {
+            int start = frequencyStart[r], headway = frequencyHeadway[r];
+            int wait = time - offset - start;
+            int j = wait <= 0 ? 0 : (wait + headway - 1) / headway;
+            int tripStart = start + j * headway;
+            if (tripStart < frequencyEnd[r]) return tripStart - first;
+        }
+        return NO_FREQUENCY_DEPARTURE;
+    }
+
+    /**
+     * Última salida generada por las reglas de frecuencia de un patrón que llega a la posición indicada
+     * no más tarde de {@code time} (búsqueda hacia atrás, para llegar a una hora).
+     *
+     * @return Desfase en segundos respecto a la plantilla, o {@link #NO_FREQUENCY_DEPARTURE} si no hay
+     */
+    public int latestFrequencyShift(int pattern, int position, int time, BitSet activeServices) {
+        int template = patternTripOffset[pattern];
+        if (!activeServices.get(tripService[template])) return NO_FREQUENCY_DEPARTURE;
+        int base = tripTimeOffset[template];
+        int first = departures[base];
+        int offset = arrivals[base + position] - first;
+        for (int r = patternFrequencyOffset[pattern + 1] - 1; r >= patternFrequencyOffset[pattern]; r--) {
+            int start = frequencyStart[r], headway = frequencyHeadway[r];
+            int slack = time - offset - start;
+            if (slack < 0) continue;
+            int last = (frequencyEnd[r] - start - 1) / headway;
+            int j = Math.min(slack / headway, last);
+            return start + j * headway - first;
+        }
+        return NO_FREQUENCY_DEPARTURE;
+    }
+
+    /**
+     * Próximas salidas programadas de una parada a partir de una hora, solo de los viajes con servicio activo
+     *
+     * @param fromSeconds Hora mínima en segundos desde medianoche del día de servicio
+     * @param limit       Máximo de salidas devueltas
+     * @return Salidas ordenadas por hora
+     */
+    public List<Departure> nextDepartures(int stop, BitSet activeServices, int fromSeconds, int limit) {
+        return nextDepartures(stop, activeServices, fromSeconds, limit, RealtimeOverlay.EMPTY);
+    }
+
+    /**
+     * Próximas salidas de una parada con las horas de una capa de tiempo real: sin viajes cancelados ni
+     * los que no paran, y con los retrasos aplicados. La primera candidata se localiza con búsqueda binaria
+     * sobre las salidas programadas de la parada, adelantada lo que vaya el viaje más retrasado.
+     *
+     * @param fromSeconds Hora mínima en segundos desde medianoche del día de servicio
+     * @param limit       Máximo de salidas devueltas
+     * @return Salidas ordenadas por hora
+     */
+    public List<Departure> nextDepartures(int stop, BitSet activeServices, int fromSeconds, int limit, RealtimeOverlay overlay) {
+        List<Departure> out = new ArrayList<>();
+        if (limit <= 0) return out;
+        int lo = stopDepartureOffset[stop], hi = stopDepartureOffset[stop + 1];
+        int end = hi;
+        int scheduledFrom = fromSeconds - overlay.getMaxDelay();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (stopDepartureTimes[mid] < scheduledFrom) lo = mid + 1;
+            else hi = mid;
+        }
+        // Con retrasos el orden puede cambiar: la lista se mantiene ordenada y se sigue hasta que ninguna
+        // salida programada más tarde pueda entrar ya en ella
+        for (int i = lo; i < end; i++) {
+            if (out.size() >= limit && stopDepartureTimes[i] + overlay.getMinDelay() > out.get(limit - 1).time) break;
+            int trip = stopDepartureTrips[i];
+            int position = stopDeparturePositions[i];
+            if (!activeServices.get(tripService[trip]) || !overlay.stopsAt(trip, position)) continue;
+            int time = stopDepartureTimes[i] + overlay.departureDelay(trip, position);
+            if (time < fromSeconds) continue;
+            int at = out.size();
+            while (at > 0 && out.get(at - 1).time > time) at--;
+            out.add(at, new Departure(trip, position, time));
+            if (out.size() > limit) out.remove(limit);
+        }
+        // Salidas de los patrones por frecuencia que pasan por la parada, generadas al vuelo
+        boolean merged = false;
+        for (int i = stopPatternOffset[stop]; i < stopPatternOffset[stop + 1]; i++) {
+            int p = stopPatterns[i];
+            int position = stopPatternPositions[i];
+            if (!isFrequencyPattern(p) || position == patternStopOffset[p + 1] - patternStopOffset[p] - 1) continue;
+            int template = patternTripOffset[p];
+            int time = fromSeconds;
+            for (int n = 0; n < limit; n++) {
+                int shift = frequencyShift(p, position, time, activeServices);
+                if (shift == NO_FREQUENCY_DEPARTURE) break;
+                int departure = getTripDeparture(template, position) + shift;
+                out.add(new Departure(template, position, departure, shift));
+                time = departure + 1;
+                merged = true;
+            }
+        }
+        if (merged) {
+            Collections.sort(out, (x, y) -> Integer.compare(x.time, y.time));
+            if (out.size() > limit) out = new ArrayList<>(out.subList(0, limit));
+        }
+        return out;
+    }
+
+    /**
+     * Horas de todas las salidas activas de una parada entre dos horas (ambas incluidas), incluidas las
+     * generadas por frecuencia. Sin ordenar y con posibles repeticiones.
+     */
+    public int[] departureTimesBetween(int stop, BitSet activeServices, int fromSeconds, int toSeconds) {
+        int lo = stopDepartureOffset[stop], hi = stopDepartureOffset[stop + 1];
+        int end = hi;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (stopDepartureTimes[mid] < fromSeconds) lo = mid + 1;
+            else hi = mid;
+        }
+        List<Integer> out = new ArrayList<>();
+        for (int i = lo; i < end && stopDepartureTimes[i] <= toSeconds; i++) {
+            if (activeServices.get(tripService[stopDepartureTrips[i]])) out.add(stopDepartureTimes[i]);
+        }
+        for (int i = stopPatternOffset[stop]; i < stopPatternOffset[stop + 1]; i++) {
+            int p = stopPatterns[i];
+            int position = stopPatternPositions[i];
+            if (!isFrequencyPattern(p) || position == patternStopOffset[p + 1] - patternStopOffset[p] - 1) continue;
+            int template = patternTripOffset[p];
+            int time = fromSeconds;
+            while (true) {
+                int shift = frequencyShift(p, position, time, activeServices);
+                if (shift == NO_FREQUENCY_DEPARTURE) break;
+                int departure = getTripDeparture(template, position) + shift;
+                if (departure > toSeconds) break;
+                out.add(departure);
+                time = departure + 1;
+            }
+        }
+        return toIntArray(out);
+    }
+
+    /**
+     * Servicios activos en una fecha
+     * @param yyyymmdd  Fecha como entero (p. ej. 20240315)
+     * @param dayOfWeek Día de la semana de {@link Calendar} (Calendar.MONDAY ...)
+     */
+    public BitSet getActiveServices(int yyyymmdd, int dayOfWeek) {
+        int bit = weekdayBit(dayOfWeek);
+        BitSet active = new BitSet(serviceIds.length);
+        for (int s = 0; s < serviceIds.length; s++) {
+            boolean on = yyyymmdd >= serviceStartDate[s] && yyyymmdd <= serviceEndDate[s]
+                    && (serviceWeekdays[s] & bit) != 0;
+            if (Arrays.binarySearch(serviceAddedDates[s], yyyymmdd) >= 0) on = true;
+            if (Arrays.binarySearch(serviceRemovedDates[s], yyyymmdd) >= 0) on = false;
+            if (on) active.set(s);
+        }
+        return active;
+    }
+
+    /**
+     * Servicios activos en el día de la fecha indicada
+     */
+    public BitSet getActiveServices(Calendar day) {
+        return getActiveServices(serviceDate(day), day.get(Calendar.DAY_OF_WEEK));
+    }
+
+    /**
+     * Fecha como entero yyyymmdd
+     */
+    public static int serviceDate(Calendar day) {
+        return day.get(Calendar.YEAR) * 10000 + (day.get(Calendar.MONTH) + 1) * 100 + day.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * Paradas a menos de {@code radiusMeters}; si no hay ninguna, las {@code fallbackCount} más cercanas.
+     * @return Pares {parada, metros} ordenados por distancia
+     */
+    public List<int[]> stopsNear(double lat, double lon, double radiusMeters, int fallbackCount) {
+        List<int[]> all = new ArrayList<>(stopIds.length);
+        for (int s = 0; s < stopIds.length; s++) {
+            all.add(new int[]{s, (int) Math.round(distanceMeters(lat, lon, stopLat[s], stopLon[s]))});
+        }
+        Collections.sort(all, (x, y) -> Integer.compare(x[1], y[1]));
+        List<int[]> out = new ArrayList<>();
+        for (int[] e : all) {
+            if (e[1] <= radiusMeters) out.add(e);
+            else break;
+        }
+        if (out.isEmpty()) {
+            out.addAll(all.subList(0, Math.min(fallbackCount, all.size())));
+        }
+        return out;
+    }
+
+    /**
+     * Distancia en metros (haversine)
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        final double r = 6_371_000.0;
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return r * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    /**
+     * Salida de un viaje desde una parada
+     */
+    public static final class Departure {
+        public final int trip;
+        /** Posición de la parada en el recorrido del viaje */
+        public final int position;
+        /** Hora de salida en segundos desde medianoche del día de servicio (puede pasar de 24 h) */
+        public final int time;
+        /** Desfase respecto a las horas del viaje (distinto de 0 en salidas generadas por frecuencia) */
+        public final int timeShift;
+
+        Departure(int trip, int position, int time) {
+            this(trip, position, time, 0);
+        }
+
+        Departure(int trip, int position, int time, int timeShift) {
+            this.trip = trip;
+            this.position = position;
+            this.time = time;
+            this.timeShift = timeShift;
+        }
+    }
+
+    static int weekdayBit(int calendarDayOfWeek) {
+        // Calendar: SUNDAY=1 ... SATURDAY=7 -> bit 0 = lunes ... bit 6 = domingo
+        int mondayBased = (calendarDayOfWeek + 5) % 7;
+        return 1 << mondayBased;
+    }
+
+    private static boolean notOvertaking(List<int[]> arr, List<int[]> dep, int earlier, int later) {
+        int[] a1 = arr.get(earlier), d1 = dep.get(earlier), a2 = arr.get(later), d2 = dep.get(later);
+        for (int i = 0; i < a1.length; i++) {
+            if (a2[i] < a1[i] || d2[i] < d1[i]) return false;
+        }
+        return true;
+    }
+
+    private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+        data.writeInt(values.length);
+        for (int v : values) data.writeInt(v);
+    }
+
+    private static void writeDoubles(DataOutputStream data, double[] values) throws IOException {
+        data.writeInt(values.length);
+        for (double v : values) data.writeDouble(v);
+    }
+
+    private static void writeStrings(DataOutputStream data, String[] values) throws IOException {
+        data.writeInt(values.length);
+        for (String v : values) {
+            data.writeBoolean(v != null);
+            if (v != null) data.writeUTF(v);
+        }
+    }
+
+    private static int[] readInts(DataInputStream data) throws IOException {
+        int[] out = new int[readLength(data)];
+        for (int i = 0; i < out.length; i++) out[i] = data.readInt();
+        return out;
+    }
+
+    private static double[] readDoubles(DataInputStream data) throws IOException {
+        double[] out = new double[readLength(data)];
+        for (int i = 0; i < out.length; i++) out[i] = data.readDouble();
+        return out;
+    }
+
+    private static String[] readStrings(DataInputStream data) throws IOException {
+        String[] out = new String[readLength(data)];
+        for (int i = 0; i < out.length; i++) out[i] = data.readBoolean() ? data.readUTF() : null;
+        return out;
+    }
+
+    private static int readLength(DataInputStream data) throws IOException {
+        int n = data.readInt();
+        if (n < 0) throw new IOException("Horario compilado no válido");
+        return n;
+    }
+
+    private static Map<String, Integer> indexOf(String[] ids) {
+        Map<String, Integer> index = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) index.put(ids[i], i);
+        return index;
+    }
+
+    private static int[] prefixSums(int[] counts) {
+        int[] out = new int[counts.length + 1];
+        for (int i = 0; i < counts.length; i++) out[i + 1] = out[i] + counts[i];
+        return out;
+    }
+
+    private static int[] sortedArray(List<Integer> values) {
+        if (values == null) return new int[0];
+        int[] out = toIntArray(values);
+        Arrays.sort(out);
+        return out;
+    }
+
+    private static int[] toIntArray(List<Integer> values) {
+        int[] out = new int[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+
+    private static double[] toDoubleArray(List<Double> values) {
+        double[] out = new double[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+
+    /**
+     * Construye el horario a partir de las filas GTFS. Las referencias desconocidas (paradas,
+     * líneas o servicios inexistentes) se descartan.
+     */
+    public static final class Builder {
+        private final List<String> stopIds = new ArrayList<>();
+        private final List<String> stopNames = new ArrayList<>();
+        private final List<Double> stopLat = new ArrayList<>();
+        private final List<Double> stopLon = new ArrayList<>();
+        private final Map<String, Integer> stopIndex = new HashMap<>();
+
+        private final List<String> routeIds = new ArrayList<>();
+        private final List<String> routeShortNames = new ArrayList<>();
+        private final List<String> routeColors = new ArrayList<>();
+        private final Map<String, Integer> routeIndex = new HashMap<>();
+
+        private final List<String> serviceIds = new ArrayList<>();
+        private final List<Integer> serviceWeekdays = new ArrayList<>();
+        private final List<Integer> serviceStart = new ArrayList<>();
+        private final List<Integer> serviceEnd = new ArrayList<>();
+        private final List<List<Integer>> serviceAdded = new ArrayList<>();
+        private final List<List<Integer>> serviceRemoved = new ArrayList<>();
+        private final Map<String, Integer> serviceIndex = new HashMap<>();
+
+        private final List<String> tripIds = new ArrayList<>();
+        private final List<String> tripHeadsigns = new ArrayList<>();
+        private final List<Integer> tripRoute = new ArrayList<>();
+        private final List<Integer> tripService = new ArrayList<>();
+        private final List<List<int[]>> tripStopTimes = new ArrayList<>();
+        private final List<List<int[]>> tripFrequencies = new ArrayList<>();
+        private final Map<String, Integer> tripIndex = new HashMap<>();
+
+        public Builder addStop(String stopId, String name, double lat, double lon) {
+            if (stopId == null || stopIndex.containsKey(stopId)) return this;
+            stopIndex.put(stopId, stopIds.size());
+            stopIds.add(stopId);
+            stopNames.add(name);
+            stopLat.add(lat);
+            stopLon.add(lon);
+            return this;
+        }
+
+        public Builder addRoute(String routeId, String shortName, String color) {
+            if (routeId == null || routeIndex.containsKey(routeId)) return this;
+            routeIndex.put(routeId, routeIds.size());
+            routeIds.add(routeId);
+            routeShortNames.add(shortName);
+            routeColors.add(color);
+            return this;
+        }
+
+        /**
+         * Añade un servicio de calendar.txt
+         * @param weekdays Días activos, bit 0 = lunes ... bit 6 = domingo
+         */
+        public Builder addService(String serviceId, int weekdays, int startDate, int endDate) {
+            int s = service(serviceId);
+            serviceWeekdays.set(s, weekdays);
+            serviceStart.set(s, startDate);
+            serviceEnd.set(s, endDate);
+            return this;
+        }
+
+        /**
+         * Añade una excepción de calendar_dates.txt (1 = se añade el servicio, 2 = se elimina)
+         */
+        public Builder addServiceException(String serviceId, int date, int exceptionType) {
+            int s = service(serviceId);
+            if (exceptionType == 1) serviceAdded.get(s).add(date);
+            else if (exceptionType == 2) serviceRemoved.get(s).add(date);
+            return this;
+        }
+
+        public Builder addTrip(String tripId, String routeId, String serviceId, String headsign) {
+            Integer route = routeIndex.get(routeId);
+            if (tripId == null || route == null || serviceId == null || tripIndex.containsKey(tripId)) return this;
+            tripIndex.put(tripId, tripIds.size());
+            tripIds.add(tripId);
+            tripHeadsigns.add(headsign);
+            tripRoute.add(route);
+            tripService.add(service(serviceId));
+            tripStopTimes.add(new ArrayList<>());
+            tripFrequencies.add(new ArrayList<>());
+            return this;
+        }
+
+        public Builder addStopTime(String tripId, String stopId, int stopSequence, int arrivalSeconds, int departureSeconds) {
+            Integer trip = tripIndex.get(tripId);
+            Integer stop = stopIndex.get(stopId);
+            if (trip == null || stop == null) return this;
+            tripStopTimes.get(trip).add(new int[]{stopSequence, stop, arrivalSeconds, departureSeconds});
+            return this;
+        }
+
+        /**
+         * Añade una regla de frequencies.txt: el viaje pasa a ser una plantilla que sale de la primera
+         * parada cada {@code headwaySeconds} desde {@code startSeconds} hasta antes de {@code endSeconds}
+         */
+        public Builder addFrequency(String tripId, int startSeconds, int endSeconds, int headwaySeconds) {
+            Integer trip = tripIndex.get(tripId);
+            if (trip == null) return this;
+            tripFrequencies.get(trip).add(new int[]{startSeconds, endSeconds, headwaySeconds});
+            return this;
+        }
+
+        public GtfsTimetable build() {
+            return new GtfsTimetable(this);
+        }
+
+        private int service(String serviceId) {
+            Integer s = serviceIndex.get(serviceId);
+            if (s != null) return s;
+            s = serviceIds.size();
+            serviceIndex.put(serviceId, s);
+            serviceIds.add(serviceId);
+            serviceWeekdays.add(0);
+            serviceStart.add(0);
+            serviceEnd.add(0);
+            serviceAdded.add(new ArrayList<>());
+            serviceRemoved.add(new ArrayList<>());
+            return s;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.ourenbus2.util.gtfs;
+
+import android.content.Context;
+
+import com.example.ourenbus2.database.AppDatabase;
+import com.example.ourenbus2.database.dao.GtfsDao;
+import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Carga (una sola vez) el horario GTFS en un {@link GtfsTimetable} en memoria. Se lee del horario
+ * compilado al construir la app ({@link CompiledTimetable}); si la app no lo incluye, se construye a
+ * partir de la base de datos. Debe llamarse fuera del hilo principal.
+ */
+public class GtfsTimetableProvider {
+
+    /** Horario compilado por el módulo gtfs-compiler */
+    public static final String ASSET_NAME = "ourense.timetable";
+
+    private static volatile GtfsTimetable timetable;
+    private static volatile CompiledTimetable compiled;
+
+    /**
+     * Devuelve el horario en memoria, cargándolo la primera vez
+     * @return Horario, o null si no hay horario compilado ni datos GTFS importados
+     */
+    public static GtfsTimetable get(Context context) {
+        GtfsTimetable current = timetable;
+        if (current != null) return current;
+        synchronized (GtfsTimetableProvider.class) {
+            if (timetable == null) {
+                compiled = loadCompiled(context);
+                timetable = compiled != null ? compiled.getTimetable() : load(AppDatabase.getInstance(context).gtfsDao());
+            }
+            return timetable;
+        }
+    }
+
+    /**
+     * Horario compilado del que sale el actual, con los trazados de los viajes
+     * @return Horario compilado, o null si el actual se ha construido desde la BD
+     */
+    public static CompiledTimetable getCompiled(Context context) {
+        GtfsTimetable tt = get(context);
+        CompiledTimetable current = compiled;
+        return current != null && current.getTimetable() == tt ? current : null;
+    }
+
+    /**
+     * Descarta el horario cargado (p. ej. tras reimportar el feed)
+     */
+    public static void invalidate() {
+        synchronized (GtfsTimetableProvider.class) {
+            timetable = null;
+            compiled = null;
+        }
+    }
+
+    private static CompiledTimetable loadCompiled(Context context) {
+        try (InputStream in = context.getAssets().open(ASSET_NAME)) {
+            return CompiledTimetable.read(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static GtfsTimetable load(GtfsDao dao) {
+        List<GtfsStopEntity> stops = dao.getAllStops();
+        if (stops == null || stops.isEmpty()) return null;
+        return CompiledTimetable.buildTimetable(stops, dao.getAllRoutes(), dao.getAllCalendars(),
+                dao.getAllCalendarDates(), dao.getAllPatternStops(), dao.getAllTimeProfiles(), dao.getAllTrips(),
+                dao.getAllFrequencies());
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Isócrona sobre una rejilla regular: tiempo mínimo para llegar a cada celda saliendo de un punto.
+ * <p>
+ * Se calcula con una búsqueda RAPTOR de uno a todos ({@link RaptorRouter#earliestArrivals}) y después
+ * cada parada alcanzada "pinta" a pie el disco de celdas que le da tiempo a cubrir, igual que el origen.
+ * Todo trabaja sobre el horario compacto en memoria, sin consultas a la base de datos.
+ * <p>
+ * La fila 0 es la más al norte y la columna 0 la más al oeste.
+ */
+public final class Isochrone {
+
+    /** Lado de cada celda de la rejilla */
+    public static final double CELL_METERS = 50.0;
+    /** Valor de las celdas a las que no se llega en el tiempo máximo */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    private final double north;
+    private final double west;
+    private final double latStep;
+    private final double lonStep;
+    private final int rows;
+    private final int cols;
+    private final int[] seconds;
+
+    private Isochrone(double north, double west, double latStep, double lonStep, int rows, int cols) {
+        this.north = north;
+        this.west = west;
+        this.latStep = latStep;
+        this.lonStep = lonStep;
+        this.rows = rows;
+        this.cols = cols;
+        this.seconds = new int[rows * cols];
+        Arrays.fill(seconds, UNREACHABLE);
+    }
+
+    /**
+     * Calcula la isócrona desde un punto
+     *
+     * @param activeServices   Servicios activos en el día
+     * @param departureSeconds Hora de salida en segundos desde medianoche
+     * @param maxSeconds       Duración máxima del viaje
+     */
+    public static Isochrone compute(GtfsTimetable tt, BitSet activeServices, double lat, double lon,
+                                    int departureSeconds, int maxSeconds) {
+        int[] arrivals = new RaptorRouter(tt).earliestArrivals(activeServices, lat, lon, departureSeconds, maxSeconds);
+
+        // Rejilla que cubre el origen y las paradas alcanzadas más lo que se puede andar desde ellos
+        double originWalk = maxSeconds * GtfsTimetable.WALK_METERS_PER_SECOND;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double latMargin = originWalk / METERS_PER_DEGREE;
+        double lonMargin = originWalk / (METERS_PER_DEGREE * cosLat);
+        double north = lat + latMargin, south = lat - latMargin, west = lon - lonMargin, east = lon + lonMargin;
+        double stopLatMargin = RaptorRouter.ACCESS_RADIUS_METERS / METERS_PER_DEGREE;
+        double stopLonMargin = RaptorRouter.ACCESS_RADIUS_METERS / (METERS_PER_DEGREE * cosLat);
+        for (int s = 0; s < arrivals.length; s++) {
+            if (arrivals[s] == UNREACHABLE) continue;
+            north = Math.max(north, tt.getStopLatitude(s) + stopLatMargin);
+            south = Math.min(south, tt.getStopLatitude(s) - stopLatMargin);
+            west = Math.min(west, tt.getStopLongitude(s) - stopLonMargin);
+            east = Math.max(east, tt.getStopLongitude(s) + stopLonMargin);
+        }
+        double latStep = CELL_METERS / METERS_PER_DEGREE;
+        double lonStep = CELL_METERS / (METERS_PER_DEGREE * cosLat);
+        int rows = (int) Math.ceil((north - south) / latStep);
+        int cols = (int) Math.ceil((east - west) / lonStep);
+        Isochrone grid = new Isochrone(north, west, latStep, lonStep, rows, cols);
+
+        grid.splat(lat, lon, 0, originWalk);
+        // Desde las paradas se anda como mucho lo mismo que hasta el destino en el enrutado normal
+        for (int s = 0; s < arrivals.length; s++) {
+            if (arrivals[s] == UNREACHABLE) continue;
+            int elapsed = arrivals[s] - departureSeconds;
+            double walk = Math.min(RaptorRouter.ACCESS_RADIUS_METERS, (maxSeconds - elapsed) * GtfsTimetable.WALK_METERS_PER_SECOND);
+            grid.splat(tt.getStopLatitude(s), tt.getStopLongitude(s), elapsed, walk);
+        }
+        return grid;
+    }
+
+    /**
+     * Marca las celdas a menos de {@code radiusMeters} de un punto alcanzado tras {@code elapsed} segundos
+     */
+    private void splat(double lat, double lon, int elapsed, double radiusMeters) {
+        if (radiusMeters < 0) return;
+        double row = (north - lat) / latStep;
+        double col = (lon - west) / lonStep;
+        double radiusCells = radiusMeters / CELL_METERS;
+        int r0 = Math.max(0, (int) Math.floor(row - radiusCells));
+        int r1 = Math.min(rows - 1, (int) Math.ceil(row + radiusCells));
+        int c0 = Math.max(0, (int) Math.floor(col - radiusCells));
+        int c1 = Math.min(cols - 1, (int) Math.ceil(col + radiusCells));
+        for (int r = r0; r <= r1; r++) {
+            double dy = (r + 0.5 - row) * CELL_METERS;
+            for (int c = c0; c <= c1; c++) {
+                double dx = (c + 0.5 - col) * CELL_METERS;
+                double meters = Math.sqrt(dx * dx + dy * dy);
+                if (meters > radiusMeters) continue;
+                int t = elapsed + (int) Math.ceil(meters / GtfsTimetable.WALK_METERS_PER_SECOND);
+                int index = r * cols + c;
+                if (t < seconds[index]) seconds[index] = t;
+            }
+        }
+    }
+
+    public int getRows() { return rows; }
+
+    public int getCols() { return cols; }
+
+    public double getNorth() { return north; }
+
+    public double getSouth() { return north - rows * latStep; }
+
+    public double getWest() { return west; }
+
+    public double getEast() { return west + cols * lonStep; }
+
+    /**
+     * Segundos de viaje hasta la celda, o {@link #UNREACHABLE}
+     */
+    public int getTravelSeconds(int row, int col) {
+        return seconds[row * cols + col];
+    }
+}
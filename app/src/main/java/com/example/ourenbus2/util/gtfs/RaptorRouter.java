@@ -0,0 +1,906 @@
+package com.example.ourenbus2.util.gtfs;
+
+import com.example.ourenbus2.util.geo.PedestrianGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Enrutador RAPTOR sobre un {@link GtfsTimetable} en memoria.
+ * Cada ronda añade un viaje en bus: recorre una sola vez los patrones que pasan por las paradas
+ * mejoradas en la ronda anterior y después relaja los transbordos a pie. Devuelve el viaje que
+ * llega antes al destino (a igualdad, el de menos transbordos).
+ * <p>
+ * {@link #routeArriveBy} hace la misma búsqueda en sentido inverso: parte del destino a la hora de
+ * llegada, recorre los patrones hacia atrás y devuelve en una sola pasada la salida más tardía que
+ * todavía llega a tiempo. {@link #earliestArrivals} es la variante de uno a todos sin destino y
+ * {@link #rangeArrivals} la repite para todas las salidas de una ventana de tiempo.
+ * <p>
+ * Con una {@link RealtimeOverlay} las horas de los viajes llevan sus retrasos y no se sube ni se baja
+ * de viajes cancelados ni en paradas que el bus se salta. Con una {@link PedestrianGraph} los tramos
+ * a pie del origen y al destino se miden por las calles en lugar de en línea recta.
+ */
+public final class RaptorRouter {
+
+    /** Radio de búsqueda de paradas a pie desde el origen y hasta el destino */
+    public static final double ACCESS_RADIUS_METERS = 800.0;
+    /** Nº de paradas más cercanas que se usan si no hay ninguna dentro del radio */
+    public static final int ACCESS_FALLBACK_STOPS = 3;
+    /** Máximo de buses por viaje (2 transbordos, como el enrutado anterior) */
+    public static final int MAX_RIDES = 3;
+
+    private static final int INF = Integer.MAX_VALUE;
+    private static final int NEG_INF = Integer.MIN_VALUE;
+    private static final int NONE = 0, ACCESS = 1, RIDE = 2;
+
+    private final GtfsTimetable tt;
+    private final RealtimeOverlay realtime;
+    private final PedestrianGraph walks;
+
+    /**
+     * Enrutador con las horas programadas
+     */
+    public RaptorRouter(GtfsTimetable timetable) {
+        this(timetable, RealtimeOverlay.EMPTY);
+    }
+
+    /**
+     * Enrutador con los retrasos y cancelaciones de una capa de tiempo real (la de la construcción,
+     * aunque el horario reciba otra después)
+     */
+    public RaptorRouter(GtfsTimetable timetable, RealtimeOverlay realtime) {
+        this(timetable, realtime, null);
+    }
+
+    /**
+     * Enrutador que mide los tramos a pie desde el origen y hasta el destino por la red peatonal
+     *
+     * @param walks Red peatonal, o null para usar la distancia en línea recta
+     */
+    public RaptorRouter(GtfsTimetable timetable, RealtimeOverlay realtime, PedestrianGraph walks) {
+        this.tt = timetable;
+        this.realtime = realtime;
+        this.walks = walks;
+    }
+
+    /**
+     * Calcula el viaje que llega antes saliendo a pie desde el origen a la hora indicada
+     *
+     * @param activeServices   Servicios activos en el día (ver {@link GtfsTimetable#getActiveServices})
+     * @param departureSeconds Hora de salida en segundos desde medianoche
+     * @return El viaje, o null si no hay ninguno con los servicios activos
+     */
+    public Journey route(BitSet activeServices, double fromLat, double fromLon, double toLat, double toLon, int departureSeconds) {
+        int n = tt.getStopCount();
+        if (n == 0) return null;
+        List<int[]> access = accessStops(fromLat, fromLon);
+        List<int[]> egress = egressStops(toLat, toLon);
+        int[] egressSeconds = new int[n];
+        Arrays.fill(egressSeconds, -1);
+        for (int[] e : egress) egressSeconds[e[0]] = e[1];
+
+        int rounds = MAX_RIDES + 1;
+        int[][] arrival = new int[rounds][n];     // a pie desde el origen (ronda 0) o en bus
+        int[][] kind = new int[rounds][n];
+        int[][] from = new int[rounds][n];        // parada de subida
+        int[][] trip = new int[rounds][n];
+        int[][] shift = new int[rounds][n];       // desfase de las salidas generadas por frecuencia
+        int[][] boardPos = new int[rounds][n];
+        int[][] alightPos = new int[rounds][n];
+        int[][] walkArrival = new int[rounds][n]; // transbordo a pie tras el bus de la ronda
+        int[][] walkFrom = new int[rounds][n];    // parada de bajada desde la que se camina
+        for (int[] row : arrival) Arrays.fill(row, INF);
+        for (int[] row : walkArrival) Arrays.fill(row, INF);
+        // Cotas separadas: el destino solo se evalúa tras algún bus, así que la llegada a pie desde el
+        // origen no puede descartar una llegada en bus más tardía a la misma parada. Solo sirve para subir.
+        int[] best = new int[n];   // mejor llegada con algún bus (poda)
+        int[] reach = new int[n];  // mejor llegada contando la ronda 0 (desde dónde se puede subir)
+        Arrays.fill(best, INF);
+        Arrays.fill(reach, INF);
+
+        BitSet marked = new BitSet(n);
+        for (int[] a : access) {
+            int s = a[0];
+            int t = departureSeconds + a[1];
+            if (t < reach[s]) {
+                arrival[0][s] = t;
+                reach[s] = t;
+                kind[0][s] = ACCESS;
+                marked.set(s);
+            }
+        }
+
+        int bestTarget = INF, bestRound = -1, bestEgress = -1;
+        boolean bestAfterWalk = false;
+        int[] patternStart = new int[tt.getPatternCount()];
+        for (int k = 1; k < rounds && !marked.isEmpty(); k++) {
+            // Patrones a recorrer y primera posición marcada en cada uno
+            Arrays.fill(patternStart, INF);
+            BitSet patterns = new BitSet(tt.getPatternCount());
+            for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                for (int i = tt.stopPatternOffset[s]; i < tt.stopPatternOffset[s + 1]; i++) {
+                    int p = tt.stopPatterns[i];
+                    patternStart[p] = Math.min(patternStart[p], tt.stopPatternPositions[i]);
+                    patterns.set(p);
+                }
+            }
+            int[] previous = reach.clone();
+            marked.clear();
+            BitSet rode = new BitSet(n);
+
+            for (int p = patterns.nextSetBit(0); p >= 0; p = patterns.nextSetBit(p + 1)) {
+                int stopOffset = tt.patternStopOffset[p];
+                int length = tt.patternStopOffset[p + 1] - stopOffset;
+                boolean frequency = tt.isFrequencyPattern(p);
+                int currentTrip = -1, currentShift = 0, boardStop = -1, boardAt = -1;
+                for (int i = patternStart[p]; i < length; i++) {
+                    int s = tt.patternStops[stopOffset + i];
+                    if (currentTrip >= 0 && realtime.stopsAt(currentTrip, i)) {
+                        int arr = arrivalOf(currentTrip, i) + currentShift;
+                        if (arr < best[s] && arr < bestTarget) {
+                            arrival[k][s] = arr;
+                            best[s] = arr;
+                            kind[k][s] = RIDE;
+                            from[k][s] = boardStop;
+                            trip[k][s] = currentTrip;
+                            shift[k][s] = currentShift;
+                            boardPos[k][s] = boardAt;
+                            alightPos[k][s] = i;
+                            rode.set(s);
+                            if (arr < reach[s]) {
+                                reach[s] = arr;
+                                marked.set(s);
+                            }
+                        }
+                    }
+                    int ready = previous[s];
+                    if (ready != INF && (currentTrip < 0 || ready <= departureOf(currentTrip, i) + currentShift)) {
+                        int candidate, candidateShift = 0;
+                        if (frequency) {
+                            // Salida generada al vuelo a partir de la plantilla del patrón
+                            candidateShift = tt.frequencyShift(p, i, ready, activeServices);
+                            candidate = candidateShift == GtfsTimetable.NO_FREQUENCY_DEPARTURE ? -1 : tt.patternTripOffset[p];
+                        } else {
+                            candidate = earliestTrip(p, i, ready, activeServices);
+                        }
+                        if (candidate >= 0 && (currentTrip < 0
+                                || departureOf(candidate, i) + candidateShift
+                                        < departureOf(currentTrip, i) + currentShift)) {
+                            currentTrip = candidate;
+                            currentShift = candidateShift;
+                            boardStop = s;
+                            boardAt = i;
+                        }
+                    }
+                }
+            }
+
+            // Transbordos a pie: solo desde las llegadas en bus de esta ronda y a un conjunto aparte, de modo
+            // que no se encadenan dos tramos a pie ni depende del orden en que se recorren las paradas
+            BitSet walked = new BitSet(n);
+            for (int s = rode.nextSetBit(0); s >= 0; s = rode.nextSetBit(s + 1)) {
+                for (int i = tt.transferOffset[s]; i < tt.transferOffset[s + 1]; i++) {
+                    int target = tt.transferTargets[i];
+                    int t = arrival[k][s] + tt.transferSeconds[i];
+                    if (t < best[target] && t < bestTarget) {
+                        walkArrival[k][target] = t;
+                        walkFrom[k][target] = s;
+                        best[target] = t;
+                        walked.set(target);
+                        if (t < reach[target]) {
+                            reach[target] = t;
+                            marked.set(target);
+                        }
+                    }
+                }
+            }
+
+            // Mejor llegada al destino tras esta ronda
+            for (int s = rode.nextSetBit(0); s >= 0; s = rode.nextSetBit(s + 1)) {
+                if (egressSeconds[s] < 0) continue;
+                int t = arrival[k][s] + egressSeconds[s];
+                if (t < bestTarget) {
+                    bestTarget = t;
+                    bestRound = k;
+                    bestEgress = s;
+                    bestAfterWalk = false;
+                }
+            }
+            for (int s = walked.nextSetBit(0); s >= 0; s = walked.nextSetBit(s + 1)) {
+                if (egressSeconds[s] < 0) continue;
+                int t = walkArrival[k][s] + egressSeconds[s];
+                if (t < bestTarget) {
+                    bestTarget = t;
+                    bestRound = k;
+                    bestEgress = s;
+                    bestAfterWalk = true;
+                }
+            }
+        }
+        if (bestRound < 0) return null;
+        return reconstruct(arrival, kind, from, trip, shift, boardPos, alightPos, walkArrival, walkFrom, bestRound,
+                bestEgress, bestAfterWalk, egressSeconds[bestEgress], departureSeconds, bestTarget);
+    }
+
+    /**
+     * Hora de llegada más temprana a todas las paradas saliendo a pie desde un punto (búsqueda de uno a
+     * todos, sin destino). Es la base de las isócronas: solo guarda las etiquetas, no los viajes.
+     *
+     * @param activeServices   Servicios activos en el día
+     * @param departureSeconds Hora de salida en segundos desde medianoche
+     * @param maxSeconds       Duración máxima; las paradas más lejanas quedan sin alcanzar
+     * @return Llegada por parada en segundos desde medianoche, o {@link Integer#MAX_VALUE} si no se alcanza
+     */
+    public int[] earliestArrivals(BitSet activeServices, double fromLat, double fromLon, int departureSeconds, int maxSeconds) {
+        int n = tt.getStopCount();
+        int[] best = new int[n];
+        Arrays.fill(best, INF);
+        if (n == 0) return best;
+        int limit = departureSeconds + maxSeconds;
+
+        BitSet marked = new BitSet(n);
+        for (int[] a : accessStops(fromLat, fromLon)) {
+            int t = departureSeconds + a[1];
+            if (t <= limit && t < best[a[0]]) {
+                best[a[0]] = t;
+                marked.set(a[0]);
+            }
+        }
+
+        int[] patternStart = new int[tt.getPatternCount()];
+        for (int k = 1; k <= MAX_RIDES && !marked.isEmpty(); k++) {
+            Arrays.fill(patternStart, INF);
+            BitSet patterns = new BitSet(tt.getPatternCount());
+            for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                for (int i = tt.stopPatternOffset[s]; i < tt.stopPatternOffset[s + 1]; i++) {
+                    int p = tt.stopPatterns[i];
+                    patternStart[p] = Math.min(patternStart[p], tt.stopPatternPositions[i]);
+                    patterns.set(p);
+                }
+            }
+            int[] previous = best.clone();
+            marked.clear();
+
+            for (int p = patterns.nextSetBit(0); p >= 0; p = patterns.nextSetBit(p + 1)) {
+                int stopOffset = tt.patternStopOffset[p];
+                int length = tt.patternStopOffset[p + 1] - stopOffset;
+                boolean frequency = tt.isFrequencyPattern(p);
+                int currentTrip = -1, currentShift = 0;
+                for (int i = patternStart[p]; i < length; i++) {
+                    int s = tt.patternStops[stopOffset + i];
+                    if (currentTrip >= 0 && realtime.stopsAt(currentTrip, i)) {
+                        int arr = arrivalOf(currentTrip, i) + currentShift;
+                        if (arr <= limit && arr < best[s]) {
+                            best[s] = arr;
+                            marked.set(s);
+                        }
+                    }
+                    int ready = previous[s];
+                    if (ready != INF && (currentTrip < 0 || ready <= departureOf(currentTrip, i) + currentShift)) {
+                        int candidate, candidateShift = 0;
+                        if (frequency) {
+                            candidateShift = tt.frequencyShift(p, i, ready, activeServices);
+                            candidate = candidateShift == GtfsTimetable.NO_FREQUENCY_DEPARTURE ? -1 : tt.patternTripOffset[p];
+                        } else {
+                            candidate = earliestTrip(p, i, ready, activeServices);
+                        }
+                        if (candidate >= 0 && (currentTrip < 0
+                                || departureOf(candidate, i) + candidateShift
+                                        < departureOf(currentTrip, i) + currentShift)) {
+                            currentTrip = candidate;
+                            currentShift = candidateShift;
+                        }
+                    }
+                }
+            }
+
+            // Transbordos solo desde las llegadas en bus (copiadas antes de relajar: no se encadenan tramos a pie)
+            BitSet reachedByRide = (BitSet) marked.clone();
+            int[] byRide = best.clone();
+            for (int s = reachedByRide.nextSetBit(0); s >= 0; s = reachedByRide.nextSetBit(s + 1)) {
+                for (int i = tt.transferOffset[s]; i < tt.transferOffset[s + 1]; i++) {
+                    int target = tt.transferTargets[i];
+                    int t = byRide[s] + tt.transferSeconds[i];
+                    if (t <= limit && t < best[target]) {
+                        best[target] = t;
+                        marked.set(target);
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Recibe las etiquetas de una búsqueda por rangos para cada hora de salida
+     */
+    public interface RangeListener {
+        /**
+         * @param departureSeconds Hora de salida del origen
+         * @param arrivalByRound   Llegada más temprana a cada parada con {@code k} buses ({@code [k][parada]});
+         *                         las filas se reutilizan en la siguiente llamada, no deben guardarse
+         */
+        void onDeparture(int departureSeconds, int[][] arrivalByRound);
+    }
+
+    /**
+     * Búsqueda por rangos (rRAPTOR) de uno a todos: repite la búsqueda para cada hora de salida útil de la
+     * ventana, de la más tardía a la más temprana, conservando las etiquetas de cada ronda entre pasadas.
+     * Una salida anterior nunca llega más tarde, así que cada pasada solo recorre lo que mejora. La poda
+     * es por ronda (no con la mejor llegada global), porque una etiqueta de otra pasada con más buses no
+     * puede descartar una con menos que todavía admite transbordos.
+     *
+     * @param activeServices Servicios activos en el día
+     * @param windowStart    Primera hora de salida del origen (segundos desde medianoche)
+     * @param windowEnd      Última hora de salida del origen
+     */
+    public void rangeArrivals(BitSet activeServices, double fromLat, double fromLon, int windowStart, int windowEnd,
+                              RangeListener listener) {
+        int n = tt.getStopCount();
+        if (n == 0) return;
+        List<int[]> access = accessStops(fromLat, fromLon);
+
+        // Horas de salida útiles: las que permiten coger justo un bus en alguna parada de acceso
+        List<Integer> candidates = new ArrayList<>();
+        for (int[] a : access) {
+            int walk = a[1];
+            for (int t : tt.departureTimesBetween(a[0], activeServices, windowStart + walk, windowEnd + walk)) {
+                candidates.add(t - walk);
+            }
+        }
+        // Salir al final de la ventana cubre los buses que pasan después de ella
+        candidates.add(windowEnd);
+        Collections.sort(candidates, Collections.reverseOrder());
+
+        int rounds = MAX_RIDES + 1;
+        int[][] arrival = new int[rounds][n];
+        for (int[] row : arrival) Arrays.fill(row, INF);
+        int[] patternStart = new int[tt.getPatternCount()];
+        BitSet marked = new BitSet(n);
+        int previousDeparture = INF;
+
+        for (int departure : candidates) {
+            if (departure == previousDeparture) continue;
+            previousDeparture = departure;
+            marked.clear();
+            for (int[] a : access) {
+                int t = departure + a[1];
+                if (t < arrival[0][a[0]]) {
+                    arrival[0][a[0]] = t;
+                    marked.set(a[0]);
+                }
+            }
+
+            for (int k = 1; k < rounds && !marked.isEmpty(); k++) {
+                Arrays.fill(patternStart, INF);
+                BitSet patterns = new BitSet(tt.getPatternCount());
+                for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                    for (int i = tt.stopPatternOffset[s]; i < tt.stopPatternOffset[s + 1]; i++) {
+                        int p = tt.stopPatterns[i];
+                        patternStart[p] = Math.min(patternStart[p], tt.stopPatternPositions[i]);
+                        patterns.set(p);
+                    }
+                }
+                int[] previous = arrival[k - 1];
+                int[] current = arrival[k];
+                marked.clear();
+
+                for (int p = patterns.nextSetBit(0); p >= 0; p = patterns.nextSetBit(p + 1)) {
+                    int stopOffset = tt.patternStopOffset[p];
+                    int length = tt.patternStopOffset[p + 1] - stopOffset;
+                    boolean frequency = tt.isFrequencyPattern(p);
+                    int currentTrip = -1, currentShift = 0;
+                    for (int i = patternStart[p]; i < length; i++) {
+                        int s = tt.patternStops[stopOffset + i];
+                        if (currentTrip >= 0 && realtime.stopsAt(currentTrip, i)) {
+                            int arr = arrivalOf(currentTrip, i) + currentShift;
+                            if (arr < current[s] && arr < previous[s]) {
+                                current[s] = arr;
+                                marked.set(s);
+                            }
+                        }
+                        int ready = previous[s];
+                        if (ready != INF && (currentTrip < 0 || ready <= departureOf(currentTrip, i) + currentShift)) {
+                            int candidate, candidateShift = 0;
+                            if (frequency) {
+                                candidateShift = tt.frequencyShift(p, i, ready, activeServices);
+                                candidate = candidateShift == GtfsTimetable.NO_FREQUENCY_DEPARTURE ? -1 : tt.patternTripOffset[p];
+                            } else {
+                                candidate = earliestTrip(p, i, ready, activeServices);
+                            }
+                            if (candidate >= 0 && (currentTrip < 0
+                                    || departureOf(candidate, i) + candidateShift
+                                            < departureOf(currentTrip, i) + currentShift)) {
+                                currentTrip = candidate;
+                                currentShift = candidateShift;
+                            }
+                        }
+                    }
+                }
+
+                // Transbordos solo desde las llegadas en bus (copiadas antes de relajar: no se encadenan tramos a pie)
+                BitSet reachedByRide = (BitSet) marked.clone();
+                int[] byRide = current.clone();
+                for (int s = reachedByRide.nextSetBit(0); s >= 0; s = reachedByRide.nextSetBit(s + 1)) {
+                    for (int i = tt.transferOffset[s]; i < tt.transferOffset[s + 1]; i++) {
+                        int target = tt.transferTargets[i];
+                        int t = byRide[s] + tt.transferSeconds[i];
+                        if (t < current[target] && t < previous[target]) {
+                            current[target] = t;
+                            marked.set(target);
+                        }
+                    }
+                }
+            }
+            listener.onDeparture(departure, arrival);
+        }
+    }
+
+    /**
+     * Calcula el viaje que sale más tarde del origen y llega al destino no después de la hora indicada
+     * (RAPTOR inverso: las etiquetas son la hora más tardía a la que se puede estar en cada parada)
+     *
+     * @param activeServices Servicios activos en el día (ver {@link GtfsTimetable#getActiveServices})
+     * @param arrivalSeconds Hora límite de llegada en segundos desde medianoche
+     * @return El viaje, o null si no hay ninguno con los servicios activos
+     */
+    public Journey routeArriveBy(BitSet activeServices, double fromLat, double fromLon, double toLat, double toLon, int arrivalSeconds) {
+        int n = tt.getStopCount();
+        if (n == 0) return null;
+        List<int[]> access = accessStops(fromLat, fromLon);
+        List<int[]> egress = egressStops(toLat, toLon);
+        int[] accessSeconds = new int[n];
+        Arrays.fill(accessSeconds, -1);
+        for (int[] a : access) accessSeconds[a[0]] = a[1];
+        int[] egressSeconds = new int[n];
+        Arrays.fill(egressSeconds, -1);
+
+        int rounds = MAX_RIDES + 1;
+        int[][] latest = new int[rounds][n];     // a pie hasta el destino (ronda 0) o en bus
+        int[][] kind = new int[rounds][n];
+        int[][] to = new int[rounds][n];         // parada de bajada
+        int[][] trip = new int[rounds][n];
+        int[][] shift = new int[rounds][n];
+        int[][] boardPos = new int[rounds][n];
+        int[][] alightPos = new int[rounds][n];
+        int[][] walkLatest = new int[rounds][n]; // transbordo a pie hacia la parada de subida de la ronda
+        int[][] walkTo = new int[rounds][n];     // parada hacia la que se camina
+        int[][] walk = new int[rounds][n];       // segundos del transbordo a pie
+        for (int[] row : latest) Arrays.fill(row, NEG_INF);
+        for (int[] row : walkLatest) Arrays.fill(row, NEG_INF);
+        // Como en la búsqueda hacia delante: la cota de poda solo cuenta etiquetas con algún bus
+        int[] best = new int[n];
+        int[] reach = new int[n];
+        Arrays.fill(best, NEG_INF);
+        Arrays.fill(reach, NEG_INF);
+
+        BitSet marked = new BitSet(n);
+        for (int[] e : egress) {
+            int s = e[0];
+            egressSeconds[s] = e[1];
+            int t = arrivalSeconds - egressSeconds[s];
+            if (t > reach[s]) {
+                latest[0][s] = t;
+                reach[s] = t;
+                kind[0][s] = ACCESS;
+                marked.set(s);
+            }
+        }
+        // Como en la búsqueda hacia delante, tras el último bus se puede caminar hasta otra parada
+        // antes de ir al destino
+        BitSet egressStops = (BitSet) marked.clone();
+        for (int s = egressStops.nextSetBit(0); s >= 0; s = egressStops.nextSetBit(s + 1)) {
+            for (int i = tt.transferOffset[s]; i < tt.transferOffset[s + 1]; i++) {
+                int source = tt.transferTargets[i];
+                int t = latest[0][s] - tt.transferSeconds[i];
+                if (t > reach[source]) {
+                    walkLatest[0][source] = t;
+                    walkTo[0][source] = s;
+                    walk[0][source] = tt.transferSeconds[i];
+                    reach[source] = t;
+                    marked.set(source);
+                }
+            }
+        }
+
+        int bestSource = NEG_INF, bestRound = -1, bestAccess = -1;
+        int[] patternEnd = new int[tt.getPatternCount()];
+        for (int k = 1; k < rounds && !marked.isEmpty(); k++) {
+            // Patrones a recorrer y última posición marcada en cada uno
+            Arrays.fill(patternEnd, -1);
+            BitSet patterns = new BitSet(tt.getPatternCount());
+            for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                for (int i = tt.stopPatternOffset[s]; i < tt.stopPatternOffset[s + 1]; i++) {
+                    int p = tt.stopPatterns[i];
+                    patternEnd[p] = Math.max(patternEnd[p], tt.stopPatternPositions[i]);
+                    patterns.set(p);
+                }
+            }
+            int[] previous = reach.clone();
+            marked.clear();
+            BitSet rode = new BitSet(n);
+
+            for (int p = patterns.nextSetBit(0); p >= 0; p = patterns.nextSetBit(p + 1)) {
+                int stopOffset = tt.patternStopOffset[p];
+                boolean frequency = tt.isFrequencyPattern(p);
+                int currentTrip = -1, currentShift = 0, alightStop = -1, alightAt = -1;
+                for (int i = patternEnd[p]; i >= 0; i--) {
+                    int s = tt.patternStops[stopOffset + i];
+                    if (currentTrip >= 0 && realtime.stopsAt(currentTrip, i)) {
+                        int dep = departureOf(currentTrip, i) + currentShift;
+                        if (dep > best[s] && dep > bestSource) {
+                            latest[k][s] = dep;
+                            best[s] = dep;
+                            kind[k][s] = RIDE;
+                            to[k][s] = alightStop;
+                            trip[k][s] = currentTrip;
+                            shift[k][s] = currentShift;
+                            boardPos[k][s] = i;
+                            alightPos[k][s] = alightAt;
+                            rode.set(s);
+                            if (dep > reach[s]) {
+                                reach[s] = dep;
+                                marked.set(s);
+                            }
+                        }
+                    }
+                    int deadline = previous[s];
+                    if (deadline != NEG_INF && (currentTrip < 0 || deadline >= arrivalOf(currentTrip, i) + currentShift)) {
+                        int candidate, candidateShift = 0;
+                        if (frequency) {
+                            candidateShift = tt.latestFrequencyShift(p, i, deadline, activeServices);
+                            candidate = candidateShift == GtfsTimetable.NO_FREQUENCY_DEPARTURE ? -1 : tt.patternTripOffset[p];
+                        } else {
+                            candidate = latestTrip(p, i, deadline, activeServices);
+                        }
+                        if (candidate >= 0 && (currentTrip < 0
+                                || arrivalOf(candidate, i) + candidateShift
+                                        > arrivalOf(currentTrip, i) + currentShift)) {
+                            currentTrip = candidate;
+                            currentShift = candidateShift;
+                            alightStop = s;
+                            alightAt = i;
+                        }
+                    }
+                }
+            }
+
+            // Transbordos a pie hacia las paradas de subida de esta ronda (son simétricos), en etiquetas aparte
+            for (int s = rode.nextSetBit(0); s >= 0; s = rode.nextSetBit(s + 1)) {
+                for (int i = tt.transferOffset[s]; i < tt.transferOffset[s + 1]; i++) {
+                    int source = tt.transferTargets[i];
+                    int t = latest[k][s] - tt.transferSeconds[i];
+                    if (t > best[source] && t > bestSource) {
+                        walkLatest[k][source] = t;
+                        walkTo[k][source] = s;
+                        walk[k][source] = tt.transferSeconds[i];
+                        best[source] = t;
+                        if (t > reach[source]) {
+                            reach[source] = t;
+                            marked.set(source);
+                        }
+                    }
+                }
+            }
+
+            // Salida más tardía desde el origen tras esta ronda. Como en la búsqueda hacia delante, desde el
+            // origen se va a pie directamente a la parada del primer bus (sin transbordo a pie antes)
+            for (int s = rode.nextSetBit(0); s >= 0; s = rode.nextSetBit(s + 1)) {
+                if (accessSeconds[s] < 0) continue;
+                int t = latest[k][s] - accessSeconds[s];
+                if (t > bestSource) {
+                    bestSource = t;
+                    bestRound = k;
+                    bestAccess = s;
+                }
+            }
+        }
+        if (bestRound < 0) return null;
+        return reconstructBackward(latest, kind, to, trip, shift, boardPos, alightPos, walkLatest, walkTo, walk,
+                bestRound, bestAccess, accessSeconds[bestAccess], egressSeconds, bestSource);
+    }
+
+    /**
+     * Último viaje activo del patrón que llega a la posición {@code position} no más tarde de {@code time}.
+     * La búsqueda binaria va sobre las horas programadas; con retrasos se repasan los viajes vecinos
+     * mientras alguno pueda llegar más tarde que el mejor encontrado.
+     */
+    int latestTrip(int pattern, int position, int time, BitSet activeServices) {
+        int first = tt.patternTripOffset[pattern];
+        int lo = first, hi = tt.patternTripOffset[pattern + 1];
+        int scheduledLimit = time - realtime.getMinDelay();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tt.arrivals[tt.tripTimeOffset[mid] + position] <= scheduledLimit) lo = mid + 1;
+            else hi = mid;
+        }
+        int best = -1, bestArrival = NEG_INF;
+        for (int t = lo - 1; t >= first; t--) {
+            int scheduled = tt.arrivals[tt.tripTimeOffset[t] + position];
+            if (scheduled + realtime.getMaxDelay() <= bestArrival) break;
+            if (!activeServices.get(tt.tripService[t]) || !realtime.stopsAt(t, position)) continue;
+            int arrival = scheduled + realtime.arrivalDelay(t, position);
+            if (arrival <= time && arrival > bestArrival) {
+                best = t;
+                bestArrival = arrival;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Primer viaje activo del patrón que sale de la posición {@code position} a partir de {@code time}.
+     * Los viajes del patrón no se adelantan, así que están ordenados por hora en todas las paradas; con
+     * retrasos se repasan los viajes siguientes mientras alguno pueda salir antes que el mejor encontrado.
+     * Solo para patrones con horario fijo; los de frecuencia usan {@link GtfsTimetable#frequencyShift}.
+     */
+    int earliestTrip(int pattern, int position, int time, BitSet activeServices) {
+        int lo = tt.patternTripOffset[pattern], hi = tt.patternTripOffset[pattern + 1];
+        int end = hi;
+        int scheduledFrom = time - realtime.getMaxDelay();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tt.departures[tt.tripTimeOffset[mid] + position] < scheduledFrom) lo = mid + 1;
+            else hi = mid;
+        }
+        int best = -1, bestDeparture = INF;
+        for (int t = lo; t < end; t++) {
+            int scheduled = tt.departures[tt.tripTimeOffset[t] + position];
+            if (scheduled + realtime.getMinDelay() >= bestDeparture) break;
+            if (!activeServices.get(tt.tripService[t]) || !realtime.stopsAt(t, position)) continue;
+            int departure = scheduled + realtime.departureDelay(t, position);
+            if (departure >= time && departure < bestDeparture) {
+                best = t;
+                bestDeparture = departure;
+            }
+        }
+        return best;
+    }
+
+    /** Llegada del viaje a una posición con el retraso de la capa de tiempo real */
+    int arrivalOf(int trip, int position) {
+        return tt.arrivals[tt.tripTimeOffset[trip] + position] + realtime.arrivalDelay(trip, position);
+    }
+
+    /** Salida del viaje de una posición con el retraso de la capa de tiempo real */
+    int departureOf(int trip, int position) {
+        return tt.departures[tt.tripTimeOffset[trip] + position] + realtime.departureDelay(trip, position);
+    }
+
+    private Journey reconstruct(int[][] arrival, int[][] kind, int[][] from, int[][] trip, int[][] shift, int[][] boardPos,
+                                int[][] alightPos, int[][] walkArrival, int[][] walkFrom, int round, int egressStop,
+                                boolean afterWalk, int egressSeconds, int departureSeconds, int arrivalSeconds) {
+        List<Leg> legs = new ArrayList<>();
+        int k = round, s = egressStop;
+        boolean walked = afterWalk;
+        int arrivalAtStop = walked ? walkArrival[k][s] : arrival[k][s];
+        legs.add(Leg.walk(egressStop, -1, arrivalAtStop, arrivalAtStop + egressSeconds));
+        while (true) {
+            if (walked) {
+                // El transbordo parte de la llegada en bus de la misma ronda
+                int origin = walkFrom[k][s];
+                legs.add(Leg.walk(origin, s, arrival[k][origin], walkArrival[k][s]));
+                s = origin;
+                walked = false;
+                continue;
+            }
+            int type = kind[k][s];
+            if (type == RIDE) {
+                int t = trip[k][s];
+                int ts = shift[k][s];
+                int board = from[k][s];
+                int bp = boardPos[k][s], ap = alightPos[k][s];
+                legs.add(Leg.ride(board, s, t, ts, bp, ap, departureOf(t, bp) + ts, arrivalOf(t, ap) + ts));
+                // La subida se hizo desde la mejor llegada a esa parada en las rondas anteriores
+                // (a igualdad, la de menos buses)
+                s = board;
+                int bestTime = INF, bestK = -1;
+                boolean bestWalked = false;
+                for (int j = 0; j < k; j++) {
+                    if (arrival[j][s] < bestTime) {
+                        bestTime = arrival[j][s];
+                        bestK = j;
+                        bestWalked = false;
+                    }
+                    if (walkArrival[j][s] < bestTime) {
+                        bestTime = walkArrival[j][s];
+                        bestK = j;
+                        bestWalked = true;
+                    }
+                }
+                if (bestK < 0) return null;
+                k = bestK;
+                walked = bestWalked;
+            } else if (type == ACCESS) {
+                legs.add(Leg.walk(-1, s, departureSeconds, arrival[0][s]));
+                break;
+            } else {
+                return null;
+            }
+        }
+        Collections.reverse(legs);
+        return new Journey(mergeWalks(legs), departureSeconds, arrivalSeconds);
+    }
+
+    /**
+     * Reconstruye hacia delante un viaje de {@link #routeArriveBy}: desde la parada de acceso se siguen
+     * los tramos hasta el destino con las horas reales de cada bus (se puede llegar antes del límite).
+     */
+    private Journey reconstructBackward(int[][] latest, int[][] kind, int[][] to, int[][] trip, int[][] shift,
+                                        int[][] boardPos, int[][] alightPos, int[][] walkLatest, int[][] walkTo,
+                                        int[][] walk, int round, int accessStop, int accessSeconds,
+                                        int[] egressSeconds, int departureSeconds) {
+        List<Leg> legs = new ArrayList<>();
+        int k = round, s = accessStop;
+        boolean walked = false;
+        int clock = latest[k][s];
+        legs.add(Leg.walk(-1, s, departureSeconds, clock));
+        while (true) {
+            if (walked) {
+                // El transbordo lleva a la subida en bus de la misma ronda (o al tramo final en la ronda 0)
+                int target = walkTo[k][s];
+                legs.add(Leg.walk(s, target, clock, clock + walk[k][s]));
+                clock += walk[k][s];
+                s = target;
+                walked = false;
+                continue;
+            }
+            int type = kind[k][s];
+            if (type == RIDE) {
+                int t = trip[k][s];
+                int ts = shift[k][s];
+                int alight = to[k][s];
+                int bp = boardPos[k][s], ap = alightPos[k][s];
+                clock = arrivalOf(t, ap) + ts;
+                legs.add(Leg.ride(s, alight, t, ts, bp, ap, departureOf(t, bp) + ts, clock));
+                // La bajada lleva a la etiqueta más tardía de esa parada en las rondas anteriores
+                // (a igualdad, la de menos buses)
+                s = alight;
+                int bestTime = NEG_INF, bestK = -1;
+                boolean bestWalked = false;
+                for (int j = 0; j < k; j++) {
+                    if (latest[j][s] > bestTime) {
+                        bestTime = latest[j][s];
+                        bestK = j;
+                        bestWalked = false;
+                    }
+                    if (walkLatest[j][s] > bestTime) {
+                        bestTime = walkLatest[j][s];
+                        bestK = j;
+                        bestWalked = true;
+                    }
+                }
+                if (bestK < 0) return null;
+                k = bestK;
+                walked = bestWalked;
+            } else if (type == ACCESS) {
+                legs.add(Leg.walk(s, -1, clock, clock + egressSeconds[s]));
+                clock += egressSeconds[s];
+                break;
+            } else {
+                return null;
+            }
+        }
+        return new Journey(mergeWalks(legs), departureSeconds, clock);
+    }
+
+    static List<Leg> mergeWalks(List<Leg> legs) {
+        List<Leg> out = new ArrayList<>();
+        for (Leg leg : legs) {
+            Leg last = out.isEmpty() ? null : out.get(out.size() - 1);
+            if (last != null && last.isWalk() && leg.isWalk()) {
+                out.set(out.size() - 1, Leg.walk(last.fromStop, leg.toStop, last.departure, leg.arrival));
+            } else {
+                out.add(leg);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Paradas a las que se puede ir a pie desde un punto, con los segundos de camino ({parada, segundos})
+     */
+    List<int[]> accessStops(double lat, double lon) {
+        return walkingStops(lat, lon, false);
+    }
+
+    /**
+     * Paradas desde las que se puede ir a pie hasta un punto, con los segundos de camino ({parada, segundos})
+     */
+    List<int[]> egressStops(double lat, double lon) {
+        return walkingStops(lat, lon, true);
+    }
+
+    /**
+     * Paradas cercanas en línea recta; con red peatonal, el tiempo es el de la red (cuestas incluidas) y
+     * solo las que no están conectadas se quedan con el de la línea recta
+     */
+    private List<int[]> walkingStops(double lat, double lon, boolean towardsPoint) {
+        List<int[]> near = tt.stopsNear(lat, lon, ACCESS_RADIUS_METERS, ACCESS_FALLBACK_STOPS);
+        int[] networkSeconds = null;
+        if (walks != null) {
+            double[] lats = new double[near.size()], lons = new double[near.size()];
+            int maxSeconds = 0;
+            for (int i = 0; i < lats.length; i++) {
+                int s = near.get(i)[0];
+                lats[i] = tt.getStopLatitude(s);
+                lons[i] = tt.getStopLongitude(s);
+                maxSeconds = Math.max(maxSeconds, walkSeconds(near.get(i)[1]));
+            }
+            // Rodeos y cuestas: hasta tres veces el tiempo en línea recta de la parada más lejana
+            networkSeconds = walks.secondsBetween(lat, lon, lats, lons, towardsPoint, 3 * maxSeconds + 60);
+        }
+        List<int[]> out = new ArrayList<>(near.size());
+        for (int i = 0; i < near.size(); i++) {
+            int[] e = near.get(i);
+            int seconds = networkSeconds != null && networkSeconds[i] >= 0 ? networkSeconds[i] : walkSeconds(e[1]);
+            out.add(new int[]{e[0], seconds});
+        }
+        return out;
+    }
+
+    static int walkSeconds(double meters) {
+        return (int) Math.ceil(meters / GtfsTimetable.WALK_METERS_PER_SECOND);
+    }
+
+    /**
+     * Viaje resultante: tramos a pie y en bus con horas en segundos desde medianoche
+     */
+    public static final class Journey {
+        public final List<Leg> legs;
+        public final int departure;
+        public final int arrival;
+
+        Journey(List<Leg> legs, int departure, int arrival) {
+            this.legs = Collections.unmodifiableList(legs);
+            this.departure = departure;
+            this.arrival = arrival;
+        }
+
+        public int getRideCount() {
+            int rides = 0;
+            for (Leg leg : legs) if (!leg.isWalk()) rides++;
+            return rides;
+        }
+    }
+
+    /**
+     * Tramo de un viaje. En los tramos a pie {@code fromStop}/{@code toStop} valen -1 para el origen/destino.
+     * En los de bus, {@code departure} es la salida del bus y no la llegada a la parada.
+     */
+    public static final class Leg {
+        public final int fromStop;
+        public final int toStop;
+        public final int trip;        // -1 en los tramos a pie
+        /** Desfase respecto a las horas del viaje (salidas generadas por frequencies.txt) */
+        public final int timeShift;
+        public final int boardPosition;
+        public final int alightPosition;
+        public final int departure;
+        public final int arrival;
+
+        private Leg(int fromStop, int toStop, int trip, int timeShift, int boardPosition, int alightPosition, int departure, int arrival) {
+            this.fromStop = fromStop;
+            this.toStop = toStop;
+            this.trip = trip;
+            this.timeShift = timeShift;
+            this.boardPosition = boardPosition;
+            this.alightPosition = alightPosition;
+            this.departure = departure;
+            this.arrival = arrival;
+        }
+
+        static Leg walk(int fromStop, int toStop, int departure, int arrival) {
+            return new Leg(fromStop, toStop, -1, 0, -1, -1, departure, arrival);
+        }
+
+        static Leg ride(int fromStop, int toStop, int trip, int timeShift, int boardPosition, int alightPosition, int departure, int arrival) {
+            return new Leg(fromStop, toStop, trip, timeShift, boardPosition, alightPosition, departure, arrival);
+        }
+
+        public boolean isWalk() { return trip < 0; }
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Capa de tiempo real sobre un {@link GtfsTimetable}: retrasos por viaje y parada, viajes cancelados y
+ * paradas que el bus se salta, sacados de un {@link GtfsRealtimeFeed}.
+ * <p>
+ * No modifica el horario compilado: solo guarda los viajes con actualizaciones (el resto ve sus horas
+ * programadas) y se sustituye entera en cada sondeo con {@link GtfsTimetable#setRealtime}. Solo vale
+ * para un día de servicio. Los viajes por frecuencia no se actualizan.
+ * <p>
+ * Es inmutable y no depende de Android.
+ */
+public final class RealtimeOverlay {
+
+    /** Antigüedad máxima de una capa para seguir usándola (p. ej. si se deja de sondear) */
+    public static final long MAX_AGE_MS = 5 * 60 * 1000L;
+
+    /** Capa vacía: todas las horas son las programadas */
+    public static final RealtimeOverlay EMPTY = new RealtimeOverlay(null, 0, 0, null, null, null, null, 0, 0, 0,
+            Collections.<GtfsRealtimeFeed.VehiclePosition>emptyList(), Collections.<GtfsRealtimeFeed.Alert>emptyList());
+
+    final GtfsTimetable timetable;
+    private final int serviceDate;
+    private final long fetchedAt;
+    private final int[][] arrivalDelays;   // por viaje (null = sin cambios), alineados con las paradas del patrón
+    private final int[][] departureDelays;
+    private final boolean[][] skipped;
+    private final BitSet canceled;
+    private final int minDelay;
+    private final int maxDelay;
+    private final int updatedTrips;
+    private final List<GtfsRealtimeFeed.VehiclePosition> vehicles;
+    private final List<GtfsRealtimeFeed.Alert> alerts;
+
+    private RealtimeOverlay(GtfsTimetable timetable, int serviceDate, long fetchedAt, int[][] arrivalDelays,
+                            int[][] departureDelays, boolean[][] skipped, BitSet canceled, int minDelay, int maxDelay,
+                            int updatedTrips, List<GtfsRealtimeFeed.VehiclePosition> vehicles, List<GtfsRealtimeFeed.Alert> alerts) {
+        this.timetable = timetable;
+        this.serviceDate = serviceDate;
+        this.fetchedAt = fetchedAt;
+        this.arrivalDelays = arrivalDelays;
+        this.departureDelays = departureDelays;
+        this.skipped = skipped;
+        this.canceled = canceled;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.updatedTrips = updatedTrips;
+        this.vehicles = vehicles;
+        this.alerts = alerts;
+    }
+
+    /**
+     * Aplica un feed al horario para un día de servicio.
+     * <p>
+     * Cada actualización de parada fija el retraso desde esa parada hasta la siguiente actualización (o
+     * el final del viaje); antes de la primera se mantiene el horario. Las horas resultantes se ajustan
+     * para que el viaje no llegue a una parada antes de salir de la anterior. Las paradas se localizan por
+     * stop_id y, si falta, por stop_sequence tomado como posición (1 = primera parada).
+     *
+     * @param serviceDate      Día de servicio como entero yyyymmdd; se ignoran los viajes de otros días
+     * @param dayStartEpochSec Medianoche del día de servicio en segundos Unix (para las horas absolutas)
+     * @param fetchedAt        Momento de la descarga en milisegundos
+     */
+    public static RealtimeOverlay build(GtfsTimetable tt, GtfsRealtimeFeed feed, int serviceDate,
+                                        long dayStartEpochSec, long fetchedAt) {
+        int nTrips = tt.getTripCount();
+        int[][] arrivalDelays = new int[nTrips][];
+        int[][] departureDelays = new int[nTrips][];
+        boolean[][] skipped = new boolean[nTrips][];
+        BitSet canceled = new BitSet(nTrips);
+        String date = String.valueOf(serviceDate);
+        int minDelay = 0, maxDelay = 0, updated = 0;
+
+        for (GtfsRealtimeFeed.TripUpdate update : feed.tripUpdates) {
+            GtfsRealtimeFeed.TripDescriptor descriptor = update.trip;
+            if (descriptor.startDate != null && !descriptor.startDate.isEmpty() && !date.equals(descriptor.startDate)) continue;
+            int t = descriptor.tripId != null ? tt.findTrip(descriptor.tripId) : -1;
+            if (t < 0 || tt.isFrequencyPattern(tt.tripPattern[t])) continue;
+            updated++;
+            if (descriptor.isCanceled()) {
+                canceled.set(t);
+                continue;
+            }
+            int n = tt.getTripStopCount(t);
+            int[] arr = new int[n], dep = new int[n];
+            boolean[] skip = null;
+            int delay = update.hasDelay ? update.delay : 0;
+            int fillFrom = update.stopTimeUpdates.isEmpty() ? 0 : n;
+            int cursor = 0;
+            for (GtfsRealtimeFeed.StopTimeUpdate stu : update.stopTimeUpdates) {
+                int p = positionOf(tt, t, stu, cursor);
+                if (p < 0) continue;
+                if (fillFrom < p) fillDelay(arr, dep, fillFrom, p, delay);
+                int base = tt.tripTimeOffset[t] + p;
+                if (stu.scheduleRelationship == GtfsRealtimeFeed.StopTimeUpdate.NO_DATA) {
+                    delay = 0;
+                } else {
+                    if (stu.scheduleRelationship == GtfsRealtimeFeed.StopTimeUpdate.SKIPPED) {
+                        if (skip == null) skip = new boolean[n];
+                        skip[p] = true;
+                    }
+                    int arrivalDelay = eventDelay(stu.arrival, tt.arrivals[base], dayStartEpochSec,
+                            eventDelay(stu.departure, tt.departures[base], dayStartEpochSec, delay));
+                    delay = eventDelay(stu.departure, tt.departures[base], dayStartEpochSec, arrivalDelay);
+                    arr[p] = arrivalDelay;
+                }
+                dep[p] = delay;
+                fillFrom = p + 1;
+                cursor = p + 1;
+            }
+            if (fillFrom < n) fillDelay(arr, dep, fillFrom, n, delay);
+
+            // Horas coherentes: sin llegar antes de haber salido de la parada anterior
+            int base = tt.tripTimeOffset[t];
+            int previousDeparture = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i++) {
+                int a = Math.max(tt.arrivals[base + i] + arr[i], previousDeparture);
+                int d = Math.max(tt.departures[base + i] + dep[i], a);
+                arr[i] = a - tt.arrivals[base + i];
+                dep[i] = d - tt.departures[base + i];
+                previousDeparture = d;
+                minDelay = Math.min(minDelay, Math.min(arr[i], dep[i]));
+                maxDelay = Math.max(maxDelay, Math.max(arr[i], dep[i]));
+            }
+            arrivalDelays[t] = arr;
+            departureDelays[t] = dep;
+            skipped[t] = skip;
+        }
+        return new RealtimeOverlay(tt, serviceDate, fetchedAt, arrivalDelays, departureDelays, skipped, canceled,
+                minDelay, maxDelay, updated, feed.vehicles, feed.alerts);
+    }
+
+    private static int positionOf(GtfsTimetable tt, int trip, GtfsRealtimeFeed.StopTimeUpdate stu, int from) {
+        int n = tt.getTripStopCount(trip);
+        if (stu.stopId != null) {
+            int stop = tt.findStop(stu.stopId);
+            if (stop < 0) return -1;
+            for (int p = from; p < n; p++) {
+                if (tt.getTripStop(trip, p) == stop) return p;
+            }
+            return -1;
+        }
+        int p = stu.stopSequence - 1;
+        return p >= from && p < n ? p : -1;
+    }
+
+    private static int eventDelay(GtfsRealtimeFeed.StopTimeEvent event, int scheduled, long dayStartEpochSec, int fallback) {
+        if (event == null) return fallback;
+        if (event.time > 0) return (int) (event.time - dayStartEpochSec - scheduled);
+        return event.hasDelay ? event.delay : fallback;
+    }
+
+    private static void fillDelay(int[] arr, int[] dep, int from, int to, int delay) {
+        for (int i = from; i < to; i++) {
+            arr[i] = delay;
+            dep[i] = delay;
+        }
+    }
+
+    /** Retraso de llegada en segundos (negativo si va adelantado) */
+    public int arrivalDelay(int trip, int position) {
+        if (arrivalDelays == null) return 0;
+        int[] d = arrivalDelays[trip];
+        return d == null ? 0 : d[position];
+    }
+
+    /** Retraso de salida en segundos (negativo si va adelantado) */
+    public int departureDelay(int trip, int position) {
+        if (departureDelays == null) return 0;
+        int[] d = departureDelays[trip];
+        return d == null ? 0 : d[position];
+    }
+
+    public boolean isCanceled(int trip) {
+        return canceled != null && canceled.get(trip);
+    }
+
+    /** Indica si el viaje no para en esa posición */
+    public boolean isSkipped(int trip, int position) {
+        if (skipped == null) return false;
+        boolean[] s = skipped[trip];
+        return s != null && s[position];
+    }
+
+    /** Indica si se puede subir o bajar del viaje en esa posición */
+    public boolean stopsAt(int trip, int position) {
+        return !isCanceled(trip) && !isSkipped(trip, position);
+    }
+
+    /** Menor retraso de la capa (0 o negativo); acota las búsquedas por hora programada */
+    public int getMinDelay() { return minDelay; }
+
+    /** Mayor retraso de la capa (0 o positivo) */
+    public int getMaxDelay() { return maxDelay; }
+
+    /**
+     * Indica si la capa vale para búsquedas de un día de servicio: es de ese día y no está caducada
+     */
+    public boolean appliesTo(int serviceDate, long nowMs) {
+        return this.serviceDate == serviceDate && nowMs - fetchedAt <= MAX_AGE_MS;
+    }
+
+    /** Día de servicio (yyyymmdd) al que se aplica, 0 en la capa vacía */
+    public int getServiceDate() { return serviceDate; }
+
+    /** Momento de la descarga del feed en milisegundos */
+    public long getFetchedAt() { return fetchedAt; }
+
+    /** Viajes con alguna actualización (incluidos los cancelados) */
+    public int getUpdatedTripCount() { return updatedTrips; }
+
+    public List<GtfsRealtimeFeed.VehiclePosition> getVehicles() { return vehicles; }
+
+    public List<GtfsRealtimeFeed.Alert> getAlerts() { return alerts; }
+}
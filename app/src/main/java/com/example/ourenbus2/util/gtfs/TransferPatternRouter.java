@@ -0,0 +1,347 @@
+package com.example.ourenbus2.util.gtfs;
+
+import com.example.ourenbus2.util.geo.PedestrianGraph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Búsqueda con patrones de transbordo precalculados ({@link TransferPatterns}): en lugar de explorar la
+ * red, junta en un grafo de consulta los tramos de los patrones que van de las paradas de origen a las
+ * de destino y busca en él la llegada más temprana (Dijkstra dependiente del tiempo). Cada arista es
+ * una conexión directa (un bus sin transbordos o un transbordo a pie) y se resuelve con una búsqueda
+ * binaria en los viajes de los patrones de bus que pasan por ambas paradas, así que el coste no
+ * depende del tamaño de la red sino del de ese grafo.
+ * <p>
+ * Devuelve los mismos {@link RaptorRouter.Journey} que {@link RaptorRouter}; con una
+ * {@link RealtimeOverlay} las conexiones usan las horas con retraso.
+ */
+public final class TransferPatternRouter {
+
+    private static final int INF = Integer.MAX_VALUE;
+    // Por parada: nº de buses (0..MAX_RIDES) y si se ha llegado a pie tras el último
+    private static final int STATES_PER_STOP = 2 * (RaptorRouter.MAX_RIDES + 1);
+
+    /**
+     * Patrones precalculados por parada de origen
+     */
+    public interface PatternSource {
+        /** Patrones desde una parada, o null si no están disponibles */
+        TransferPatterns patternsFrom(int stop);
+    }
+
+    private final GtfsTimetable tt;
+    private final RealtimeOverlay realtime;
+    private final RaptorRouter router;
+    // Conexiones directas por par de paradas (ver connectionsOf)
+    private final Map<Long, int[]> connections = new HashMap<>();
+
+    public TransferPatternRouter(GtfsTimetable timetable) {
+        this(timetable, RealtimeOverlay.EMPTY);
+    }
+
+    public TransferPatternRouter(GtfsTimetable timetable, RealtimeOverlay realtime) {
+        this(timetable, realtime, null);
+    }
+
+    /**
+     * @param walks Red peatonal para los tramos a pie del origen y al destino, o null para la línea recta
+     */
+    public TransferPatternRouter(GtfsTimetable timetable, RealtimeOverlay realtime, PedestrianGraph walks) {
+        this.tt = timetable;
+        this.realtime = realtime;
+        this.router = new RaptorRouter(timetable, realtime, walks);
+    }
+
+    /**
+     * Viaje que llega antes de una parada a otra saliendo a la hora indicada
+     *
+     * @param patterns Patrones de la parada de origen
+     * @return El viaje, o null si ningún patrón llega con los servicios activos
+     */
+    public RaptorRouter.Journey route(BitSet activeServices, TransferPatterns patterns, int targetStop, int departureSeconds) {
+        int[] finalSeconds = new int[tt.getStopCount()];
+        Arrays.fill(finalSeconds, -1);
+        finalSeconds[targetStop] = 0;
+        QueryGraph graph = new QueryGraph(tt.getStopCount());
+        graph.add(patterns, new int[]{targetStop});
+        Search search = new Search(activeServices, graph, finalSeconds);
+        search.start(patterns.getSource(), departureSeconds);
+        if (!search.run()) return null;
+        return search.journey(departureSeconds, false);
+    }
+
+    /**
+     * Igual que {@link RaptorRouter#route}: sale a pie hacia las paradas cercanas al origen y termina a
+     * pie desde las cercanas al destino, con los patrones de cada parada de acceso
+     *
+     * @return El viaje, o null si no hay patrones para alguna parada de acceso o ningún viaje llega
+     */
+    public RaptorRouter.Journey route(BitSet activeServices, PatternSource source, double fromLat, double fromLon,
+                                      double toLat, double toLon, int departureSeconds) {
+        int n = tt.getStopCount();
+        if (n == 0) return null;
+        List<int[]> access = router.accessStops(fromLat, fromLon);
+        List<int[]> egress = router.egressStops(toLat, toLon);
+
+        int[] finalSeconds = new int[n];
+        Arrays.fill(finalSeconds, -1);
+        int[] targets = new int[egress.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = egress.get(i)[0];
+            finalSeconds[targets[i]] = egress.get(i)[1];
+        }
+
+        QueryGraph graph = new QueryGraph(n);
+        for (int[] stop : access) {
+            TransferPatterns patterns = source.patternsFrom(stop[0]);
+            if (patterns == null) return null;
+            graph.add(patterns, targets);
+        }
+
+        Search search = new Search(activeServices, graph, finalSeconds);
+        for (int[] stop : access) search.start(stop[0], departureSeconds + stop[1]);
+        if (!search.run()) return null;
+        return search.journey(departureSeconds, true);
+    }
+
+    /**
+     * Grafo de consulta: por parada, las paradas a las que lleva algún tramo de los patrones añadidos
+     */
+    private static final class QueryGraph {
+        final int[][] out;
+        final int[] outCount;
+        private final int stopCount;
+        // Tramos ya añadidos (from * stopCount + to + 1), tabla hash abierta
+        private long[] seen = new long[1024];
+        private int seenCount;
+
+        QueryGraph(int stopCount) {
+            this.stopCount = stopCount;
+            out = new int[stopCount][];
+            outCount = new int[stopCount];
+        }
+
+        /**
+         * Añade los tramos de los patrones que terminan en alguna parada final
+         */
+        void add(TransferPatterns patterns, int[] targets) {
+            for (int target : targets) {
+                int t = patterns.targetIndex(target);
+                if (t < 0) continue;
+                for (int i = patterns.targetEdgeStart(t); i < patterns.targetEdgeEnd(t); i++) {
+                    addEdge(patterns.edgeFrom(i), patterns.edgeTo(i));
+                }
+            }
+        }
+
+        private void addEdge(int from, int to) {
+            if (!markSeen((long) from * stopCount + to + 1)) return;
+            int[] list = out[from];
+            int count = outCount[from];
+            if (list == null) list = out[from] = new int[4];
+            else if (count == list.length) list = out[from] = Arrays.copyOf(list, count * 2);
+            list[count] = to;
+            outCount[from] = count + 1;
+        }
+
+        /** @return Si el tramo no se había añadido antes */
+        private boolean markSeen(long key) {
+            int mask = seen.length - 1;
+            int i = (int) (key * 0x9E3779B97F4A7C15L >>> 40) & mask;
+            while (seen[i] != 0) {
+                if (seen[i] == key) return false;
+                i = (i + 1) & mask;
+            }
+            seen[i] = key;
+            if (++seenCount * 2 > seen.length) {
+                long[] old = seen;
+                seen = new long[old.length * 2];
+                seenCount = 0;
+                for (long k : old) if (k != 0) markSeen(k);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Conexiones directas de una parada a otra: segundos del transbordo a pie (-1 si no hay) y después
+     * ternas {patrón, posición de subida, posición de bajada} de los patrones que pasan por las dos
+     */
+    private int[] connectionsOf(int from, int to) {
+        long key = (long) from * tt.getStopCount() + to;
+        int[] connection = connections.get(key);
+        if (connection != null) return connection;
+        List<Integer> out = new ArrayList<>();
+        out.add(-1);
+        for (int i = tt.transferOffset[from]; i < tt.transferOffset[from + 1]; i++) {
+            if (tt.transferTargets[i] == to) {
+                out.set(0, tt.transferSeconds[i]);
+                break;
+            }
+        }
+        for (int k = tt.stopPatternOffset[from]; k < tt.stopPatternOffset[from + 1]; k++) {
+            int p = tt.stopPatterns[k];
+            int board = tt.stopPatternPositions[k];
+            int alight = -1;
+            for (int m = tt.stopPatternOffset[to]; m < tt.stopPatternOffset[to + 1]; m++) {
+                int position = tt.stopPatternPositions[m];
+                if (tt.stopPatterns[m] == p && position > board && (alight < 0 || position < alight)) alight = position;
+            }
+            if (alight < 0) continue;
+            out.add(p);
+            out.add(board);
+            out.add(alight);
+        }
+        connection = new int[out.size()];
+        for (int i = 0; i < connection.length; i++) connection[i] = out.get(i);
+        connections.put(key, connection);
+        return connection;
+    }
+
+    /**
+     * Llegada más temprana en el grafo de consulta. Cada estado es una parada con el nº de buses
+     * cogidos hasta ella (hasta {@link RaptorRouter#MAX_RIDES}) y si el último tramo es a pie. Como en
+     * {@link RaptorRouter#route}, solo se camina a otra parada al bajar de un bus (ni desde las paradas
+     * de salida ni dos veces seguidas) y el destino solo cuenta tras algún bus.
+     */
+    private final class Search {
+        private final BitSet activeServices;
+        private final QueryGraph graph;
+        private final int[] finalSeconds;
+        private final int[] arrival;
+        private final int[] parent;     // estado anterior, -1 en los de salida
+        private final int[] trip;       // -1 si el tramo hasta el estado es a pie
+        private final int[] shift;
+        private final int[] boardPos;
+        private final int[] alightPos;
+        private final PriorityQueue<long[]> queue = new PriorityQueue<>(64, (a, b) -> Long.compare(a[0], b[0]));
+        private int bestState = -1;
+        private int bestArrival = INF;
+
+        Search(BitSet activeServices, QueryGraph graph, int[] finalSeconds) {
+            this.activeServices = activeServices;
+            this.graph = graph;
+            this.finalSeconds = finalSeconds;
+            int states = tt.getStopCount() * STATES_PER_STOP;
+            arrival = new int[states];
+            parent = new int[states];
+            trip = new int[states];
+            shift = new int[states];
+            boardPos = new int[states];
+            alightPos = new int[states];
+            Arrays.fill(arrival, INF);
+        }
+
+        void start(int stop, int time) {
+            int state = stateOf(stop, 0, false);
+            if (time >= arrival[state]) return;
+            arrival[state] = time;
+            parent[state] = -1;
+            trip[state] = -1;
+            queue.add(new long[]{time, state});
+        }
+
+        /**
+         * @return Si se ha llegado a alguna parada final en bus
+         */
+        boolean run() {
+            while (!queue.isEmpty()) {
+                long[] top = queue.poll();
+                int state = (int) top[1];
+                int time = (int) top[0];
+                if (time != arrival[state]) continue;
+                if (time > bestArrival) break;
+                int stop = state / STATES_PER_STOP, rides = ridesOf(state);
+                if (rides > 0 && finalSeconds[stop] >= 0) {
+                    int t = time + finalSeconds[stop];
+                    if (t < bestArrival || (t == bestArrival && rides < ridesOf(bestState))) {
+                        bestArrival = t;
+                        bestState = state;
+                    }
+                }
+                int[] out = graph.out[stop];
+                for (int i = 0; i < graph.outCount[stop]; i++) relax(state, stop, rides, out[i], time);
+            }
+            return bestState >= 0;
+        }
+
+        private void relax(int state, int stop, int rides, int to, int time) {
+            int[] connection = connectionsOf(stop, to);
+            if (connection[0] >= 0 && trip[state] >= 0) {
+                int next = stateOf(to, rides, true);
+                int t = time + connection[0];
+                if (t < arrival[next]) {
+                    arrival[next] = t;
+                    parent[next] = state;
+                    trip[next] = -1;
+                    queue.add(new long[]{t, next});
+                }
+            }
+            if (rides == RaptorRouter.MAX_RIDES) return;
+            int next = stateOf(to, rides + 1, false);
+            for (int c = 1; c < connection.length; c += 3) {
+                int p = connection[c], board = connection[c + 1], alight = connection[c + 2];
+                int candidate, candidateShift = 0;
+                if (tt.isFrequencyPattern(p)) {
+                    candidateShift = tt.frequencyShift(p, board, time, activeServices);
+                    candidate = candidateShift == GtfsTimetable.NO_FREQUENCY_DEPARTURE ? -1 : tt.patternTripOffset[p];
+                } else {
+                    candidate = router.earliestTrip(p, board, time, activeServices);
+                }
+                if (candidate < 0 || !realtime.stopsAt(candidate, alight)) continue;
+                int t = router.arrivalOf(candidate, alight) + candidateShift;
+                if (t < arrival[next]) {
+                    arrival[next] = t;
+                    parent[next] = state;
+                    trip[next] = candidate;
+                    shift[next] = candidateShift;
+                    boardPos[next] = board;
+                    alightPos[next] = alight;
+                    queue.add(new long[]{t, next});
+                }
+            }
+        }
+
+        private int stateOf(int stop, int rides, boolean walked) {
+            return stop * STATES_PER_STOP + 2 * rides + (walked ? 1 : 0);
+        }
+
+        private int ridesOf(int state) {
+            return state % STATES_PER_STOP / 2;
+        }
+
+        /**
+         * Viaje hasta el mejor estado final
+         *
+         * @param walkEnds Si se sale a pie desde un punto hasta la primera parada y se termina a pie en otro
+         */
+        RaptorRouter.Journey journey(int departureSeconds, boolean walkEnds) {
+            List<RaptorRouter.Leg> legs = new ArrayList<>();
+            int first = bestState;
+            for (int s = bestState; parent[s] >= 0; s = parent[s]) {
+                int u = parent[s];
+                int from = u / STATES_PER_STOP, to = s / STATES_PER_STOP;
+                if (trip[s] < 0) {
+                    legs.add(RaptorRouter.Leg.walk(from, to, arrival[u], arrival[s]));
+                } else {
+                    legs.add(RaptorRouter.Leg.ride(from, to, trip[s], shift[s], boardPos[s], alightPos[s],
+                            router.departureOf(trip[s], boardPos[s]) + shift[s], arrival[s]));
+                }
+                first = u;
+            }
+            Collections.reverse(legs);
+            if (walkEnds) {
+                legs.add(0, RaptorRouter.Leg.walk(-1, first / STATES_PER_STOP, departureSeconds, arrival[first]));
+                legs.add(RaptorRouter.Leg.walk(bestState / STATES_PER_STOP, -1, arrival[bestState], bestArrival));
+            }
+            return new RaptorRouter.Journey(RaptorRouter.mergeWalks(legs), departureSeconds, bestArrival);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.ourenbus2.util.gtfs;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.ourenbus2.database.AppDatabase;
+import com.example.ourenbus2.database.dao.GtfsDao;
+import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTransferPatternEntity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Patrones de transbordo ({@link TransferPatterns}) de todas las paradas. Se calculan en segundo plano
+ * tras importar el feed (las paradas que ya están en la BD no se repiten, así que el cálculo se retoma
+ * si se interrumpe) y al consultar se leen por parada de origen, con una caché de las usadas
+ * recientemente. Hasta que están todas, {@link #get} devuelve null y el enrutado usa RAPTOR.
+ * <p>
+ * Junto a los patrones se guarda con qué se calcularon (huella del horario y claves de sus paradas, y
+ * servicios de la semana): si algo cambia se borran todos y se calculan de nuevo.
+ */
+public class TransferPatternStore {
+
+    private static final int CACHE_SIZE = 128;
+    // Paradas calculadas entre escrituras en la BD
+    private static final int BATCH_SIZE = 16;
+    // Días que se toman para sacar los tipos de día distintos (laborable, sábado, festivo...)
+    private static final int SERVICE_DAYS = 7;
+
+    private static final String PREF_NAME = "gtfs_transfer_patterns";
+    private static final String KEY_TIMETABLE = "timetable";
+    private static final String KEY_SERVICE_DAYS = "service_days";
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static volatile Source source;
+
+    /**
+     * Calcula en segundo plano los patrones de las paradas que aún no los tienen
+     */
+    public static void precomputeInBackground(Context context) {
+        final Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                precompute(appContext);
+            } catch (Exception ignored) {
+                // Sin patrones se sigue enrutando con RAPTOR; se reintenta en el siguiente arranque
+            }
+        });
+    }
+
+    /**
+     * Patrones del horario actual
+     * @return Origen de patrones, o null si aún no están calculados para todas las paradas
+     */
+    public static TransferPatternRouter.PatternSource get(Context context) {
+        GtfsTimetable tt = GtfsTimetableProvider.get(context);
+        Source current = source;
+        return tt != null && current != null && current.tt == tt ? current : null;
+    }
+
+    private static void precompute(Context context) {
+        GtfsTimetable tt = GtfsTimetableProvider.get(context);
+        if (tt == null) return;
+        List<BitSet> serviceDays = serviceDays(tt);
+        String window = serviceWindow(serviceDays);
+        Source current = source;
+        if (current != null && current.tt == tt && current.window.equals(window)) return;
+        GtfsDao dao = AppDatabase.getInstance(context).gtfsDao();
+        int n = tt.getStopCount();
+        int[] keyOfStop = new int[n];
+        Arrays.fill(keyOfStop, -1);
+        int maxKey = 0;
+        for (GtfsStopEntity s : dao.getAllStops()) {
+            int stop = tt.findStop(s.stopId);
+            if (stop >= 0) keyOfStop[stop] = s.stopKey;
+            maxKey = Math.max(maxKey, s.stopKey);
+        }
+        // Paradas del horario que no están en la BD: claves propias por encima de las de la BD
+        for (int stop = 0; stop < n; stop++) {
+            if (keyOfStop[stop] < 0) keyOfStop[stop] = ++maxKey;
+        }
+        int[] stopOfKey = new int[maxKey + 1];
+        Arrays.fill(stopOfKey, -1);
+        for (int stop = 0; stop < n; stop++) stopOfKey[keyOfStop[stop]] = stop;
+
+        // Patrones de otro horario, de otros días o de otra versión del cálculo: se descartan antes de apuntar los nuevos
+        SharedPreferences preferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        String timetable = TransferPatterns.VERSION + ":" + tt.getFingerprint() + ":" + Arrays.hashCode(keyOfStop);
+        if (!timetable.equals(preferences.getString(KEY_TIMETABLE, null))
+                || !window.equals(preferences.getString(KEY_SERVICE_DAYS, null))) {
+            dao.deleteTransferPatterns();
+            preferences.edit()
+                    .putString(KEY_TIMETABLE, timetable)
+                    .putString(KEY_SERVICE_DAYS, window)
+                    .commit();
+        }
+
+        Set<Integer> done = new HashSet<>(dao.getTransferPatternStopKeys());
+        List<GtfsTransferPatternEntity> batch = new ArrayList<>();
+        for (int stop = 0; stop < n; stop++) {
+            if (done.contains(keyOfStop[stop])) continue;
+            // Horario recargado mientras se calculaba: se empieza de nuevo con el nuevo
+            if (GtfsTimetableProvider.get(context) != tt) return;
+            GtfsTransferPatternEntity e = new GtfsTransferPatternEntity();
+            e.stopKey = keyOfStop[stop];
+            e.dag = TransferPatterns.compute(tt, stop, serviceDays).encode(keyOfStop);
+            batch.add(e);
+            if (batch.size() >= BATCH_SIZE) {
+                dao.insertTransferPatterns(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) dao.insertTransferPatterns(batch);
+        source = new Source(tt, window, dao, keyOfStop, stopOfKey);
+    }
+
+    /**
+     * Servicios activos de cada tipo de día distinto de la próxima semana
+     */
+    private static List<BitSet> serviceDays(GtfsTimetable tt) {
+        List<BitSet> out = new ArrayList<>();
+        Calendar day = Calendar.getInstance();
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        for (int i = 0; i < SERVICE_DAYS; i++) {
+            BitSet services = tt.getActiveServices(day);
+            if (!services.isEmpty() && !out.contains(services)) out.add(services);
+            day.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return out;
+    }
+
+    /**
+     * Servicios de los tipos de día en texto, sin depender del día de la semana en que se empieza
+     */
+    private static String serviceWindow(List<BitSet> serviceDays) {
+        List<String> days = new ArrayList<>();
+        for (BitSet services : serviceDays) days.add(services.toString());
+        Collections.sort(days);
+        return days.toString();
+    }
+
+    /**
+     * Lectura de los patrones de la BD con caché de los usados recientemente
+     */
+    private static final class Source implements TransferPatternRouter.PatternSource {
+        final GtfsTimetable tt;
+        final String window;
+        private final GtfsDao dao;
+        private final int[] keyOfStop;
+        private final int[] stopOfKey;
+        private final Map<Integer, TransferPatterns> cache = new LinkedHashMap<Integer, TransferPatterns>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, TransferPatterns> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+        Source(GtfsTimetable tt, String window, GtfsDao dao, int[] keyOfStop, int[] stopOfKey) {
+            this.tt = tt;
+            this.window = window;
+            this.dao = dao;
+            this.keyOfStop = keyOfStop;
+            this.stopOfKey = stopOfKey;
+        }
+
+        @Override
+        public TransferPatterns patternsFrom(int stop) {
+            synchronized (cache) {
+                TransferPatterns patterns = cache.get(stop);
+                if (patterns != null) return patterns;
+            }
+            GtfsTransferPatternEntity e = dao.getTransferPatterns(keyOfStop[stop]);
+            if (e == null) return null;
+            TransferPatterns patterns = TransferPatterns.decode(stop, e.dag, stopOfKey);
+            if (patterns == null) return null;
+            synchronized (cache) {
+                cache.put(stop, patterns);
+            }
+            return patterns;
+        }
+    }
+}
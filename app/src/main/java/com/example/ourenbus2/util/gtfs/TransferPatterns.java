@@ -0,0 +1,422 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Patrones de transbordo de una parada de origen: para cada destino, las secuencias de paradas donde
+ * se sube, se baja o se cambia a pie en los viajes óptimos desde ese origen a cualquier hora.
+ * <p>
+ * Se guardan como un árbol de prefijos (un DAG con raíz en el origen): cada nodo es una parada y su
+ * padre es la parada anterior del patrón, así que los patrones que empiezan igual comparten nodos.
+ * Un nodo final indica que su camino desde la raíz es un patrón hasta esa parada. Los nodos se
+ * numeran de forma que el padre siempre va antes que el hijo. Para las consultas se guardan además,
+ * por parada de destino, los tramos de sus patrones sin repetir.
+ * <p>
+ * Se calculan una vez con {@link #compute} (búsqueda por rangos sobre todo el día para varios días de
+ * servicio) y se guardan codificados con {@link #encode}. No depende de Android.
+ */
+public final class TransferPatterns {
+
+    /** Versión del cálculo y la codificación: al cambiarla se descartan los patrones guardados */
+    static final int VERSION = 2;
+
+    private static final int INF = Integer.MAX_VALUE;
+    private static final int ACCESS = 1, RIDE = 2;
+    // Última hora de salida considerada (los horarios GTFS pasan de las 24:00)
+    private static final int DAY_END_SECONDS = 30 * 3600;
+
+    private final int source;
+    private final int[] nodeStop;
+    private final int[] nodeParent;    // -1 en la raíz
+    private final int[] targetStops;   // paradas con algún nodo final, ordenadas
+    private final int[] targetOffset;  // tamaño targetStops.length + 1
+    private final int[] targetNodes;
+    // Tramos (parada, parada siguiente) sin repetir de los patrones de cada parada de destino
+    private final int[] targetEdgeOffset;
+    private final int[] targetEdgeFrom;
+    private final int[] targetEdgeTo;
+
+    private TransferPatterns(int source, int[] nodeStop, int[] nodeParent, BitSet ends) {
+        this.source = source;
+        this.nodeStop = nodeStop;
+        this.nodeParent = nodeParent;
+        // Índice de nodos finales por parada de destino
+        int[] order = new int[ends.cardinality()];
+        int n = 0;
+        for (int v = ends.nextSetBit(0); v >= 0; v = ends.nextSetBit(v + 1)) order[n++] = v;
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++) boxed[i] = order[i];
+        Arrays.sort(boxed, (a, b) -> nodeStop[a] != nodeStop[b] ? Integer.compare(nodeStop[a], nodeStop[b]) : Integer.compare(a, b));
+        List<Integer> stops = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        targetNodes = new int[n];
+        for (int i = 0; i < n; i++) {
+            targetNodes[i] = boxed[i];
+            if (stops.isEmpty() || stops.get(stops.size() - 1) != nodeStop[boxed[i]]) {
+                stops.add(nodeStop[boxed[i]]);
+                offsets.add(i);
+            }
+        }
+        offsets.add(n);
+        targetStops = new int[stops.size()];
+        targetOffset = new int[offsets.size()];
+        for (int i = 0; i < targetStops.length; i++) targetStops[i] = stops.get(i);
+        for (int i = 0; i < targetOffset.length; i++) targetOffset[i] = offsets.get(i);
+
+        // Tramos por destino: la consulta los junta sin recorrer el árbol
+        targetEdgeOffset = new int[targetStops.length + 1];
+        int[] from = new int[64], to = new int[64];
+        int size = 0;
+        BitSet seen = new BitSet(nodeStop.length);
+        for (int t = 0; t < targetStops.length; t++) {
+            seen.clear();
+            targetEdgeOffset[t] = size;
+            for (int i = targetOffset[t]; i < targetOffset[t + 1]; i++) {
+                for (int v = targetNodes[i]; v > 0 && !seen.get(v); v = nodeParent[v]) {
+                    seen.set(v);
+                    if (size == from.length) {
+                        from = Arrays.copyOf(from, size * 2);
+                        to = Arrays.copyOf(to, size * 2);
+                    }
+                    from[size] = nodeStop[nodeParent[v]];
+                    to[size] = nodeStop[v];
+                    size++;
+                }
+            }
+        }
+        targetEdgeOffset[targetStops.length] = size;
+        targetEdgeFrom = Arrays.copyOf(from, size);
+        targetEdgeTo = Arrays.copyOf(to, size);
+    }
+
+    public int getSource() { return source; }
+
+    public int getNodeCount() { return nodeStop.length; }
+
+    /** Nº de patrones guardados (nodos finales) */
+    public int getPatternCount() { return targetNodes.length; }
+
+    /**
+     * Posición de una parada de destino en {@link #targetEdges}
+     *
+     * @return Posición, o -1 si ningún patrón llega a la parada
+     */
+    int targetIndex(int stop) {
+        int i = Arrays.binarySearch(targetStops, stop);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * Tramos de los patrones hasta una parada de destino, en {@code from[i] -> to[i]} para
+     * {@code i} en {@code [targetEdgeStart(t), targetEdgeEnd(t))}
+     */
+    int targetEdgeStart(int target) { return targetEdgeOffset[target]; }
+
+    int targetEdgeEnd(int target) { return targetEdgeOffset[target + 1]; }
+
+    int edgeFrom(int edge) { return targetEdgeFrom[edge]; }
+
+    int edgeTo(int edge) { return targetEdgeTo[edge]; }
+
+    /**
+     * Calcula los patrones de una parada de origen.
+     * <p>
+     * Para cada día de servicio hace una búsqueda por rangos desde la parada con todas las salidas de
+     * buses del día, guardando de dónde viene cada etiqueta. Como en {@link RaptorRouter#route}, el
+     * viaje empieza en bus: las paradas cercanas al origen tienen sus propios patrones.
+     * Tras cada salida se extrae el patrón del mejor viaje a cada parada cuya llegada ha mejorado
+     * (a igualdad de hora, con menos buses). Hasta {@link RaptorRouter#MAX_RIDES} buses.
+     *
+     * @param serviceDays Servicios activos de los días representativos (p. ej. laborable, sábado y festivo)
+     */
+    public static TransferPatterns compute(GtfsTimetable tt, int source, List<BitSet> serviceDays) {
+        Builder builder = new Builder(source, tt.getStopCount());
+        RaptorRouter router = new RaptorRouter(tt);
+        for (BitSet services : serviceDays) {
+            new RangeSearch(tt, router, source, services, builder).run();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Búsqueda por rangos desde una parada que guarda, por ronda, el tipo y el origen de cada etiqueta
+     */
+    private static final class RangeSearch {
+        private final GtfsTimetable tt;
+        private final RaptorRouter router;
+        private final int source;
+        private final BitSet services;
+        private final Builder builder;
+        private final int n;
+        private final int rounds = RaptorRouter.MAX_RIDES + 1;
+        private final int[][] arrival;     // desde el origen (ronda 0) o en bus
+        private final int[][] kind;
+        private final int[][] from;        // parada de subida
+        private final int[][] walkArrival; // transbordo a pie tras el bus de la ronda
+        private final int[][] walkFrom;    // parada de bajada desde la que se camina
+        private final int[] readyAt;       // mejor llegada de la ronda anterior, en bus o a pie
+        private final int[] path = new int[4 * (RaptorRouter.MAX_RIDES + 1) + 2];
+
+        RangeSearch(GtfsTimetable tt, RaptorRouter router, int source, BitSet services, Builder builder) {
+            this.tt = tt;
+            this.router = router;
+            this.source = source;
+            this.services = services;
+            this.builder = builder;
+            this.n = tt.getStopCount();
+            arrival = new int[rounds][n];
+            kind = new int[rounds][n];
+            from = new int[rounds][n];
+            walkArrival = new int[rounds][n];
+            walkFrom = new int[rounds][n];
+            readyAt = new int[n];
+            for (int[] row : arrival) Arrays.fill(row, INF);
+            for (int[] row : walkArrival) Arrays.fill(row, INF);
+        }
+
+        void run() {
+            // Salidas útiles: las de los buses que pasan por la parada
+            List<Integer> candidates = new ArrayList<>();
+            for (int t : tt.departureTimesBetween(source, services, 0, DAY_END_SECONDS)) candidates.add(t);
+            Collections.sort(candidates, Collections.reverseOrder());
+
+            int[] patternStart = new int[tt.getPatternCount()];
+            BitSet marked = new BitSet(n);
+            BitSet improved = new BitSet(n);
+            int previousDeparture = INF;
+            for (int departure : candidates) {
+                if (departure == previousDeparture) continue;
+                previousDeparture = departure;
+                marked.clear();
+                improved.clear();
+                if (departure < arrival[0][source]) {
+                    arrival[0][source] = departure;
+                    kind[0][source] = ACCESS;
+                    marked.set(source);
+                }
+
+                for (int k = 1; k < rounds && !marked.isEmpty(); k++) {
+                    Arrays.fill(patternStart, INF);
+                    BitSet patterns = new BitSet(tt.getPatternCount());
+                    for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                        for (int i = tt.stopPatternOffset[s]; i < tt.stopPatternOffset[s + 1]; i++) {
+                            int p = tt.stopPatterns[i];
+                            patternStart[p] = Math.min(patternStart[p], tt.stopPatternPositions[i]);
+                            patterns.set(p);
+                        }
+                    }
+                    int[] previous = arrival[k - 1];
+                    int[] current = arrival[k];
+                    for (int s = 0; s < n; s++) readyAt[s] = Math.min(previous[s], walkArrival[k - 1][s]);
+                    marked.clear();
+                    for (int p = patterns.nextSetBit(0); p >= 0; p = patterns.nextSetBit(p + 1)) {
+                        scanPattern(p, patternStart[p], k, previous, current, marked);
+                    }
+                    // Transbordos a pie como en RaptorRouter#route: solo desde las llegadas en bus de esta
+                    // ronda y a etiquetas aparte, así que no se encadenan dos tramos a pie
+                    BitSet reachedByRide = (BitSet) marked.clone();
+                    int[] walked = walkArrival[k];
+                    for (int s = reachedByRide.nextSetBit(0); s >= 0; s = reachedByRide.nextSetBit(s + 1)) {
+                        for (int i = tt.transferOffset[s]; i < tt.transferOffset[s + 1]; i++) {
+                            int target = tt.transferTargets[i];
+                            int t = current[s] + tt.transferSeconds[i];
+                            if (t < walked[target] && t < current[target] && t < readyAt[target]) {
+                                walked[target] = t;
+                                walkFrom[k][target] = s;
+                                marked.set(target);
+                            }
+                        }
+                    }
+                    improved.or(marked);
+                }
+                for (int s = improved.nextSetBit(0); s >= 0; s = improved.nextSetBit(s + 1)) {
+                    if (s != source) extract(s);
+                }
+            }
+        }
+
+        private void scanPattern(int p, int start, int k, int[] previous, int[] current, BitSet marked) {
+            int stopOffset = tt.patternStopOffset[p];
+            int length = tt.patternStopOffset[p + 1] - stopOffset;
+            boolean frequency = tt.isFrequencyPattern(p);
+            int currentTrip = -1, currentShift = 0, boardStop = -1;
+            for (int i = start; i < length; i++) {
+                int s = tt.patternStops[stopOffset + i];
+                if (currentTrip >= 0) {
+                    int arr = tt.getTripArrival(currentTrip, i) + currentShift;
+                    if (arr < current[s] && arr < previous[s]) {
+                        current[s] = arr;
+                        kind[k][s] = RIDE;
+                        from[k][s] = boardStop;
+                        marked.set(s);
+                    }
+                }
+                int ready = readyAt[s];
+                if (ready != INF && (currentTrip < 0 || ready <= tt.getTripDeparture(currentTrip, i) + currentShift)) {
+                    int candidate, candidateShift = 0;
+                    if (frequency) {
+                        candidateShift = tt.frequencyShift(p, i, ready, services);
+                        candidate = candidateShift == GtfsTimetable.NO_FREQUENCY_DEPARTURE ? -1 : tt.patternTripOffset[p];
+                    } else {
+                        candidate = router.earliestTrip(p, i, ready, services);
+                    }
+                    if (candidate >= 0 && (currentTrip < 0
+                            || tt.getTripDeparture(candidate, i) + candidateShift
+                                    < tt.getTripDeparture(currentTrip, i) + currentShift)) {
+                        currentTrip = candidate;
+                        currentShift = candidateShift;
+                        boardStop = s;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Patrón del mejor viaje actual hasta una parada: las paradas de la cadena de etiquetas en orden
+         */
+        private void extract(int target) {
+            int bestRound = -1, best = INF;
+            boolean bestWalked = false;
+            for (int k = 1; k < rounds; k++) {
+                if (arrival[k][target] < best) {
+                    best = arrival[k][target];
+                    bestRound = k;
+                    bestWalked = false;
+                }
+                if (walkArrival[k][target] < best) {
+                    best = walkArrival[k][target];
+                    bestRound = k;
+                    bestWalked = true;
+                }
+            }
+            if (bestRound < 0) return;
+            int length = 0, k = bestRound, s = target;
+            boolean walked = bestWalked, complete = false;
+            while (length < path.length) {
+                path[length++] = s;
+                int type = kind[k][s];
+                if (walked) {
+                    s = walkFrom[k][s];
+                    walked = false;
+                } else if (type == RIDE) {
+                    s = from[k][s];
+                    k--;
+                    // Se sube con la mejor llegada de la ronda anterior, en bus o a pie
+                    walked = walkArrival[k][s] < arrival[k][s];
+                } else {
+                    // ACCESS solo está en el origen; cualquier otra cosa es una cadena incompleta
+                    complete = type == ACCESS && s == source;
+                    break;
+                }
+            }
+            if (complete) builder.add(path, length);
+        }
+    }
+
+    /**
+     * Árbol de prefijos en construcción
+     */
+    private static final class Builder {
+        private final int source;
+        private final int stopCount;
+        private int[] stops = new int[64];
+        private int[] parents = new int[64];
+        private int size = 1;
+        private final Map<Long, Integer> children = new HashMap<>();
+        private final BitSet ends = new BitSet();
+
+        Builder(int source, int stopCount) {
+            this.source = source;
+            this.stopCount = stopCount;
+            stops[0] = source;
+            parents[0] = -1;
+        }
+
+        /** Añade un patrón dado en orden inverso (destino primero, origen en la última posición) */
+        void add(int[] reversedPath, int length) {
+            int node = 0;
+            for (int i = length - 2; i >= 0; i--) {
+                int stop = reversedPath[i];
+                long key = (long) node * stopCount + stop;
+                Integer child = children.get(key);
+                if (child == null) {
+                    child = size;
+                    if (size == stops.length) {
+                        stops = Arrays.copyOf(stops, size * 2);
+                        parents = Arrays.copyOf(parents, size * 2);
+                    }
+                    stops[size] = stop;
+                    parents[size] = node;
+                    size++;
+                    children.put(key, child);
+                }
+                node = child;
+            }
+            if (node != 0) ends.set(node);
+        }
+
+        TransferPatterns build() {
+            return new TransferPatterns(source, Arrays.copyOf(stops, size), Arrays.copyOf(parents, size), ends);
+        }
+    }
+
+    /**
+     * Codifica el DAG con varints: nº de nodos y, por nodo, su parada y la distancia a su padre; después
+     * los nodos finales como incrementos
+     *
+     * @param keyOfStop Clave persistente de cada parada del horario (las posiciones del horario pueden cambiar al recargarlo)
+     */
+    public byte[] encode(int[] keyOfStop) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(nodeStop.length * 3);
+        TripPatterns.writeVarint(out, nodeStop.length);
+        for (int v = 1; v < nodeStop.length; v++) {
+            TripPatterns.writeVarint(out, keyOfStop[nodeStop[v]]);
+            TripPatterns.writeVarint(out, v - nodeParent[v]);
+        }
+        int[] ends = targetNodes.clone();
+        Arrays.sort(ends);
+        TripPatterns.writeVarint(out, ends.length);
+        int previous = 0;
+        for (int v : ends) {
+            TripPatterns.writeVarint(out, v - previous);
+            previous = v;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reconstruye un DAG codificado con {@link #encode}
+     *
+     * @param stopOfKey Parada del horario de cada clave persistente (-1 si ya no existe)
+     * @return Patrones, o null si alguna parada ya no está en el horario
+     */
+    public static TransferPatterns decode(int source, byte[] data, int[] stopOfKey) {
+        int[] pos = {0};
+        int n = TripPatterns.readVarint(data, pos);
+        int[] stops = new int[n], parents = new int[n];
+        stops[0] = source;
+        parents[0] = -1;
+        for (int v = 1; v < n; v++) {
+            int key = TripPatterns.readVarint(data, pos);
+            int stop = key >= 0 && key < stopOfKey.length ? stopOfKey[key] : -1;
+            if (stop < 0) return null;
+            stops[v] = stop;
+            parents[v] = v - TripPatterns.readVarint(data, pos);
+        }
+        int count = TripPatterns.readVarint(data, pos);
+        BitSet ends = new BitSet(n);
+        int node = 0;
+        for (int i = 0; i < count; i++) {
+            node += TripPatterns.readVarint(data, pos);
+            ends.set(node);
+        }
+        return new TransferPatterns(source, stops, parents, ends);
+    }
+}
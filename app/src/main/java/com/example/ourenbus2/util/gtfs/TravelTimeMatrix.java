@@ -0,0 +1,175 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Matriz de tiempos de viaje de muchos orígenes a muchos destinos dentro de una ventana de salida.
+ * <p>
+ * Cada origen se resuelve con una sola búsqueda por rangos de uno a todos
+ * ({@link RaptorRouter#rangeArrivals}) y las etiquetas de cada hora de salida se cruzan con las paradas
+ * cercanas a todos los destinos. Los orígenes se reparten entre los núcleos con un {@link ForkJoinPool}.
+ * <p>
+ * El mejor tiempo de una celda es el mínimo, entre todas las salidas de la ventana, de la llegada al
+ * destino menos la salida (sin contar la espera antes de salir). Ir andando directamente también cuenta.
+ */
+public final class TravelTimeMatrix {
+
+    private final int origins;
+    private final int destinations;
+    private final int[] travelSeconds;
+    private final int[] transfers;
+
+    private TravelTimeMatrix(int origins, int destinations) {
+        this.origins = origins;
+        this.destinations = destinations;
+        this.travelSeconds = new int[origins * destinations];
+        this.transfers = new int[origins * destinations];
+    }
+
+    /**
+     * Calcula la matriz en el pool común de fork-join
+     *
+     * @param originCoords      Orígenes como pares {lat, lon}
+     * @param destinationCoords Destinos como pares {lat, lon}
+     * @param windowStart       Primera hora de salida (segundos desde medianoche)
+     * @param windowEnd         Última hora de salida
+     */
+    public static TravelTimeMatrix compute(GtfsTimetable tt, BitSet activeServices, List<double[]> originCoords,
+                                           List<double[]> destinationCoords, int windowStart, int windowEnd) {
+        return compute(tt, activeServices, originCoords, destinationCoords, windowStart, windowEnd, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Igual que {@link #compute(GtfsTimetable, BitSet, List, List, int, int)} en un pool concreto
+     */
+    public static TravelTimeMatrix compute(GtfsTimetable tt, BitSet activeServices, List<double[]> originCoords,
+                                           List<double[]> destinationCoords, int windowStart, int windowEnd,
+                                           ForkJoinPool pool) {
+        TravelTimeMatrix matrix = new TravelTimeMatrix(originCoords.size(), destinationCoords.size());
+        if (originCoords.isEmpty() || destinationCoords.isEmpty()) return matrix;
+        // Paradas de llegada de cada destino, compartidas por todos los orígenes
+        int[][] egressStops = new int[destinationCoords.size()][];
+        int[][] egressSeconds = new int[destinationCoords.size()][];
+        for (int j = 0; j < destinationCoords.size(); j++) {
+            double[] d = destinationCoords.get(j);
+            List<int[]> near = tt.stopsNear(d[0], d[1], RaptorRouter.ACCESS_RADIUS_METERS, RaptorRouter.ACCESS_FALLBACK_STOPS);
+            egressStops[j] = new int[near.size()];
+            egressSeconds[j] = new int[near.size()];
+            for (int e = 0; e < near.size(); e++) {
+                egressStops[j][e] = near.get(e)[0];
+                egressSeconds[j][e] = walkSeconds(near.get(e)[1]);
+            }
+        }
+        RaptorRouter router = new RaptorRouter(tt);
+        pool.invoke(new OriginTask(matrix, router, activeServices, originCoords, destinationCoords,
+                egressStops, egressSeconds, windowStart, windowEnd, 0, originCoords.size()));
+        return matrix;
+    }
+
+    /**
+     * Divide los orígenes en mitades hasta quedarse con uno y lo resuelve
+     */
+    private static final class OriginTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TravelTimeMatrix matrix;
+        private final RaptorRouter router;
+        private final BitSet activeServices;
+        private final List<double[]> originCoords;
+        private final List<double[]> destinationCoords;
+        private final int[][] egressStops;
+        private final int[][] egressSeconds;
+        private final int windowStart;
+        private final int windowEnd;
+        private final int from;
+        private final int to;
+
+        OriginTask(TravelTimeMatrix matrix, RaptorRouter router, BitSet activeServices, List<double[]> originCoords,
+                   List<double[]> destinationCoords, int[][] egressStops, int[][] egressSeconds,
+                   int windowStart, int windowEnd, int from, int to) {
+            this.matrix = matrix;
+            this.router = router;
+            this.activeServices = activeServices;
+            this.originCoords = originCoords;
+            this.destinationCoords = destinationCoords;
+            this.egressStops = egressStops;
+            this.egressSeconds = egressSeconds;
+            this.windowStart = windowStart;
+            this.windowEnd = windowEnd;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(split(from, mid), split(mid, to));
+                return;
+            }
+            matrix.solveOrigin(router, activeServices, from, originCoords.get(from), destinationCoords,
+                    egressStops, egressSeconds, windowStart, windowEnd);
+        }
+
+        private OriginTask split(int subFrom, int subTo) {
+            return new OriginTask(matrix, router, activeServices, originCoords, destinationCoords,
+                    egressStops, egressSeconds, windowStart, windowEnd, subFrom, subTo);
+        }
+    }
+
+    /**
+     * Rellena la fila de un origen; cada tarea escribe solo en su fila
+     */
+    private void solveOrigin(RaptorRouter router, BitSet activeServices, int origin, double[] o, List<double[]> destinationCoords,
+                             int[][] egressStops, int[][] egressSeconds, int windowStart, int windowEnd) {
+        int row = origin * destinations;
+        for (int j = 0; j < destinations; j++) {
+            double[] d = destinationCoords.get(j);
+            int walk = walkSeconds(GtfsTimetable.distanceMeters(o[0], o[1], d[0], d[1]));
+            travelSeconds[row + j] = walk;
+            transfers[row + j] = 0;
+        }
+        router.rangeArrivals(activeServices, o[0], o[1], windowStart, windowEnd, (departure, arrivalByRound) -> {
+            for (int j = 0; j < destinations; j++) {
+                int[] stops = egressStops[j], walks = egressSeconds[j];
+                for (int k = 1; k < arrivalByRound.length; k++) {
+                    int[] arrival = arrivalByRound[k];
+                    for (int e = 0; e < stops.length; e++) {
+                        int t = arrival[stops[e]];
+                        if (t == Integer.MAX_VALUE) continue;
+                        int travel = t + walks[e] - departure;
+                        if (travel < travelSeconds[row + j]) {
+                            travelSeconds[row + j] = travel;
+                            transfers[row + j] = k - 1;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private static int walkSeconds(double meters) {
+        return (int) Math.ceil(meters / GtfsTimetable.WALK_METERS_PER_SECOND);
+    }
+
+    public int getOriginCount() { return origins; }
+
+    public int getDestinationCount() { return destinations; }
+
+    /**
+     * Mejor tiempo de viaje en segundos
+     */
+    public int getTravelSeconds(int origin, int destination) {
+        return travelSeconds[origin * destinations + destination];
+    }
+
+    /**
+     * Transbordos del mejor viaje (0 si es directo o andando)
+     */
+    public int getTransfers(int origin, int destination) {
+        return transfers[origin * destinations + destination];
+    }
+}
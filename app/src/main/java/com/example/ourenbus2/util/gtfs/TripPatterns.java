@@ -0,0 +1,153 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compresión de stop_times en patrones de viaje.
+ * <p>
+ * Un patrón es la secuencia ordenada de paradas de una línea y se guarda una sola vez. Las horas de
+ * cada viaje se reducen a su salida de la primera parada más un perfil de tiempos: los incrementos
+ * entre paradas codificados como varints (zigzag). Los viajes de un patrón que solo se diferencian en
+ * la hora de salida comparten perfil, así que las horas se reconstruyen al vuelo sin filas por parada.
+ * <p>
+ * No depende de Android: la usan tanto el importador como la migración de la base de datos.
+ */
+public final class TripPatterns {
+
+    private TripPatterns() { }
+
+    /**
+     * Codifica las horas de un viaje relativas a su salida de la primera parada.
+     * Por cada parada: espera en la parada y, salvo en la primera, trayecto desde la anterior.
+     */
+    public static byte[] encodeTimes(int[] arrivals, int[] departures) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(arrivals.length * 2);
+        for (int i = 0; i < arrivals.length; i++) {
+            if (i > 0) writeVarint(out, arrivals[i] - departures[i - 1]);
+            writeVarint(out, departures[i] - arrivals[i]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reconstruye las horas de un viaje a partir de su perfil y su salida de la primera parada
+     *
+     * @param arrivals   Salida: llegadas (tantas como paradas tenga el patrón)
+     * @param departures Salida: salidas
+     */
+    public static void decodeTimes(byte[] profile, int startSeconds, int[] arrivals, int[] departures) {
+        int[] pos = {0};
+        int dwell = readVarint(profile, pos);
+        arrivals[0] = startSeconds - dwell;
+        departures[0] = startSeconds;
+        for (int i = 1; i < arrivals.length; i++) {
+            arrivals[i] = departures[i - 1] + readVarint(profile, pos);
+            departures[i] = arrivals[i] + readVarint(profile, pos);
+        }
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    static int readVarint(byte[] in, int[] pos) {
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in[pos[0]++];
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** Secuencia única de paradas de una línea */
+    public static final class Pattern {
+        public final int patternKey;
+        public final int routeKey;
+        public final int[] stopKeys;
+
+        Pattern(int patternKey, int routeKey, int[] stopKeys) {
+            this.patternKey = patternKey;
+            this.routeKey = routeKey;
+            this.stopKeys = stopKeys;
+        }
+    }
+
+    /** Perfil de tiempos compartido por los viajes de un patrón */
+    public static final class Profile {
+        public final int profileKey;
+        public final int patternKey;
+        public final byte[] deltas;
+
+        Profile(int profileKey, int patternKey, byte[] deltas) {
+            this.profileKey = profileKey;
+            this.patternKey = patternKey;
+            this.deltas = deltas;
+        }
+    }
+
+    /** Patrón, perfil y hora de salida asignados a un viaje */
+    public static final class TripTimes {
+        public final int patternKey;
+        public final int profileKey;
+        public final int startSeconds;
+
+        TripTimes(int patternKey, int profileKey, int startSeconds) {
+            this.patternKey = patternKey;
+            this.profileKey = profileKey;
+            this.startSeconds = startSeconds;
+        }
+    }
+
+    /**
+     * Agrupa los viajes en patrones y perfiles con claves consecutivas desde 1
+     */
+    public static final class Builder {
+        private final Map<String, Pattern> patterns = new HashMap<>();
+        private final List<Pattern> patternList = new ArrayList<>();
+        private final Map<String, Profile> profiles = new HashMap<>();
+        private final List<Profile> profileList = new ArrayList<>();
+
+        /**
+         * Añade un viaje con sus paradas ya ordenadas por secuencia
+         */
+        public TripTimes addTrip(int routeKey, int[] stopKeys, int[] arrivals, int[] departures) {
+            String patternId = routeKey + ":" + Arrays.toString(stopKeys);
+            Pattern pattern = patterns.get(patternId);
+            if (pattern == null) {
+                pattern = new Pattern(patternList.size() + 1, routeKey, stopKeys);
+                patterns.put(patternId, pattern);
+                patternList.add(pattern);
+            }
+            byte[] deltas = encodeTimes(arrivals, departures);
+            String profileId = pattern.patternKey + ":" + Arrays.toString(deltas);
+            Profile profile = profiles.get(profileId);
+            if (profile == null) {
+                profile = new Profile(profileList.size() + 1, pattern.patternKey, deltas);
+                profiles.put(profileId, profile);
+                profileList.add(profile);
+            }
+            return new TripTimes(pattern.patternKey, profile.profileKey, departures[0]);
+        }
+
+        public List<Pattern> getPatterns() {
+            return patternList;
+        }
+
+        public List<Profile> getProfiles() {
+            return profileList;
+        }
+    }
+}
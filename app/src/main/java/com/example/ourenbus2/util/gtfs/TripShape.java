@@ -0,0 +1,159 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Trazado de un viaje (shapes.txt) con la distancia acumulada de cada punto.
+ * <p>
+ * Se guarda en la base de datos como incrementos de microgrados codificados como varints, igual que
+ * los perfiles de tiempos de {@link TripPatterns}. No depende de Android.
+ */
+public final class TripShape {
+
+    private static final double MICRODEGREES = 1e6;
+    // Distancia a la que se da por buena la primera aproximación de una parada al trazado
+    private static final double SNAP_METERS = 30.0;
+
+    private final double[] lat;
+    private final double[] lon;
+    private final double[] meters;
+
+    private TripShape(double[] lat, double[] lon) {
+        this.lat = lat;
+        this.lon = lon;
+        this.meters = new double[lat.length];
+        for (int i = 1; i < lat.length; i++) {
+            meters[i] = meters[i - 1] + GtfsTimetable.distanceMeters(lat[i - 1], lon[i - 1], lat[i], lon[i]);
+        }
+    }
+
+    /**
+     * Codifica los puntos de un trazado en orden de shape_pt_sequence
+     */
+    public static byte[] encode(double[] lat, double[] lon) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(lat.length * 4);
+        TripPatterns.writeVarint(out, lat.length);
+        int prevLat = 0, prevLon = 0;
+        for (int i = 0; i < lat.length; i++) {
+            int la = (int) Math.round(lat[i] * MICRODEGREES), lo = (int) Math.round(lon[i] * MICRODEGREES);
+            TripPatterns.writeVarint(out, la - prevLat);
+            TripPatterns.writeVarint(out, lo - prevLon);
+            prevLat = la;
+            prevLon = lo;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reconstruye un trazado codificado con {@link #encode}
+     */
+    public static TripShape decode(byte[] points) {
+        int[] pos = {0};
+        int n = TripPatterns.readVarint(points, pos);
+        double[] lat = new double[n], lon = new double[n];
+        int la = 0, lo = 0;
+        for (int i = 0; i < n; i++) {
+            la += TripPatterns.readVarint(points, pos);
+            lo += TripPatterns.readVarint(points, pos);
+            lat[i] = la / MICRODEGREES;
+            lon[i] = lo / MICRODEGREES;
+        }
+        return new TripShape(lat, lon);
+    }
+
+    public int getPointCount() { return lat.length; }
+
+    /** Longitud total en metros */
+    public double getLength() { return lat.length == 0 ? 0 : meters[lat.length - 1]; }
+
+    /**
+     * Distancia a lo largo del trazado de cada parada del recorrido del viaje. Cada parada se proyecta
+     * a partir de la anterior (el trazado puede pasar dos veces cerca de la misma parada): se toma el
+     * primer tramo a menos de {@link #SNAP_METERS} o, si no hay, el más cercano.
+     */
+    public double[] stopDistances(GtfsTimetable tt, int trip) {
+        int n = tt.getTripStopCount(trip);
+        double[] out = new double[n];
+        if (lat.length < 2) return out;
+        int segment = 0;
+        double previous = 0;
+        for (int k = 0; k < n; k++) {
+            int stop = tt.getTripStop(trip, k);
+            double sLat = tt.getStopLatitude(stop), sLon = tt.getStopLongitude(stop);
+            int bestSegment = segment;
+            double bestDistance = Double.MAX_VALUE, bestAlong = previous;
+            boolean snapped = false;
+            for (int i = segment; i < lat.length - 1; i++) {
+                double[] p = project(i, sLat, sLon);
+                if (p[0] < bestDistance) {
+                    bestDistance = p[0];
+                    bestSegment = i;
+                    bestAlong = p[1];
+                    snapped |= bestDistance <= SNAP_METERS;
+                } else if (snapped) {
+                    break;
+                }
+            }
+            segment = bestSegment;
+            previous = Math.max(previous, bestAlong);
+            out[k] = previous;
+        }
+        return out;
+    }
+
+    /**
+     * Punto a una distancia del inicio del trazado
+     *
+     * @param out Salida: {lat, lon, rumbo en grados desde el norte}
+     */
+    public void pointAt(double along, double[] out) {
+        int n = lat.length;
+        if (n == 0) return;
+        if (n == 1 || along <= 0) {
+            fill(out, 0, 0);
+            return;
+        }
+        if (along >= meters[n - 1]) {
+            fill(out, n - 2, 1);
+            return;
+        }
+        int lo = 0, hi = n - 1;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (meters[mid] <= along) lo = mid;
+            else hi = mid;
+        }
+        double length = meters[lo + 1] - meters[lo];
+        fill(out, lo, length <= 0 ? 0 : (along - meters[lo]) / length);
+    }
+
+    private void fill(double[] out, int segment, double fraction) {
+        int next = Math.min(segment + 1, lat.length - 1);
+        out[0] = lat[segment] + (lat[next] - lat[segment]) * fraction;
+        out[1] = lon[segment] + (lon[next] - lon[segment]) * fraction;
+        out[2] = bearing(lat[segment], lon[segment], lat[next], lon[next]);
+    }
+
+    /**
+     * Distancia de un punto al tramo {@code i} y distancia a lo largo del trazado de su proyección
+     */
+    private double[] project(int i, double pLat, double pLon) {
+        double cos = Math.cos(Math.toRadians(pLat));
+        double ax = lon[i] * cos, ay = lat[i], bx = lon[i + 1] * cos, by = lat[i + 1];
+        double px = pLon * cos, py = pLat;
+        double dx = bx - ax, dy = by - ay;
+        double len2 = dx * dx + dy * dy;
+        double t = len2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / len2));
+        double qLat = ay + dy * t, qLon = (ax + dx * t) / cos;
+        double distance = GtfsTimetable.distanceMeters(pLat, pLon, qLat, qLon);
+        return new double[]{distance, meters[i] + (meters[i + 1] - meters[i]) * t};
+    }
+
+    static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double dLon = Math.toRadians(lon2 - lon1);
+        double y = Math.sin(dLon) * Math.cos(Math.toRadians(lat2));
+        double x = Math.cos(Math.toRadians(lat1)) * Math.sin(Math.toRadians(lat2))
+                - Math.sin(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.cos(dLon);
+        return (Math.toDegrees(Math.atan2(y, x)) + 360.0) % 360.0;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.ourenbus2.util.geo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PolylineCodecTest {
+
+    // Ejemplo de la documentación del formato de Google
+    private static final String EXAMPLE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+    private static final double[] EXAMPLE_LAT = {38.5, 40.7, 43.252};
+    private static final double[] EXAMPLE_LON = {-120.2, -120.95, -126.453};
+
+    @Test
+    public void decode_documentedExample() {
+        DecodedPolyline line = PolylineCodec.decode(EXAMPLE);
+        assertEquals(EXAMPLE_LAT.length, line.size());
+        for (int i = 0; i < EXAMPLE_LAT.length; i++) {
+            assertEquals(EXAMPLE_LAT[i], line.getLatitude(i), 1e-9);
+            assertEquals(EXAMPLE_LON[i], line.getLongitude(i), 1e-9);
+        }
+    }
+
+    @Test
+    public void encode_documentedExample() {
+        assertEquals(EXAMPLE, PolylineCodec.encode(EXAMPLE_LAT, EXAMPLE_LON, EXAMPLE_LAT.length));
+    }
+
+    @Test
+    public void encodeDecode_roundTripsToFiveDecimals() {
+        Random r = new Random(1);
+        int n = 500;
+        double[] lat = new double[n], lon = new double[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = 42.3 + r.nextGaussian() * 0.05;
+            lon[i] = -7.86 + r.nextGaussian() * 0.05;
+        }
+        DecodedPolyline line = PolylineCodec.decode(PolylineCodec.encode(lat, lon, n));
+        assertEquals(n, line.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(Math.round(lat[i] * 1e5) / 1e5, line.getLatitude(i), 1e-9);
+            assertEquals(Math.round(lon[i] * 1e5) / 1e5, line.getLongitude(i), 1e-9);
+        }
+    }
+
+    @Test
+    public void decode_truncated_keepsCompleteVertices() {
+        // Corta a mitad de la longitud del tercer vértice
+        DecodedPolyline line = PolylineCodec.decode(EXAMPLE.substring(0, EXAMPLE.length() - 2));
+        assertEquals(2, line.size());
+        assertEquals(40.7, line.getLatitude(1), 1e-9);
+    }
+
+    @Test
+    public void decode_nullOrEmpty_isEmpty() {
+        assertEquals(0, PolylineCodec.decode(null).size());
+        assertEquals(0, PolylineCodec.decode("").size());
+    }
+}
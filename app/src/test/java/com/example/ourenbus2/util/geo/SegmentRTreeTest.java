@@ -0,0 +1,51 @@
+package com.example.ourenbus2.util.geo;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tramo más cercano del R-tree frente a recorrer todos los tramos
+ */
+public class SegmentRTreeTest {
+
+    @Test
+    public void nearestEdge_matchesLinearScan() {
+        Random r = new Random(7);
+        for (int size : new int[]{2, 3, 17, 256, 1000}) {
+            // Paseo aleatorio en metros, como una polilínea proyectada
+            double[] x = new double[size], y = new double[size];
+            for (int i = 1; i < size; i++) {
+                x[i] = x[i - 1] + r.nextGaussian() * 40;
+                y[i] = y[i - 1] + r.nextGaussian() * 40;
+            }
+            SegmentRTree tree = SegmentRTree.build(x, y, size);
+            assertEquals(size - 1, tree.size());
+            for (int q = 0; q < 200; q++) {
+                double px = r.nextGaussian() * 500, py = r.nextGaussian() * 500;
+                int expected = 0;
+                for (int e = 1; e < size - 1; e++) {
+                    if (tree.edgeDistanceSq(e, px, py) < tree.edgeDistanceSq(expected, px, py)) expected = e;
+                }
+                int edge = tree.nearestEdge(px, py, Double.POSITIVE_INFINITY);
+                // A igualdad de distancia puede salir cualquiera de los tramos
+                assertEquals(tree.edgeDistanceSq(expected, px, py), tree.edgeDistanceSq(edge, px, py), 0);
+            }
+        }
+    }
+
+    @Test
+    public void nearestEdge_outsideLimit_returnsMinusOne() {
+        double[] x = {0, 100, 100}, y = {0, 0, 100};
+        SegmentRTree tree = SegmentRTree.build(x, y, 3);
+        assertEquals(-1, tree.nearestEdge(50, 60, 50 * 50));
+        assertEquals(1, tree.nearestEdge(50, 60, 60 * 60));
+    }
+
+    @Test
+    public void nearestEdge_withoutEdges_returnsMinusOne() {
+        assertEquals(-1, SegmentRTree.build(new double[]{5}, new double[]{5}, 1).nearestEdge(0, 0, Double.POSITIVE_INFINITY));
+    }
+}
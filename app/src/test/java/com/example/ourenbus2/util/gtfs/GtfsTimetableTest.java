@@ -0,0 +1,85 @@
+package com.example.ourenbus2.util.gtfs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Agrupación de los viajes en patrones: misma línea y paradas, y sin adelantamientos (FIFO) dentro de
+ * cada patrón, que es lo que permite la búsqueda binaria del primer viaje
+ */
+public class GtfsTimetableTest {
+
+    @Test
+    public void overtakingTrip_getsItsOwnPattern() {
+        GtfsTimetable.Builder b = new GtfsTimetable.Builder();
+        b.addStop("A", "A", 42.330, -7.870).addStop("B", "B", 42.335, -7.865).addStop("C", "C", 42.340, -7.860);
+        b.addRoute("L1", "1", "FF0000");
+        b.addService("diario", 0x7F, 20240101, 20241231);
+        addTrip(b, "lento", "A", 8 * 3600, "B", 8 * 3600 + 600, "C", 8 * 3600 + 1200);
+        // Sale después pero llega antes a C: no puede ir en el patrón del lento
+        addTrip(b, "rapido", "A", 8 * 3600 + 300, "B", 8 * 3600 + 720, "C", 8 * 3600 + 1080);
+        addTrip(b, "siguiente", "A", 9 * 3600, "B", 9 * 3600 + 600, "C", 9 * 3600 + 1200);
+        // Misma línea en sentido contrario: otra secuencia de paradas
+        addTrip(b, "vuelta", "C", 8 * 3600, "B", 8 * 3600 + 600, "A", 8 * 3600 + 1200);
+        GtfsTimetable tt = b.build();
+
+        int slow = tt.tripPattern[tt.findTrip("lento")];
+        assertNotEquals(slow, tt.tripPattern[tt.findTrip("rapido")]);
+        assertEquals(slow, tt.tripPattern[tt.findTrip("siguiente")]);
+        assertNotEquals(slow, tt.tripPattern[tt.findTrip("vuelta")]);
+        assertEquals(3, tt.getPatternCount());
+        assertFifo(tt);
+    }
+
+    @Test
+    public void tripWaitingLongerAtAStop_isNotOvertaken() {
+        GtfsTimetable.Builder b = new GtfsTimetable.Builder();
+        b.addStop("A", "A", 42.330, -7.870).addStop("B", "B", 42.335, -7.865).addStop("C", "C", 42.340, -7.860);
+        b.addRoute("L1", "1", "FF0000");
+        b.addService("diario", 0x7F, 20240101, 20241231);
+        addTrip(b, "primero", "A", 8 * 3600, "B", 8 * 3600 + 600, "C", 8 * 3600 + 1200);
+        // Llega a B después del primero pero sale antes que él: también es un adelantamiento
+        b.addTrip("segundo", "L1", "diario", null);
+        b.addStopTime("segundo", "A", 1, 8 * 3600 + 60, 8 * 3600 + 60);
+        b.addStopTime("segundo", "B", 2, 8 * 3600 + 610, 8 * 3600 + 610);
+        b.addStopTime("segundo", "C", 3, 8 * 3600 + 1150, 8 * 3600 + 1150);
+        GtfsTimetable tt = b.build();
+
+        assertNotEquals(tt.tripPattern[tt.findTrip("primero")], tt.tripPattern[tt.findTrip("segundo")]);
+        assertFifo(tt);
+    }
+
+    @Test
+    public void randomNetworks_haveFifoPatterns() {
+        for (int seed = 0; seed < 50; seed++) assertFifo(TestNetworks.random(seed));
+    }
+
+    private static void addTrip(GtfsTimetable.Builder b, String tripId, String s1, int t1, String s2, int t2, String s3, int t3) {
+        b.addTrip(tripId, "L1", "diario", null);
+        b.addStopTime(tripId, s1, 1, t1, t1);
+        b.addStopTime(tripId, s2, 2, t2, t2);
+        b.addStopTime(tripId, s3, 3, t3, t3);
+    }
+
+    /**
+     * En cada patrón los viajes tienen sus paradas y, en todas ellas, llegan y salen en el orden del patrón
+     */
+    private static void assertFifo(GtfsTimetable tt) {
+        for (int p = 0; p < tt.getPatternCount(); p++) {
+            int length = tt.patternStopOffset[p + 1] - tt.patternStopOffset[p];
+            for (int t = tt.patternTripOffset[p]; t < tt.patternTripOffset[p + 1]; t++) {
+                assertEquals(p, tt.tripPattern[t]);
+                assertEquals(length, tt.getTripStopCount(t));
+                for (int i = 0; i < length; i++) {
+                    assertEquals(tt.patternStops[tt.patternStopOffset[p] + i], tt.getTripStop(t, i));
+                    if (t == tt.patternTripOffset[p]) continue;
+                    assertTrue("patrón " + p + ", viaje " + t, tt.getTripArrival(t, i) >= tt.getTripArrival(t - 1, i));
+                    assertTrue("patrón " + p + ", viaje " + t, tt.getTripDeparture(t, i) >= tt.getTripDeparture(t - 1, i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.ourenbus2.util.gtfs;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RAPTOR frente a una búsqueda exhaustiva sobre redes al azar: mismo modelo (a pie hasta una parada
+ * cercana, hasta {@link RaptorRouter#MAX_RIDES} buses, un solo tramo a pie entre dos buses y a pie desde
+ * la última parada), así que la llegada tiene que ser la misma
+ */
+public class RaptorRouterTest {
+
+    private static final int INF = Integer.MAX_VALUE;
+    private static final int NETWORKS = 25;
+    private static final int QUERIES = 40;
+
+    @Test
+    public void route_matchesExhaustiveSearch() {
+        int found = 0;
+        for (int seed = 0; seed < NETWORKS; seed++) {
+            GtfsTimetable tt = TestNetworks.random(seed);
+            BitSet active = tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK);
+            RaptorRouter router = new RaptorRouter(tt);
+            Random r = new Random(1000 + seed);
+            for (int q = 0; q < QUERIES; q++) {
+                double[] from = TestNetworks.randomPoint(r), to = TestNetworks.randomPoint(r);
+                int departure = 7 * 3600 + r.nextInt(2 * 3600);
+                int expected = earliestArrival(tt, active, router.accessStops(from[0], from[1]),
+                        router.egressStops(to[0], to[1]), departure);
+                RaptorRouter.Journey journey = router.route(active, from[0], from[1], to[0], to[1], departure);
+                String query = "red " + seed + ", consulta " + q;
+                if (expected == INF) {
+                    assertNull(query, journey);
+                    continue;
+                }
+                assertNotNull(query, journey);
+                assertEquals(query, expected, journey.arrival);
+                assertConsistent(query, tt, active, journey);
+                found++;
+            }
+        }
+        assertTrue("Las redes de prueba deberían tener viajes", found > NETWORKS * QUERIES / 2);
+    }
+
+    @Test
+    public void routeArriveBy_leavesAsLateAsPossible() {
+        for (int seed = 0; seed < NETWORKS; seed++) {
+            GtfsTimetable tt = TestNetworks.random(seed);
+            BitSet active = tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK);
+            RaptorRouter router = new RaptorRouter(tt);
+            Random r = new Random(2000 + seed);
+            for (int q = 0; q < QUERIES; q++) {
+                double[] from = TestNetworks.randomPoint(r), to = TestNetworks.randomPoint(r);
+                int deadline = 8 * 3600 + r.nextInt(2 * 3600);
+                List<int[]> access = router.accessStops(from[0], from[1]);
+                List<int[]> egress = router.egressStops(to[0], to[1]);
+                // La llegada más temprana no decrece con la hora de salida: la última salida que llega a
+                // tiempo se busca por bisección
+                int expected = deadline - 4 * 3600, latest = deadline;
+                if (earliestArrival(tt, active, access, egress, expected) > deadline) expected = -1;
+                while (expected >= 0 && expected < latest) {
+                    int mid = (expected + latest + 1) >>> 1;
+                    if (earliestArrival(tt, active, access, egress, mid) <= deadline) expected = mid;
+                    else latest = mid - 1;
+                }
+                RaptorRouter.Journey journey = router.routeArriveBy(active, from[0], from[1], to[0], to[1], deadline);
+                String query = "red " + seed + ", consulta " + q;
+                if (expected < 0) {
+                    assertNull(query, journey);
+                    continue;
+                }
+                assertNotNull(query, journey);
+                assertEquals(query, expected, journey.departure);
+                assertTrue(query, journey.arrival <= deadline);
+                assertConsistent(query, tt, active, journey);
+            }
+        }
+    }
+
+    @Test
+    public void nightTripOfPreviousDay_isFoundAfterMidnight() {
+        GtfsTimetable.Builder b = new GtfsTimetable.Builder();
+        b.addStop("A", "A", 42.330, -7.870).addStop("B", "B", 42.340, -7.860);
+        b.addRoute("N1", "N1", "000080");
+        b.addService("laborable", 0x1F, 20240101, 20241231);
+        // Sale el viernes a las 24:30, ya sábado
+        b.addTrip("buho", "N1", "laborable", "B");
+        b.addStopTime("buho", "A", 1, 24 * 3600 + 1800, 24 * 3600 + 1800);
+        b.addStopTime("buho", "B", 2, 24 * 3600 + 3000, 24 * 3600 + 3000);
+        GtfsTimetable tt = b.build();
+        RaptorRouter router = new RaptorRouter(tt);
+        assertEquals(24 * 3600 + 3000, tt.getLatestArrival());
+
+        // Sábado a las 00:20: con los servicios del sábado no hay nada; con los del viernes, 24 h más tarde, sí
+        int departure = 1200;
+        assertNull(router.route(tt.getActiveServices(20240120, Calendar.SATURDAY),
+                42.330, -7.870, 42.340, -7.860, departure));
+        RaptorRouter.Journey journey = router.route(tt.getActiveServices(20240119, Calendar.FRIDAY),
+                42.330, -7.870, 42.340, -7.860, departure + 24 * 3600);
+        assertNotNull(journey);
+        assertEquals(24 * 3600 + 1800, journey.legs.get(1).departure);
+    }
+
+    /**
+     * Búsqueda exhaustiva con estados (parada, buses cogidos, si se llegó a pie); un estado solo se
+     * descarta si ya se llegó antes al mismo
+     */
+    static int earliestArrival(GtfsTimetable tt, BitSet active, List<int[]> access, List<int[]> egress, int departure) {
+        int n = tt.getStopCount();
+        int[] egressSeconds = new int[n];
+        Arrays.fill(egressSeconds, -1);
+        for (int[] e : egress) egressSeconds[e[0]] = e[1];
+        int[][][] best = new int[RaptorRouter.MAX_RIDES + 1][n][2];
+        for (int[][] round : best) for (int[] stop : round) Arrays.fill(stop, INF);
+        Deque<int[]> pending = new ArrayDeque<>();
+        for (int[] a : access) pending.push(new int[]{a[0], departure + a[1], 0, 1});
+        int arrival = INF;
+        while (!pending.isEmpty()) {
+            int[] state = pending.pop();
+            int s = state[0], t = state[1], rides = state[2], walked = state[3];
+            if (t >= best[rides][s][walked]) continue;
+            best[rides][s][walked] = t;
+            if (rides > 0 && egressSeconds[s] >= 0) arrival = Math.min(arrival, t + egressSeconds[s]);
+            if (rides > 0 && walked == 0) {
+                for (int i = tt.transferOffset[s]; i < tt.transferOffset[s + 1]; i++) {
+                    pending.push(new int[]{tt.transferTargets[i], t + tt.transferSeconds[i], rides, 1});
+                }
+            }
+            if (rides == RaptorRouter.MAX_RIDES) continue;
+            for (int trip = 0; trip < tt.getTripCount(); trip++) {
+                if (!active.get(tt.tripService[trip])) continue;
+                int stops = tt.getTripStopCount(trip);
+                for (int i = 0; i < stops; i++) {
+                    if (tt.getTripStop(trip, i) != s || tt.getTripDeparture(trip, i) < t) continue;
+                    for (int j = i + 1; j < stops; j++) {
+                        pending.push(new int[]{tt.getTripStop(trip, j), tt.getTripArrival(trip, j), rides + 1, 0});
+                    }
+                }
+            }
+        }
+        return arrival;
+    }
+
+    /**
+     * Tramos encadenados en el tiempo y con las horas de los viajes
+     */
+    static void assertConsistent(String query, GtfsTimetable tt, BitSet active, RaptorRouter.Journey journey) {
+        int clock = journey.departure;
+        for (RaptorRouter.Leg leg : journey.legs) {
+            assertTrue(query, leg.departure >= clock);
+            assertTrue(query, leg.arrival >= leg.departure);
+            if (!leg.isWalk()) {
+                assertTrue(query, active.get(tt.tripService[leg.trip]));
+                assertEquals(query, leg.fromStop, tt.getTripStop(leg.trip, leg.boardPosition));
+                assertEquals(query, leg.toStop, tt.getTripStop(leg.trip, leg.alightPosition));
+                assertEquals(query, tt.getTripDeparture(leg.trip, leg.boardPosition), leg.departure);
+                assertEquals(query, tt.getTripArrival(leg.trip, leg.alightPosition), leg.arrival);
+            }
+            clock = leg.arrival;
+        }
+        assertTrue(query, clock <= journey.arrival);
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.ourenbus2.util.gtfs;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lectura de un FeedMessage codificado a mano y su aplicación al horario
+ */
+public class RealtimeOverlayTest {
+
+    private static final int DATE = 20240115;
+    private static final long DAY_START = 1705273200L; // 2024-01-15 00:00 en Madrid
+    private static final int EIGHT = 8 * 3600;
+
+    @Test
+    public void parse_readsEntitiesAndSkipsUnknownFields() throws IOException {
+        GtfsRealtimeFeed feed = GtfsRealtimeFeed.parse(feed());
+        assertEquals(DAY_START + EIGHT, feed.timestamp);
+        assertEquals(3, feed.tripUpdates.size());
+
+        GtfsRealtimeFeed.TripUpdate first = feed.tripUpdates.get(0);
+        assertEquals("t1", first.trip.tripId);
+        assertEquals(String.valueOf(DATE), first.trip.startDate);
+        assertEquals(2, first.stopTimeUpdates.size());
+        assertEquals("B", first.stopTimeUpdates.get(0).stopId);
+        assertEquals(120, first.stopTimeUpdates.get(0).arrival.delay);
+        assertEquals(4, first.stopTimeUpdates.get(1).stopSequence);
+        assertEquals(-30, first.stopTimeUpdates.get(1).departure.delay);
+        assertTrue(feed.tripUpdates.get(1).trip.isCanceled());
+
+        assertEquals(1, feed.vehicles.size());
+        GtfsRealtimeFeed.VehiclePosition vehicle = feed.vehicles.get(0);
+        assertEquals("v7", vehicle.vehicleId);
+        assertTrue(vehicle.hasPosition);
+        assertEquals(42.335f, vehicle.latitude, 0);
+        assertEquals(-7.865f, vehicle.longitude, 0);
+
+        assertEquals(1, feed.alerts.size());
+        GtfsRealtimeFeed.Alert alert = feed.alerts.get(0);
+        assertEquals("Obras", alert.getHeader("es"));
+        assertEquals("Works", alert.getHeader("en"));
+        assertEquals("Obras", alert.getHeader("gl"));
+        assertEquals("L1", alert.routeIds.get(0));
+        assertTrue(alert.isActive(DAY_START + EIGHT));
+        assertFalse(alert.isActive(DAY_START + 20 * 3600));
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_truncated_throws() throws IOException {
+        byte[] data = feed();
+        byte[] truncated = new byte[data.length - 3];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        GtfsRealtimeFeed.parse(truncated);
+    }
+
+    @Test
+    public void build_appliesDelaysCancellationsAndSkippedStops() throws IOException {
+        GtfsTimetable tt = timetable();
+        RealtimeOverlay overlay = RealtimeOverlay.build(tt, GtfsRealtimeFeed.parse(feed()), DATE, DAY_START, 0);
+        int t1 = tt.findTrip("t1"), t2 = tt.findTrip("t2"), t3 = tt.findTrip("t3");
+        assertEquals(3, overlay.getUpdatedTripCount());
+
+        // Horario hasta la primera actualización; el retraso de B sigue hasta la siguiente
+        assertEquals(0, overlay.departureDelay(t1, 0));
+        assertEquals(120, overlay.arrivalDelay(t1, 1));
+        assertEquals(120, overlay.departureDelay(t1, 1));
+        assertEquals(120, overlay.arrivalDelay(t1, 2));
+        assertEquals(-30, overlay.arrivalDelay(t1, 3));
+        assertEquals(-30, overlay.departureDelay(t1, 3));
+        assertEquals(-30, overlay.getMinDelay());
+
+        assertTrue(overlay.isCanceled(t2));
+        assertFalse(overlay.stopsAt(t2, 0));
+
+        // Hora absoluta en C y parada D sin previsión
+        assertTrue(overlay.isSkipped(t3, 1));
+        assertFalse(overlay.stopsAt(t3, 1));
+        assertTrue(overlay.stopsAt(t3, 2));
+        assertEquals(300, overlay.arrivalDelay(t3, 2));
+        assertEquals(0, overlay.arrivalDelay(t3, 3));
+        assertEquals(300, overlay.getMaxDelay());
+    }
+
+    @Test
+    public void build_keepsTimesConsistent() throws IOException {
+        GtfsTimetable tt = timetable();
+        // Adelanto de 10 minutos en C: no puede llegar antes de salir de B a su hora
+        byte[] data = new Proto()
+                .message(2, new Proto().string(1, "e").message(3, new Proto()
+                        .message(1, new Proto().string(1, "t1"))
+                        .message(2, new Proto().string(4, "C").message(2, new Proto().varint(1, -600)))))
+                .toByteArray();
+        RealtimeOverlay overlay = RealtimeOverlay.build(tt, GtfsRealtimeFeed.parse(data), DATE, DAY_START, 0);
+        int t1 = tt.findTrip("t1");
+        assertEquals(tt.getTripDeparture(t1, 1), tt.getTripArrival(t1, 2) + overlay.arrivalDelay(t1, 2));
+        for (int i = 1; i < tt.getTripStopCount(t1); i++) {
+            assertTrue(tt.getTripArrival(t1, i) + overlay.arrivalDelay(t1, i)
+                    >= tt.getTripDeparture(t1, i - 1) + overlay.departureDelay(t1, i - 1));
+        }
+    }
+
+    @Test
+    public void build_ignoresOtherServiceDays() throws IOException {
+        GtfsTimetable tt = timetable();
+        byte[] data = new Proto()
+                .message(2, new Proto().string(1, "e").message(3, new Proto()
+                        .message(1, new Proto().string(1, "t1").string(3, "20240116"))
+                        .varint(5, 600)))
+                .toByteArray();
+        RealtimeOverlay overlay = RealtimeOverlay.build(tt, GtfsRealtimeFeed.parse(data), DATE, DAY_START, 0);
+        assertEquals(0, overlay.getUpdatedTripCount());
+        assertEquals(0, overlay.arrivalDelay(tt.findTrip("t1"), 2));
+    }
+
+    /**
+     * Línea A-B-C-D con tres viajes (8:00, 8:30 y 9:00) y cinco minutos entre paradas
+     */
+    private static GtfsTimetable timetable() {
+        GtfsTimetable.Builder b = new GtfsTimetable.Builder();
+        b.addStop("A", "A", 42.330, -7.870).addStop("B", "B", 42.333, -7.867)
+                .addStop("C", "C", 42.336, -7.864).addStop("D", "D", 42.339, -7.861);
+        b.addRoute("L1", "1", "FF0000");
+        b.addService("diario", 0x7F, 20240101, 20241231);
+        String[] stops = {"A", "B", "C", "D"};
+        for (int trip = 0; trip < 3; trip++) {
+            String id = "t" + (trip + 1);
+            b.addTrip(id, "L1", "diario", null);
+            for (int i = 0; i < stops.length; i++) {
+                int t = EIGHT + trip * 1800 + i * 300;
+                b.addStopTime(id, stops[i], i + 1, t, t);
+            }
+        }
+        return b.build();
+    }
+
+    private static byte[] feed() {
+        Proto header = new Proto().string(1, "2.0").varint(3, DAY_START + EIGHT);
+        // t1: 2 minutos tarde desde B y 30 segundos adelantado en la cuarta parada
+        Proto delayed = new Proto()
+                .message(1, new Proto().string(1, "t1").string(3, String.valueOf(DATE)))
+                .message(2, new Proto().string(4, "B").message(2, new Proto().varint(1, 120)))
+                .message(2, new Proto().varint(1, 4).message(3, new Proto().varint(1, -30)));
+        Proto canceled = new Proto().message(1, new Proto().string(1, "t2").varint(4, 3));
+        // t3: no para en B, hora absoluta en C y sin previsión en D
+        Proto skipped = new Proto()
+                .message(1, new Proto().string(1, "t3"))
+                .message(2, new Proto().string(4, "B").varint(5, 1))
+                .message(2, new Proto().string(4, "C").message(2, new Proto().varint(2, DAY_START + 9 * 3600 + 600 + 300)))
+                .message(2, new Proto().string(4, "D").varint(5, 2));
+        Proto vehicle = new Proto()
+                .message(1, new Proto().string(1, "t1"))
+                .message(2, new Proto().fixed32(1, 42.335f).fixed32(2, -7.865f))
+                .message(8, new Proto().string(1, "v7"));
+        Proto alert = new Proto()
+                .message(1, new Proto().varint(1, DAY_START).varint(2, DAY_START + 12 * 3600))
+                .message(5, new Proto().string(2, "L1"))
+                .message(10, new Proto()
+                        .message(1, new Proto().string(1, "Obras").string(2, "es"))
+                        .message(1, new Proto().string(1, "Works").string(2, "en")));
+        return new Proto()
+                .message(1, header)
+                .message(2, new Proto().string(1, "1").message(3, delayed).fixed64(99, 1L))
+                .message(2, new Proto().string(1, "2").message(3, canceled))
+                .message(2, new Proto().string(1, "3").message(3, skipped))
+                .message(2, new Proto().string(1, "4").message(4, vehicle))
+                .message(2, new Proto().string(1, "5").message(5, alert))
+                // Entidad borrada: no cuenta
+                .message(2, new Proto().string(1, "6").varint(2, 1).message(3, canceled))
+                .toByteArray();
+    }
+
+    /**
+     * Escritor mínimo del formato binario de protobuf
+     */
+    private static final class Proto {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Proto varint(int field, long value) {
+            writeVarint((long) field << 3);
+            writeVarint(value);
+            return this;
+        }
+
+        Proto fixed32(int field, float value) {
+            writeVarint((long) field << 3 | 5);
+            int bits = Float.floatToIntBits(value);
+            for (int i = 0; i < 4; i++) out.write(bits >>> (8 * i));
+            return this;
+        }
+
+        Proto fixed64(int field, long value) {
+            writeVarint((long) field << 3 | 1);
+            for (int i = 0; i < 8; i++) out.write((int) (value >>> (8 * i)));
+            return this;
+        }
+
+        Proto string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Proto message(int field, Proto value) {
+            return bytes(field, value.toByteArray());
+        }
+
+        private Proto bytes(int field, byte[] value) {
+            writeVarint((long) field << 3 | 2);
+            writeVarint(value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        byte[] toByteArray() { return out.toByteArray(); }
+    }
+}
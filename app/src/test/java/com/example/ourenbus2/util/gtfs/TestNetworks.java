@@ -0,0 +1,67 @@
+package com.example.ourenbus2.util.gtfs;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Redes de prueba pequeñas generadas al azar (con semilla) para comparar los enrutadores con búsquedas
+ * exhaustivas
+ */
+final class TestNetworks {
+
+    static final double BASE_LAT = 42.33;
+    static final double BASE_LON = -7.87;
+    // Caja de ~1,3 x 1,3 km: varias paradas de acceso por punto y transbordos a pie entre las cercanas
+    static final double SPAN_LAT = 0.012;
+    static final double SPAN_LON = 0.016;
+    /** Día de servicio de las consultas (lunes) */
+    static final int DATE = 20240115;
+    static final int DAY_OF_WEEK = Calendar.MONDAY;
+
+    private TestNetworks() { }
+
+    /**
+     * Red con 10-17 paradas y 4-6 líneas; cada viaje tarda lo suyo entre paradas, así que hay
+     * adelantamientos, y algunos son de un servicio que no circula el día de las consultas
+     */
+    static GtfsTimetable random(long seed) {
+        Random r = new Random(seed);
+        GtfsTimetable.Builder b = new GtfsTimetable.Builder();
+        int stops = 10 + r.nextInt(8);
+        for (int s = 0; s < stops; s++) {
+            b.addStop("s" + s, "Parada " + s, BASE_LAT + r.nextDouble() * SPAN_LAT, BASE_LON + r.nextDouble() * SPAN_LON);
+        }
+        b.addService("diario", 0x7F, 20240101, 20241231);
+        b.addService("festivo", 1 << 6, 20240101, 20241231);
+        int routes = 4 + r.nextInt(3);
+        int trip = 0;
+        for (int l = 0; l < routes; l++) {
+            String route = "l" + l;
+            b.addRoute(route, String.valueOf(l + 1), "FF0000");
+            List<Integer> order = new ArrayList<>();
+            for (int s = 0; s < stops; s++) order.add(s);
+            Collections.shuffle(order, r);
+            int length = 3 + r.nextInt(4);
+            int trips = 4 + r.nextInt(6);
+            for (int k = 0; k < trips; k++) {
+                String id = "t" + trip++;
+                b.addTrip(id, route, r.nextInt(5) == 0 ? "festivo" : "diario", "Destino " + l);
+                int time = 7 * 3600 + r.nextInt(2 * 3600);
+                for (int i = 0; i < length; i++) {
+                    int dwell = r.nextInt(3) == 0 ? r.nextInt(60) : 0;
+                    b.addStopTime(id, "s" + order.get(i), i + 1, time, time + dwell);
+                    time += dwell + 60 + r.nextInt(400);
+                }
+            }
+        }
+        return b.build();
+    }
+
+    /** Punto al azar dentro de la caja de la red */
+    static double[] randomPoint(Random r) {
+        return new double[]{BASE_LAT + r.nextDouble() * SPAN_LAT, BASE_LON + r.nextDouble() * SPAN_LON};
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.ourenbus2.util.gtfs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Codificación de los patrones de transbordo y rutas con ellos frente a RAPTOR sobre redes al azar
+ */
+public class TransferPatternsTest {
+
+    private static final int NETWORKS = 15;
+    private static final int QUERIES = 40;
+
+    @Test
+    public void encodeDecode_keepsPatterns() {
+        for (int seed = 0; seed < NETWORKS; seed++) {
+            GtfsTimetable tt = TestNetworks.random(seed);
+            List<BitSet> days = Collections.singletonList(tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK));
+            // Claves persistentes distintas de los índices del horario
+            int n = tt.getStopCount();
+            int[] keyOfStop = new int[n];
+            int[] stopOfKey = new int[2 * n + 1];
+            Arrays.fill(stopOfKey, -1);
+            for (int s = 0; s < n; s++) {
+                keyOfStop[s] = 2 * (n - s);
+                stopOfKey[keyOfStop[s]] = s;
+            }
+            for (int s = 0; s < n; s++) {
+                TransferPatterns patterns = TransferPatterns.compute(tt, s, days);
+                TransferPatterns decoded = TransferPatterns.decode(s, patterns.encode(keyOfStop), stopOfKey);
+                assertNotNull(decoded);
+                assertEquals(s, decoded.getSource());
+                assertEquals(patterns.getNodeCount(), decoded.getNodeCount());
+                assertEquals(patterns.getPatternCount(), decoded.getPatternCount());
+                for (int target = 0; target < n; target++) {
+                    assertEquals(edges(patterns, target), edges(decoded, target));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void decode_withRemovedStop_returnsNull() {
+        GtfsTimetable tt = TestNetworks.random(3);
+        List<BitSet> days = Collections.singletonList(tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK));
+        int n = tt.getStopCount();
+        int[] identity = new int[n];
+        for (int s = 0; s < n; s++) identity[s] = s;
+        for (int s = 0; s < n; s++) {
+            TransferPatterns patterns = TransferPatterns.compute(tt, s, days);
+            // Una parada que aparece en los patrones desaparece del horario
+            for (int target = 0; target < n; target++) {
+                Set<List<Integer>> edges = edges(patterns, target);
+                if (edges.isEmpty()) continue;
+                int[] stopOfKey = identity.clone();
+                stopOfKey[edges.iterator().next().get(1)] = -1;
+                assertNull(TransferPatterns.decode(s, patterns.encode(identity), stopOfKey));
+                return;
+            }
+        }
+        throw new AssertionError("La red de prueba debería tener patrones");
+    }
+
+    @Test
+    public void routeBetweenStops_matchesExhaustiveSearch() {
+        int found = 0;
+        for (int seed = 0; seed < NETWORKS; seed++) {
+            GtfsTimetable tt = TestNetworks.random(seed);
+            BitSet active = tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK);
+            List<BitSet> days = Collections.singletonList(active);
+            TransferPatternRouter router = new TransferPatternRouter(tt);
+            Random r = new Random(4000 + seed);
+            for (int source = 0; source < tt.getStopCount(); source++) {
+                TransferPatterns patterns = TransferPatterns.compute(tt, source, days);
+                for (int target = 0; target < tt.getStopCount(); target++) {
+                    if (target == source) continue;
+                    int departure = 7 * 3600 + r.nextInt(2 * 3600);
+                    int expected = RaptorRouterTest.earliestArrival(tt, active,
+                            Collections.singletonList(new int[]{source, 0}),
+                            Collections.singletonList(new int[]{target, 0}), departure);
+                    RaptorRouter.Journey journey = router.route(active, patterns, target, departure);
+                    String query = "red " + seed + ", " + source + " -> " + target;
+                    if (expected == Integer.MAX_VALUE) {
+                        assertNull(query, journey);
+                        continue;
+                    }
+                    assertNotNull(query, journey);
+                    assertEquals(query, expected, journey.arrival);
+                    found++;
+                }
+            }
+        }
+        assertTrue("Las redes de prueba deberían tener viajes", found > 0);
+    }
+
+    @Test
+    public void route_matchesRaptor() {
+        for (int seed = 0; seed < NETWORKS; seed++) {
+            GtfsTimetable tt = TestNetworks.random(seed);
+            BitSet active = tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK);
+            List<BitSet> days = Collections.singletonList(active);
+            TransferPatterns[] bySource = new TransferPatterns[tt.getStopCount()];
+            for (int s = 0; s < bySource.length; s++) bySource[s] = TransferPatterns.compute(tt, s, days);
+            RaptorRouter raptor = new RaptorRouter(tt);
+            TransferPatternRouter router = new TransferPatternRouter(tt);
+            Random r = new Random(3000 + seed);
+            for (int q = 0; q < QUERIES; q++) {
+                double[] from = TestNetworks.randomPoint(r), to = TestNetworks.randomPoint(r);
+                int departure = 7 * 3600 + r.nextInt(2 * 3600);
+                RaptorRouter.Journey expected = raptor.route(active, from[0], from[1], to[0], to[1], departure);
+                RaptorRouter.Journey journey = router.route(active, stop -> bySource[stop],
+                        from[0], from[1], to[0], to[1], departure);
+                String query = "red " + seed + ", consulta " + q;
+                // Los patrones no vuelven a la parada de origen, así que no repiten los viajes de RAPTOR que
+                // bajan en una parada para volver a pie a la de subida: ir andando siempre es mejor que eso
+                int walk = departure + RaptorRouter.walkSeconds(
+                        GtfsTimetable.distanceMeters(from[0], from[1], to[0], to[1]));
+                assertEquals(query, Math.min(walk, expected == null ? walk : expected.arrival),
+                        Math.min(walk, journey == null ? walk : journey.arrival));
+                if (journey != null) RaptorRouterTest.assertConsistent(query, tt, active, journey);
+            }
+        }
+    }
+
+    /**
+     * Tramos de los patrones hasta una parada
+     */
+    private static Set<List<Integer>> edges(TransferPatterns patterns, int target) {
+        Set<List<Integer>> edges = new HashSet<>();
+        int t = patterns.targetIndex(target);
+        if (t < 0) return edges;
+        for (int e = patterns.targetEdgeStart(t); e < patterns.targetEdgeEnd(t); e++) {
+            edges.add(Arrays.asList(patterns.edgeFrom(e), patterns.edgeTo(e)));
+        }
+        return edges;
+    }
+}
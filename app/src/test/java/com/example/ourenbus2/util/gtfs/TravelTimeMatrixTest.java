@@ -0,0 +1,78 @@
+package com.example.ourenbus2.util.gtfs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Cada celda frente al mínimo, hora a hora de la ventana, de la búsqueda exhaustiva de
+ * {@link RaptorRouterTest} y de ir andando
+ */
+public class TravelTimeMatrixTest {
+
+    private static final int NETWORKS = 10;
+    private static final int POINTS = 6;
+    private static final int WINDOW_START = 7 * 3600 + 1800;
+    private static final int WINDOW_END = 8 * 3600 + 1800;
+
+    @Test
+    public void compute_matchesBestDepartureInWindow() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int seed = 0; seed < NETWORKS; seed++) {
+                GtfsTimetable tt = TestNetworks.random(seed);
+                BitSet active = tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK);
+                Random r = new Random(5000 + seed);
+                List<double[]> origins = new ArrayList<>(), destinations = new ArrayList<>();
+                for (int i = 0; i < POINTS; i++) {
+                    origins.add(TestNetworks.randomPoint(r));
+                    destinations.add(TestNetworks.randomPoint(r));
+                }
+                TravelTimeMatrix matrix = TravelTimeMatrix.compute(tt, active, origins, destinations,
+                        WINDOW_START, WINDOW_END, pool);
+                RaptorRouter router = new RaptorRouter(tt);
+                for (int i = 0; i < POINTS; i++) {
+                    double[] o = origins.get(i);
+                    List<int[]> access = router.accessStops(o[0], o[1]);
+                    // La llegada solo cambia al perder un bus en una parada de acceso: basta con salir justo
+                    // a tiempo de cada uno y al final de la ventana
+                    List<Integer> departures = new ArrayList<>();
+                    departures.add(WINDOW_END);
+                    for (int[] a : access) {
+                        for (int t : tt.departureTimesBetween(a[0], active, WINDOW_START + a[1], WINDOW_END + a[1])) {
+                            departures.add(t - a[1]);
+                        }
+                    }
+                    for (int j = 0; j < POINTS; j++) {
+                        double[] d = destinations.get(j);
+                        List<int[]> egress = router.egressStops(d[0], d[1]);
+                        int expected = RaptorRouter.walkSeconds(GtfsTimetable.distanceMeters(o[0], o[1], d[0], d[1]));
+                        for (int departure : departures) {
+                            int arrival = RaptorRouterTest.earliestArrival(tt, active, access, egress, departure);
+                            if (arrival != Integer.MAX_VALUE) expected = Math.min(expected, arrival - departure);
+                        }
+                        assertEquals("red " + seed + ", celda " + i + "," + j, expected, matrix.getTravelSeconds(i, j));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void compute_withoutPoints_isEmpty() {
+        GtfsTimetable tt = TestNetworks.random(0);
+        BitSet active = tt.getActiveServices(TestNetworks.DATE, TestNetworks.DAY_OF_WEEK);
+        TravelTimeMatrix matrix = TravelTimeMatrix.compute(tt, active, new ArrayList<double[]>(),
+                new ArrayList<double[]>(), WINDOW_START, WINDOW_END);
+        assertEquals(0, matrix.getOriginCount());
+        assertEquals(0, matrix.getDestinationCount());
+    }
+}
@@ -0,0 +1,25 @@
+// Herramientas de compilación del feed GTFS que se ejecutan en la JVM al construir la app:
+// GtfsCompiler (horario compilado), GtfsDatabaseBuilder (BD precargada) y PedestrianGraphCompiler
+// (red peatonal a partir de OSM y del MDT).
+plugins {
+    java
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    // Las clases de la app que no dependen de Android (lector del feed, horario, entidades y esquema)
+    // se compilan desde sus fuentes según las referencian las herramientas
+    options.sourcepath = files("../app/src/main/java")
+    options.encoding = "UTF-8"
+}
+
+dependencies {
+    implementation("org.xerial:sqlite-jdbc:3.45.1.0")
+    implementation("com.google.code.gson:gson:2.10.1")
+    implementation("androidx.room:room-common:2.6.1")
+    implementation("androidx.annotation:annotation-jvm:1.7.1")
+}
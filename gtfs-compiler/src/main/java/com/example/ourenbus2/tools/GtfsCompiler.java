@@ -0,0 +1,63 @@
+package com.example.ourenbus2.tools;
+
+import com.example.ourenbus2.util.gtfs.CompiledTimetable;
+import com.example.ourenbus2.util.gtfs.GtfsFeedReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compila un feed GTFS en el horario binario que carga la app ({@link CompiledTimetable}). Antes valida
+ * el feed: si hay referencias rotas (viajes de líneas o servicios inexistentes, horas de paradas o viajes
+ * desconocidos, trazados que faltan...) las muestra y termina con error, de modo que falle la compilación.
+ * <p>
+ * Uso: {@code GtfsCompiler <feed.zip> <salida.timetable>}
+ */
+public final class GtfsCompiler {
+
+    // Problemas que se muestran antes de resumir el resto
+    private static final int MAX_REPORTED_PROBLEMS = 20;
+
+    private GtfsCompiler() { }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Uso: GtfsCompiler <feed.zip> <salida.timetable>");
+            System.exit(2);
+        }
+        File feedFile = new File(args[0]);
+        File output = new File(args[1]);
+        File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("No se puede crear " + parent);
+
+        long start = System.currentTimeMillis();
+        GtfsFeedReader.Feed feed;
+        try (InputStream in = new FileInputStream(feedFile)) {
+            feed = GtfsFeedReader.read(in);
+        }
+        if (!feed.problems.isEmpty()) {
+            System.err.println("Feed GTFS no válido (" + feedFile.getName() + "): " + feed.problems.size() + " problemas");
+            for (int i = 0; i < Math.min(MAX_REPORTED_PROBLEMS, feed.problems.size()); i++) {
+                System.err.println("  " + feed.problems.get(i));
+            }
+            if (feed.problems.size() > MAX_REPORTED_PROBLEMS) {
+                System.err.println("  ... y " + (feed.problems.size() - MAX_REPORTED_PROBLEMS) + " más");
+            }
+            System.exit(1);
+        }
+        long read = System.currentTimeMillis();
+
+        CompiledTimetable compiled = CompiledTimetable.compile(feed);
+        try (OutputStream out = new FileOutputStream(output)) {
+            compiled.write(out);
+        }
+        long end = System.currentTimeMillis();
+        System.out.println("Horario GTFS: " + compiled.getStatistics());
+        System.out.println(String.format("Horario GTFS: %d KB (feed de %d KB), lectura %d ms, compilación %d ms",
+                output.length() / 1024, feedFile.length() / 1024, read - start, end - read));
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.ourenbus2.tools;
+
+import com.example.ourenbus2.database.GtfsSchema;
+import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarDateEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsCalendarEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsFrequencyEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsPatternStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsRouteEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsShapeEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsStopEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTimeProfileEntity;
+import com.example.ourenbus2.database.entity.gtfs.GtfsTripEntity;
+import com.example.ourenbus2.util.gtfs.GtfsFeedReader;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Genera en la máquina de compilación la BD precargada que abre {@code AppDatabase} con
+ * {@code createFromAsset}: crea el esquema tal como lo exporta Room (tablas, índices, disparadores de
+ * FTS y la tabla de identidad), sustituye las tablas sin rowid como hace la app en una instalación nueva
+ * e importa el feed con el mismo {@link GtfsFeedReader} que el dispositivo.
+ * <p>
+ * Uso: {@code GtfsDatabaseBuilder <feed.zip> <esquema.json> <salida.sqlite>}
+ */
+public final class GtfsDatabaseBuilder {
+
+    private GtfsDatabaseBuilder() { }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Uso: GtfsDatabaseBuilder <feed.zip> <esquema.json> <salida.sqlite>");
+            System.exit(2);
+        }
+        File feedFile = new File(args[0]);
+        File schemaFile = new File(args[1]);
+        File output = new File(args[2]);
+        if (output.exists() && !output.delete()) throw new IOException("No se puede sustituir " + output);
+        File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("No se puede crear " + parent);
+
+        long start = System.currentTimeMillis();
+        GtfsFeedReader.Feed feed;
+        try (InputStream in = new FileInputStream(feedFile)) {
+            feed = GtfsFeedReader.read(in);
+        }
+        JsonObject database;
+        try (Reader reader = new InputStreamReader(new FileInputStream(schemaFile), StandardCharsets.UTF_8)) {
+            database = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonObject("database");
+        }
+
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:" + output.getAbsolutePath())) {
+            try (Statement st = db.createStatement()) {
+                for (String sql : schemaStatements(database)) st.execute(sql);
+                for (String sql : GtfsSchema.RECREATE_WITHOUT_ROWID_TABLES) st.execute(sql);
+            }
+            db.setAutoCommit(false);
+            insertFeed(db, feed);
+            db.commit();
+            db.setAutoCommit(true);
+            try (Statement st = db.createStatement()) {
+                // Versión de Room: la BD se abre sin migrar. Estadísticas para el planificador y fichero compacto
+                st.execute("PRAGMA user_version = " + database.get("version").getAsInt());
+                st.execute("ANALYZE");
+                st.execute("VACUUM");
+            }
+        }
+        System.out.println(String.format("BD GTFS: %d paradas, %d líneas, %d viajes, %d patrones, %d trazados, %d KB en %d ms",
+                feed.stops.size(), feed.routes.size(), feed.trips.size(), feed.patterns.size(), feed.shapes.size(),
+                output.length() / 1024, System.currentTimeMillis() - start));
+    }
+
+    /**
+     * SQL de creación del esquema exportado por Room, en el mismo orden en que lo ejecuta Room
+     */
+    private static List<String> schemaStatements(JsonObject database) {
+        List<String> out = new ArrayList<>();
+        for (JsonElement e : database.getAsJsonArray("entities")) {
+            JsonObject entity = e.getAsJsonObject();
+            String table = entity.get("tableName").getAsString();
+            out.add(withName(entity.get("createSql").getAsString(), "${TABLE_NAME}", table));
+            for (String key : new String[]{"indices", "contentSyncTriggers"}) {
+                JsonArray sqls = entity.getAsJsonArray(key);
+                if (sqls == null) continue;
+                for (JsonElement sql : sqls) {
+                    String text = sql.isJsonObject() ? sql.getAsJsonObject().get("createSql").getAsString() : sql.getAsString();
+                    out.add(withName(text, "${TABLE_NAME}", table));
+                }
+            }
+        }
+        JsonArray views = database.getAsJsonArray("views");
+        if (views != null) {
+            for (JsonElement e : views) {
+                JsonObject view = e.getAsJsonObject();
+                out.add(withName(view.get("createSql").getAsString(), "${VIEW_NAME}", view.get("viewName").getAsString()));
+            }
+        }
+        // Tabla de identidad de Room con el hash del esquema
+        for (JsonElement sql : database.getAsJsonArray("setupQueries")) out.add(sql.getAsString());
+        return out;
+    }
+
+    private static String withName(String sql, String placeholder, String name) {
+        return sql.replace(placeholder, name);
+    }
+
+    /**
+     * Inserta el feed con la misma política que {@code GtfsDao}: una fila repetida sustituye a la anterior
+     */
+    private static void insertFeed(Connection db, GtfsFeedReader.Feed feed) throws SQLException {
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_stops (stopKey, stopId, name, lat, lon) VALUES (?, ?, ?, ?, ?)")) {
+            for (GtfsStopEntity e : feed.stops) {
+                ps.setInt(1, e.stopKey);
+                ps.setString(2, e.stopId);
+                ps.setString(3, e.name);
+                ps.setDouble(4, e.lat);
+                ps.setDouble(5, e.lon);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_routes (routeKey, routeId, shortName, longName, color) VALUES (?, ?, ?, ?, ?)")) {
+            for (GtfsRouteEntity e : feed.routes) {
+                ps.setInt(1, e.routeKey);
+                ps.setString(2, e.routeId);
+                ps.setString(3, e.shortName);
+                ps.setString(4, e.longName);
+                ps.setString(5, e.color);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_shapes (shapeKey, shapeId, points) VALUES (?, ?, ?)")) {
+            for (GtfsShapeEntity e : feed.shapes) {
+                ps.setInt(1, e.shapeKey);
+                ps.setString(2, e.shapeId);
+                ps.setBytes(3, e.points);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_calendar (serviceKey, serviceId, monday, tuesday, wednesday, thursday, friday, "
+                        + "saturday, sunday, startDate, endDate) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (GtfsCalendarEntity e : feed.calendars) {
+                ps.setInt(1, e.serviceKey);
+                ps.setString(2, e.serviceId);
+                ps.setInt(3, e.monday);
+                ps.setInt(4, e.tuesday);
+                ps.setInt(5, e.wednesday);
+                ps.setInt(6, e.thursday);
+                ps.setInt(7, e.friday);
+                ps.setInt(8, e.saturday);
+                ps.setInt(9, e.sunday);
+                ps.setInt(10, e.startDate);
+                ps.setInt(11, e.endDate);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_calendar_dates (serviceKey, date, exceptionType) VALUES (?, ?, ?)")) {
+            for (GtfsCalendarDateEntity e : feed.calendarDates) {
+                ps.setInt(1, e.serviceKey);
+                ps.setInt(2, e.date);
+                ps.setInt(3, e.exceptionType);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_patterns (patternKey, routeKey, stopCount) VALUES (?, ?, ?)")) {
+            for (GtfsPatternEntity e : feed.patterns) {
+                ps.setInt(1, e.patternKey);
+                ps.setInt(2, e.routeKey);
+                ps.setInt(3, e.stopCount);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_pattern_stops (patternKey, stopIndex, stopKey) VALUES (?, ?, ?)")) {
+            for (GtfsPatternStopEntity e : feed.patternStops) {
+                ps.setInt(1, e.patternKey);
+                ps.setInt(2, e.stopIndex);
+                ps.setInt(3, e.stopKey);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_time_profiles (profileKey, patternKey, deltas) VALUES (?, ?, ?)")) {
+            for (GtfsTimeProfileEntity e : feed.timeProfiles) {
+                ps.setInt(1, e.profileKey);
+                ps.setInt(2, e.patternKey);
+                ps.setBytes(3, e.deltas);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_trips (tripKey, tripId, routeKey, serviceKey, tripHeadsign, patternKey, profileKey, "
+                        + "startSeconds, shapeKey) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (GtfsTripEntity e : feed.trips) {
+                ps.setInt(1, e.tripKey);
+                ps.setString(2, e.tripId);
+                ps.setInt(3, e.routeKey);
+                ps.setInt(4, e.serviceKey);
+                ps.setString(5, e.tripHeadsign);
+                ps.setInt(6, e.patternKey);
+                ps.setInt(7, e.profileKey);
+                ps.setInt(8, e.startSeconds);
+                ps.setInt(9, e.shapeKey);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        try (PreparedStatement ps = db.prepareStatement(
+                "INSERT OR REPLACE INTO gtfs_frequencies (tripKey, startSeconds, endSeconds, headwaySeconds, exactTimes) "
+                        + "VALUES (?, ?, ?, ?, ?)")) {
+            for (GtfsFrequencyEntity e : feed.frequencies) {
+                ps.setInt(1, e.tripKey);
+                ps.setInt(2, e.startSeconds);
+                ps.setInt(3, e.endSeconds);
+                ps.setInt(4, e.headwaySeconds);
+                ps.setInt(5, e.exactTimes);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.ourenbus2.tools;
+
+import com.example.ourenbus2.util.geo.PedestrianGraph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Genera la red peatonal que carga la app ({@link PedestrianGraph}) a partir de un extracto de OSM en
+ * XML (.osm) y, si se da, un modelo digital del terreno en ESRI ASCII grid (.asc, en grados WGS84) con
+ * el que se pone altitud a cada nodo para la función de Tobler. Se toman las vías por las que se puede
+ * andar y se deja solo la componente conexa más grande, para que ningún punto se ajuste a un trozo
+ * aislado de la red.
+ * <p>
+ * Uso: {@code PedestrianGraphCompiler <extracto.osm> [<mdt.asc>] <salida.graph>}
+ */
+public final class PedestrianGraphCompiler {
+
+    // Vías de OSM que no se pueden recorrer a pie aunque no lo digan sus etiquetas de acceso
+    private static final Set<String> EXCLUDED_HIGHWAYS = new HashSet<>(Arrays.asList(
+            "motorway", "motorway_link", "trunk", "trunk_link", "construction", "proposed", "abandoned",
+            "raceway", "bus_guideway", "escape", "busway"));
+    private static final Set<String> NO_ACCESS = new HashSet<>(Arrays.asList("no", "private", "military"));
+
+    private PedestrianGraphCompiler() { }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Uso: PedestrianGraphCompiler <extracto.osm> [<mdt.asc>] <salida.graph>");
+            System.exit(2);
+        }
+        File osmFile = new File(args[0]);
+        File demFile = args.length == 3 ? new File(args[1]) : null;
+        File output = new File(args[args.length - 1]);
+        File parent = output.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("No se puede crear " + parent);
+
+        long start = System.currentTimeMillis();
+        Extract extract;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(osmFile))) {
+            extract = readOsm(in);
+        }
+        Elevation elevation = null;
+        if (demFile != null) {
+            try (InputStream in = new FileInputStream(demFile)) {
+                elevation = Elevation.read(in);
+            }
+        }
+        long read = System.currentTimeMillis();
+
+        PedestrianGraph graph = build(extract, elevation);
+        try (OutputStream out = new FileOutputStream(output)) {
+            graph.write(out);
+        }
+        long end = System.currentTimeMillis();
+        System.out.println(String.format("Red peatonal: %d nodos, %d tramos (%d vías de %d nodos OSM), %s",
+                graph.getNodeCount(), graph.getEdgeCount(), extract.ways.size(), extract.nodes.size(),
+                elevation != null ? "con altitud" : "sin altitud"));
+        System.out.println(String.format("Red peatonal: %d KB, lectura %d ms, construcción %d ms",
+                output.length() / 1024, read - start, end - read));
+    }
+
+    /**
+     * Nodos y vías peatonales de un extracto de OSM
+     */
+    static final class Extract {
+        final Map<Long, double[]> nodes = new HashMap<>();  // id -> {lat, lon}
+        final List<long[]> ways = new ArrayList<>();
+    }
+
+    /**
+     * Lee los nodos y las vías por las que se puede andar de un extracto en XML
+     */
+    static Extract readOsm(InputStream in) throws IOException {
+        Extract extract = new Extract();
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader xml = factory.createXMLStreamReader(in, "UTF-8");
+            List<Long> refs = new ArrayList<>();
+            Map<String, String> tags = new HashMap<>();
+            boolean inWay = false;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = xml.getLocalName();
+                    if ("node".equals(name)) {
+                        long id = Long.parseLong(xml.getAttributeValue(null, "id"));
+                        double lat = Double.parseDouble(xml.getAttributeValue(null, "lat"));
+                        double lon = Double.parseDouble(xml.getAttributeValue(null, "lon"));
+                        extract.nodes.put(id, new double[]{lat, lon});
+                    } else if ("way".equals(name)) {
+                        inWay = true;
+                        refs.clear();
+                        tags.clear();
+                    } else if (inWay && "nd".equals(name)) {
+                        refs.add(Long.parseLong(xml.getAttributeValue(null, "ref")));
+                    } else if (inWay && "tag".equals(name)) {
+                        tags.put(xml.getAttributeValue(null, "k"), xml.getAttributeValue(null, "v"));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && "way".equals(xml.getLocalName())) {
+                    inWay = false;
+                    if (refs.size() >= 2 && isWalkable(tags)) {
+                        long[] way = new long[refs.size()];
+                        for (int i = 0; i < way.length; i++) way[i] = refs.get(i);
+                        extract.ways.add(way);
+                    }
+                }
+            }
+            xml.close();
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Extracto de OSM no válido: " + e.getMessage(), e);
+        }
+        return extract;
+    }
+
+    /**
+     * Si una vía con estas etiquetas se puede recorrer a pie
+     */
+    static boolean isWalkable(Map<String, String> tags) {
+        String highway = tags.get("highway");
+        if (highway == null || EXCLUDED_HIGHWAYS.contains(highway) || "yes".equals(tags.get("area"))) return false;
+        String foot = tags.get("foot");
+        if (foot != null) return !NO_ACCESS.contains(foot);
+        String access = tags.get("access");
+        return access == null || !NO_ACCESS.contains(access);
+    }
+
+    /**
+     * Red con los nodos de las vías peatonales que quedan en la componente conexa más grande
+     */
+    static PedestrianGraph build(Extract extract, Elevation elevation) {
+        // Índice compacto de los nodos usados por alguna vía (las referencias a nodos fuera del
+        // extracto cortan la vía)
+        Map<Long, Integer> index = new HashMap<>();
+        List<Long> ids = new ArrayList<>();
+        List<int[]> ways = new ArrayList<>();
+        for (long[] way : extract.ways) {
+            List<Integer> part = new ArrayList<>();
+            for (long ref : way) {
+                if (!extract.nodes.containsKey(ref)) {
+                    if (part.size() >= 2) ways.add(toArray(part));
+                    part.clear();
+                    continue;
+                }
+                Integer v = index.get(ref);
+                if (v == null) {
+                    v = index.size();
+                    index.put(ref, v);
+                    ids.add(ref);
+                }
+                part.add(v);
+            }
+            if (part.size() >= 2) ways.add(toArray(part));
+        }
+        int n = index.size();
+
+        // Componentes conexas por unión de conjuntos
+        int[] parent = new int[n];
+        for (int v = 0; v < n; v++) parent[v] = v;
+        for (int[] way : ways) {
+            for (int i = 0; i + 1 < way.length; i++) union(parent, way[i], way[i + 1]);
+        }
+        int[] size = new int[n];
+        int largest = -1;
+        for (int v = 0; v < n; v++) {
+            int root = find(parent, v);
+            if (++size[root] > (largest < 0 ? 0 : size[largest])) largest = root;
+        }
+
+        PedestrianGraph.Builder builder = new PedestrianGraph.Builder();
+        int[] node = new int[n];
+        Arrays.fill(node, -1);
+        for (int v = 0; v < n; v++) {
+            if (find(parent, v) != largest) continue;
+            double[] position = extract.nodes.get(ids.get(v));
+            double meters = elevation != null ? elevation.at(position[0], position[1]) : Double.NaN;
+            node[v] = builder.addNode(position[0], position[1], meters);
+        }
+        for (int[] way : ways) {
+            for (int i = 0; i + 1 < way.length; i++) {
+                int a = node[way[i]], b = node[way[i + 1]];
+                if (a >= 0 && b >= 0) builder.addSegment(a, b);
+            }
+        }
+        return builder.build();
+    }
+
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a), rb = find(parent, b);
+        if (ra != rb) parent[ra] = rb;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] out = new int[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        return out;
+    }
+
+    /**
+     * Modelo digital del terreno en ESRI ASCII grid con coordenadas en grados; interpola bilinealmente
+     * entre los centros de celda
+     */
+    static final class Elevation {
+        private final int cols, rows;
+        private final double west, south, cellSize;
+        private final float[] heights;  // fila 0 al norte, NaN sin dato
+
+        private Elevation(int cols, int rows, double west, double south, double cellSize, float[] heights) {
+            this.cols = cols;
+            this.rows = rows;
+            this.west = west;
+            this.south = south;
+            this.cellSize = cellSize;
+            this.heights = heights;
+        }
+
+        static Elevation read(InputStream in) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+            Map<String, String> header = new HashMap<>();
+            String line;
+            String[] firstRow = null;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length == 0 || fields[0].isEmpty()) continue;
+                if (!Character.isLetter(fields[0].charAt(0))) {
+                    firstRow = fields;
+                    break;
+                }
+                if (fields.length != 2) throw new IOException("Cabecera de MDT no válida: " + line);
+                header.put(fields[0].toLowerCase(), fields[1]);
+            }
+            try {
+                int cols = Integer.parseInt(header.get("ncols"));
+                int rows = Integer.parseInt(header.get("nrows"));
+                double cellSize = Double.parseDouble(header.get("cellsize"));
+                // Esquina inferior izquierda, dada por la esquina o por el centro de la celda
+                double west = header.containsKey("xllcorner") ? Double.parseDouble(header.get("xllcorner"))
+                        : Double.parseDouble(header.get("xllcenter")) - cellSize / 2;
+                double south = header.containsKey("yllcorner") ? Double.parseDouble(header.get("yllcorner"))
+                        : Double.parseDouble(header.get("yllcenter")) - cellSize / 2;
+                double noData = header.containsKey("nodata_value") ? Double.parseDouble(header.get("nodata_value")) : Double.NaN;
+                float[] heights = new float[cols * rows];
+                int filled = 0;
+                String[] fields = firstRow;
+                while (fields != null) {
+                    for (String field : fields) {
+                        if (field.isEmpty()) continue;
+                        if (filled == heights.length) throw new IOException("MDT con más datos que celdas");
+                        double value = Double.parseDouble(field);
+                        heights[filled++] = value == noData ? Float.NaN : (float) value;
+                    }
+                    line = reader.readLine();
+                    fields = line != null ? line.trim().split("\\s+") : null;
+                }
+                if (filled != heights.length) throw new IOException("MDT truncado: " + filled + " de " + heights.length + " celdas");
+                return new Elevation(cols, rows, west, south, cellSize, heights);
+            } catch (NullPointerException | NumberFormatException e) {
+                throw new IOException("MDT no válido", e);
+            }
+        }
+
+        /**
+         * Altitud en un punto, o NaN fuera del modelo o sin dato
+         */
+        double at(double lat, double lon) {
+            // Posición en celdas respecto al centro de la celda del noroeste
+            double x = (lon - west) / cellSize - 0.5;
+            double y = (south + rows * cellSize - lat) / cellSize - 0.5;
+            if (x < -0.5 || y < -0.5 || x > cols - 0.5 || y > rows - 0.5) return Double.NaN;
+            x = Math.max(0, Math.min(cols - 1, x));
+            y = Math.max(0, Math.min(rows - 1, y));
+            int c = Math.min((int) x, Math.max(0, cols - 2)), r = Math.min((int) y, Math.max(0, rows - 2));
+            int c1 = Math.min(c + 1, cols - 1), r1 = Math.min(r + 1, rows - 1);
+            double fx = x - c, fy = y - r;
+            double top = height(r, c) * (1 - fx) + height(r, c1) * fx;
+            double bottom = height(r1, c) * (1 - fx) + height(r1, c1) * fx;
+            return top * (1 - fy) + bottom * fy;
+        }
+
+        private double height(int row, int col) {
+            return heights[row * cols + col];
+        }
+    }
+}
@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "OurenBus2"
 include(":app")
+include(":gtfs-compiler")
  
\ No newline at end of file